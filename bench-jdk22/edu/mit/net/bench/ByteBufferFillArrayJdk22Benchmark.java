@@ -0,0 +1,15 @@
+package edu.mit.net.bench;
+
+import java.nio.ByteOrder;
+
+import org.openjdk.jmh.annotations.Param;
+
+/** FillArrayBenchmark for VarHandle byte[] views and MemorySegments: see FillerBenchmark. */
+public class ByteBufferFillArrayJdk22Benchmark extends FillArrayBenchmark {
+    @Param({"varhandle", "segment"})
+    public String kind;
+
+    protected BufferFiller newFiller(ByteOrder byteOrder) {
+        return ByteBufferJdk22Benchmark.newJdk22Filler(kind, size, byteOrder);
+    }
+}
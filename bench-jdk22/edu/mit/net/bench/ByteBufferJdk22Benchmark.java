@@ -0,0 +1,25 @@
+package edu.mit.net.bench;
+
+import java.nio.ByteOrder;
+
+import org.openjdk.jmh.annotations.Param;
+
+/** FillWriteBenchmark for VarHandle byte[] views and MemorySegments: see FillerBenchmark. */
+public class ByteBufferJdk22Benchmark extends FillWriteBenchmark {
+    @Param({"varhandle", "segment"})
+    public String kind;
+
+    protected BufferFiller newFiller(ByteOrder byteOrder) {
+        return newJdk22Filler(kind, size, byteOrder);
+    }
+
+    /** @returns a varhandle or segment filler. */
+    static BufferFiller newJdk22Filler(String kind, int size, ByteOrder byteOrder) {
+        if (kind.equals("varhandle")) {
+            return new VarHandleFiller(size, byteOrder);
+        } else if (kind.equals("segment")) {
+            return new SegmentFiller(size, byteOrder);
+        }
+        throw new IllegalArgumentException("unknown kind: " + kind);
+    }
+}
@@ -0,0 +1,58 @@
+package edu.mit.net.bench;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/** Fills native memory through the FFM MemorySegment API. The segment is owned by an automatic
+arena: JMH may run setup and the benchmark on different threads, which a confined arena forbids. */
+final class SegmentFiller implements BufferFiller {
+    private final MemorySegment segment;
+    private final ValueLayout.OfInt intLayout;
+    // Wraps the same memory so write() does not allocate a ByteBuffer each call
+    private final ByteBuffer view;
+
+    public SegmentFiller(int size, ByteOrder order) {
+        segment = Arena.ofAuto().allocate(size);
+        intLayout = ValueLayout.JAVA_INT_UNALIGNED.withOrder(order);
+        view = segment.asByteBuffer();
+    }
+
+    public void fillInt() {
+        int i = 0;
+        final long end = segment.byteSize() - Integer.BYTES;
+        for (long offset = 0; offset <= end; offset += Integer.BYTES) {
+            segment.set(intLayout, offset, i);
+            i += 1;
+        }
+    }
+
+    public void fillByte() {
+        byte i = 0;
+        final long end = segment.byteSize();
+        for (long offset = 0; offset < end; ++offset) {
+            segment.set(ValueLayout.JAVA_BYTE, offset, i);
+            i += 1;
+        }
+    }
+
+    public void fillArray(byte[] source) {
+        final long end = segment.byteSize() - source.length;
+        for (long offset = 0; offset <= end; offset += source.length) {
+            MemorySegment.copy(source, 0, segment, ValueLayout.JAVA_BYTE, offset, source.length);
+        }
+    }
+
+    public void write(FileOutputStream out) throws IOException {
+        view.clear();
+        while (view.hasRemaining()) {
+            out.getChannel().write(view);
+        }
+    }
+
+    public int bufferLength() { return (int) segment.byteSize(); }
+}
@@ -0,0 +1,62 @@
+package edu.mit.net.bench;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+/** Writes ints into a byte[] through a byteArrayViewVarHandle, which compiles to a single
+(possibly byte swapped) store instead of four shifted byte stores. */
+final class VarHandleFiller implements BufferFiller {
+    private static final VarHandle BE_INT =
+            MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.BIG_ENDIAN);
+    private static final VarHandle LE_INT =
+            MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private final byte[] buffer;
+    private final boolean bigEndian;
+
+    public VarHandleFiller(int size, ByteOrder order) {
+        buffer = new byte[size];
+        bigEndian = order == ByteOrder.BIG_ENDIAN;
+    }
+
+    public void fillInt() {
+        int i = 0;
+        final int end = buffer.length - Integer.BYTES;
+        // Separate loops so each one uses a constant VarHandle
+        if (bigEndian) {
+            for (int offset = 0; offset <= end; offset += Integer.BYTES) {
+                BE_INT.set(buffer, offset, i);
+                i += 1;
+            }
+        } else {
+            for (int offset = 0; offset <= end; offset += Integer.BYTES) {
+                LE_INT.set(buffer, offset, i);
+                i += 1;
+            }
+        }
+    }
+
+    public void fillByte() {
+        byte i = 0;
+        for (int offset = 0; offset < buffer.length; ++offset) {
+            buffer[offset] = i;
+            i += 1;
+        }
+    }
+
+    public void fillArray(byte[] source) {
+        final int end = buffer.length - source.length;
+        for (int offset = 0; offset <= end; offset += source.length) {
+            System.arraycopy(source, 0, buffer, offset, source.length);
+        }
+    }
+
+    public void write(FileOutputStream out) throws IOException {
+        out.write(buffer);
+    }
+
+    public int bufferLength() { return buffer.length; }
+}
@@ -0,0 +1,114 @@
+package edu.mit.net.bench;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/** One way of filling a fixed size block of memory and writing it to a file, as the Tester
+implementations in ByteBufferTest. The VarHandle and MemorySegment versions are in bench-jdk22,
+with the benchmarks that use them, so the rest of the benchmarks still build with older JDKs. */
+interface BufferFiller {
+    void fillInt();
+    void fillByte();
+    /** Copies source into the buffer as many times as it fits. */
+    void fillArray(byte[] source);
+    void write(FileOutputStream out) throws IOException;
+    int bufferLength();
+
+    static final class ByteBufferFiller implements BufferFiller {
+        private final ByteBuffer buffer;
+
+        public ByteBufferFiller(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        public void fillInt() {
+            buffer.clear();
+            int i = 0;
+            while (buffer.remaining() >= Integer.SIZE / 8) {
+                buffer.putInt(i);
+                i += 1;
+            }
+        }
+
+        public void fillByte() {
+            buffer.clear();
+            byte i = 0;
+            while (buffer.remaining() > 0) {
+                buffer.put(i);
+                i += 1;
+            }
+        }
+
+        public void fillArray(byte[] source) {
+            buffer.clear();
+            while (buffer.remaining() >= source.length) {
+                buffer.put(source);
+            }
+        }
+
+        public void write(FileOutputStream out) throws IOException {
+            buffer.clear();
+            while (buffer.hasRemaining()) {
+                out.getChannel().write(buffer);
+            }
+        }
+
+        public int bufferLength() { return buffer.capacity(); }
+    }
+
+    /** Encodes ints into a byte[] with shifts. */
+    static final class ByteArrayFiller implements BufferFiller {
+        private final byte[] buffer;
+        private final boolean bigEndian;
+
+        public ByteArrayFiller(int size, ByteOrder order) {
+            buffer = new byte[size];
+            bigEndian = order == ByteOrder.BIG_ENDIAN;
+        }
+
+        public void fillInt() {
+            int i = 0;
+            final int end = buffer.length - Integer.SIZE / 8;
+            if (bigEndian) {
+                for (int offset = 0; offset <= end; offset += 4) {
+                    buffer[offset] = (byte) (i >> 24);
+                    buffer[offset+1] = (byte) (i >> 16);
+                    buffer[offset+2] = (byte) (i >> 8);
+                    buffer[offset+3] = (byte) i;
+                    i += 1;
+                }
+            } else {
+                for (int offset = 0; offset <= end; offset += 4) {
+                    buffer[offset] = (byte) i;
+                    buffer[offset+1] = (byte) (i >> 8);
+                    buffer[offset+2] = (byte) (i >> 16);
+                    buffer[offset+3] = (byte) (i >> 24);
+                    i += 1;
+                }
+            }
+        }
+
+        public void fillByte() {
+            byte i = 0;
+            for (int offset = 0; offset < buffer.length; ++offset) {
+                buffer[offset] = i;
+                i += 1;
+            }
+        }
+
+        public void fillArray(byte[] source) {
+            final int end = buffer.length - source.length;
+            for (int offset = 0; offset <= end; offset += source.length) {
+                System.arraycopy(source, 0, buffer, offset, source.length);
+            }
+        }
+
+        public void write(FileOutputStream out) throws IOException {
+            out.write(buffer);
+        }
+
+        public int bufferLength() { return buffer.length; }
+    }
+}
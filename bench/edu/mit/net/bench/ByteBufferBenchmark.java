@@ -0,0 +1,15 @@
+package edu.mit.net.bench;
+
+import java.nio.ByteOrder;
+
+import org.openjdk.jmh.annotations.Param;
+
+/** FillWriteBenchmark for ByteBuffers and byte[]: see FillerBenchmark. */
+public class ByteBufferBenchmark extends FillWriteBenchmark {
+    @Param({"heap", "direct", "array"})
+    public String kind;
+
+    protected BufferFiller newFiller(ByteOrder byteOrder) {
+        return newJdkFiller(kind, size, byteOrder);
+    }
+}
@@ -0,0 +1,15 @@
+package edu.mit.net.bench;
+
+import java.nio.ByteOrder;
+
+import org.openjdk.jmh.annotations.Param;
+
+/** FillArrayBenchmark for ByteBuffers and byte[]: see FillerBenchmark. */
+public class ByteBufferFillArrayBenchmark extends FillArrayBenchmark {
+    @Param({"heap", "direct", "array"})
+    public String kind;
+
+    protected BufferFiller newFiller(ByteOrder byteOrder) {
+        return newJdkFiller(kind, size, byteOrder);
+    }
+}
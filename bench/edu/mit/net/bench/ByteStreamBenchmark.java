@@ -0,0 +1,223 @@
+package edu.mit.net.bench;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.mit.net.BufferedChannelWriter;
+import edu.mit.net.DirectBufferPool;
+
+/** JMH version of ByteStreamTest: each operation puts 1 MB of bytes or ints and flushes, so the
+megabytes metric is MB/s. sink is devnull (a FileChannel) or localhost (a blocking SocketChannel
+drained by another thread). kind is direct (ByteBuffer.put() into a direct buffer, written each
+time it fills), directarray (a byte[] copied into a direct buffer and written each time it
+fills) or writer (BufferedChannelWriter: the byte[] is copied into a pooled buffer and 16
+buffers go out in one gathering write). */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ByteStreamBenchmark {
+    private static final int BYTES_PER_OPERATION = 1 << 20;
+
+    @Param({"direct", "directarray", "writer"})
+    public String kind;
+
+    @Param({"byte", "int"})
+    public String put;
+
+    @Param({"devnull", "localhost"})
+    public String sink;
+
+    @Param({"4096"})
+    public int size;
+
+    private interface ByteStream {
+        void put(byte value) throws IOException;
+        void putInt(int value) throws IOException;
+        void flush() throws IOException;
+    }
+
+    private static final class DirectStream implements ByteStream {
+        DirectStream(GatheringByteChannel channel, int size) {
+            this.channel = channel;
+            buffer = ByteBuffer.allocateDirect(size);
+        }
+
+        public void put(byte value) throws IOException {
+            if (!buffer.hasRemaining()) flush();
+            buffer.put(value);
+        }
+
+        public void putInt(int value) throws IOException {
+            if (buffer.remaining() < 4) flush();
+            buffer.putInt(value);
+        }
+
+        public void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        private final GatheringByteChannel channel;
+        private final ByteBuffer buffer;
+    }
+
+    private static final class DirectArrayStream implements ByteStream {
+        DirectArrayStream(GatheringByteChannel channel, int size) {
+            this.channel = channel;
+            buffer = ByteBuffer.allocateDirect(size);
+            array = new byte[size];
+        }
+
+        public void put(byte value) throws IOException {
+            if (offset == array.length) flush();
+            array[offset] = value;
+            offset += 1;
+        }
+
+        public void putInt(int value) throws IOException {
+            if (array.length - offset < 4) flush();
+            array[offset] = (byte) (value >> 24);
+            array[offset+1] = (byte) (value >> 16);
+            array[offset+2] = (byte) (value >> 8);
+            array[offset+3] = (byte) value;
+            offset += 4;
+        }
+
+        public void flush() throws IOException {
+            buffer.clear();
+            buffer.put(array, 0, offset);
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            offset = 0;
+        }
+
+        private final GatheringByteChannel channel;
+        private final ByteBuffer buffer;
+        private final byte[] array;
+        private int offset;
+    }
+
+    private static final class WriterStream implements ByteStream {
+        WriterStream(GatheringByteChannel channel, int size) {
+            writer = new BufferedChannelWriter(channel, new DirectBufferPool(size, 32));
+            writer.order(ByteOrder.BIG_ENDIAN);
+        }
+
+        public void put(byte value) {
+            writer.put(value);
+        }
+
+        public void putInt(int value) {
+            writer.putInt(value);
+        }
+
+        public void flush() {
+            writer.flush();
+        }
+
+        private final BufferedChannelWriter writer;
+    }
+
+    private FileOutputStream file;
+    private ServerSocketChannel server;
+    private SocketChannel client;
+    private Thread drain;
+    private ByteStream stream;
+
+    @Setup
+    public void setUp() throws IOException {
+        GatheringByteChannel channel;
+        if (sink.equals("devnull")) {
+            file = new FileOutputStream("/dev/null");
+            channel = file.getChannel();
+        } else if (sink.equals("localhost")) {
+            server = ServerSocketChannel.open();
+            server.socket().bind(new InetSocketAddress(InetAddress.getByName(null), 0));
+            client = SocketChannel.open(new InetSocketAddress(InetAddress.getByName(null),
+                    server.socket().getLocalPort()));
+            final SocketChannel accepted = server.accept();
+            drain = new Thread() {
+                public void run() {
+                    ByteBuffer buffer = ByteBuffer.allocateDirect(65536);
+                    try {
+                        while (accepted.read(buffer) >= 0) {
+                            buffer.clear();
+                        }
+                        accepted.close();
+                    } catch (IOException e) {
+                        // Closed by tearDown()
+                    }
+                }
+            };
+            drain.setDaemon(true);
+            drain.start();
+            channel = client;
+        } else {
+            throw new IllegalArgumentException("sink must be devnull or localhost: " + sink);
+        }
+
+        if (kind.equals("direct")) {
+            stream = new DirectStream(channel, size);
+        } else if (kind.equals("directarray")) {
+            stream = new DirectArrayStream(channel, size);
+        } else if (kind.equals("writer")) {
+            stream = new WriterStream(channel, size);
+        } else {
+            throw new IllegalArgumentException("unknown kind: " + kind);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException, InterruptedException {
+        if (file != null) file.close();
+        if (client != null) {
+            client.close();
+            drain.join();
+            server.close();
+        }
+    }
+
+    @Benchmark
+    public void write(Megabytes counter) throws IOException {
+        if (put.equals("byte")) {
+            for (int i = 0; i < BYTES_PER_OPERATION; ++i) {
+                stream.put((byte) i);
+            }
+        } else {
+            for (int i = 0; i < BYTES_PER_OPERATION / 4; ++i) {
+                stream.putInt(i);
+            }
+        }
+        stream.flush();
+        counter.megabytes += BYTES_PER_OPERATION / (double) (1 << 20);
+    }
+}
@@ -0,0 +1,21 @@
+package edu.mit.net.bench;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/** Counts the UTF-16 characters a benchmark converts. JMH reports chars as a rate next to the
+primary result, so with a microsecond time unit it is the "chars per us" the old main() loops
+printed. */
+@State(Scope.Thread)
+@AuxCounters(AuxCounters.Type.OPERATIONS)
+public class Characters {
+    public long chars;
+
+    @Setup(Level.Iteration)
+    public void clear() {
+        chars = 0;
+    }
+}
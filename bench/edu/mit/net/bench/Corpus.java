@@ -0,0 +1,121 @@
+package edu.mit.net.bench;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Random;
+
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import edu.mit.net.StringEncoder;
+
+/** The strings the codec benchmarks encode or decode. charset is either a file with one string per
+line (utf8.txt, like the Python scripts) or one of the synthetic alphabets from
+stringbytebuffer.py, in which case stringLength sets the number of characters in each string. */
+@State(Scope.Benchmark)
+public class Corpus {
+    static final int NUM_STRINGS = 1000;
+    // Same seed for every fork so runs of the same parameters see the same strings
+    private static final long SEED = 42;
+
+    // All printable ASCII characters (minus tab and new line)
+    private static final String SINGLE_BYTE = range(32, 127);
+    // Two byte UTF-8 characters (Latin-1 supplement)
+    private static final String TWO_BYTE = range(0x00c0, 0x0100);
+    // three byte UTF-8 (Hiragana)
+    private static final String THREE_BYTE = range(0x3041, 0x3095);
+    // four byte (Ancient Greek Numbers)
+    private static final String FOUR_BYTE = range(0x10140, 0x1018b);
+    // Fraction of two byte characters in the 1.1byte alphabet
+    private static final double MIXED_PERCENTAGE = 0.10;
+
+    @Param({"utf8.txt"})
+    public String charset;
+
+    @Param({"64"})
+    public int stringLength;
+
+    public String[] strings;
+    /** strings encoded with a 4 byte big endian length prefix, as StringEncoder.encodeBatch(). */
+    public ByteBuffer encoded;
+    public long totalCharacters;
+
+    @Setup
+    public void setUp() throws IOException {
+        ArrayList<String> values;
+        if (charset.equals("1byte")) {
+            values = generate(SINGLE_BYTE, null);
+        } else if (charset.equals("1.1byte")) {
+            values = generate(SINGLE_BYTE, TWO_BYTE);
+        } else if (charset.equals("2byte")) {
+            values = generate(TWO_BYTE, null);
+        } else if (charset.equals("3byte")) {
+            values = generate(THREE_BYTE, null);
+        } else if (charset.equals("4byte")) {
+            values = generate(FOUR_BYTE, null);
+        } else {
+            values = read(charset);
+        }
+        strings = values.toArray(new String[values.size()]);
+
+        int bytes = 0;
+        totalCharacters = 0;
+        for (String value : strings) {
+            bytes += 4 + StringEncoder.encodedLength(value);
+            totalCharacters += value.length();
+        }
+        encoded = ByteBuffer.allocate(bytes);
+        int next = new StringEncoder().encodeBatch(strings, 0, encoded);
+        assert next == strings.length;
+        encoded.flip();
+    }
+
+    private ArrayList<String> generate(String alphabet, String mixed) {
+        Random random = new Random(SEED);
+        ArrayList<String> out = new ArrayList<String>(NUM_STRINGS);
+        for (int i = 0; i < NUM_STRINGS; ++i) {
+            StringBuilder s = new StringBuilder(stringLength);
+            // Count code points: four byte characters are two UTF-16 chars
+            for (int j = 0; j < stringLength; ++j) {
+                String source = alphabet;
+                if (mixed != null && random.nextDouble() < MIXED_PERCENTAGE) {
+                    source = mixed;
+                }
+                int index = source.offsetByCodePoints(
+                        0, random.nextInt(source.codePointCount(0, source.length())));
+                s.appendCodePoint(source.codePointAt(index));
+            }
+            out.add(s.toString());
+        }
+        return out;
+    }
+
+    private static ArrayList<String> read(String path) throws IOException {
+        ArrayList<String> out = new ArrayList<String>();
+        BufferedReader reader =
+                new BufferedReader(new InputStreamReader(new FileInputStream(path), "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                out.add(line);
+            }
+        } finally {
+            reader.close();
+        }
+        return out;
+    }
+
+    private static String range(int first, int end) {
+        StringBuilder out = new StringBuilder();
+        for (int i = first; i < end; ++i) {
+            out.appendCodePoint(i);
+        }
+        return out.toString();
+    }
+}
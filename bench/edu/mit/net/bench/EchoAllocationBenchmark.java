@@ -0,0 +1,108 @@
+package edu.mit.net.bench;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.mit.net.MessageListener;
+import edu.mit.net.NIOMessageListener;
+
+/** Echoes one message through an NIOMessageListener on the benchmark thread, the way SelectServer
+does, over a loopback connection. Running everything on one thread means gc.alloc.rate.norm from
+-prof gc is the bytes allocated per message echoed. The client reuses its buffers, so all of it
+is the listener's: the message, the Event and whatever the selector allocates.
+
+idleTimeoutMs=30000 reschedules the connection's idle timeout on every message, against 0, no
+timeouts.
+
+selectedKeys=array needs --add-opens java.base/sun.nio.ch=ALL-UNNAMED on JDK 9+; pass it with
+-jvmArgsAppend. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EchoAllocationBenchmark {
+    @Param({"array", "hashset"})
+    public String selectedKeys;
+
+    @Param({"16", "1024"})
+    public int size;
+
+    @Param({"0", "30000"})
+    public long idleTimeoutMs;
+
+    private NIOMessageListener listener;
+    private SocketChannel client;
+    private ByteBuffer request;
+    private ByteBuffer response;
+
+    @Setup
+    public void setUp() throws IOException {
+        listener = new NIOMessageListener(selectedKeys.equals("array"));
+        if (selectedKeys.equals("array") && !listener.usesArraySelectedKeys()) {
+            throw new IllegalStateException("the selector does not allow replacing its selected " +
+                    "keys: on JDK 9+ add --add-opens java.base/sun.nio.ch=ALL-UNNAMED");
+        }
+        listener.bind(0);
+        listener.setIdleTimeout(idleTimeoutMs, TimeUnit.MILLISECONDS);
+        client = SocketChannel.open(
+                new InetSocketAddress(InetAddress.getByName(null), listener.getLocalPort()));
+        client.socket().setTcpNoDelay(true);
+        MessageListener.Event e = listener.blockForNextEvent();
+        if (e == null || e.message != null) throw new IllegalStateException("expected a connection");
+
+        request = ByteBuffer.allocateDirect(4 + size);
+        request.order(ByteOrder.LITTLE_ENDIAN);
+        request.putInt(size);
+        for (int i = 0; i < size; ++i) {
+            request.put((byte) i);
+        }
+        response = ByteBuffer.allocateDirect(4 + size);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        client.close();
+        listener.close();
+    }
+
+    @Benchmark
+    public byte echo() throws IOException {
+        request.flip();
+        while (request.hasRemaining()) {
+            client.write(request);
+        }
+        request.limit(request.capacity());
+
+        MessageListener.Event e;
+        while ((e = listener.blockForNextEvent()) == null || e.message == null) {
+            if (e != null) throw new IllegalStateException("connection closed");
+        }
+        e.connection.write(e.message);
+
+        response.clear();
+        while (response.hasRemaining()) {
+            if (client.read(response) < 0) throw new IllegalStateException("connection closed");
+        }
+        return response.get(4);
+    }
+}
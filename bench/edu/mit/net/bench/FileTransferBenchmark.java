@@ -0,0 +1,133 @@
+package edu.mit.net.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.mit.net.NIOMessageConnection;
+
+/** Sends a file as one message over a loopback connection, with write(FileChannel, ...) or by
+reading it into a byte[] and calling write(byte[]). A thread on the other end discards the data.
+Each operation waits until the connection has handed the whole message to the kernel; the
+megabytes metric is the MB/s. The file is written once per trial, so it is in the page cache. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FileTransferBenchmark {
+    @Param({"65536", "1048576", "16777216", "67108864"})
+    public int size;
+
+    private File file;
+    private FileChannel fileChannel;
+    private NIOMessageConnection connection;
+    private Selector selector;
+    private Thread sink;
+    private byte[] copy;
+    private double megabytes;
+
+    /** Reads and discards everything from a blocking channel until it is closed. */
+    private static final class Sink implements Runnable {
+        public Sink(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        public void run() {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20);
+            try {
+                while (channel.read(buffer) >= 0) {
+                    buffer.clear();
+                }
+                channel.close();
+            } catch (IOException e) { throw new RuntimeException(e); }
+        }
+
+        private final SocketChannel channel;
+    }
+
+    @Setup
+    public void setUp() throws IOException {
+        file = File.createTempFile("FileTransferBenchmark", ".dat");
+        file.deleteOnExit();
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        byte[] block = new byte[65536];
+        for (int i = 0; i < block.length; ++i) {
+            block[i] = (byte) i;
+        }
+        for (int written = 0; written < size; written += block.length) {
+            raf.write(block, 0, Math.min(block.length, size - written));
+        }
+        fileChannel = raf.getChannel();
+        copy = new byte[size];
+        megabytes = size / (double) (1 << 20);
+
+        ServerSocketChannel server = ServerSocketChannel.open();
+        server.socket().bind(new InetSocketAddress(InetAddress.getByName(null), 0));
+        SocketChannel client = SocketChannel.open(
+                new InetSocketAddress(InetAddress.getByName(null), server.socket().getLocalPort()));
+        sink = new Thread(new Sink(server.accept()));
+        sink.start();
+        server.close();
+
+        connection = new NIOMessageConnection(client);
+        selector = Selector.open();
+        connection.register(selector);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException, InterruptedException {
+        connection.close();
+        sink.join();
+        selector.close();
+        fileChannel.close();
+        file.delete();
+    }
+
+    private void finishWrites() throws IOException {
+        while (!connection.handleWrite()) {
+            selector.select();
+            selector.selectedKeys().clear();
+        }
+    }
+
+    @Benchmark
+    public void transfer(Megabytes counter) throws IOException {
+        connection.write(fileChannel, 0, size);
+        finishWrites();
+        counter.megabytes += megabytes;
+    }
+
+    @Benchmark
+    public void copy(Megabytes counter) throws IOException {
+        ByteBuffer wrapper = ByteBuffer.wrap(copy);
+        while (wrapper.hasRemaining()) {
+            fileChannel.read(wrapper, wrapper.position());
+        }
+        connection.write(copy);
+        finishWrites();
+        counter.megabytes += megabytes;
+    }
+}
@@ -0,0 +1,54 @@
+package edu.mit.net.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+
+/** Copies a source array of 1 to 4096 bytes into the buffer as many times as it fits: see
+FillerBenchmark. The sizes start at the largest source, so every method fills something. They
+count the bytes copied, which is less than the buffer when its size is not a multiple of the
+source. */
+public abstract class FillArrayBenchmark extends FillerBenchmark {
+    @Param({"4096", "8188", "8192", "8196", "16384", "65536", "1048576", "16777216"})
+    public int size;
+
+    private final byte[] array1 = new byte[1];
+    private final byte[] array8 = new byte[8];
+    private final byte[] array64 = new byte[64];
+    private final byte[] array1024 = new byte[1024];
+    private final byte[] array4096 = new byte[4096];
+
+    /** @returns the megabytes one fillArray(source) copies. */
+    private double copied(byte[] source) {
+        return (size / source.length) * source.length / (double) (1 << 20);
+    }
+
+    @Benchmark
+    public void fillArray1(Megabytes counter) {
+        filler.fillArray(array1);
+        counter.megabytes += copied(array1);
+    }
+
+    @Benchmark
+    public void fillArray8(Megabytes counter) {
+        filler.fillArray(array8);
+        counter.megabytes += copied(array8);
+    }
+
+    @Benchmark
+    public void fillArray64(Megabytes counter) {
+        filler.fillArray(array64);
+        counter.megabytes += copied(array64);
+    }
+
+    @Benchmark
+    public void fillArray1024(Megabytes counter) {
+        filler.fillArray(array1024);
+        counter.megabytes += copied(array1024);
+    }
+
+    @Benchmark
+    public void fillArray4096(Megabytes counter) {
+        filler.fillArray(array4096);
+        counter.megabytes += copied(array4096);
+    }
+}
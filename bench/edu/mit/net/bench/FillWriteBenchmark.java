@@ -0,0 +1,39 @@
+package edu.mit.net.bench;
+
+import java.io.IOException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+
+/** Fills or writes the whole buffer: see FillerBenchmark. The sizes are bytebuffer.py's, including
+the ones that are not a multiple of an int, plus smaller and larger ones. */
+public abstract class FillWriteBenchmark extends FillerBenchmark {
+    @Param({"64", "256", "1024", "2048", "4096", "8188", "8192", "8196", "16384", "65536",
+            "1048576", "16777216"})
+    public int size;
+
+    @Benchmark
+    public void write(Megabytes counter) throws IOException {
+        filler.write(out);
+        counter.megabytes += megabytes;
+    }
+
+    @Benchmark
+    public void fillInt(Megabytes counter) {
+        filler.fillInt();
+        counter.megabytes += megabytes;
+    }
+
+    @Benchmark
+    public void fillByte(Megabytes counter) {
+        filler.fillByte();
+        counter.megabytes += megabytes;
+    }
+
+    @Benchmark
+    public void fillWrite(Megabytes counter) throws IOException {
+        filler.fillByte();
+        filler.write(out);
+        counter.megabytes += megabytes;
+    }
+}
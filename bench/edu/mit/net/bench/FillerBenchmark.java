@@ -0,0 +1,80 @@
+package edu.mit.net.bench;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** JMH version of ByteBufferTest. Each method fills or writes the buffer once per operation and
+counts megabytes, so the megabytes metric is the MB/s in results/fill_int.csv and friends.
+jmhresults.py --split writes one CSV per method in that format, with the rows of every kind.
+
+FillWriteBenchmark and FillArrayBenchmark choose the methods and sizes; their subclasses choose
+the kinds. ByteBufferBenchmark and ByteBufferFillArrayBenchmark have heap or direct (ByteBuffer)
+and array (byte[] with shifts). ByteBufferJdk22Benchmark and ByteBufferFillArrayJdk22Benchmark
+have varhandle (byte[] with a byteArrayViewVarHandle) and segment (MemorySegment); they are in
+bench-jdk22, which the bench target only builds when running on JDK 22 or later. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public abstract class FillerBenchmark {
+    @Param({"be", "le"})
+    public String order;
+
+    protected BufferFiller filler;
+    protected FileOutputStream out;
+    protected double megabytes;
+
+    /** @returns the filler for this trial's kind and size. */
+    protected abstract BufferFiller newFiller(ByteOrder byteOrder);
+
+    /** @returns a heap, direct or array filler. */
+    protected static BufferFiller newJdkFiller(String kind, int size, ByteOrder byteOrder) {
+        if (kind.equals("heap")) {
+            return new BufferFiller.ByteBufferFiller(ByteBuffer.allocate(size).order(byteOrder));
+        } else if (kind.equals("direct")) {
+            return new BufferFiller.ByteBufferFiller(
+                    ByteBuffer.allocateDirect(size).order(byteOrder));
+        } else if (kind.equals("array")) {
+            return new BufferFiller.ByteArrayFiller(size, byteOrder);
+        }
+        throw new IllegalArgumentException("unknown kind: " + kind);
+    }
+
+    @Setup
+    public void setUp() throws IOException {
+        ByteOrder byteOrder;
+        if (order.equals("be")) {
+            byteOrder = ByteOrder.BIG_ENDIAN;
+        } else if (order.equals("le")) {
+            byteOrder = ByteOrder.LITTLE_ENDIAN;
+        } else {
+            throw new IllegalArgumentException("order must be be or le: " + order);
+        }
+
+        filler = newFiller(byteOrder);
+        megabytes = filler.bufferLength() / (double) (1 << 20);
+        out = new FileOutputStream("/dev/null");
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        out.close();
+    }
+}
@@ -0,0 +1,20 @@
+package edu.mit.net.bench;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/** Counts the megabytes (2^20 bytes) a benchmark fills or writes. With a seconds time unit JMH
+reports it as MB/s, the unit of the old ByteBufferTest output. */
+@State(Scope.Thread)
+@AuxCounters(AuxCounters.Type.OPERATIONS)
+public class Megabytes {
+    public double megabytes;
+
+    @Setup(Level.Iteration)
+    public void clear() {
+        megabytes = 0;
+    }
+}
@@ -0,0 +1,162 @@
+package edu.mit.net.bench;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ReadableByteChannel;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.mit.net.NIOReadStream;
+import edu.mit.net.ReadCursor;
+
+/** Parses 64 KB of structured messages from an NIOReadStream per operation: cursor reads the
+fields in place with a ReadCursor; copy copies each message out with getBytes(), as
+NIOMessageConnection does, then parses a ByteBuffer wrapping it. The bytes come from memory, so
+the time is the parsing and copying alone.
+
+A message is: int length, short type, long timestamp, int id, a varint count, count varint
+values, short name length, then the name. Some cross the stream's 4 KB blocks. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParseBenchmark {
+    private static final int BATCH_BYTES = 65536;
+
+    @Param({"cursor", "copy"})
+    public String parse;
+
+    @Param({"4", "64"})
+    public int values;
+
+    /** Returns the same batch of messages every time it is rewound. */
+    private static final class BatchChannel implements ReadableByteChannel {
+        BatchChannel(ByteBuffer batch) {
+            this.batch = batch;
+        }
+
+        public int read(ByteBuffer destination) {
+            if (!batch.hasRemaining()) return 0;
+            ByteBuffer piece = batch.duplicate();
+            int count = Math.min(piece.remaining(), destination.remaining());
+            piece.limit(piece.position() + count);
+            destination.put(piece);
+            batch.position(batch.position() + count);
+            return count;
+        }
+
+        public boolean isOpen() { return true; }
+        public void close() {}
+
+        final ByteBuffer batch;
+    }
+
+    private BatchChannel channel;
+    private NIOReadStream stream;
+    private int messages;
+
+    private static void putVarint(ByteBuffer buffer, long value) {
+        while ((value & ~0x7fL) != 0) {
+            buffer.put((byte) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    @Setup
+    public void setUp() {
+        ByteBuffer message = ByteBuffer.allocate(4096);
+        message.order(ByteOrder.LITTLE_ENDIAN);
+        message.putShort((short) 7);
+        message.putLong(System.currentTimeMillis());
+        message.putInt(42);
+        putVarint(message, values);
+        for (int i = 0; i < values; ++i) {
+            // One to three bytes each
+            putVarint(message, i * 997);
+        }
+        byte[] name = "edu.mit.net.bench.ParseBenchmark".getBytes();
+        message.putShort((short) name.length);
+        message.put(name);
+        message.flip();
+
+        messages = BATCH_BYTES / (4 + message.remaining());
+        ByteBuffer batch = ByteBuffer.allocate(messages * (4 + message.remaining()));
+        batch.order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < messages; ++i) {
+            batch.putInt(message.remaining());
+            batch.put(message.duplicate());
+        }
+        batch.flip();
+        channel = new BatchChannel(batch);
+        stream = new NIOReadStream(channel);
+    }
+
+    @Benchmark
+    public long read() {
+        channel.batch.rewind();
+        stream.tryRead(channel.batch.remaining());
+        long sum = 0;
+        for (int i = 0; i < messages; ++i) {
+            if (parse.equals("cursor")) {
+                sum += parseInPlace();
+            } else {
+                sum += parseCopy();
+            }
+        }
+        return sum;
+    }
+
+    private long parseInPlace() {
+        ReadCursor cursor = stream.cursor();
+        cursor.getInt();
+        long sum = cursor.getShort() + cursor.getLong() + cursor.getInt();
+        long count = cursor.getVarint();
+        for (long i = 0; i < count; ++i) {
+            sum += cursor.getVarint();
+        }
+        int nameLength = cursor.getShort();
+        ByteBuffer name = cursor.slice(nameLength);
+        sum += name.get(name.limit() - 1);
+        cursor.commit();
+        return sum;
+    }
+
+    private static long getVarint(ByteBuffer buffer) {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = buffer.get();
+            value |= (b & 0x7fL) << shift;
+            if (b >= 0) return value;
+        }
+    }
+
+    private long parseCopy() {
+        byte[] bytes = new byte[stream.getInt()];
+        stream.getBytes(bytes);
+        ByteBuffer message = ByteBuffer.wrap(bytes);
+        message.order(ByteOrder.LITTLE_ENDIAN);
+        long sum = message.getShort() + message.getLong() + message.getInt();
+        long count = getVarint(message);
+        for (long i = 0; i < count; ++i) {
+            sum += getVarint(message);
+        }
+        int nameLength = message.getShort();
+        ByteBuffer name = message.slice();
+        sum += name.get(nameLength - 1);
+        return sum;
+    }
+}
@@ -0,0 +1,116 @@
+package edu.mit.net.bench;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.mit.net.NIOReadStream;
+import edu.mit.net.ReadStream;
+import edu.mit.net.RingReadStream;
+
+/** Reads 64 KB of length-prefixed messages from a loopback socket per operation, the way
+NIOMessageConnection.tryRead() parses them. stream is blocks (NIOReadStream: 4 KB blocks, so at
+least 16 reads per batch, and a copy into the message for each block it spans), ring
+(RingReadStream.getBytes()) or slice (RingReadStream.getSlice(): no copy). The client writes each
+batch before it is read, so every read returns as much as the stream asks for. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReadStreamBenchmark {
+    private static final int BATCH_BYTES = 65536;
+
+    @Param({"blocks", "ring", "slice"})
+    public String stream;
+
+    @Param({"16", "1024", "6000"})
+    public int size;
+
+    private SocketChannel client;
+    private ReadStream readStream;
+    private ByteBuffer batch;
+    private int messages;
+
+    @Setup
+    public void setUp() throws IOException {
+        ServerSocketChannel server = ServerSocketChannel.open();
+        server.socket().bind(new InetSocketAddress(InetAddress.getByName(null), 0));
+        client = SocketChannel.open(new InetSocketAddress(InetAddress.getByName(null),
+                server.socket().getLocalPort()));
+        SocketChannel accepted = server.accept();
+        server.close();
+        accepted.configureBlocking(false);
+        if (stream.equals("blocks")) {
+            readStream = new NIOReadStream(accepted);
+        } else {
+            // Large enough for the batch, as a busy connection's ring would grow to be
+            readStream = new RingReadStream(accepted, BATCH_BYTES);
+        }
+
+        messages = BATCH_BYTES / (4 + size);
+        batch = ByteBuffer.allocateDirect(messages * (4 + size));
+        batch.order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < messages; ++i) {
+            batch.putInt(size);
+            for (int j = 0; j < size; ++j) {
+                batch.put((byte) j);
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        client.close();
+        readStream.close();
+    }
+
+    private void waitFor(int bytes) {
+        while (readStream.tryRead(bytes) < bytes) {
+            // The client's write is still on its way
+        }
+    }
+
+    @Benchmark
+    public int read() throws IOException {
+        batch.clear();
+        while (batch.hasRemaining()) {
+            client.write(batch);
+        }
+
+        int sum = 0;
+        for (int i = 0; i < messages; ++i) {
+            waitFor(4);
+            int length = readStream.getInt();
+            waitFor(length);
+            if (stream.equals("slice")) {
+                ByteBuffer message = ((RingReadStream) readStream).getSlice(length);
+                sum += message.get(length - 1);
+            } else {
+                byte[] message = new byte[length];
+                readStream.getBytes(message);
+                sum += message[length - 1];
+            }
+        }
+        return sum;
+    }
+}
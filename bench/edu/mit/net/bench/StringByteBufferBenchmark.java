@@ -0,0 +1,128 @@
+package edu.mit.net.bench;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import edu.mit.net.BufferSizing;
+import edu.mit.net.EncodedStringCache;
+import edu.mit.net.StringByteBufferEncoder;
+import edu.mit.net.StringEncoder;
+import edu.mit.net.StringReflectByteBufferEncoder;
+
+/** JMH version of StringByteBufferPerformance: encodes every string in the corpus to a new
+ByteBuffer. Run it over the synthetic charsets and string lengths to reproduce
+stringbytebuffer.py, e.g. -p charset=1byte,1.1byte,2byte,3byte,4byte -p stringLength=8,64,1024 */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class StringByteBufferBenchmark {
+    private interface Encoder {
+        ByteBuffer encodeToNewBuffer(String source);
+    }
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final class JDKEncoder implements Encoder {
+        public ByteBuffer encodeToNewBuffer(String source) {
+            return ByteBuffer.wrap(source.getBytes(UTF8));
+        }
+    }
+
+    private static final class GenericEncoder implements Encoder {
+        private final StringEncoder encoder = new StringEncoder();
+
+        public GenericEncoder(BufferSizing sizing) {
+            encoder.setSizing(sizing);
+        }
+
+        public ByteBuffer encodeToNewBuffer(String source) {
+            return encoder.toNewByteBuffer(source);
+        }
+    }
+
+    private static final class ByteBufferEncoder implements Encoder {
+        private final StringByteBufferEncoder encoder = new StringByteBufferEncoder();
+
+        public ByteBufferEncoder(BufferSizing sizing) {
+            encoder.setSizing(sizing);
+        }
+
+        public ByteBuffer encodeToNewBuffer(String source) {
+            return encoder.toNewByteBuffer(source);
+        }
+    }
+
+    private static final class ReflectEncoder implements Encoder {
+        private final StringReflectByteBufferEncoder encoder = new StringReflectByteBufferEncoder();
+
+        public ByteBuffer encodeToNewBuffer(String source) {
+            return encoder.toNewByteBuffer(source);
+        }
+    }
+
+    private static final class CachedEncoder implements Encoder {
+        private final EncodedStringCache cache;
+
+        public CachedEncoder(long maxBytes) {
+            cache = new EncodedStringCache(maxBytes);
+        }
+
+        public ByteBuffer encodeToNewBuffer(String source) {
+            return cache.get(source);
+        }
+    }
+
+    /** generic and bytebuffer take a BufferSizing suffix, as in StringByteBufferPerformance.
+    reflect is not run by default: it needs the String.offset field removed in JDK 7u6. */
+    @Param({"jdk", "generic", "generic-guess", "generic-exact", "bytebuffer", "cached"})
+    public String encoder;
+
+    @Param({"65536"})
+    public long cacheBytes;
+
+    private Encoder utf8;
+
+    @Setup
+    public void setUp() {
+        String name = encoder;
+        BufferSizing sizing = BufferSizing.ADAPTIVE;
+        int dash = name.indexOf('-');
+        if (dash >= 0) {
+            sizing = BufferSizing.valueOf(name.substring(dash+1).toUpperCase());
+            name = name.substring(0, dash);
+        }
+
+        if (name.equals("jdk")) {
+            utf8 = new JDKEncoder();
+        } else if (name.equals("generic")) {
+            utf8 = new GenericEncoder(sizing);
+        } else if (name.equals("bytebuffer")) {
+            utf8 = new ByteBufferEncoder(sizing);
+        } else if (name.equals("reflect")) {
+            utf8 = new ReflectEncoder();
+        } else if (name.equals("cached")) {
+            utf8 = new CachedEncoder(cacheBytes);
+        } else {
+            throw new IllegalArgumentException("unknown encoder: " + encoder);
+        }
+    }
+
+    @Benchmark
+    public void bytebuffer(Corpus corpus, Characters counter, Blackhole blackhole) {
+        for (String value : corpus.strings) {
+            blackhole.consume(utf8.encodeToNewBuffer(value));
+        }
+        counter.chars += corpus.totalCharacters;
+    }
+}
@@ -0,0 +1,192 @@
+package edu.mit.net.bench;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import edu.mit.net.DecodedStringCache;
+import edu.mit.net.StringDecoder;
+
+/** JMH version of StringDecodingTest: decodes every length prefixed string in the corpus per
+operation, either one string at a time (single) or with one decodeBatch() call (batch). */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class StringDecodingBenchmark {
+    private interface UTF8Decoder {
+        String decode(byte[] source, int offset, int length);
+
+        /** Decodes all the length prefixed strings in source. */
+        String[] decodeBatch(ByteBuffer source);
+
+        UTF8Decoder newInstance();
+    }
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /** The batch decoding you get without a batch API: one decode() per string. */
+    private static String[] decodeBatchEach(UTF8Decoder decoder, ByteBuffer source) {
+        int count = 0;
+        for (int offset = source.position(); offset < source.limit();
+                offset += 4 + source.getInt(offset)) {
+            count += 1;
+        }
+
+        String[] out = new String[count];
+        for (int i = 0; i < count; ++i) {
+            int length = source.getInt();
+            out[i] = decoder.decode(source.array(), source.position(), length);
+            source.position(source.position() + length);
+        }
+        return out;
+    }
+
+    /** CharsetDecoder.decode() into a CharBuffer large enough for any string in the corpus. */
+    private static final class UTF8CharsetDecoder implements UTF8Decoder {
+        private final CharsetDecoder decoder = UTF8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        private final CharBuffer outBuffer;
+
+        public UTF8CharsetDecoder(int maxChars) {
+            outBuffer = CharBuffer.allocate(maxChars);
+        }
+
+        public String decode(byte[] source, int offset, int length) {
+            outBuffer.clear();
+            decoder.reset();
+            CoderResult result = decoder.decode(
+                    ByteBuffer.wrap(source, offset, length), outBuffer, true);
+            assert result == CoderResult.UNDERFLOW;
+            result = decoder.flush(outBuffer);
+            assert result == CoderResult.UNDERFLOW;
+            return new String(outBuffer.array(), 0, outBuffer.position());
+        }
+
+        public String[] decodeBatch(ByteBuffer source) {
+            return decodeBatchEach(this, source);
+        }
+
+        public UTF8Decoder newInstance() {
+            return new UTF8CharsetDecoder(outBuffer.capacity());
+        }
+    }
+
+    /** new String(byte[], int, int, Charset). */
+    private static final class JDKStringDecoder implements UTF8Decoder {
+        public String decode(byte[] source, int offset, int length) {
+            return new String(source, offset, length, UTF8);
+        }
+
+        public String[] decodeBatch(ByteBuffer source) {
+            return decodeBatchEach(this, source);
+        }
+
+        public UTF8Decoder newInstance() {
+            return new JDKStringDecoder();
+        }
+    }
+
+    /** edu.mit.net.StringDecoder, optionally sharing a DecodedStringCache. */
+    private static final class CustomDecoder implements UTF8Decoder {
+        private final StringDecoder decoder = new StringDecoder();
+
+        public CustomDecoder(DecodedStringCache cache) {
+            decoder.setCache(cache);
+        }
+
+        public String decode(byte[] source, int offset, int length) {
+            return decoder.finish(source, offset, length);
+        }
+
+        public String[] decodeBatch(ByteBuffer source) {
+            return decoder.decodeBatch(source);
+        }
+
+        /** New instances share the cache, as all connections on one thread would. */
+        public UTF8Decoder newInstance() {
+            return new CustomDecoder(decoder.getCache());
+        }
+    }
+
+    @Param({"chardecoder", "string", "custom", "cached"})
+    public String decoder;
+
+    @Param({"reuse", "once"})
+    public String reuse;
+
+    /** Number of strings in the DecodedStringCache used by the cached decoder. */
+    @Param({"512"})
+    public int cacheEntries;
+
+    private UTF8Decoder utf8;
+    private boolean reuseDecoder;
+
+    @Setup
+    public void setUp(Corpus corpus) {
+        if (decoder.equals("chardecoder")) {
+            int maxChars = 0;
+            for (String value : corpus.strings) {
+                maxChars = Math.max(maxChars, value.length());
+            }
+            utf8 = new UTF8CharsetDecoder(maxChars);
+        } else if (decoder.equals("string")) {
+            utf8 = new JDKStringDecoder();
+        } else if (decoder.equals("custom")) {
+            utf8 = new CustomDecoder(null);
+        } else if (decoder.equals("cached")) {
+            utf8 = new CustomDecoder(new DecodedStringCache(cacheEntries));
+        } else {
+            throw new IllegalArgumentException("unknown decoder: " + decoder);
+        }
+
+        if (reuse.equals("reuse")) {
+            reuseDecoder = true;
+        } else if (reuse.equals("once")) {
+            reuseDecoder = false;
+        } else {
+            throw new IllegalArgumentException("reuse must be reuse or once: " + reuse);
+        }
+    }
+
+    private UTF8Decoder decoder() {
+        if (reuseDecoder) return utf8;
+        return utf8.newInstance();
+    }
+
+    @Benchmark
+    public void single(Corpus corpus, Characters counter, Blackhole blackhole) {
+        ByteBuffer in = corpus.encoded;
+        byte[] array = in.array();
+        int offset = in.position();
+        while (offset < in.limit()) {
+            int length = in.getInt(offset);
+            offset += 4;
+            blackhole.consume(decoder().decode(array, offset, length));
+            offset += length;
+        }
+        counter.chars += corpus.totalCharacters;
+    }
+
+    @Benchmark
+    public String[] batch(Corpus corpus, Characters counter) {
+        String[] out = decoder().decodeBatch(corpus.encoded.duplicate());
+        assert out.length == corpus.strings.length;
+        counter.chars += corpus.totalCharacters;
+        return out;
+    }
+}
@@ -0,0 +1,304 @@
+package edu.mit.net.bench;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import edu.mit.net.StringEncoder;
+
+/** JMH version of StringEncodingTest: encodes every string in the corpus per operation. The
+benchmark method is the destination: a reused buffer, a new array, a new ByteBuffer, or a length
+prefixed batch. The encoders are StringEncodingTest's: bytebuffer (CharsetEncoder on a wrapped
+String), string (String.getBytes("UTF-8")), string2 (String.getBytes(Charset)), chars (copies the
+String into a CharBuffer for the CharsetEncoder) and custom (edu.mit.net.StringEncoder). */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class StringEncodingBenchmark {
+    private interface UTF8Encoder {
+        /** Assumes destination is large enough to hold encoded source. */
+        void encode(String source, ByteBuffer destination);
+
+        byte[] encodeToArray(String source);
+
+        ByteBuffer encodeToNewBuffer(String source);
+
+        /** Encodes sources[first:] into out, each prefixed by its length.
+        @returns the index of the first string that did not fit. */
+        int encodeBatch(String[] sources, int first, ByteBuffer out);
+
+        UTF8Encoder newInstance();
+    }
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /** The batch encoding you get without a batch API: one encodeToArray() and copy per string. */
+    private static int encodeBatchByArray(UTF8Encoder encoder,
+            String[] sources, int first, ByteBuffer out) {
+        int i = first;
+        for (; i < sources.length; ++i) {
+            byte[] bytes = encoder.encodeToArray(sources[i]);
+            if (out.remaining() < 4 + bytes.length) break;
+            out.putInt(bytes.length);
+            out.put(bytes);
+        }
+        return i;
+    }
+
+    /** String.getBytes(String), which looks up the charset by name. */
+    private static final class StringByNameEncoder implements UTF8Encoder {
+        public void encode(String source, ByteBuffer destination) {
+            destination.put(encodeToArray(source));
+        }
+
+        public byte[] encodeToArray(String source) {
+            try {
+                return source.getBytes("UTF-8");
+            } catch (UnsupportedEncodingException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        public ByteBuffer encodeToNewBuffer(String source) {
+            return ByteBuffer.wrap(encodeToArray(source));
+        }
+
+        public int encodeBatch(String[] sources, int first, ByteBuffer out) {
+            return encodeBatchByArray(this, sources, first, out);
+        }
+
+        public UTF8Encoder newInstance() {
+            return new StringByNameEncoder();
+        }
+    }
+
+    /** String.getBytes(Charset). */
+    private static final class JDKStringEncoder implements UTF8Encoder {
+        public void encode(String source, ByteBuffer destination) {
+            destination.put(source.getBytes(UTF8));
+        }
+
+        public byte[] encodeToArray(String source) {
+            return source.getBytes(UTF8);
+        }
+
+        public ByteBuffer encodeToNewBuffer(String source) {
+            return ByteBuffer.wrap(source.getBytes(UTF8));
+        }
+
+        public int encodeBatch(String[] sources, int first, ByteBuffer out) {
+            return encodeBatchByArray(this, sources, first, out);
+        }
+
+        public UTF8Encoder newInstance() {
+            return new JDKStringEncoder();
+        }
+    }
+
+    /** CharsetEncoder.encode() from a wrapped String. */
+    private static class CharsetEncoderEncoder implements UTF8Encoder {
+        protected final CharsetEncoder encoder = UTF8.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+        public void encode(String source, ByteBuffer destination) {
+            encoder.reset();
+            CoderResult result = encoder.encode(CharBuffer.wrap(source), destination, true);
+            assert result == CoderResult.UNDERFLOW;
+            result = encoder.flush(destination);
+            assert result == CoderResult.UNDERFLOW;
+        }
+
+        public byte[] encodeToArray(String source) {
+            ByteBuffer out = encodeToNewBuffer(source);
+            if (out.remaining() == out.capacity()) return out.array();
+            byte[] copy = new byte[out.remaining()];
+            out.get(copy);
+            return copy;
+        }
+
+        public ByteBuffer encodeToNewBuffer(String source) {
+            ByteBuffer out = ByteBuffer.allocate(
+                    (int) (source.length() * encoder.maxBytesPerChar()));
+            encode(source, out);
+            out.flip();
+            return out;
+        }
+
+        public int encodeBatch(String[] sources, int first, ByteBuffer out) {
+            return encodeBatchByArray(this, sources, first, out);
+        }
+
+        public UTF8Encoder newInstance() {
+            return new CharsetEncoderEncoder();
+        }
+    }
+
+    /** CharsetEncoder.encode() from a CharBuffer that the String is copied into, 1024 chars at a
+    time. */
+    private static final class CharBufferCopyEncoder extends CharsetEncoderEncoder {
+        private final CharBuffer temp = CharBuffer.allocate(1024);
+        private final char[] tempChars = temp.array();
+
+        public void encode(String source, ByteBuffer destination) {
+            encoder.reset();
+            temp.clear();
+            int offset = 0;
+            boolean done = false;
+            while (!done) {
+                int length = Math.min(source.length() - offset, temp.remaining());
+                source.getChars(offset, offset + length, tempChars, temp.position());
+                temp.position(temp.position() + length);
+                temp.flip();
+                offset += length;
+
+                done = offset == source.length();
+                CoderResult result = encoder.encode(temp, destination, done);
+                assert result == CoderResult.UNDERFLOW;
+                // Keeps a high surrogate left at the end of the chunk for the next one
+                temp.compact();
+            }
+            CoderResult result = encoder.flush(destination);
+            assert result == CoderResult.UNDERFLOW;
+        }
+
+        public UTF8Encoder newInstance() {
+            return new CharBufferCopyEncoder();
+        }
+    }
+
+    /** edu.mit.net.StringEncoder. */
+    private static final class CustomEncoder implements UTF8Encoder {
+        private final StringEncoder encoder = new StringEncoder();
+
+        public void encode(String source, ByteBuffer destination) {
+            boolean complete = encoder.encode(source, destination);
+            assert complete;
+        }
+
+        public byte[] encodeToArray(String source) {
+            return encoder.toNewArray(source);
+        }
+
+        public ByteBuffer encodeToNewBuffer(String source) {
+            return encoder.toNewByteBuffer(source);
+        }
+
+        public int encodeBatch(String[] sources, int first, ByteBuffer out) {
+            return encoder.encodeBatch(sources, first, out);
+        }
+
+        public UTF8Encoder newInstance() {
+            return new CustomEncoder();
+        }
+    }
+
+    @Param({"bytebuffer", "string", "string2", "chars", "custom"})
+    public String encoder;
+
+    @Param({"reuse", "once"})
+    public String reuse;
+
+    private UTF8Encoder utf8;
+    private boolean reuseEncoder;
+    private ByteBuffer destination;
+
+    @Setup
+    public void setUp(Corpus corpus) {
+        if (encoder.equals("bytebuffer")) {
+            utf8 = new CharsetEncoderEncoder();
+        } else if (encoder.equals("string")) {
+            utf8 = new StringByNameEncoder();
+        } else if (encoder.equals("string2")) {
+            utf8 = new JDKStringEncoder();
+        } else if (encoder.equals("chars")) {
+            utf8 = new CharBufferCopyEncoder();
+        } else if (encoder.equals("custom")) {
+            utf8 = new CustomEncoder();
+        } else {
+            throw new IllegalArgumentException("unknown encoder: " + encoder);
+        }
+
+        if (reuse.equals("reuse")) {
+            reuseEncoder = true;
+        } else if (reuse.equals("once")) {
+            reuseEncoder = false;
+        } else {
+            throw new IllegalArgumentException("reuse must be reuse or once: " + reuse);
+        }
+
+        int maxLength = 0;
+        for (String value : corpus.strings) {
+            maxLength = Math.max(maxLength, StringEncoder.encodedLength(value));
+        }
+        // Large enough for any one string and its length prefix
+        destination = ByteBuffer.allocate(Math.max(4096, 4 + maxLength));
+    }
+
+    private UTF8Encoder encoder() {
+        if (reuseEncoder) return utf8;
+        return utf8.newInstance();
+    }
+
+    @Benchmark
+    public int buffer(Corpus corpus, Characters counter) {
+        int bytes = 0;
+        for (String value : corpus.strings) {
+            destination.clear();
+            encoder().encode(value, destination);
+            bytes += destination.position();
+        }
+        counter.chars += corpus.totalCharacters;
+        return bytes;
+    }
+
+    @Benchmark
+    public void array(Corpus corpus, Characters counter, Blackhole blackhole) {
+        for (String value : corpus.strings) {
+            blackhole.consume(encoder().encodeToArray(value));
+        }
+        counter.chars += corpus.totalCharacters;
+    }
+
+    @Benchmark
+    public void bytebuffer(Corpus corpus, Characters counter, Blackhole blackhole) {
+        for (String value : corpus.strings) {
+            blackhole.consume(encoder().encodeToNewBuffer(value));
+        }
+        counter.chars += corpus.totalCharacters;
+    }
+
+    /** Encodes the whole corpus with one encoder, draining the destination each time it fills, as
+    if it were written to a socket. */
+    @Benchmark
+    public int batch(Corpus corpus, Characters counter) {
+        UTF8Encoder temp = encoder();
+        String[] strings = corpus.strings;
+        int bytes = 0;
+        int next = 0;
+        while (next < strings.length) {
+            destination.clear();
+            int last = next;
+            next = temp.encodeBatch(strings, next, destination);
+            assert next > last;
+            bytes += destination.position();
+        }
+        counter.chars += corpus.totalCharacters;
+        return bytes;
+    }
+}
@@ -0,0 +1,74 @@
+package edu.mit.net.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.mit.net.TimerWheel;
+
+/** Reschedules idle timeouts on a wheel with the listener's defaults, one per operation, going
+through the timers in turn the way a listener sees messages from many connections. sametick
+reschedules to the tick the timer already has, which is what a connection sending more than one
+message per tick costs; relink moves it to a new slot each time, the worst case. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TimerWheelBenchmark {
+    private static final class IdleTimer extends TimerWheel.Timer {
+        protected void expired() {
+            throw new IllegalStateException("the benchmark never expires timers");
+        }
+    }
+
+    @Param({"1000", "100000"})
+    public int timers;
+
+    @Param({"sametick", "relink"})
+    public String move;
+
+    private TimerWheel wheel;
+    private IdleTimer[] idleTimers;
+    private long[] delays;
+    private int next;
+    private int pass;
+
+    @Setup
+    public void setUp() {
+        wheel = new TimerWheel(TimeUnit.MILLISECONDS.toNanos(TimerWheel.DEFAULT_TICK_MILLIS),
+                TimerWheel.DEFAULT_SLOTS);
+        idleTimers = new IdleTimer[timers];
+        for (int i = 0; i < idleTimers.length; ++i) {
+            idleTimers[i] = new IdleTimer();
+            // Spread them over the wheel like connections that were last active at different times
+            wheel.schedule(idleTimers[i], 30000 + i % 5000, TimeUnit.MILLISECONDS);
+        }
+        // relink alternates each pass between two timeouts a tick apart
+        delays = move.equals("relink") ? new long[]{30000, 30100} : new long[]{30000, 30000};
+    }
+
+    @Benchmark
+    public int reschedule() {
+        int i = next;
+        if (i + 1 == idleTimers.length) {
+            next = 0;
+            pass += 1;
+        } else {
+            next = i + 1;
+        }
+        wheel.schedule(idleTimers[i], delays[pass & 1], TimeUnit.MILLISECONDS);
+        return wheel.size();
+    }
+}
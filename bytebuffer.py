@@ -5,7 +5,9 @@ import subprocess
 
 
 MEMORY = "512M"
-BASE_JAVA = ("java", "-Xmx" + MEMORY, "-Xms" + MEMORY, "-server", "-cp", "build/java")
+# build/java-jdk22 only exists when built with JDK 22+
+BASE_JAVA = ("java", "-Xmx" + MEMORY, "-Xms" + MEMORY, "-server",
+        "-cp", "build/java:build/java-jdk22")
 
 TEST = "ByteBufferTest"
 
@@ -0,0 +1,52 @@
+#!/usr/bin/python
+
+"""Runs ByteStreamTest's file modes over a range of buffer sizes. Writes one headerless CSV per
+output key (write.csv, flush_p99_us.csv, read.csv, ...) with rows of
+(mode, sync, size, value), like bytebuffer.py."""
+
+import sys
+
+import bytebuffer
+
+TEST = "ByteStreamTest"
+
+
+def runTest(mode, sync, buffer_size, path):
+    args = ("file", mode, str(buffer_size), sync, "be")
+    if path is not None:
+        args += (path,)
+    process = bytebuffer.runJava(TEST, args)
+
+    out = {}
+    for line in process.stdout:
+        key, values = line.strip().split(": ")
+        out[key] = [float(v) for v in values.split()]
+
+    code = process.wait()
+    assert code == 0
+    return out
+
+
+if __name__ == "__main__":
+    # Optional path: the file to write, on the device being measured
+    path = None
+    if len(sys.argv) == 2:
+        path = sys.argv[1]
+
+    tests = {}
+    for mode in ("direct", "mmap"):
+        for sync in ("noforce", "force"):
+            for buffer_size in (4096, 16384, 65536, 262144, 1048576, 4194304):
+                results = runTest(mode, sync, buffer_size, path)
+                print mode, sync, buffer_size,
+                for key, values in results.iteritems():
+                    if key not in tests:
+                        tests[key] = []
+                    for value in values:
+                        tests[key].append((mode, sync, buffer_size, value))
+                    print "%s: %f" % (key, bytebuffer.average(values)),
+                print
+
+    for key, table in tests.iteritems():
+        path = key.replace(" ", "_") + ".csv"
+        bytebuffer.saveCSVResults(path, table)
@@ -0,0 +1,129 @@
+#!/usr/bin/python
+
+"""Converts JMH JSON results (ant bench) to the CSV tables used by the plotting scripts.
+
+Each raw measurement becomes one row: the benchmark method, then each @Param in the order of the
+JSON file (JMH sorts them by name), then the value. Param names are converted from camelCase to
+words, so stringLength becomes "string length" and stringbytebuffer_plot.py can plot the output
+of StringByteBufferBenchmark directly.
+
+With --split, each benchmark method goes to its own headerless CSV named after the method, like
+bytebuffer.py: ByteBufferBenchmark.fillInt becomes fill_int.csv with rows of
+(kind, order, size, MB/s), the layout of results/fill_int.csv."""
+
+import collections
+import json
+import re
+import sys
+
+import bytebuffer
+
+# Secondary metric name -> CSV column title
+METRICS = {
+    "chars": "chars per us",
+    "megabytes": "MB per s",
+    "gc.alloc.rate.norm": "bytes per op",
+    "gc.alloc.rate": "alloc MB per s",
+}
+# Used when no metric is given: the first one the results contain
+DEFAULT_METRICS = ("chars", "megabytes")
+
+
+def columnName(name):
+    name = re.sub("([a-z])([A-Z])", lambda m: m.group(1) + " " + m.group(2).lower(), name)
+    return re.sub("([a-z])([0-9])", r"\1 \2", name)
+
+
+def metricData(result, metric):
+    if metric is None:
+        return result["primaryMetric"]
+    for name, data in result["secondaryMetrics"].items():
+        # The gc profiler prefixes its metrics with a middle dot in some JMH versions
+        if name.lstrip(u"\u00b7") == metric:
+            return data
+    return None
+
+
+def defaultMetric(results):
+    for metric in DEFAULT_METRICS:
+        if metricData(results[0], metric) is not None:
+            return metric
+    return None
+
+
+def paramNames(results):
+    names = []
+    for result in results:
+        for name in result.get("params", {}):
+            if name not in names:
+                names.append(name)
+    return names
+
+
+def methodName(result):
+    return result["benchmark"].split(".")[-1]
+
+
+def rows(results, metric, param_names, include_method):
+    output = []
+    for result in results:
+        data = metricData(result, metric)
+        if data is None:
+            continue
+
+        params = result.get("params", {})
+        row = [params.get(name, "") for name in param_names]
+        if include_method:
+            row = [methodName(result)] + row
+        for fork in data["rawData"]:
+            for value in fork:
+                output.append(row + [value])
+    return output
+
+
+def convert(results, metric):
+    param_names = paramNames(results)
+    if metric is None:
+        value_title = results[0]["primaryMetric"]["scoreUnit"]
+    else:
+        value_title = METRICS.get(metric, metric)
+    header = ["benchmark"] + [columnName(name) for name in param_names] + [value_title]
+    return [header] + rows(results, metric, param_names, True)
+
+
+def split(results, metric):
+    """Returns {output path: rows}, one headerless table per benchmark method."""
+    methods = []
+    for result in results:
+        if methodName(result) not in methods:
+            methods.append(methodName(result))
+
+    tables = {}
+    for method in methods:
+        selected = [r for r in results if methodName(r) == method]
+        path = columnName(method).replace(" ", "_") + ".csv"
+        table = rows(selected, metric, paramNames(selected), False)
+        if len(table) > 0:
+            tables[path] = table
+    return tables
+
+
+if __name__ == "__main__":
+    if len(sys.argv) not in (3, 4):
+        sys.stderr.write("jmhresults.py (jmh.json) (output.csv|--split) [metric]\n")
+        sys.stderr.write("  metric: chars or megabytes (default), gc.alloc.rate.norm, ... or primary\n")
+        sys.exit(1)
+
+    # Python 2 dicts are unordered: keep the file's order of params
+    results = json.load(open(sys.argv[1]), object_pairs_hook=collections.OrderedDict)
+    metric = defaultMetric(results)
+    if len(sys.argv) == 4:
+        metric = sys.argv[3]
+        if metric == "primary":
+            metric = None
+
+    if sys.argv[2] == "--split":
+        for path, table in split(results, metric).items():
+            bytebuffer.saveCSVResults(path, table)
+    else:
+        bytebuffer.saveCSVResults(sys.argv[2], convert(results, metric))
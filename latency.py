@@ -2,28 +2,24 @@
 
 import csv
 import os
-import signal
 import subprocess
-import sys
-import time
-
-import perftest
+import tempfile
 
 TRIALS = 2
 MAX_CLIENTS = 8
+SERVER = "c++-epoll=exec:./epollserver"
+DRIVER = ("java", "-cp", "build/java", "PerfDriver")
 
 if __name__ == "__main__":
+    output = tempfile.mkdtemp()
+    code = subprocess.call(DRIVER + ("--clients", str(MAX_CLIENTS), "--trials", str(TRIALS),
+            "--output", output, SERVER))
+    assert code == 0
+
     table = []
-    server = perftest.startServer(perftest.SERVERS['c++-epoll'])
-    try:
-        for i in xrange(TRIALS):
-            result = perftest.runClient(MAX_CLIENTS)
-            print result
-            table.append([result])
-    finally:
-        if server.poll() is None:
-            os.kill(server.pid, signal.SIGTERM)
-            server.wait()
+    for row in csv.DictReader(open(os.path.join(output, "c++-epoll.csv"))):
+        print row["msgs/s"]
+        table.append([row["msgs/s"]])
 
     f = open("distribution_10_c++-epoll.csv", "wb")
     writer = csv.writer(f)
@@ -1,40 +1,37 @@
 #!/usr/bin/python
 
+"""Plots PerfDriver results: results.py (name) ... reads name.csv and name-summary.csv."""
+
 import csv
 import sys
 
-import perftest
-import statistics
 import stupidplot
 
-results = {}
+
+def readRows(path):
+    data = open(path)
+    rows = list(csv.DictReader(data))
+    data.close()
+    return rows
 
 
 averages = []
 
-
-server_names = perftest.SERVERS.keys()
+server_names = sys.argv[1:]
 server_names.sort()
 for server_type in server_names:
     print server_type
 
-    input = server_type + ".csv"
-    data = open(input)
-    reader = csv.reader(data)
-    table = []
-    for row in reader:
-        table.append(row)
-    data.close()
-
     scatter = [('Simultaneous Clients', 'Messages/s')]
-    average = [('Simultaneous Clients', server_type, '-95% confidence', '+95% confidence')]
-    for row in table:
-        x = row[0]
-        for y in row[1:]:
-            scatter.append((x, y))
+    for row in readRows(server_type + ".csv"):
+        scatter.append((row["clients"], row["msgs/s"]))
 
-        stats = statistics.stats([float(f) for f in row[1:]])
-        average.append((x, stats[0], stats[0]-stats[-1], stats[0]+stats[-1]))
+    # PerfDriver computes the confidence interval with the same method as statistics.stats
+    average = [('Simultaneous Clients', server_type, '-95% confidence', '+95% confidence')]
+    for row in readRows(server_type + "-summary.csv"):
+        mean = float(row["msgs/s"])
+        confidence = float(row["msgs/s 95%"])
+        average.append((row["clients"], mean, mean - confidence, mean + confidence))
 
     options = {
         'plottype': 'points',
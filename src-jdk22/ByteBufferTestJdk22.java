@@ -0,0 +1,187 @@
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/** ByteBufferTest testers that need JDK 22: VarHandle views of byte[] and ByteBuffer, and FFM
+MemorySegments. ByteBufferTest loads this class by name, so it still builds on older JDKs. */
+final class ByteBufferTestJdk22 {
+    private ByteBufferTestJdk22() {}
+
+    private static final VarHandle ARRAY_BE_INT =
+            MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.BIG_ENDIAN);
+    private static final VarHandle ARRAY_LE_INT =
+            MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final VarHandle BUFFER_BE_INT =
+            MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.BIG_ENDIAN);
+    private static final VarHandle BUFFER_LE_INT =
+            MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+
+    /** @returns the tester for kind, or null if kind is not a JDK 22 tester. */
+    static ByteBufferTest.Tester newTester(String kind, ByteOrder order, int size) {
+        if (kind.equals("vharray")) {
+            return new ArrayVarHandleTester(new byte[size], order);
+        } else if (kind.equals("vhheap")) {
+            return new BufferVarHandleTester(ByteBuffer.allocate(size), order);
+        } else if (kind.equals("vhdirect")) {
+            return new BufferVarHandleTester(ByteBuffer.allocateDirect(size), order);
+        } else if (kind.equals("segment")) {
+            // The arenas are never closed: the segment lives as long as the test
+            return new SegmentTester(Arena.ofConfined().allocate(size), order);
+        } else if (kind.equals("segmentshared")) {
+            // Shared segments may be accessed from any thread, which makes closing them costlier
+            return new SegmentTester(Arena.ofShared().allocate(size), order);
+        }
+        return null;
+    }
+
+    private static final class ArrayVarHandleTester implements ByteBufferTest.Tester {
+        private final byte[] buffer;
+        private final boolean bigEndian;
+
+        public ArrayVarHandleTester(byte[] buffer, ByteOrder order) {
+            this.buffer = buffer;
+            bigEndian = order == ByteOrder.BIG_ENDIAN;
+        }
+
+        public void fillInt() {
+            int i = 0;
+            final int end = buffer.length - Integer.BYTES;
+            // One loop per order so each uses a constant VarHandle
+            if (bigEndian) {
+                for (int offset = 0; offset <= end; offset += Integer.BYTES) {
+                    ARRAY_BE_INT.set(buffer, offset, i);
+                    i += 1;
+                }
+            } else {
+                for (int offset = 0; offset <= end; offset += Integer.BYTES) {
+                    ARRAY_LE_INT.set(buffer, offset, i);
+                    i += 1;
+                }
+            }
+        }
+
+        public void fillByte() {
+            byte i = 0;
+            for (int offset = 0; offset < buffer.length; ++offset) {
+                buffer[offset] = i;
+                i += 1;
+            }
+        }
+
+        public void fillArray(byte[] source) {
+            final int end = buffer.length - source.length;
+            for (int offset = 0; offset <= end; offset += source.length) {
+                System.arraycopy(source, 0, buffer, offset, source.length);
+            }
+        }
+
+        public void write(FileOutputStream out) throws IOException {
+            out.write(buffer);
+        }
+
+        public int bufferLength() { return buffer.length; }
+    }
+
+    /** Uses absolute indexes instead of the ByteBuffer position. */
+    private static final class BufferVarHandleTester implements ByteBufferTest.Tester {
+        private final ByteBuffer buffer;
+        private final boolean bigEndian;
+
+        public BufferVarHandleTester(ByteBuffer buffer, ByteOrder order) {
+            this.buffer = buffer;
+            bigEndian = order == ByteOrder.BIG_ENDIAN;
+        }
+
+        public void fillInt() {
+            int i = 0;
+            final int end = buffer.capacity() - Integer.BYTES;
+            if (bigEndian) {
+                for (int offset = 0; offset <= end; offset += Integer.BYTES) {
+                    BUFFER_BE_INT.set(buffer, offset, i);
+                    i += 1;
+                }
+            } else {
+                for (int offset = 0; offset <= end; offset += Integer.BYTES) {
+                    BUFFER_LE_INT.set(buffer, offset, i);
+                    i += 1;
+                }
+            }
+        }
+
+        public void fillByte() {
+            byte i = 0;
+            final int end = buffer.capacity();
+            for (int offset = 0; offset < end; ++offset) {
+                buffer.put(offset, i);
+                i += 1;
+            }
+        }
+
+        public void fillArray(byte[] source) {
+            final int end = buffer.capacity() - source.length;
+            for (int offset = 0; offset <= end; offset += source.length) {
+                buffer.put(offset, source);
+            }
+        }
+
+        public void write(FileOutputStream out) throws IOException {
+            buffer.clear();
+            int written = out.getChannel().write(buffer);
+            assert written == buffer.capacity();
+        }
+
+        public int bufferLength() { return buffer.capacity(); }
+    }
+
+    private static final class SegmentTester implements ByteBufferTest.Tester {
+        private final MemorySegment segment;
+        private final ValueLayout.OfInt intLayout;
+        // Wraps the segment for channel writes; created once since asByteBuffer() allocates
+        private final ByteBuffer view;
+
+        public SegmentTester(MemorySegment segment, ByteOrder order) {
+            this.segment = segment;
+            intLayout = ValueLayout.JAVA_INT_UNALIGNED.withOrder(order);
+            view = segment.asByteBuffer();
+        }
+
+        public void fillInt() {
+            int i = 0;
+            final long end = segment.byteSize() - Integer.BYTES;
+            for (long offset = 0; offset <= end; offset += Integer.BYTES) {
+                segment.set(intLayout, offset, i);
+                i += 1;
+            }
+        }
+
+        public void fillByte() {
+            byte i = 0;
+            final long end = segment.byteSize();
+            for (long offset = 0; offset < end; ++offset) {
+                segment.set(ValueLayout.JAVA_BYTE, offset, i);
+                i += 1;
+            }
+        }
+
+        public void fillArray(byte[] source) {
+            final long end = segment.byteSize() - source.length;
+            for (long offset = 0; offset <= end; offset += source.length) {
+                MemorySegment.copy(source, 0, segment, ValueLayout.JAVA_BYTE, offset, source.length);
+            }
+        }
+
+        public void write(FileOutputStream out) throws IOException {
+            view.clear();
+            int written = out.getChannel().write(view);
+            assert written == view.capacity();
+        }
+
+        public int bufferLength() { return (int) segment.byteSize(); }
+    }
+}
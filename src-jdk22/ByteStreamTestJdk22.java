@@ -0,0 +1,175 @@
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.WritableByteChannel;
+
+/** ByteStreamTest streams that need JDK 22: VarHandle views of byte[] and ByteBuffer, and FFM
+MemorySegments. ByteStreamTest loads this class by name, so it still builds on older JDKs. */
+final class ByteStreamTestJdk22 {
+    private ByteStreamTestJdk22() {}
+
+    private static final VarHandle ARRAY_BE_INT =
+            MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.BIG_ENDIAN);
+    private static final VarHandle ARRAY_LE_INT =
+            MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final VarHandle BUFFER_BE_INT =
+            MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.BIG_ENDIAN);
+    private static final VarHandle BUFFER_LE_INT =
+            MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+
+    /** @returns the stream for kind, or null if kind is not a JDK 22 stream. */
+    static ByteStreamTest.ByteStream newStream(
+            String kind, WritableByteChannel channel, int size, ByteOrder order) {
+        if (kind.equals("vharray")) {
+            return new ArrayVarHandleStream(channel, size, order);
+        } else if (kind.equals("vhdirect")) {
+            return new BufferVarHandleStream(channel, ByteBuffer.allocateDirect(size), order);
+        } else if (kind.equals("segment")) {
+            return new SegmentStream(channel, Arena.ofConfined().allocate(size), order);
+        } else if (kind.equals("segmentshared")) {
+            return new SegmentStream(channel, Arena.ofShared().allocate(size), order);
+        }
+        return null;
+    }
+
+    /** Fills a byte[] and writes it with a wrapping heap ByteBuffer. The channel copies it to a
+    temporary direct buffer, as ByteArrayStream's OutputStream does. */
+    private static final class ArrayVarHandleStream implements ByteStreamTest.ByteStream {
+        private final byte[] buffer;
+        private final ByteBuffer wrapper;
+        private final WritableByteChannel channel;
+        private final boolean bigEndian;
+        private int offset = 0;
+
+        public ArrayVarHandleStream(WritableByteChannel channel, int buffer_length,
+                ByteOrder order) {
+            buffer = new byte[buffer_length];
+            wrapper = ByteBuffer.wrap(buffer);
+            this.channel = channel;
+            bigEndian = order == ByteOrder.BIG_ENDIAN;
+        }
+
+        public void put(byte value) throws IOException {
+            if (offset == buffer.length) {
+                flush();
+            }
+
+            buffer[offset] = value;
+            offset += 1;
+        }
+
+        public void putInt(int value) throws IOException {
+            if (buffer.length - offset < 4) {
+                flush();
+            }
+
+            // Only a static final VarHandle is a constant the JIT can inline
+            if (bigEndian) {
+                ARRAY_BE_INT.set(buffer, offset, value);
+            } else {
+                ARRAY_LE_INT.set(buffer, offset, value);
+            }
+            offset += 4;
+        }
+
+        public void flush() throws IOException {
+            wrapper.clear();
+            wrapper.limit(offset);
+            channel.write(wrapper);
+            assert wrapper.remaining() == 0;
+            offset = 0;
+        }
+    }
+
+    /** Writes into a direct ByteBuffer at absolute offsets, leaving the position at 0. */
+    private static final class BufferVarHandleStream implements ByteStreamTest.ByteStream {
+        private final ByteBuffer writeBuffer;
+        private final WritableByteChannel channel;
+        private final boolean bigEndian;
+        private int offset = 0;
+
+        public BufferVarHandleStream(WritableByteChannel channel, ByteBuffer writeBuffer,
+                ByteOrder order) {
+            this.writeBuffer = writeBuffer;
+            this.channel = channel;
+            bigEndian = order == ByteOrder.BIG_ENDIAN;
+        }
+
+        public void put(byte value) throws IOException {
+            if (offset == writeBuffer.capacity()) {
+                flush();
+            }
+
+            writeBuffer.put(offset, value);
+            offset += 1;
+        }
+
+        public void putInt(int value) throws IOException {
+            if (writeBuffer.capacity() - offset < 4) {
+                flush();
+            }
+
+            if (bigEndian) {
+                BUFFER_BE_INT.set(writeBuffer, offset, value);
+            } else {
+                BUFFER_LE_INT.set(writeBuffer, offset, value);
+            }
+            offset += 4;
+        }
+
+        public void flush() throws IOException {
+            writeBuffer.clear();
+            writeBuffer.limit(offset);
+            channel.write(writeBuffer);
+            assert writeBuffer.remaining() == 0;
+            offset = 0;
+        }
+    }
+
+    private static final class SegmentStream implements ByteStreamTest.ByteStream {
+        private final MemorySegment segment;
+        private final ValueLayout.OfInt intLayout;
+        // Wraps the segment for channel writes; created once since asByteBuffer() allocates
+        private final ByteBuffer view;
+        private final WritableByteChannel channel;
+        private long offset = 0;
+
+        public SegmentStream(WritableByteChannel channel, MemorySegment segment, ByteOrder order) {
+            this.segment = segment;
+            intLayout = ValueLayout.JAVA_INT_UNALIGNED.withOrder(order);
+            view = segment.asByteBuffer();
+            this.channel = channel;
+        }
+
+        public void put(byte value) throws IOException {
+            if (offset == segment.byteSize()) {
+                flush();
+            }
+
+            segment.set(ValueLayout.JAVA_BYTE, offset, value);
+            offset += 1;
+        }
+
+        public void putInt(int value) throws IOException {
+            if (segment.byteSize() - offset < 4) {
+                flush();
+            }
+
+            segment.set(intLayout, offset, value);
+            offset += 4;
+        }
+
+        public void flush() throws IOException {
+            view.clear();
+            view.limit((int) offset);
+            channel.write(view);
+            assert view.remaining() == 0;
+            offset = 0;
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package edu.mit.net;
+
+import java.io.IOException;
+import java.lang.foreign.MemorySegment;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/** A connection accepted by EpollMessageListener, on a raw non-blocking socket. Reads go into one
+direct buffer that grows to fit the largest message; writes are copied into another and sent with
+one send() each, like epollserver.cc. Whatever the socket does not accept stays in the write
+buffer until the listener sees EPOLLOUT and calls handleWrite(). Like the NIO connection, it must
+only be used by the thread running the listener. */
+final class EpollMessageConnection implements MessageConnection {
+    /** fill() results. */
+    static final int DRAINED = 0;
+    static final int MORE = 1;
+    static final int CLOSED = 2;
+
+    private static final int READ_BUFFER_SIZE = 16384;
+    private static final int WRITE_BUFFER_SIZE = 4096;
+
+    EpollMessageConnection(EpollMessageListener listener, LibC.CallState state, int fd) {
+        this.listener = listener;
+        this.state = state;
+        this.fd = fd;
+        setReadBuffer(allocate(READ_BUFFER_SIZE));
+        readBuffer.limit(0);
+        setWriteBuffer(allocate(WRITE_BUFFER_SIZE));
+    }
+
+    private static ByteBuffer allocate(int capacity) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(capacity);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        return buffer;
+    }
+
+    private void setReadBuffer(ByteBuffer buffer) {
+        readBuffer = buffer;
+        readSegment = MemorySegment.ofBuffer(buffer.duplicate().clear());
+    }
+
+    private void setWriteBuffer(ByteBuffer buffer) {
+        writeBuffer = buffer;
+        writeSegment = MemorySegment.ofBuffer(buffer.duplicate().clear());
+    }
+
+    int fd() { return fd; }
+
+    /** Reads from the socket into the read buffer, once. With edge-triggered epoll the listener
+    must call this until it stops returning MORE. A read that does not fill the buffer means the
+    socket is empty, as in epollserver.cc, unless untilEof is set: then it reads until EAGAIN so
+    it cannot miss an end of stream that arrived with the data. */
+    int fill(boolean untilEof) {
+        // Make room: the read buffer holds unparsed bytes between position and limit
+        if (readBuffer.position() == readBuffer.limit()) {
+            readBuffer.position(0).limit(0);
+        } else if (readBuffer.limit() == readBuffer.capacity()) {
+            if (readBuffer.position() == 0) {
+                // One message fills the buffer
+                ByteBuffer bigger = allocate(Math.max(readBuffer.capacity() * 2,
+                        4 + readBuffer.getInt(0)));
+                bigger.put(readBuffer);
+                bigger.flip();
+                setReadBuffer(bigger);
+            } else {
+                readBuffer.compact();
+                readBuffer.flip();
+            }
+        }
+
+        int limit = readBuffer.limit();
+        long space = readBuffer.capacity() - limit;
+        long count;
+        try {
+            count = LibC.read(state, fd, readSegment.asSlice(limit), space);
+        } catch (Throwable e) { throw EpollMessageListener.propagate(e); }
+
+        if (count > 0) {
+            readBuffer.limit(limit + (int) count);
+            return count == space || untilEof ? MORE : DRAINED;
+        } else if (count == 0 || count == -LibC.ECONNRESET) {
+            closed = true;
+            return CLOSED;
+        } else if (count == -LibC.EAGAIN) {
+            return DRAINED;
+        } else if (count == -LibC.EINTR) {
+            return MORE;
+        }
+        throw LibC.error("read", count);
+    }
+
+    /** Returns a message from the bytes the listener has read, if one is complete. */
+    public byte[] tryRead() {
+        int available = readBuffer.remaining();
+        if (available >= 4) {
+            int length = readBuffer.getInt(readBuffer.position());
+            if (length <= 0) {
+                throw new IllegalStateException("bad message length: " + length);
+            }
+            if (available - 4 >= length) {
+                byte[] result = new byte[length];
+                readBuffer.position(readBuffer.position() + 4);
+                readBuffer.get(result);
+                return result;
+            }
+        }
+        // The connection closed with nothing or part of a message left
+        if (closed) return new byte[0];
+        return null;
+    }
+
+    /** Makes room for count more bytes in the write buffer. */
+    private void reserve(int count) {
+        if (writeBuffer.remaining() >= count) return;
+        ByteBuffer bigger = allocate(Math.max(writeBuffer.capacity() * 2,
+                writeBuffer.position() + count));
+        writeBuffer.flip();
+        bigger.put(writeBuffer);
+        setWriteBuffer(bigger);
+    }
+
+    public void write(byte[] message) {
+        if (message.length == 0) {
+            throw new IllegalArgumentException("message.length == 0: messages must contain data");
+        }
+        boolean idle = startWrite(message.length);
+        writeBuffer.put(message);
+        if (idle) flush();
+    }
+
+    public void write(ByteBuffer message) {
+        final int length = message.remaining();
+        if (length == 0) {
+            throw new IllegalArgumentException("message.remaining() == 0: messages must contain data");
+        }
+        boolean idle = startWrite(length);
+        writeBuffer.put(message);
+        if (idle) flush();
+    }
+
+    /** Copies count bytes of file into the write buffer: there is no sendfile without the
+    file's descriptor, which FileChannel does not expose. */
+    public void write(FileChannel file, long position, long count) {
+        if (count <= 0 || count > Integer.MAX_VALUE - 4) {
+            throw new IllegalArgumentException("count must be in (0, Integer.MAX_VALUE - 4]: " +
+                    count);
+        }
+        try {
+            if (position < 0 || position + count > file.size()) {
+                throw new IllegalArgumentException("region [" + position + ", " +
+                        (position + count) + ") is outside the file (size " + file.size() + ")");
+            }
+            boolean idle = startWrite((int) count);
+            ByteBuffer body = writeBuffer.duplicate();
+            body.limit(body.position() + (int) count);
+            while (body.hasRemaining()) {
+                if (file.read(body, position + body.position() - writeBuffer.position()) < 0) {
+                    throw new IllegalStateException("file shrank while being sent");
+                }
+            }
+            writeBuffer.position(body.limit());
+            if (idle) flush();
+        } catch (IOException e) { throw new RuntimeException(e); }
+    }
+
+    /** Appends the length of the next message. @returns true if nothing was waiting to be sent,
+    so the caller should send it now. */
+    private boolean startWrite(int length) {
+        if (fd < 0) throw new IllegalStateException("connection is closed");
+        boolean idle = writeBuffer.position() == 0;
+        reserve(4 + length);
+        writeBuffer.putInt(length);
+        return idle;
+    }
+
+    /** Sends as much of the write buffer as the socket accepts. @returns true if it is empty. */
+    private boolean flush() {
+        while (true) {
+            int pending = writeBuffer.position();
+            long count;
+            try {
+                count = LibC.send(state, fd, writeSegment, pending);
+            } catch (Throwable e) { throw EpollMessageListener.propagate(e); }
+
+            if (count == pending) {
+                writeBuffer.clear();
+                return true;
+            } else if (count >= 0) {
+                writeBuffer.flip();
+                writeBuffer.position((int) count);
+                writeBuffer.compact();
+                return false;
+            } else if (count == -LibC.EAGAIN) {
+                return false;
+            } else if (count != -LibC.EINTR) {
+                throw LibC.error("send", count);
+            }
+        }
+    }
+
+    /** Sends queued data that would have blocked. The listener calls this on EPOLLOUT.
+    @returns true if everything has been written. */
+    public boolean handleWrite() {
+        if (writeBuffer.position() == 0) return true;
+        return flush();
+    }
+
+    public void close() {
+        if (fd < 0) return;
+        listener.remove(this);
+        try {
+            LibC.close(state, fd);
+        } catch (Throwable e) { throw EpollMessageListener.propagate(e); }
+        fd = -1;
+        closed = true;
+        writeBuffer.clear();
+    }
+
+    private final EpollMessageListener listener;
+    private final LibC.CallState state;
+    private int fd;
+    private boolean closed;
+    // Unparsed bytes are between position and limit
+    private ByteBuffer readBuffer;
+    private MemorySegment readSegment;
+    // Bytes waiting to be sent are between 0 and position
+    private ByteBuffer writeBuffer;
+    private MemorySegment writeSegment;
+}
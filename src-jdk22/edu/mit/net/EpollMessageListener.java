@@ -0,0 +1,260 @@
+package edu.mit.net;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.lang.invoke.MethodHandle;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/** A MessageListener that calls epoll through the FFM API instead of using a Selector, like
+epollserver.cc: sockets are registered once, edge-triggered, for both reads and writes, and each
+epoll_wait fills a reused array of events. Transport loads this class by name, so the rest of the
+package still builds on older JDKs. */
+final class EpollMessageListener implements MessageListener, SystemCallCounter {
+    private static final int EPOLLIN = 0x1;
+    private static final int EPOLLOUT = 0x4;
+    private static final int EPOLLERR = 0x8;
+    private static final int EPOLLHUP = 0x10;
+    private static final int EPOLLRDHUP = 0x2000;
+    private static final int EPOLLET = 1 << 31;
+    private static final int EPOLL_CTL_ADD = 1;
+    private static final int EPOLL_CLOEXEC = 02000000;
+    private static final int CONNECTION_EVENTS = EPOLLIN | EPOLLOUT | EPOLLRDHUP | EPOLLET;
+    // The socket closed or failed: read until the end of the stream
+    private static final int CLOSE_EVENTS = EPOLLRDHUP | EPOLLHUP | EPOLLERR;
+
+    // struct epoll_event { uint32_t events; uint64_t data; } is packed on x86-64 only
+    private static final boolean PACKED_EVENT =
+            System.getProperty("os.arch").equals("amd64") ||
+            System.getProperty("os.arch").equals("x86_64");
+    private static final long EVENT_BYTES = PACKED_EVENT ? 12 : 16;
+    private static final long DATA_OFFSET = PACKED_EVENT ? 4 : 8;
+    private static final int MAX_EVENTS = 64;
+
+    // Blocking waits return this often to check for interrupts
+    private static final int BLOCK_SLICE_MS = 100;
+    private static final int BACKLOG = 2048;
+
+    private static final MethodHandle EPOLL_CREATE1;
+    private static final MethodHandle EPOLL_CTL;
+    private static final MethodHandle EPOLL_WAIT;
+    static {
+        ValueLayout INT = ValueLayout.JAVA_INT;
+        // int epoll_create1(int flags)
+        EPOLL_CREATE1 = LibC.downcall("epoll_create1", INT, INT);
+        // int epoll_ctl(int epfd, int op, int fd, struct epoll_event *event)
+        EPOLL_CTL = LibC.downcall("epoll_ctl", INT, INT, INT, INT, ValueLayout.ADDRESS);
+        // int epoll_wait(int epfd, struct epoll_event *events, int maxevents, int timeout)
+        EPOLL_WAIT = LibC.downcall("epoll_wait", INT, INT, ValueLayout.ADDRESS, INT, INT);
+    }
+
+    EpollMessageListener(int port, WaitStrategy waitStrategy) {
+        this.waitStrategy = waitStrategy;
+        arena = Arena.ofShared();
+        state = new LibC.CallState(arena);
+        events = arena.allocate(EVENT_BYTES * MAX_EVENTS, 8);
+        controlEvent = arena.allocate(EVENT_BYTES, 8);
+        try {
+            epollFd = (int) state.check((int) EPOLL_CREATE1.invokeExact(state.segment,
+                    EPOLL_CLOEXEC));
+            if (epollFd < 0) throw LibC.error("epoll_create1", epollFd);
+            serverFd = LibC.listen(state, port, BACKLOG);
+            localPort = LibC.localPort(state, serverFd);
+            add(serverFd, EPOLLIN | EPOLLET);
+        } catch (Throwable e) {
+            arena.close();
+            throw propagate(e);
+        }
+    }
+
+    static RuntimeException propagate(Throwable e) {
+        if (e instanceof RuntimeException) return (RuntimeException) e;
+        if (e instanceof Error) throw (Error) e;
+        return new RuntimeException(e);
+    }
+
+    private void add(int fd, int eventMask) throws Throwable {
+        // The data is the descriptor: epollWait() finds the connection in connections
+        controlEvent.set(ValueLayout.JAVA_INT, 0, eventMask);
+        controlEvent.set(ValueLayout.JAVA_LONG_UNALIGNED, DATA_OFFSET, fd);
+        long result = state.check((int) EPOLL_CTL.invokeExact(state.segment, epollFd,
+                EPOLL_CTL_ADD, fd, controlEvent));
+        if (result != 0) throw LibC.error("epoll_ctl", result);
+    }
+
+    public int getLocalPort() { return localPort; }
+
+    public long getSystemCalls() { return state.systemCalls; }
+
+    /** @returns the next event from the client connections. */
+    public Event getNextEvent() {
+        Event e = eventQueue.poll();
+        if (e == null) {
+            if (epollWait(0) > 0) {
+                e = eventQueue.poll();
+            }
+        }
+        return e;
+    }
+
+    /** @returns the next event from the client connections, or null if the thread was
+    interrupted. */
+    public Event blockForNextEvent() {
+        Event e;
+        while ((e = eventQueue.poll()) == null) {
+            if (!waitForEvents()) return null;
+        }
+        return e;
+    }
+
+    public int getNextEvents(Event[] events) {
+        if (events.length == 0) throw new IllegalArgumentException("events.length == 0");
+        Event e = getNextEvent();
+        if (e == null) return 0;
+        return fillBatch(e, events);
+    }
+
+    public int blockForNextEvents(Event[] events) {
+        if (events.length == 0) throw new IllegalArgumentException("events.length == 0");
+        Event e = blockForNextEvent();
+        if (e == null) return 0;
+        return fillBatch(e, events);
+    }
+
+    private int fillBatch(Event first, Event[] events) {
+        events[0] = first;
+        int count = 1;
+        Event e;
+        while (count < events.length && (e = eventQueue.poll()) != null) {
+            events[count] = e;
+            count += 1;
+        }
+        return count;
+    }
+
+    /** Waits like WaitStrategy.select(). @returns false if the thread was interrupted. */
+    private boolean waitForEvents() {
+        long spinNanos = waitStrategy.getSpinNanos();
+        long yieldNanos = waitStrategy.getYieldNanos();
+        long start = System.nanoTime();
+        long elapsed = 0;
+        while (elapsed < spinNanos) {
+            if (epollWait(0) > 0) return true;
+            if (Thread.currentThread().isInterrupted()) return false;
+            elapsed = System.nanoTime() - start;
+        }
+        while (elapsed - spinNanos < yieldNanos) {
+            Thread.yield();
+            if (epollWait(0) > 0) return true;
+            if (Thread.currentThread().isInterrupted()) return false;
+            elapsed = System.nanoTime() - start;
+        }
+
+        // A thread in a native call does not see interrupts, so wake up now and then
+        while (epollWait(BLOCK_SLICE_MS) == 0) {
+            if (Thread.currentThread().isInterrupted()) return false;
+        }
+        return true;
+    }
+
+    /** Waits up to timeoutMs for events and handles them. @returns the number of events. */
+    private int epollWait(int timeoutMs) {
+        int count;
+        try {
+            count = (int) state.check((int) EPOLL_WAIT.invokeExact(state.segment, epollFd,
+                    events, MAX_EVENTS, timeoutMs));
+        } catch (Throwable e) { throw propagate(e); }
+        if (count == -LibC.EINTR) return 0;
+        if (count < 0) throw LibC.error("epoll_wait", count);
+
+        for (int i = 0; i < count; ++i) {
+            long offset = i * EVENT_BYTES;
+            int eventMask = events.get(ValueLayout.JAVA_INT, offset);
+            int fd = (int) events.get(ValueLayout.JAVA_LONG_UNALIGNED, offset + DATA_OFFSET);
+            if (fd == serverFd) {
+                acceptAll();
+                continue;
+            }
+
+            EpollMessageConnection connection = fd < connections.length ? connections[fd] : null;
+            if (connection == null) continue;
+            if ((eventMask & EPOLLOUT) != 0) {
+                connection.handleWrite();
+            }
+            if ((eventMask & (EPOLLIN | CLOSE_EVENTS)) != 0) {
+                readAll(connection, (eventMask & CLOSE_EVENTS) != 0);
+            }
+        }
+        return count;
+    }
+
+    /** Edge-triggered: accepts until the backlog is empty. */
+    private void acceptAll() {
+        try {
+            while (true) {
+                int fd = LibC.accept(state, serverFd);
+                if (fd == -LibC.EAGAIN) return;
+                if (fd == -LibC.ECONNABORTED || fd == -LibC.EINTR) continue;
+                if (fd < 0) throw LibC.error("accept4", fd);
+
+                LibC.setNoDelay(state, fd);
+                EpollMessageConnection connection = new EpollMessageConnection(this, state, fd);
+                if (fd >= connections.length) {
+                    connections = Arrays.copyOf(connections, Math.max(fd + 1,
+                            connections.length * 2));
+                }
+                connections[fd] = connection;
+                add(fd, CONNECTION_EVENTS);
+                eventQueue.add(new Event(connection, null));
+            }
+        } catch (Throwable e) { throw propagate(e); }
+    }
+
+    /** Edge-triggered: reads until the socket is empty, queueing each complete message. */
+    private void readAll(EpollMessageConnection connection, boolean untilEof) {
+        int result;
+        do {
+            result = connection.fill(untilEof);
+            byte[] data;
+            while ((data = connection.tryRead()) != null) {
+                if (data.length == 0) {
+                    // Connection closed
+                    connection.close();
+                    eventQueue.add(new Event(connection, null));
+                    return;
+                }
+                eventQueue.add(new Event(connection, data));
+            }
+        } while (result == EpollMessageConnection.MORE);
+    }
+
+    /** Called by EpollMessageConnection.close(). Closing the socket removes it from epoll. */
+    void remove(EpollMessageConnection connection) {
+        connections[connection.fd()] = null;
+    }
+
+    public void close() {
+        for (EpollMessageConnection connection : connections) {
+            if (connection != null) connection.close();
+        }
+        try {
+            LibC.close(state, serverFd);
+            LibC.close(state, epollFd);
+        } catch (Throwable e) { throw propagate(e); }
+        eventQueue.clear();
+        arena.close();
+    }
+
+    private final WaitStrategy waitStrategy;
+    private final Arena arena;
+    private final LibC.CallState state;
+    private final MemorySegment events;
+    private final MemorySegment controlEvent;
+    private final int epollFd;
+    private final int serverFd;
+    private final int localPort;
+    // Indexed by file descriptor
+    private EpollMessageConnection[] connections = new EpollMessageConnection[64];
+    private final ArrayDeque<Event> eventQueue = new ArrayDeque<Event>();
+}
@@ -0,0 +1,264 @@
+package edu.mit.net;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.VarHandle;
+
+/** An io_uring instance, set up with the raw system calls since there is no liburing: the
+submission and completion rings are mapped into a MemorySegment and read and written in place.
+Submissions are only handed to the kernel by enter(), so everything prepared between two waits
+goes in one system call. Only one thread may use it. */
+final class IoUring {
+    // The io_uring system calls have the same numbers on x86-64 and arm64
+    private static final long SYS_IO_URING_SETUP = 425;
+    private static final long SYS_IO_URING_ENTER = 426;
+    private static final long SYS_IO_URING_REGISTER = 427;
+
+    private static final MethodHandle SETUP =
+            LibC.syscall(ValueLayout.JAVA_INT, ValueLayout.ADDRESS);
+    private static final MethodHandle ENTER = LibC.syscall(ValueLayout.JAVA_INT,
+            ValueLayout.JAVA_INT, ValueLayout.JAVA_INT, ValueLayout.JAVA_INT, ValueLayout.ADDRESS,
+            ValueLayout.JAVA_LONG);
+    private static final MethodHandle REGISTER = LibC.syscall(ValueLayout.JAVA_INT,
+            ValueLayout.JAVA_INT, ValueLayout.ADDRESS, ValueLayout.JAVA_INT);
+
+    static final byte IORING_OP_ACCEPT = 13;
+    static final byte IORING_OP_SEND = 26;
+    static final byte IORING_OP_RECV = 27;
+    static final short IORING_ACCEPT_MULTISHOT = 1 << 0;
+    static final short IORING_RECV_MULTISHOT = 1 << 1;
+    static final byte IOSQE_BUFFER_SELECT = 1 << 5;
+    static final int IORING_CQE_F_BUFFER = 1 << 0;
+    static final int IORING_CQE_F_MORE = 1 << 1;
+    static final int IORING_CQE_BUFFER_SHIFT = 16;
+
+    private static final int IORING_SETUP_CQSIZE = 1 << 3;
+    private static final int IORING_FEAT_SINGLE_MMAP = 1 << 0;
+    private static final int IORING_FEAT_NODROP = 1 << 1;
+    private static final int IORING_FEAT_EXT_ARG = 1 << 8;
+    private static final int IORING_ENTER_GETEVENTS = 1 << 0;
+    private static final int IORING_ENTER_EXT_ARG = 1 << 3;
+    private static final int IORING_REGISTER_PBUF_RING = 22;
+    private static final long IORING_OFF_SQ_RING = 0;
+    private static final long IORING_OFF_SQES = 0x10000000L;
+
+    // struct io_uring_params: 10 ints, then io_sqring_offsets and io_cqring_offsets
+    private static final int PARAMS_BYTES = 120;
+    private static final int SQ_OFF = 40;
+    private static final int CQ_OFF = 80;
+    private static final int SQE_BYTES = 64;
+    private static final int CQE_BYTES = 16;
+    private static final int BUF_BYTES = 16;
+    // struct io_uring_getevents_arg, then the struct __kernel_timespec it points to
+    private static final int WAIT_ARG_BYTES = 24;
+    private static final int TIMESPEC_BYTES = 16;
+
+    private static final ValueLayout.OfInt INT = ValueLayout.JAVA_INT;
+    private static final ValueLayout.OfLong LONG = ValueLayout.JAVA_LONG;
+
+    /** Sets up a ring with entries submission slots and four times as many completion slots. */
+    IoUring(LibC.CallState state, Arena arena, int entries) throws Throwable {
+        this.state = state;
+        MemorySegment params = arena.allocate(PARAMS_BYTES, 8);
+        params.set(INT, 8, IORING_SETUP_CQSIZE);
+        params.set(INT, 4, entries * 4);
+        fd = (int) state.check((long) SETUP.invokeExact(state.segment, SYS_IO_URING_SETUP,
+                entries, params));
+        if (fd < 0) throw LibC.error("io_uring_setup", fd);
+
+        int features = params.get(INT, 20);
+        int required = IORING_FEAT_SINGLE_MMAP | IORING_FEAT_NODROP | IORING_FEAT_EXT_ARG;
+        if ((features & required) != required) {
+            LibC.close(state, fd);
+            throw new UnsupportedOperationException("io_uring is too old: features " +
+                    Integer.toHexString(features));
+        }
+
+        sqEntries = params.get(INT, 0);
+        int cqEntries = params.get(INT, 4);
+        sqHead = params.get(INT, SQ_OFF);
+        sqTail = params.get(INT, SQ_OFF + 4);
+        long sqArray = params.get(INT, SQ_OFF + 24);
+        cqHead = params.get(INT, CQ_OFF);
+        cqTail = params.get(INT, CQ_OFF + 4);
+        int cqMaskOffset = params.get(INT, CQ_OFF + 8);
+        cqes = params.get(INT, CQ_OFF + 20);
+
+        // One mapping holds both rings
+        long ringBytes = Math.max(sqArray + 4L * sqEntries, cqes + (long) CQE_BYTES * cqEntries);
+        rings = LibC.mmap(state, fd, ringBytes, IORING_OFF_SQ_RING);
+        sqes = LibC.mmap(state, fd, (long) SQE_BYTES * sqEntries, IORING_OFF_SQES);
+        sqMask = rings.get(INT, params.get(INT, SQ_OFF + 8));
+        cqMask = rings.get(INT, cqMaskOffset);
+
+        // Submission slot i always holds sqes[i]: the tail alone says what is new
+        for (int i = 0; i < sqEntries; ++i) {
+            rings.set(INT, sqArray + 4L * i, i);
+        }
+        localSqTail = rings.get(INT, sqTail);
+        submittedSqTail = localSqTail;
+        localCqHead = rings.get(INT, cqHead);
+
+        waitArgument = arena.allocate(WAIT_ARG_BYTES + TIMESPEC_BYTES, 8);
+        waitArgument.set(LONG, 16, waitArgument.address() + WAIT_ARG_BYTES);
+    }
+
+    /** @returns the byte offset in sqes() of a zeroed submission entry. */
+    private long nextSqe() throws Throwable {
+        // The kernel consumes entries when they are submitted: make room if the ring is full
+        if (localSqTail - rings.get(INT, sqHead) == sqEntries) {
+            enter(0, 0);
+        }
+        long offset = (long) (localSqTail & sqMask) * SQE_BYTES;
+        for (int i = 0; i < SQE_BYTES; i += 8) {
+            sqes.set(LONG, offset + i, 0);
+        }
+        localSqTail += 1;
+        return offset;
+    }
+
+    private void prepare(long sqe, byte opcode, int fd, long userData) {
+        sqes.set(ValueLayout.JAVA_BYTE, sqe, opcode);
+        sqes.set(INT, sqe + 4, fd);
+        sqes.set(LONG, sqe + 32, userData);
+    }
+
+    /** Accepts connections on the listening socket fd until cancelled. */
+    void acceptMultishot(int fd, int flags, long userData) throws Throwable {
+        long sqe = nextSqe();
+        prepare(sqe, IORING_OP_ACCEPT, fd, userData);
+        sqes.set(ValueLayout.JAVA_SHORT, sqe + 2, IORING_ACCEPT_MULTISHOT);
+        sqes.set(INT, sqe + 28, flags);
+    }
+
+    /** Receives from fd into buffers taken from bufferGroup until the stream ends. */
+    void recvMultishot(int fd, short bufferGroup, long userData) throws Throwable {
+        long sqe = nextSqe();
+        prepare(sqe, IORING_OP_RECV, fd, userData);
+        sqes.set(ValueLayout.JAVA_BYTE, sqe + 1, IOSQE_BUFFER_SELECT);
+        sqes.set(ValueLayout.JAVA_SHORT, sqe + 2, IORING_RECV_MULTISHOT);
+        sqes.set(ValueLayout.JAVA_SHORT, sqe + 40, bufferGroup);
+    }
+
+    /** Sends count bytes at address, which must stay unchanged until the completion. */
+    void send(int fd, long address, int count, long userData) throws Throwable {
+        long sqe = nextSqe();
+        prepare(sqe, IORING_OP_SEND, fd, userData);
+        sqes.set(LONG, sqe + 16, address);
+        sqes.set(INT, sqe + 24, count);
+        sqes.set(INT, sqe + 28, LibC.MSG_NOSIGNAL);
+    }
+
+    /** @returns true if there are prepared entries the kernel has not seen. */
+    boolean hasUnsubmitted() {
+        return localSqTail != submittedSqTail;
+    }
+
+    /** Submits the prepared entries and waits for up to timeoutMs for minComplete completions.
+    @returns the number submitted, or -errno: -ETIME if nothing was submitted and the wait timed
+    out. */
+    int enter(int minComplete, int timeoutMs) throws Throwable {
+        // The entries must be visible before the tail that publishes them
+        VarHandle.releaseFence();
+        rings.set(INT, sqTail, localSqTail);
+        int toSubmit = localSqTail - submittedSqTail;
+
+        int flags = IORING_ENTER_GETEVENTS;
+        MemorySegment argument = MemorySegment.NULL;
+        long argumentBytes = 0;
+        if (minComplete > 0) {
+            waitArgument.set(LONG, WAIT_ARG_BYTES, timeoutMs / 1000);
+            waitArgument.set(LONG, WAIT_ARG_BYTES + 8, (timeoutMs % 1000) * 1000000L);
+            flags |= IORING_ENTER_EXT_ARG;
+            argument = waitArgument;
+            argumentBytes = WAIT_ARG_BYTES;
+        }
+        int result = (int) state.check((long) ENTER.invokeExact(state.segment, SYS_IO_URING_ENTER,
+                fd, toSubmit, minComplete, flags, argument, argumentBytes));
+        // A wait that times out or is interrupted still reports what it submitted, if anything
+        if (result > 0) submittedSqTail += result;
+        return result;
+    }
+
+    /** @returns the number of completions ready to read with the methods below. */
+    int completions() {
+        int tail = rings.get(INT, cqTail);
+        // Read the entries only after the tail that published them
+        VarHandle.acquireFence();
+        return tail - localCqHead;
+    }
+
+    private long cqe(int index) {
+        return cqes + (long) ((localCqHead + index) & cqMask) * CQE_BYTES;
+    }
+
+    long userData(int index) { return rings.get(LONG, cqe(index)); }
+    int result(int index) { return rings.get(INT, cqe(index) + 8); }
+    int flags(int index) { return rings.get(INT, cqe(index) + 12); }
+
+    /** Returns count completions to the kernel. */
+    void consume(int count) {
+        localCqHead += count;
+        VarHandle.releaseFence();
+        rings.set(INT, cqHead, localCqHead);
+    }
+
+    /** Registers a ring of provided buffers, so receives pick a buffer when data arrives instead
+    of each holding one. ring must be page aligned, with entries * 16 bytes. */
+    void registerBufferRing(MemorySegment ring, int entries, short group, Arena arena)
+            throws Throwable {
+        // struct io_uring_buf_reg { u64 ring_addr; u32 ring_entries; u16 bgid; u16 flags; ... }
+        MemorySegment registration = arena.allocate(40, 8);
+        registration.set(LONG, 0, ring.address());
+        registration.set(INT, 8, entries);
+        registration.set(ValueLayout.JAVA_SHORT, 12, group);
+        long result = state.check((long) REGISTER.invokeExact(state.segment,
+                SYS_IO_URING_REGISTER, fd, IORING_REGISTER_PBUF_RING, registration, 1));
+        if (result != 0) throw LibC.error("io_uring_register(PBUF_RING)", result);
+    }
+
+    /** Adds buffer id, length bytes at address, to a provided buffer ring whose local tail is
+    tail. @returns the new tail: publish it with publishBuffers(). */
+    static int addBuffer(MemorySegment ring, int mask, int tail, long address, int length,
+            short id) {
+        // struct io_uring_buf { u64 addr; u32 len; u16 bid; u16 resv; }: the ring's tail is the
+        // first entry's resv, so leave resv alone
+        long offset = (long) (tail & mask) * BUF_BYTES;
+        ring.set(LONG, offset, address);
+        ring.set(INT, offset + 8, length);
+        ring.set(ValueLayout.JAVA_SHORT, offset + 12, id);
+        return tail + 1;
+    }
+
+    static void publishBuffers(MemorySegment ring, int tail) {
+        VarHandle.releaseFence();
+        ring.set(ValueLayout.JAVA_SHORT, 14, (short) tail);
+    }
+
+    void close() throws Throwable {
+        LibC.munmap(state, sqes);
+        LibC.munmap(state, rings);
+        LibC.close(state, fd);
+    }
+
+    private final LibC.CallState state;
+    private final int fd;
+    private final int sqEntries;
+    private final MemorySegment rings;
+    private final MemorySegment sqes;
+    private final MemorySegment waitArgument;
+    // Offsets in rings
+    private final long sqHead;
+    private final long sqTail;
+    private final long cqHead;
+    private final long cqTail;
+    private final long cqes;
+    private final int sqMask;
+    private final int cqMask;
+    // Entries prepared, entries the kernel was told about, and completions consumed
+    private int localSqTail;
+    private int submittedSqTail;
+    private int localCqHead;
+}
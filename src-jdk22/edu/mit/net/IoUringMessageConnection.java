@@ -0,0 +1,210 @@
+package edu.mit.net;
+
+import java.io.IOException;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/** A connection accepted by IoUringMessageListener. The listener copies received data into the
+read buffer from the shared pool of provided buffers. Writes are copied into a direct buffer and
+sent by one IORING_OP_SEND; writes made while a send is in flight collect in a second buffer,
+sent when the first completes. The kernel reads the buffers after write() returns, so handleWrite()
+only reports whether everything has been sent. Like the NIO connection, it must only be used by
+the thread running the listener. */
+final class IoUringMessageConnection implements MessageConnection {
+    private static final int READ_BUFFER_SIZE = 16384;
+    private static final int WRITE_BUFFER_SIZE = 4096;
+
+    IoUringMessageConnection(IoUringMessageListener listener, int slot, int fd) {
+        this.listener = listener;
+        this.slot = slot;
+        this.fd = fd;
+        readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        readBuffer.order(ByteOrder.LITTLE_ENDIAN);
+        readBuffer.limit(0);
+        writeBuffer = allocateDirect(WRITE_BUFFER_SIZE);
+        sendBuffer = allocateDirect(WRITE_BUFFER_SIZE);
+    }
+
+    private static ByteBuffer allocateDirect(int capacity) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(capacity);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        return buffer;
+    }
+
+    int slot() { return slot; }
+    int fd() { return fd; }
+
+    /** Appends count received bytes from source at offset to the read buffer. */
+    void received(MemorySegment source, long offset, int count) {
+        if (readBuffer.capacity() - readBuffer.limit() < count) {
+            if (readBuffer.position() > 0 &&
+                    readBuffer.capacity() - readBuffer.remaining() >= count) {
+                readBuffer.compact();
+                readBuffer.flip();
+            } else {
+                ByteBuffer bigger = ByteBuffer.allocate(Math.max(readBuffer.capacity() * 2,
+                        readBuffer.remaining() + count));
+                bigger.order(ByteOrder.LITTLE_ENDIAN);
+                bigger.put(readBuffer);
+                bigger.flip();
+                readBuffer = bigger;
+            }
+        }
+        int limit = readBuffer.limit();
+        MemorySegment.copy(source, ValueLayout.JAVA_BYTE, offset, readBuffer.array(),
+                readBuffer.arrayOffset() + limit, count);
+        readBuffer.limit(limit + count);
+    }
+
+    /** The stream ended: tryRead() returns byte[0] once the complete messages are read. */
+    void receivedEnd() {
+        ended = true;
+    }
+
+    /** Returns a message from the bytes the listener has received, if one is complete. */
+    public byte[] tryRead() {
+        int available = readBuffer.remaining();
+        if (available >= 4) {
+            int length = readBuffer.getInt(readBuffer.position());
+            if (length <= 0) {
+                throw new IllegalStateException("bad message length: " + length);
+            }
+            if (available - 4 >= length) {
+                byte[] result = new byte[length];
+                readBuffer.position(readBuffer.position() + 4);
+                readBuffer.get(result);
+                return result;
+            }
+        }
+        if (ended) return new byte[0];
+        return null;
+    }
+
+    public void write(byte[] message) {
+        if (message.length == 0) {
+            throw new IllegalArgumentException("message.length == 0: messages must contain data");
+        }
+        startWrite(message.length);
+        writeBuffer.put(message);
+        finishWrite();
+    }
+
+    public void write(ByteBuffer message) {
+        final int length = message.remaining();
+        if (length == 0) {
+            throw new IllegalArgumentException("message.remaining() == 0: messages must contain data");
+        }
+        startWrite(length);
+        writeBuffer.put(message);
+        finishWrite();
+    }
+
+    /** Copies count bytes of file into the write buffer, like EpollMessageConnection. */
+    public void write(FileChannel file, long position, long count) {
+        if (count <= 0 || count > Integer.MAX_VALUE - 4) {
+            throw new IllegalArgumentException("count must be in (0, Integer.MAX_VALUE - 4]: " +
+                    count);
+        }
+        try {
+            if (position < 0 || position + count > file.size()) {
+                throw new IllegalArgumentException("region [" + position + ", " +
+                        (position + count) + ") is outside the file (size " + file.size() + ")");
+            }
+            startWrite((int) count);
+            ByteBuffer body = writeBuffer.duplicate();
+            body.limit(body.position() + (int) count);
+            while (body.hasRemaining()) {
+                if (file.read(body, position + body.position() - writeBuffer.position()) < 0) {
+                    throw new IllegalStateException("file shrank while being sent");
+                }
+            }
+            writeBuffer.position(body.limit());
+            finishWrite();
+        } catch (IOException e) { throw new RuntimeException(e); }
+    }
+
+    private void startWrite(int length) {
+        if (fd < 0) throw new IllegalStateException("connection is closed");
+        if (writeBuffer.remaining() < 4 + length) {
+            ByteBuffer bigger = allocateDirect(Math.max(writeBuffer.capacity() * 2,
+                    writeBuffer.position() + 4 + length));
+            writeBuffer.flip();
+            bigger.put(writeBuffer);
+            writeBuffer = bigger;
+        }
+        writeBuffer.putInt(length);
+    }
+
+    private void finishWrite() {
+        if (!sending) startSend();
+    }
+
+    /** Swaps the buffers and queues a send of everything written so far. */
+    private void startSend() {
+        ByteBuffer full = writeBuffer;
+        writeBuffer = sendBuffer;
+        writeBuffer.clear();
+        sendBuffer = full;
+        sendBuffer.flip();
+        sending = true;
+        submitSend();
+    }
+
+    private void submitSend() {
+        listener.send(this, MemorySegment.ofBuffer(sendBuffer).address(), sendBuffer.remaining());
+    }
+
+    /** Called by the listener when a send completes with result, the bytes sent or -errno. */
+    void sendCompleted(int result) {
+        if (fd < 0 || result == -LibC.EPIPE || result == -LibC.ECONNRESET) {
+            // Closed by us or the peer: drop the rest, as close() does
+            sending = false;
+            sendBuffer.clear();
+            return;
+        }
+        if (result < 0) throw LibC.error("send", result);
+
+        sendBuffer.position(sendBuffer.position() + result);
+        if (sendBuffer.hasRemaining()) {
+            submitSend();
+            return;
+        }
+        sending = false;
+        if (writeBuffer.position() > 0) startSend();
+    }
+
+    boolean isSending() { return sending; }
+
+    /** @returns true if everything written has been sent. */
+    public boolean handleWrite() {
+        return !sending && writeBuffer.position() == 0;
+    }
+
+    /** Shuts down the socket, which ends the receive the listener keeps armed, and closes it.
+    The listener frees the connection's slot when its last request completes. */
+    public void close() {
+        if (fd < 0) return;
+        int closing = fd;
+        fd = -1;
+        ended = true;
+        writeBuffer.clear();
+        listener.closed(this, closing);
+    }
+
+    private final IoUringMessageListener listener;
+    private final int slot;
+    private int fd;
+    private boolean ended;
+    // Unparsed bytes are between position and limit
+    private ByteBuffer readBuffer;
+    // Messages written since the send in flight started, between 0 and position
+    private ByteBuffer writeBuffer;
+    // The kernel reads this buffer, between position and limit, until the send completes
+    private ByteBuffer sendBuffer;
+    private boolean sending;
+    // Set by the listener while a multishot receive is armed
+    boolean receiving;
+}
@@ -0,0 +1,330 @@
+package edu.mit.net;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/** A MessageListener on io_uring. One multishot accept stays armed on the listening socket, and
+one multishot receive on each connection, taking buffers from a pool registered with the kernel
+as a provided buffer ring. Sends are queued as submissions. While the application has events to
+handle they are handed to the kernel together by the next wait, so a busy server makes about one
+io_uring_enter per batch of messages instead of a poll, a read and a write per message; once
+the events run out, a send is submitted immediately, so it never waits for the next call.
+Transport loads this class by name; loading fails if the kernel does not support io_uring. */
+final class IoUringMessageListener implements MessageListener, SystemCallCounter {
+    private static final int RING_ENTRIES = 256;
+    // The provided buffer pool: received data waits here only until the listener copies it
+    private static final short BUFFER_GROUP = 0;
+    private static final int BUFFERS = 256;
+    private static final int BUFFER_SIZE = 16384;
+    private static final int PAGE_SIZE = 4096;
+    private static final int BACKLOG = 2048;
+    // Blocking waits return this often to check for interrupts
+    private static final int BLOCK_SLICE_MS = 100;
+
+    // user_data: the request type in the low byte, the connection's slot above it
+    private static final int ACCEPT = 1;
+    private static final int RECV = 2;
+    private static final int SEND = 3;
+
+    static {
+        // Fail now, so Transport falls back to nio, if io_uring is disabled or too old
+        try (Arena arena = Arena.ofConfined()) {
+            LibC.CallState state = new LibC.CallState(arena);
+            IoUring ring = new IoUring(state, arena, 2);
+            try {
+                MemorySegment buffers = arena.allocate(16, PAGE_SIZE);
+                ring.registerBufferRing(buffers, 1, BUFFER_GROUP, arena);
+            } finally {
+                ring.close();
+            }
+        } catch (Throwable e) {
+            throw new UnsupportedOperationException("io_uring is not available", e);
+        }
+    }
+
+    IoUringMessageListener(int port, WaitStrategy waitStrategy) {
+        this.waitStrategy = waitStrategy;
+        arena = Arena.ofShared();
+        state = new LibC.CallState(arena);
+        try {
+            ring = new IoUring(state, arena, RING_ENTRIES);
+            bufferRing = arena.allocate(BUFFERS * 16L, PAGE_SIZE);
+            buffers = arena.allocate((long) BUFFERS * BUFFER_SIZE, PAGE_SIZE);
+            ring.registerBufferRing(bufferRing, BUFFERS, BUFFER_GROUP, arena);
+            for (int i = 0; i < BUFFERS; ++i) {
+                bufferTail = IoUring.addBuffer(bufferRing, BUFFERS - 1, bufferTail,
+                        buffers.address() + (long) i * BUFFER_SIZE, BUFFER_SIZE, (short) i);
+            }
+            IoUring.publishBuffers(bufferRing, bufferTail);
+
+            serverFd = LibC.listen(state, port, BACKLOG);
+            localPort = LibC.localPort(state, serverFd);
+            ring.acceptMultishot(serverFd, LibC.SOCK_CLOEXEC, ACCEPT);
+        } catch (Throwable e) {
+            arena.close();
+            throw EpollMessageListener.propagate(e);
+        }
+    }
+
+    public int getLocalPort() { return localPort; }
+
+    public long getSystemCalls() { return state.systemCalls; }
+
+    /** @returns the next event from the client connections. */
+    public Event getNextEvent() {
+        Event e = eventQueue.poll();
+        if (e == null) {
+            poll();
+            e = eventQueue.poll();
+        }
+        return e;
+    }
+
+    /** @returns the next event from the client connections, or null if the thread was
+    interrupted. */
+    public Event blockForNextEvent() {
+        Event e;
+        while ((e = eventQueue.poll()) == null) {
+            if (!waitForEvents()) return null;
+        }
+        return e;
+    }
+
+    /** Submits queued requests and handles completions without waiting.
+    @returns the number of completions. */
+    private int poll() {
+        // Completions can arrive without a system call; submissions cannot
+        int count = handleCompletions();
+        if (count == 0 || ring.hasUnsubmitted()) {
+            enter(0, 0);
+            count += handleCompletions();
+        }
+        return count;
+    }
+
+    public int getNextEvents(Event[] events) {
+        if (events.length == 0) throw new IllegalArgumentException("events.length == 0");
+        Event e = getNextEvent();
+        if (e == null) return 0;
+        return fillBatch(e, events);
+    }
+
+    public int blockForNextEvents(Event[] events) {
+        if (events.length == 0) throw new IllegalArgumentException("events.length == 0");
+        Event e = blockForNextEvent();
+        if (e == null) return 0;
+        return fillBatch(e, events);
+    }
+
+    private int fillBatch(Event first, Event[] events) {
+        events[0] = first;
+        int count = 1;
+        Event e;
+        while (count < events.length && (e = eventQueue.poll()) != null) {
+            events[count] = e;
+            count += 1;
+        }
+        return count;
+    }
+
+    /** Waits like WaitStrategy.select(). @returns false if the thread was interrupted. */
+    private boolean waitForEvents() {
+        long spinNanos = waitStrategy.getSpinNanos();
+        long yieldNanos = waitStrategy.getYieldNanos();
+        long start = System.nanoTime();
+        long elapsed = 0;
+        while (elapsed < spinNanos) {
+            if (poll() > 0) return true;
+            if (Thread.currentThread().isInterrupted()) return false;
+            elapsed = System.nanoTime() - start;
+        }
+        while (elapsed - spinNanos < yieldNanos) {
+            Thread.yield();
+            if (poll() > 0) return true;
+            if (Thread.currentThread().isInterrupted()) return false;
+            elapsed = System.nanoTime() - start;
+        }
+
+        // Sends queued since the last wait go in with it. A thread in a native call does not see
+        // interrupts, so wake up now and then
+        while (true) {
+            if (handleCompletions() > 0) return true;
+            enter(1, BLOCK_SLICE_MS);
+            if (handleCompletions() > 0) return true;
+            if (Thread.currentThread().isInterrupted()) return false;
+        }
+    }
+
+    private void enter(int minComplete, int timeoutMs) {
+        int result;
+        try {
+            result = ring.enter(minComplete, timeoutMs);
+        } catch (Throwable e) { throw EpollMessageListener.propagate(e); }
+        if (result < 0 && result != -LibC.ETIME && result != -LibC.EINTR) {
+            throw LibC.error("io_uring_enter", result);
+        }
+    }
+
+    /** @returns the number of completions handled. */
+    private int handleCompletions() {
+        int count = ring.completions();
+        if (count == 0) return 0;
+        handling = true;
+        try {
+            for (int i = 0; i < count; ++i) {
+                long userData = ring.userData(i);
+                int result = ring.result(i);
+                int flags = ring.flags(i);
+                int type = (int) (userData & 0xff);
+                if (type == ACCEPT) {
+                    accepted(result, flags);
+                } else {
+                    IoUringMessageConnection connection = connections[(int) (userData >>> 8)];
+                    if (type == RECV) {
+                        received(connection, result, flags);
+                    } else {
+                        connection.sendCompleted(result);
+                    }
+                    freeIfDone(connection);
+                }
+            }
+        } catch (Throwable e) {
+            throw EpollMessageListener.propagate(e);
+        } finally {
+            handling = false;
+            ring.consume(count);
+        }
+        return count;
+    }
+
+    private void accepted(int result, int flags) throws Throwable {
+        if ((flags & IoUring.IORING_CQE_F_MORE) == 0 && serverFd >= 0) {
+            // The kernel stopped accepting, for example after an error: start again
+            ring.acceptMultishot(serverFd, LibC.SOCK_CLOEXEC, ACCEPT);
+        }
+        if (result < 0) {
+            if (result == -LibC.ECANCELED || result == -LibC.ECONNABORTED ||
+                    result == -LibC.EINTR) {
+                return;
+            }
+            throw LibC.error("accept", result);
+        }
+
+        LibC.setNoDelay(state, result);
+        int slot = freeSlots.isEmpty() ? nextSlot++ : freeSlots.pop();
+        if (slot >= connections.length) {
+            connections = Arrays.copyOf(connections, connections.length * 2);
+        }
+        IoUringMessageConnection connection = new IoUringMessageConnection(this, slot, result);
+        connections[slot] = connection;
+        receive(connection);
+        eventQueue.add(new Event(connection, null));
+    }
+
+    private void receive(IoUringMessageConnection connection) throws Throwable {
+        connection.receiving = true;
+        ring.recvMultishot(connection.fd(), BUFFER_GROUP,
+                ((long) connection.slot() << 8) | RECV);
+    }
+
+    private void received(IoUringMessageConnection connection, int result, int flags)
+            throws Throwable {
+        boolean more = (flags & IoUring.IORING_CQE_F_MORE) != 0;
+        if (!more) connection.receiving = false;
+        boolean open = connection.fd() >= 0;
+
+        if ((flags & IoUring.IORING_CQE_F_BUFFER) != 0) {
+            int id = flags >>> IoUring.IORING_CQE_BUFFER_SHIFT;
+            if (open && result > 0) {
+                connection.received(buffers, (long) id * BUFFER_SIZE, result);
+            }
+            // Copied: give the buffer back to the kernel
+            bufferTail = IoUring.addBuffer(bufferRing, BUFFERS - 1, bufferTail,
+                    buffers.address() + (long) id * BUFFER_SIZE, BUFFER_SIZE, (short) id);
+            IoUring.publishBuffers(bufferRing, bufferTail);
+        }
+        if (!open) return;
+
+        if (result == 0 || result == -LibC.ECONNRESET) {
+            connection.receivedEnd();
+        } else if (result < 0 && result != -LibC.ENOBUFS && result != -LibC.EINTR) {
+            throw LibC.error("recv", result);
+        } else if (!more) {
+            // Out of buffers, or the kernel ended the receive for another reason
+            receive(connection);
+        }
+
+        byte[] data;
+        while ((data = connection.tryRead()) != null) {
+            if (data.length == 0) {
+                // Connection closed
+                connection.close();
+                eventQueue.add(new Event(connection, null));
+                return;
+            }
+            eventQueue.add(new Event(connection, data));
+        }
+    }
+
+    /** Called by IoUringMessageConnection to send count bytes at address. */
+    void send(IoUringMessageConnection connection, long address, int count) {
+        try {
+            ring.send(connection.fd(), address, count, ((long) connection.slot() << 8) | SEND);
+        } catch (Throwable e) { throw EpollMessageListener.propagate(e); }
+        // With no events left, the application may not call us again soon
+        if (!handling && eventQueue.isEmpty()) enter(0, 0);
+    }
+
+    /** Called by IoUringMessageConnection.close() with the connection's socket. */
+    void closed(IoUringMessageConnection connection, int fd) {
+        try {
+            // Ends the armed receive and any send in flight; the socket stays open until they
+            // complete, since the kernel holds references to it
+            LibC.shutdown(state, fd);
+            LibC.close(state, fd);
+        } catch (Throwable e) { throw EpollMessageListener.propagate(e); }
+        freeIfDone(connection);
+    }
+
+    /** Reuses the slot of a closed connection once the kernel is done with it. */
+    private void freeIfDone(IoUringMessageConnection connection) {
+        if (connection.fd() < 0 && !connection.receiving && !connection.isSending() &&
+                connections[connection.slot()] == connection) {
+            connections[connection.slot()] = null;
+            freeSlots.push(connection.slot());
+        }
+    }
+
+    public void close() {
+        for (IoUringMessageConnection connection : connections) {
+            if (connection != null) connection.close();
+        }
+        try {
+            // Closing the ring cancels the requests still in flight
+            LibC.close(state, serverFd);
+            serverFd = -1;
+            ring.close();
+        } catch (Throwable e) { throw EpollMessageListener.propagate(e); }
+        eventQueue.clear();
+        arena.close();
+    }
+
+    private final WaitStrategy waitStrategy;
+    private final Arena arena;
+    private final LibC.CallState state;
+    private final IoUring ring;
+    private final MemorySegment bufferRing;
+    private final MemorySegment buffers;
+    private int bufferTail;
+    private int serverFd;
+    private final int localPort;
+    // Indexed by slot, which stays taken until the kernel is done with the connection
+    private IoUringMessageConnection[] connections = new IoUringMessageConnection[64];
+    private final ArrayDeque<Integer> freeSlots = new ArrayDeque<Integer>();
+    private int nextSlot;
+    // True while completions are handled: the wait that follows submits their sends
+    private boolean handling;
+    private final ArrayDeque<Event> eventQueue = new ArrayDeque<Event>();
+}
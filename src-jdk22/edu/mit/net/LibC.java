@@ -0,0 +1,226 @@
+package edu.mit.net;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.Linker;
+import java.lang.foreign.MemoryLayout;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.StructLayout;
+import java.lang.foreign.SymbolLookup;
+import java.lang.foreign.ValueLayout;
+import java.lang.invoke.MethodHandle;
+import java.nio.ByteOrder;
+
+/** The libc socket calls used by the native transports, through the FFM API. Calls that can fail
+return -errno instead of -1, like the raw system calls, so callers do not need a second call to
+read errno. Each thread making calls needs its own CallState. */
+final class LibC {
+    private LibC() {}
+
+    static final int EINTR = 4;
+    static final int EAGAIN = 11;
+    static final int EPIPE = 32;
+    static final int ETIME = 62;
+    static final int ECONNABORTED = 103;
+    static final int ECONNRESET = 104;
+    static final int ENOBUFS = 105;
+    static final int ECANCELED = 125;
+
+    static final int AF_INET = 2;
+    static final int SOCK_STREAM = 1;
+    static final int SOCK_NONBLOCK = 04000;
+    static final int SOCK_CLOEXEC = 02000000;
+    static final int SOL_SOCKET = 1;
+    static final int SO_REUSEADDR = 2;
+    static final int IPPROTO_TCP = 6;
+    static final int TCP_NODELAY = 1;
+    static final int MSG_NOSIGNAL = 0x4000;
+    static final int SHUT_RDWR = 2;
+    static final int PROT_READ = 0x1;
+    static final int PROT_WRITE = 0x2;
+    static final int MAP_SHARED = 0x1;
+    static final int MAP_POPULATE = 0x8000;
+    private static final int SOCKADDR_IN_BYTES = 16;
+    // A sockaddr_in and an int
+    private static final int SCRATCH_BYTES = SOCKADDR_IN_BYTES + 8;
+
+    static final Linker LINKER = Linker.nativeLinker();
+    private static final SymbolLookup LOOKUP = LINKER.defaultLookup();
+    private static final StructLayout CALL_STATE = Linker.Option.captureStateLayout();
+    private static final long ERRNO_OFFSET =
+            CALL_STATE.byteOffset(MemoryLayout.PathElement.groupElement("errno"));
+
+    private static final ValueLayout.OfInt INT = ValueLayout.JAVA_INT;
+    private static final ValueLayout.OfLong LONG = ValueLayout.JAVA_LONG;
+    private static final ValueLayout ADDRESS = ValueLayout.ADDRESS;
+
+    // int socket(int domain, int type, int protocol)
+    private static final MethodHandle SOCKET = downcall("socket", INT, INT, INT, INT);
+    // int setsockopt(int fd, int level, int name, const void *value, socklen_t length)
+    private static final MethodHandle SETSOCKOPT =
+            downcall("setsockopt", INT, INT, INT, INT, ADDRESS, INT);
+    // int bind(int fd, const struct sockaddr *address, socklen_t length)
+    private static final MethodHandle BIND = downcall("bind", INT, INT, ADDRESS, INT);
+    // int listen(int fd, int backlog)
+    private static final MethodHandle LISTEN = downcall("listen", INT, INT, INT);
+    // int getsockname(int fd, struct sockaddr *address, socklen_t *length)
+    private static final MethodHandle GETSOCKNAME =
+            downcall("getsockname", INT, INT, ADDRESS, ADDRESS);
+    // int accept4(int fd, struct sockaddr *address, socklen_t *length, int flags)
+    private static final MethodHandle ACCEPT4 =
+            downcall("accept4", INT, INT, ADDRESS, ADDRESS, INT);
+    // ssize_t read(int fd, void *buffer, size_t count)
+    private static final MethodHandle READ = downcall("read", LONG, INT, ADDRESS, LONG);
+    // ssize_t send(int fd, const void *buffer, size_t count, int flags)
+    private static final MethodHandle SEND = downcall("send", LONG, INT, ADDRESS, LONG, INT);
+    // int close(int fd)
+    private static final MethodHandle CLOSE = downcall("close", INT, INT);
+    // int shutdown(int fd, int how)
+    private static final MethodHandle SHUTDOWN = downcall("shutdown", INT, INT, INT);
+    // void *mmap(void *address, size_t length, int protection, int flags, int fd, off_t offset)
+    private static final MethodHandle MMAP =
+            downcall("mmap", ADDRESS, ADDRESS, LONG, INT, INT, INT, LONG);
+    // int munmap(void *address, size_t length)
+    private static final MethodHandle MUNMAP = downcall("munmap", INT, ADDRESS, LONG);
+
+    static MethodHandle downcall(String name, ValueLayout result, ValueLayout... arguments) {
+        MemorySegment symbol = LOOKUP.find(name).orElseThrow(
+                () -> new UnsatisfiedLinkError("libc has no " + name));
+        return LINKER.downcallHandle(symbol, FunctionDescriptor.of(result, arguments),
+                Linker.Option.captureCallState("errno"));
+    }
+
+    /** @returns a handle for long syscall(long number, ...) with these arguments after number. */
+    static MethodHandle syscall(ValueLayout... arguments) {
+        ValueLayout[] all = new ValueLayout[arguments.length + 1];
+        all[0] = LONG;
+        System.arraycopy(arguments, 0, all, 1, arguments.length);
+        MemorySegment symbol = LOOKUP.find("syscall").orElseThrow(
+                () -> new UnsatisfiedLinkError("libc has no syscall"));
+        return LINKER.downcallHandle(symbol, FunctionDescriptor.of(LONG, all),
+                Linker.Option.firstVariadicArg(1), Linker.Option.captureCallState("errno"));
+    }
+
+    /** Where the calls made by one thread save errno, and scratch space for their arguments. */
+    static final class CallState {
+        CallState(Arena arena) {
+            segment = arena.allocate(CALL_STATE.byteSize(), CALL_STATE.byteAlignment());
+            scratch = arena.allocate(SCRATCH_BYTES, 8);
+        }
+
+        /** Counts a call. @returns result, or -errno if result is -1. */
+        long check(long result) {
+            systemCalls += 1;
+            if (result != -1) return result;
+            return -segment.get(INT, ERRNO_OFFSET);
+        }
+
+        final MemorySegment segment;
+        final MemorySegment scratch;
+        // Written by the calling thread only: others may read a stale count
+        long systemCalls;
+    }
+
+    /** Converts the -errno returned by a call into an exception. */
+    static RuntimeException error(String call, long errno) {
+        return new RuntimeException(call + " failed: errno " + -errno);
+    }
+
+    /** @returns a non-blocking TCP socket listening on port, on all addresses. */
+    static int listen(CallState state, int port, int backlog) throws Throwable {
+        int fd = (int) state.check((int) SOCKET.invokeExact(state.segment, AF_INET,
+                SOCK_STREAM | SOCK_NONBLOCK | SOCK_CLOEXEC, 0));
+        if (fd < 0) throw error("socket", fd);
+
+        long result = setOption(state, fd, SOL_SOCKET, SO_REUSEADDR, 1);
+        if (result == 0) {
+            // sockaddr_in: family, then the port in network byte order; the address 0 is any
+            MemorySegment address = state.scratch.asSlice(0, SOCKADDR_IN_BYTES);
+            address.fill((byte) 0);
+            address.set(ValueLayout.JAVA_SHORT, 0, (short) AF_INET);
+            address.set(ValueLayout.JAVA_SHORT.withOrder(ByteOrder.BIG_ENDIAN), 2, (short) port);
+            result = state.check((int) BIND.invokeExact(state.segment, fd, address,
+                    SOCKADDR_IN_BYTES));
+        }
+        if (result == 0) {
+            result = state.check((int) LISTEN.invokeExact(state.segment, fd, backlog));
+        }
+        if (result != 0) {
+            close(state, fd);
+            throw error("binding port " + port, result);
+        }
+        return fd;
+    }
+
+    /** @returns the port fd is bound to. */
+    static int localPort(CallState state, int fd) throws Throwable {
+        MemorySegment address = state.scratch.asSlice(0, SOCKADDR_IN_BYTES);
+        MemorySegment length = state.scratch.asSlice(SOCKADDR_IN_BYTES, 4);
+        length.set(INT, 0, SOCKADDR_IN_BYTES);
+        long result = state.check((int) GETSOCKNAME.invokeExact(state.segment, fd, address,
+                length));
+        if (result != 0) throw error("getsockname", result);
+        return address.get(ValueLayout.JAVA_SHORT.withOrder(ByteOrder.BIG_ENDIAN), 2) & 0xffff;
+    }
+
+    /** @returns a non-blocking connection from the listening socket fd, or -errno. */
+    static int accept(CallState state, int fd) throws Throwable {
+        return (int) state.check((int) ACCEPT4.invokeExact(state.segment, fd, MemorySegment.NULL,
+                MemorySegment.NULL, SOCK_NONBLOCK | SOCK_CLOEXEC));
+    }
+
+    /** Turns off Nagle's algorithm, like NIOMessageConnection. */
+    static void setNoDelay(CallState state, int fd) throws Throwable {
+        long result = setOption(state, fd, IPPROTO_TCP, TCP_NODELAY, 1);
+        if (result != 0) throw error("setsockopt(TCP_NODELAY)", result);
+    }
+
+    /** Sets an int socket option. @returns 0 or -errno. */
+    static long setOption(CallState state, int fd, int level, int name, int value)
+            throws Throwable {
+        MemorySegment argument = state.scratch.asSlice(SOCKADDR_IN_BYTES, 4);
+        argument.set(INT, 0, value);
+        return state.check((int) SETSOCKOPT.invokeExact(state.segment, fd, level, name,
+                argument, 4));
+    }
+
+    /** @returns the bytes read, 0 at the end of the stream, or -errno. */
+    static long read(CallState state, int fd, MemorySegment buffer, long count) throws Throwable {
+        return state.check((long) READ.invokeExact(state.segment, fd, buffer, count));
+    }
+
+    /** @returns the bytes written, or -errno. A closed connection returns -EPIPE instead of
+    raising SIGPIPE. */
+    static long send(CallState state, int fd, MemorySegment buffer, long count)
+            throws Throwable {
+        return state.check((long) SEND.invokeExact(state.segment, fd, buffer, count,
+                MSG_NOSIGNAL));
+    }
+
+    static void close(CallState state, int fd) throws Throwable {
+        long result = state.check((int) CLOSE.invokeExact(state.segment, fd));
+        if (result != 0 && result != -EINTR) throw error("close", result);
+    }
+
+    /** Stops both directions of fd, waking up anything waiting on it. @returns 0 or -errno. */
+    static long shutdown(CallState state, int fd) throws Throwable {
+        return state.check((int) SHUTDOWN.invokeExact(state.segment, fd, SHUT_RDWR));
+    }
+
+    /** Maps length bytes of fd at offset, shared and readable and writable. */
+    static MemorySegment mmap(CallState state, int fd, long length, long offset)
+            throws Throwable {
+        MemorySegment address = (MemorySegment) MMAP.invokeExact(state.segment,
+                MemorySegment.NULL, length, PROT_READ | PROT_WRITE, MAP_SHARED | MAP_POPULATE, fd,
+                offset);
+        long result = state.check(address.address());
+        if (result < 0) throw error("mmap", result);
+        return address.reinterpret(length);
+    }
+
+    static void munmap(CallState state, MemorySegment mapping) throws Throwable {
+        long result = state.check((int) MUNMAP.invokeExact(state.segment, mapping,
+                mapping.byteSize()));
+        if (result != 0) throw error("munmap", result);
+    }
+}
@@ -0,0 +1,69 @@
+package edu.mit.net;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.Linker;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.SymbolLookup;
+import java.lang.foreign.ValueLayout;
+import java.lang.invoke.MethodHandle;
+import java.util.Optional;
+
+/** sched_setaffinity and sched_getcpu through the FFM API. ThreadAffinity loads this class by name,
+so the rest of the package still builds on older JDKs. */
+final class NativeAffinity {
+    private NativeAffinity() {}
+
+    // glibc's cpu_set_t: 1024 bits, as an array of unsigned longs
+    private static final int CPU_SET_BITS = 1024;
+    private static final long CPU_SET_BYTES = CPU_SET_BITS / 8;
+
+    private static final MethodHandle SCHED_SETAFFINITY;
+    private static final MethodHandle SCHED_GETCPU;
+    static {
+        Linker linker = Linker.nativeLinker();
+        SymbolLookup libc = linker.defaultLookup();
+        // int sched_setaffinity(pid_t pid, size_t cpusetsize, const cpu_set_t *mask)
+        SCHED_SETAFFINITY = downcall(linker, libc.find("sched_setaffinity"),
+                FunctionDescriptor.of(ValueLayout.JAVA_INT,
+                        ValueLayout.JAVA_INT, ValueLayout.JAVA_LONG, ValueLayout.ADDRESS));
+        // int sched_getcpu(void)
+        SCHED_GETCPU = downcall(linker, libc.find("sched_getcpu"),
+                FunctionDescriptor.of(ValueLayout.JAVA_INT));
+    }
+
+    private static MethodHandle downcall(Linker linker, Optional<MemorySegment> symbol,
+            FunctionDescriptor descriptor) {
+        if (!symbol.isPresent()) return null;
+        return linker.downcallHandle(symbol.get(), descriptor);
+    }
+
+    static boolean isAvailable() {
+        return SCHED_SETAFFINITY != null && SCHED_GETCPU != null;
+    }
+
+    /** Restricts the calling thread to cpus. @returns false if the kernel refused. */
+    static boolean setAffinity(int[] cpus) {
+        try (Arena arena = Arena.ofConfined()) {
+            MemorySegment mask = arena.allocate(CPU_SET_BYTES, 8);
+            for (int cpu : cpus) {
+                if (cpu < 0 || cpu >= CPU_SET_BITS) return false;
+                long index = (cpu / 64) * 8L;
+                long word = mask.get(ValueLayout.JAVA_LONG, index);
+                mask.set(ValueLayout.JAVA_LONG, index, word | (1L << (cpu % 64)));
+            }
+            // pid 0 is the calling thread
+            return (int) SCHED_SETAFFINITY.invokeExact(0, CPU_SET_BYTES, mask) == 0;
+        } catch (Throwable e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    static int currentCpu() {
+        try {
+            return (int) SCHED_GETCPU.invokeExact();
+        } catch (Throwable e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -1,11 +1,14 @@
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 
 
 public class ByteBufferTest {
-    private interface Tester {
+    // Package private for the VarHandle and MemorySegment testers in src-jdk22
+    interface Tester {
         public void fillInt();
         public void fillByte();
         public void fillArray(byte[] source);
@@ -229,7 +232,33 @@ public class ByteBufferTest {
     }
 
     public static void error() {
-        System.out.println("[heap|direct|array] [be|le] [size]");
+        System.out.println("[heap|direct|array|vharray|vhheap|vhdirect|segment|segmentshared] "
+                + "[be|le] [size]");
+    }
+
+    /** Returns a VarHandle or MemorySegment tester from ByteBufferTestJdk22, or null if kind is
+    not one of them. Exits if those classes were not compiled (JDK < 22). */
+    private static Tester newJdk22Tester(String kind, ByteOrder order, int size) {
+        Class<?> testers;
+        try {
+            testers = Class.forName("ByteBufferTestJdk22");
+        } catch (ClassNotFoundException e) {
+            if (kind.startsWith("vh") || kind.startsWith("segment")) {
+                System.err.println(kind + " requires the src-jdk22 classes: build with JDK 22+");
+                System.exit(1);
+            }
+            return null;
+        }
+
+        try {
+            Method factory = testers.getDeclaredMethod(
+                    "newTester", String.class, ByteOrder.class, int.class);
+            return (Tester) factory.invoke(null, kind, order, size);
+        } catch (InvocationTargetException e) {
+            throw new RuntimeException(e.getCause());
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
     }
 
     public ByteBufferTest() throws IOException {
@@ -247,15 +276,24 @@ public class ByteBufferTest {
 
         ByteBufferTest test = new ByteBufferTest();
 
-        Tester tester;
-        if (args[0].equals("array")) {
+        ByteOrder order;
+        if (args[1].equals("be")) {
+            order = ByteOrder.BIG_ENDIAN;
+        } else if (args[1].equals("le")) {
+            order = ByteOrder.LITTLE_ENDIAN;
+        } else {
+            error(); return;
+        }
+
+        Tester tester = newJdk22Tester(args[0], order, size);
+        if (tester != null) {
+            // VarHandle or MemorySegment
+        } else if (args[0].equals("array")) {
             byte[] buffer = new byte[size];
-            if (args[1].equals("be")) {
+            if (order == ByteOrder.BIG_ENDIAN) {
                 tester = new BEByteArrayTester(buffer);
-            } else if (args[1].equals("le")) {
-                tester = new LEByteArrayTester(buffer);
             } else {
-                error(); return;
+                tester = new LEByteArrayTester(buffer);
             }
         } else {
             ByteBuffer buffer;
@@ -266,14 +304,7 @@ public class ByteBufferTest {
             } else {
                 error(); return;
             }
-
-            if (args[1].equals("be")) {
-                buffer.order(ByteOrder.BIG_ENDIAN);
-            } else if (args[1].equals("le")) {
-                buffer.order(ByteOrder.LITTLE_ENDIAN);
-            } else {
-                error(); return;
-            }
+            buffer.order(order);
             tester = new ByteBufferTester(buffer);
         }
 
@@ -1,24 +1,52 @@
+import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketException;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
 import java.nio.channels.SocketChannel;
 import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+
+import edu.mit.net.BufferedChannelWriter;
+import edu.mit.net.DirectBufferPool;
 
 
 public class ByteStreamTest {
-    private interface ByteStream {
+    // Package private for the VarHandle and MemorySegment streams in src-jdk22
+    interface ByteStream {
         public void put(byte value) throws IOException;
+        /** Writes value in the stream's byte order. */
+        public void putInt(int value) throws IOException;
         public void flush() throws IOException;
     }
 
+    static void putIntBytes(int value, boolean bigEndian, byte[] destination, int offset) {
+        if (bigEndian) {
+            destination[offset] = (byte) (value >> 24);
+            destination[offset+1] = (byte) (value >> 16);
+            destination[offset+2] = (byte) (value >> 8);
+            destination[offset+3] = (byte) value;
+        } else {
+            destination[offset] = (byte) value;
+            destination[offset+1] = (byte) (value >> 8);
+            destination[offset+2] = (byte) (value >> 16);
+            destination[offset+3] = (byte) (value >> 24);
+        }
+    }
+
     public static double throughput(long start, long end, int bytes) {
         double seconds = (double) (end - start)/ 1000000000.;
         double megabytes = (double) bytes / (double) (1<<20);
@@ -30,11 +58,13 @@ public class ByteStreamTest {
         private int offset = 0;
         private final byte[] buffer;
         private final WritableByteChannel channel;
+        private final boolean bigEndian;
 
-        public ByteBufferArrayStream(WritableByteChannel channel, int buffer_length) {
+        public ByteBufferArrayStream(WritableByteChannel channel, int buffer_length, ByteOrder order) {
             this.writeBuffer = ByteBuffer.allocateDirect(buffer_length);
             buffer = new byte[buffer_length];
             this.channel = channel;
+            bigEndian = order == ByteOrder.BIG_ENDIAN;
         }
 
         public void put(byte value) throws IOException {
@@ -52,6 +82,15 @@ public class ByteStreamTest {
             offset += 1;
         }
 
+        public void putInt(int value) throws IOException {
+            if (buffer.length - offset < 4) {
+                flush();
+            }
+
+            putIntBytes(value, bigEndian, buffer, offset);
+            offset += 4;
+        }
+
         public void flush() throws IOException {
             writeBuffer.clear();
             writeBuffer.put(buffer, 0, offset);
@@ -70,11 +109,13 @@ public class ByteStreamTest {
         private int offset = 0;
         private final byte[] buffer;
         private final WritableByteChannel channel;
+        private final boolean bigEndian;
 
-        public MappedByteBufferArrayStream(WritableByteChannel channel, int buffer_length) {
+        public MappedByteBufferArrayStream(WritableByteChannel channel, int buffer_length, ByteOrder order) {
             this.writeBuffer = (MappedByteBuffer) ByteBuffer.allocateDirect(buffer_length);
             buffer = new byte[buffer_length];
             this.channel = channel;
+            bigEndian = order == ByteOrder.BIG_ENDIAN;
         }
 
         public void put(byte value) throws IOException {
@@ -92,6 +133,15 @@ public class ByteStreamTest {
             offset += 1;
         }
 
+        public void putInt(int value) throws IOException {
+            if (buffer.length - offset < 4) {
+                flush();
+            }
+
+            putIntBytes(value, bigEndian, buffer, offset);
+            offset += 4;
+        }
+
         public void flush() throws IOException {
             writeBuffer.clear();
             writeBuffer.put(buffer, 0, offset);
@@ -108,8 +158,9 @@ public class ByteStreamTest {
         private final ByteBuffer writeBuffer;
         private final WritableByteChannel channel;
 
-        public ByteBufferStream(WritableByteChannel channel, int buffer_length) {
+        public ByteBufferStream(WritableByteChannel channel, int buffer_length, ByteOrder order) {
             this.writeBuffer = ByteBuffer.allocateDirect(buffer_length);
+            writeBuffer.order(order);
             this.channel = channel;
         }
 
@@ -125,6 +176,14 @@ public class ByteStreamTest {
             writeBuffer.put(value);
         }
 
+        public void putInt(int value) throws IOException {
+            if (writeBuffer.remaining() < 4) {
+                flush();
+            }
+
+            writeBuffer.putInt(value);
+        }
+
         public void flush() throws IOException {
             writeBuffer.flip();
             channel.write(writeBuffer);
@@ -132,13 +191,37 @@ public class ByteStreamTest {
         }
     }
 
+    /** BufferedChannelWriter with buffers of buffer_length: each flush is one gathering write
+    of up to 16 buffers. */
+    private static final class BufferedWriterStream implements ByteStream {
+        private final BufferedChannelWriter writer;
+
+        public BufferedWriterStream(GatheringByteChannel channel, int buffer_length, ByteOrder order) {
+            writer = new BufferedChannelWriter(channel, new DirectBufferPool(buffer_length, 32));
+            writer.order(order);
+        }
+
+        public void put(byte value) {
+            writer.put(value);
+        }
+
+        public void putInt(int value) {
+            writer.putInt(value);
+        }
+
+        public void flush() {
+            writer.flush();
+        }
+    }
+
     private static final class MappedByteBufferStream implements ByteStream {
         // This makes things go faster!
         private final MappedByteBuffer writeBuffer;
         private final WritableByteChannel channel;
 
-        public MappedByteBufferStream(WritableByteChannel channel, int buffer_length) {
+        public MappedByteBufferStream(WritableByteChannel channel, int buffer_length, ByteOrder order) {
             this.writeBuffer = (MappedByteBuffer) ByteBuffer.allocateDirect(buffer_length);
+            writeBuffer.order(order);
             this.channel = channel;
         }
 
@@ -154,6 +237,14 @@ public class ByteStreamTest {
             writeBuffer.put(value);
         }
 
+        public void putInt(int value) throws IOException {
+            if (writeBuffer.remaining() < 4) {
+                flush();
+            }
+
+            writeBuffer.putInt(value);
+        }
+
         public void flush() throws IOException {
             writeBuffer.flip();
             channel.write(writeBuffer);
@@ -166,9 +257,12 @@ public class ByteStreamTest {
         private final byte[] buffer;
         private final OutputStream stream;
 
-        public ByteArrayStream(OutputStream stream, int buffer_length) {
+        private final boolean bigEndian;
+
+        public ByteArrayStream(OutputStream stream, int buffer_length, ByteOrder order) {
             buffer = new byte[buffer_length];
             this.stream = stream;
+            bigEndian = order == ByteOrder.BIG_ENDIAN;
         }
 
         public void put(byte value) throws IOException {
@@ -180,12 +274,306 @@ public class ByteStreamTest {
             offset += 1;
         }
 
+        public void putInt(int value) throws IOException {
+            if (buffer.length - offset < 4) {
+                flush();
+            }
+
+            putIntBytes(value, bigEndian, buffer, offset);
+            offset += 4;
+        }
+
         public void flush() throws IOException {
             stream.write(buffer, 0, offset);
             offset = 0;
         }
     }
 
+    /** Records how long each flush takes. */
+    private static final class FlushTimes {
+        private long[] nanos = new long[1024];
+        private int count = 0;
+
+        public void add(long elapsed) {
+            if (count == nanos.length) {
+                nanos = Arrays.copyOf(nanos, nanos.length * 2);
+            }
+            nanos[count] = elapsed;
+            count += 1;
+        }
+
+        public void clear() {
+            count = 0;
+        }
+
+        public double meanMicros() {
+            long total = 0;
+            for (int i = 0; i < count; ++i) {
+                total += nanos[i];
+            }
+            return total / (double) count / 1000.;
+        }
+
+        /** @returns the fraction quantile (0 < fraction <= 1) in microseconds. */
+        public double quantileMicros(double fraction) {
+            long[] sorted = Arrays.copyOf(nanos, count);
+            Arrays.sort(sorted);
+            int index = (int) Math.ceil(fraction * count) - 1;
+            return sorted[Math.max(0, index)] / 1000.;
+        }
+    }
+
+    /** Writes a direct buffer to a FileChannel each time it fills, optionally forcing the data to
+    the device after every write, as a journal would. */
+    private static final class FileChannelStream implements ByteStream {
+        private final ByteBuffer writeBuffer;
+        private final FileChannel channel;
+        private final boolean force;
+        private final FlushTimes times;
+
+        public FileChannelStream(FileChannel channel, int buffer_length, ByteOrder order,
+                boolean force, FlushTimes times) {
+            writeBuffer = ByteBuffer.allocateDirect(buffer_length);
+            writeBuffer.order(order);
+            this.channel = channel;
+            this.force = force;
+            this.times = times;
+        }
+
+        public void put(byte value) throws IOException {
+            if (writeBuffer.remaining() == 0) {
+                flush();
+            }
+
+            writeBuffer.put(value);
+        }
+
+        public void putInt(int value) throws IOException {
+            if (writeBuffer.remaining() < 4) {
+                flush();
+            }
+
+            writeBuffer.putInt(value);
+        }
+
+        public void flush() throws IOException {
+            long start = System.nanoTime();
+            writeBuffer.flip();
+            while (writeBuffer.hasRemaining()) {
+                channel.write(writeBuffer);
+            }
+            if (force) {
+                channel.force(false);
+            }
+            writeBuffer.clear();
+            times.add(System.nanoTime() - start);
+        }
+    }
+
+    /** Writes into a mapped region of the file. When the region fills, it is optionally forced
+    and the next region is mapped, which extends the file. The last flush maps a region past the
+    end of the data: truncate the file to the bytes written when done. */
+    private static final class MappedFileStream implements ByteStream {
+        private final FileChannel channel;
+        private final int regionLength;
+        private final ByteOrder order;
+        private final boolean force;
+        private final FlushTimes times;
+        private MappedByteBuffer region;
+        private long regionStart = 0;
+
+        public MappedFileStream(FileChannel channel, int buffer_length, ByteOrder order,
+                boolean force, FlushTimes times) throws IOException {
+            this.channel = channel;
+            regionLength = buffer_length;
+            this.order = order;
+            this.force = force;
+            this.times = times;
+            mapRegion();
+        }
+
+        private void mapRegion() throws IOException {
+            region = channel.map(FileChannel.MapMode.READ_WRITE, regionStart, regionLength);
+            region.order(order);
+        }
+
+        public void put(byte value) throws IOException {
+            if (region.remaining() == 0) {
+                flush();
+            }
+
+            region.put(value);
+        }
+
+        public void putInt(int value) throws IOException {
+            if (region.remaining() < 4) {
+                flush();
+            }
+
+            region.putInt(value);
+        }
+
+        public void flush() throws IOException {
+            long start = System.nanoTime();
+            if (force) {
+                region.force();
+            }
+            regionStart += region.position();
+            mapRegion();
+            times.add(System.nanoTime() - start);
+        }
+    }
+
+    // Written by the read tests so the JIT cannot discard the reads
+    private static volatile long readChecksum;
+
+    /** Reads length bytes of the file through mapped regions of buffer_length bytes. */
+    private static double readMapped(FileChannel channel, long length, int buffer_length)
+            throws IOException {
+        long start = System.nanoTime();
+        long sum = 0;
+        for (long position = 0; position < length; position += buffer_length) {
+            long regionLength = Math.min(buffer_length, length - position);
+            MappedByteBuffer region =
+                    channel.map(FileChannel.MapMode.READ_ONLY, position, regionLength);
+            while (region.hasRemaining()) {
+                sum += region.get();
+            }
+        }
+        long end = System.nanoTime();
+        readChecksum = sum;
+        return throughput(start, end, (int) length);
+    }
+
+    /** Reads length bytes of the file with FileChannel.read into a direct buffer. */
+    private static double readChannel(FileChannel channel, long length, int buffer_length)
+            throws IOException {
+        ByteBuffer readBuffer = ByteBuffer.allocateDirect(buffer_length);
+        long start = System.nanoTime();
+        long sum = 0;
+        long position = 0;
+        while (position < length) {
+            readBuffer.clear();
+            int bytes = channel.read(readBuffer, position);
+            assert bytes > 0;
+            position += bytes;
+            readBuffer.flip();
+            while (readBuffer.hasRemaining()) {
+                sum += readBuffer.get();
+            }
+        }
+        long end = System.nanoTime();
+        readChecksum = sum;
+        return throughput(start, end, (int) length);
+    }
+
+    private static void fileError() {
+        System.out.println("file [direct|mmap] [size] [force|noforce] [byte|be|le] [path]");
+        System.out.println("  writes 64 MB to path (default: a temporary file) then reads it back");
+    }
+
+    /** Streams into a file with FileChannel.write or rolling mapped regions, then reads it back
+    the same way. Reports MB/s and the time taken by each flush: one FileChannel write, or
+    forcing one region and mapping the next. */
+    private static void fileMain(String[] args) throws IOException {
+        if (args.length < 5 || args.length > 6) {
+            fileError();
+            return;
+        }
+
+        final boolean mapped;
+        if (args[1].equals("mmap")) {
+            mapped = true;
+        } else if (args[1].equals("direct")) {
+            mapped = false;
+        } else {
+            fileError(); return;
+        }
+        final int size = Integer.parseInt(args[2]);
+        final boolean force;
+        if (args[3].equals("force")) {
+            force = true;
+        } else if (args[3].equals("noforce")) {
+            force = false;
+        } else {
+            fileError(); return;
+        }
+        boolean putInts = true;
+        ByteOrder order = ByteOrder.BIG_ENDIAN;
+        if (args[4].equals("le")) {
+            order = ByteOrder.LITTLE_ENDIAN;
+        } else if (args[4].equals("byte")) {
+            putInts = false;
+        } else if (!args[4].equals("be")) {
+            fileError(); return;
+        }
+        File file;
+        if (args.length == 6) {
+            file = new File(args[5]);
+        } else {
+            file = File.createTempFile("bytestreamtest", ".dat");
+        }
+        file.deleteOnExit();
+
+        final int TRIALS = 5;
+        double[] write = new double[TRIALS];
+        double[] flushMean = new double[TRIALS];
+        double[] flushP99 = new double[TRIALS];
+        double[] flushMax = new double[TRIALS];
+        double[] read = new double[TRIALS];
+        FlushTimes times = new FlushTimes();
+        for (int i = 0; i < TRIALS; ++i) {
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            FileChannel channel = raf.getChannel();
+            channel.truncate(0);
+
+            times.clear();
+            ByteStream stream;
+            if (mapped) {
+                stream = new MappedFileStream(channel, size, order, force, times);
+            } else {
+                stream = new FileChannelStream(channel, size, order, force, times);
+            }
+            write[i] = runTest(stream, putInts);
+            flushMean[i] = times.meanMicros();
+            flushP99[i] = times.quantileMicros(0.99);
+            flushMax[i] = times.quantileMicros(1.0);
+
+            // mapped writes extend the file past the data; see MappedFileStream
+            long length = channel.position();
+            if (mapped) {
+                length = BYTES_TO_WRITE;
+                channel.truncate(length);
+            }
+            assert length == BYTES_TO_WRITE;
+
+            if (mapped) {
+                read[i] = readMapped(channel, length, size);
+            } else {
+                read[i] = readChannel(channel, length, size);
+            }
+            channel.close();
+            raf.close();
+            // Mapped regions are only unmapped when collected
+            System.gc();
+        }
+
+        printValues("write", write);
+        printValues("flush mean us", flushMean);
+        printValues("flush p99 us", flushP99);
+        printValues("flush max us", flushMax);
+        printValues("read", read);
+        file.delete();
+    }
+
+    private static void printValues(String key, double[] values) {
+        System.out.print(key + ":");
+        for (double value : values) {
+            System.out.print(" " + value);
+        }
+        System.out.println();
+    }
+
     private static final class NetworkSinkServer implements Runnable {
         private final ServerSocket acceptSocket;
 
@@ -232,14 +620,24 @@ public class ByteStreamTest {
     }
 
     public static void error() {
-        System.out.println("[direct|mapped|array|directarray|mappedarray] [size]");
+        System.out.println("[direct|mapped|array|directarray|mappedarray|writer|vharray|vhdirect|"
+                + "segment|segmentshared] [size] [byte|be|le]");
+        System.out.println("  the optional last argument writes ints in that byte order instead of bytes");
+        fileError();
     }
 
-    public static double runTest(ByteStream stream) throws IOException {
-        final int BYTES_TO_WRITE = 64 << 20;
+    private static final int BYTES_TO_WRITE = 64 << 20;
+
+    public static double runTest(ByteStream stream, boolean putInts) throws IOException {
         long start = System.nanoTime();
-        for (int j = 0; j < BYTES_TO_WRITE; ++j) {
-            stream.put((byte) j);
+        if (putInts) {
+            for (int j = 0; j < BYTES_TO_WRITE / 4; ++j) {
+                stream.putInt(j);
+            }
+        } else {
+            for (int j = 0; j < BYTES_TO_WRITE; ++j) {
+                stream.put((byte) j);
+            }
         }
         stream.flush();
         long end = System.nanoTime();
@@ -247,35 +645,80 @@ public class ByteStreamTest {
         return throughput(start, end, BYTES_TO_WRITE);
     }
 
+    /** Returns the stream writing to channel, or null if kind is not a channel stream. Exits if
+    kind needs the src-jdk22 classes and they were not compiled. */
+    private static ByteStream newChannelStream(
+            String kind, WritableByteChannel channel, int size, ByteOrder order) {
+        if (kind.equals("direct")) {
+            return new ByteBufferStream(channel, size, order);
+        } else if (kind.equals("mapped")) {
+            return new MappedByteBufferStream(channel, size, order);
+        } else if (kind.equals("directarray")) {
+            return new ByteBufferArrayStream(channel, size, order);
+        } else if (kind.equals("mappedarray")) {
+            return new MappedByteBufferArrayStream(channel, size, order);
+        } else if (kind.equals("writer")) {
+            // FileChannel and SocketChannel both gather
+            return new BufferedWriterStream((GatheringByteChannel) channel, size, order);
+        } else if (kind.startsWith("vh") || kind.startsWith("segment")) {
+            try {
+                Class<?> streams = Class.forName("ByteStreamTestJdk22");
+                Method factory = streams.getDeclaredMethod("newStream",
+                        String.class, WritableByteChannel.class, int.class, ByteOrder.class);
+                return (ByteStream) factory.invoke(null, kind, channel, size, order);
+            } catch (ClassNotFoundException e) {
+                System.err.println(kind + " requires the src-jdk22 classes: build with JDK 22+");
+                System.exit(1);
+            } catch (InvocationTargetException e) {
+                throw new RuntimeException(e.getCause());
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }
+        return null;
+    }
+
     public static void main(String[] args) throws IOException, InterruptedException {
-        if (args.length != 2) {
+        if (args.length > 0 && args[0].equals("file")) {
+            fileMain(args);
+            return;
+        }
+        if (args.length != 2 && args.length != 3) {
             error();
             return;
         }
 
+        final String kind = args[0];
         int size = Integer.parseInt(args[1]);
+        boolean putInts = false;
+        ByteOrder order = ByteOrder.BIG_ENDIAN;
+        if (args.length == 3) {
+            if (args[2].equals("be")) {
+                putInts = true;
+            } else if (args[2].equals("le")) {
+                putInts = true;
+                order = ByteOrder.LITTLE_ENDIAN;
+            } else if (!args[2].equals("byte")) {
+                error(); return;
+            }
+        }
 
         FileOutputStream out = new FileOutputStream("/dev/null");
         //~ FileOutputStream out = new FileOutputStream("/dev/shm/wtf");
 
         ByteStream stream;
-        if (args[0].equals("array")) {
-            stream = new ByteArrayStream(out, size);
-        } else if (args[0].equals("direct")) {
-            stream = new ByteBufferStream(out.getChannel(), size);
-        } else if (args[0].equals("mapped")) {
-            stream = new MappedByteBufferStream(out.getChannel(), size);
-        } else if (args[0].equals("directarray")) {
-            stream = new ByteBufferArrayStream(out.getChannel(), size);
-        } else if (args[0].equals("mappedarray")) {
-            stream = new MappedByteBufferArrayStream(out.getChannel(), size);
+        if (kind.equals("array")) {
+            stream = new ByteArrayStream(out, size, order);
         } else {
-            error(); return;
+            stream = newChannelStream(kind, out.getChannel(), size, order);
+            if (stream == null) {
+                error(); return;
+            }
         }
 
         System.out.print("/dev/null: ");
         for (int i = 0; i < 5; ++i) {
-            System.out.print(runTest(stream) + " ");
+            System.out.print(runTest(stream, putInts) + " ");
             System.out.flush();
         }
         System.out.println();
@@ -288,28 +731,18 @@ public class ByteStreamTest {
         InetSocketAddress otherEnd =
                 new InetSocketAddress(InetAddress.getLocalHost(), sink.getPort());
         Socket connection;
-        if (args[0].equals("array")) {
+        if (kind.equals("array")) {
             connection = new Socket(otherEnd.getAddress(), otherEnd.getPort());
-            stream = new ByteArrayStream(connection.getOutputStream(), size);
+            stream = new ByteArrayStream(connection.getOutputStream(), size, order);
         } else {
             SocketChannel channel = SocketChannel.open(otherEnd);
             connection = channel.socket();
-            if (args[0].equals("direct")) {
-                stream = new ByteBufferStream(channel, size);
-            } else if (args[0].equals("mapped")) {
-                stream = new MappedByteBufferStream(channel, size);
-            } else if (args[0].equals("directarray")) {
-                stream = new ByteBufferArrayStream(channel, size);
-            } else if (args[0].equals("mappedarray")) {
-                stream = new MappedByteBufferArrayStream(channel, size);
-            } else {
-                error(); return;
-            }
+            stream = newChannelStream(kind, channel, size, order);
         }
 
         System.out.print("localhost: ");
         for (int i = 0; i < 5; ++i) {
-            System.out.print(runTest(stream) + " ");
+            System.out.print(runTest(stream, putInts) + " ");
             System.out.flush();
         }
         System.out.println();
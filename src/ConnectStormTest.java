@@ -0,0 +1,142 @@
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+import edu.mit.net.MessageListener;
+import edu.mit.net.NIOMessageListener;
+
+/** Opens connections to nio listeners as fast as several threads can, and prints how fast the
+listeners accept them. Each connection closes as soon as it connects. loops > 1 binds that many
+listeners to the port with SO_REUSEPORT, each with its own event loop thread. accepts is the most
+connections a listener accepts per wakeup: 1 is the old one accept per select. A first, unmeasured
+storm warms up the JIT, which otherwise dominates on a small machine. */
+public class ConnectStormTest {
+    private static final int WARMUP_CONNECTIONS = 4000;
+
+    private static final class EventLoop extends Thread {
+        public EventLoop(NIOMessageListener listener) {
+            super("SelectServer");
+            this.listener = listener;
+        }
+
+        public void run() {
+            MessageListener.Event[] events = new MessageListener.Event[64];
+            while (listener.blockForNextEvents(events) != 0) {
+                // Connections and closes: nothing to do
+            }
+            listener.close();
+        }
+
+        public final NIOMessageListener listener;
+    }
+
+    private static final class Connector extends Thread {
+        public Connector(InetSocketAddress address, int connections) {
+            this.address = address;
+            this.connections = connections;
+        }
+
+        public void run() {
+            try {
+                for (int i = 0; i < connections; ++i) {
+                    Socket socket = new Socket();
+                    socket.connect(address);
+                    socket.close();
+                }
+            } catch (IOException e) { throw new RuntimeException(e); }
+        }
+
+        private final InetSocketAddress address;
+        private final int connections;
+    }
+
+    /** Connects connectorCount threads to address, each connections times, then waits for the
+    listeners to accept them all. @returns the nanoseconds to connect. */
+    private static long storm(InetSocketAddress address, int connectorCount, int connections,
+            EventLoop[] loops) throws InterruptedException {
+        long expected = accepted(loops) + (long) connections * connectorCount;
+        Connector[] connectors = new Connector[connectorCount];
+        for (int i = 0; i < connectors.length; ++i) {
+            connectors[i] = new Connector(address, connections);
+        }
+        long start = System.nanoTime();
+        for (Connector connector : connectors) {
+            connector.start();
+        }
+        for (Connector connector : connectors) {
+            connector.join();
+        }
+        long connected = System.nanoTime();
+        // Accepting can lag behind the connects, which the kernel completes
+        while (accepted(loops) < expected && System.nanoTime() - connected < 30000000000L) {
+            Thread.sleep(1);
+        }
+        return connected - start;
+    }
+
+    private static long accepted(EventLoop[] loops) {
+        long accepted = 0;
+        for (EventLoop loop : loops) {
+            accepted += loop.listener.getAccepted();
+        }
+        return accepted;
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length > 4) {
+            System.err.println("ConnectStormTest [loops = 1] [accepts = " +
+                    NIOMessageListener.DEFAULT_ACCEPTS_PER_WAKEUP +
+                    "] [connector threads = 4] [connections = 20000]");
+            System.exit(1);
+        }
+        int loopCount = args.length > 0 ? Integer.parseInt(args[0]) : 1;
+        int accepts = args.length > 1 ? Integer.parseInt(args[1]) :
+                NIOMessageListener.DEFAULT_ACCEPTS_PER_WAKEUP;
+        int connectorCount = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+        int connections = args.length > 3 ? Integer.parseInt(args[3]) : 20000;
+        if (loopCount > 1 && !NIOMessageListener.isReusePortSupported()) {
+            System.err.println("ConnectStormTest: loops > 1 needs SO_REUSEPORT (JDK 9+ on Linux " +
+                    "or BSD)");
+            System.exit(1);
+        }
+
+        EventLoop[] loops = new EventLoop[loopCount];
+        int port = 0;
+        for (int i = 0; i < loops.length; ++i) {
+            NIOMessageListener listener = new NIOMessageListener();
+            listener.bind(port, loopCount > 1);
+            listener.setAcceptsPerWakeup(accepts);
+            port = listener.getLocalPort();
+            loops[i] = new EventLoop(listener);
+            loops[i].start();
+        }
+
+        InetSocketAddress address = new InetSocketAddress(InetAddress.getByName(null), port);
+        storm(address, connectorCount, WARMUP_CONNECTIONS / connectorCount, loops);
+        long[] warm = new long[loops.length];
+        for (int i = 0; i < loops.length; ++i) {
+            warm[i] = loops[i].listener.getAccepted();
+        }
+
+        int perConnector = connections / connectorCount;
+        long total = (long) perConnector * connectorCount;
+        long start = System.nanoTime();
+        long connectNanos = storm(address, connectorCount, perConnector, loops);
+        long end = System.nanoTime();
+
+        long accepted = 0;
+        StringBuilder perLoop = new StringBuilder();
+        for (int i = 0; i < loops.length; ++i) {
+            EventLoop loop = loops[i];
+            perLoop.append(' ').append(loop.listener.getAccepted() - warm[i]);
+            accepted += loop.listener.getAccepted() - warm[i];
+            loop.interrupt();
+            loop.join();
+        }
+        System.out.printf("loops %d accepts %d connectors %d: %d connections, %.0f connects/s, " +
+                "%.0f accepts/s; accepted per loop:%s%n", loopCount, accepts, connectorCount,
+                total, total / (connectNanos / 1e9), accepted / ((end - start) / 1e9),
+                perLoop);
+    }
+}
@@ -0,0 +1,140 @@
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import edu.mit.net.MessageListener;
+import edu.mit.net.NIOMessageListener;
+import edu.mit.net.Transport;
+import edu.mit.net.WaitStrategy;
+import edu.mit.net.WorkerPool;
+
+/** Runs the select echo server with a handler that burns cost microseconds of CPU per request,
+either on the event loop (inline) or on a WorkerPool (staged). Clients send one request at a
+time. Prints the throughput and the latency seen by the clients for each cost. Offloading only
+pays when there are spare cores for the workers: with one core it adds the handoffs. */
+public class HandlerCostTest {
+    private static final int MESSAGE_BYTES = 64;
+
+    /** Copies the request after spinning for costNanos. */
+    private static final class CpuHandler implements WorkerPool.Handler {
+        public CpuHandler(long costNanos) {
+            this.costNanos = costNanos;
+        }
+
+        public byte[] handle(byte[] request) {
+            long start = System.nanoTime();
+            int hash = 0;
+            do {
+                for (byte b : request) {
+                    hash = 31 * hash + b;
+                }
+            } while (System.nanoTime() - start < costNanos);
+            byte[] response = request.clone();
+            // Keeps the loop from being optimized away
+            response[0] = (byte) hash;
+            return response;
+        }
+
+        private final long costNanos;
+    }
+
+    private static final class Client extends Thread {
+        public Client(InetAddress address, int port, AtomicBoolean quit) throws IOException {
+            client = new ServerBase.Client(new Socket(address, port));
+            client.setMessage(new byte[MESSAGE_BYTES]);
+            this.quit = quit;
+        }
+
+        public void run() {
+            while (!quit.get()) {
+                long start = System.nanoTime();
+                client.writeMessage();
+                // The server closes the connection when it stops
+                if (!client.readMessage()) break;
+                latencies.add((int) Math.min(System.nanoTime() - start, Integer.MAX_VALUE));
+            }
+        }
+
+        private final ServerBase.Client client;
+        private final AtomicBoolean quit;
+        public final LatencyRecord latencies = new LatencyRecord();
+    }
+
+    private static void run(final boolean staged, int costMicros, int workerCount,
+            int clientCount, int seconds) throws IOException, InterruptedException {
+        final CpuHandler handler = new CpuHandler(costMicros * 1000L);
+        final NIOMessageListener listener = (NIOMessageListener) Transport.bind(Transport.NIO, 0,
+                WaitStrategy.fromProperty());
+        WorkerPool workers = null;
+        if (staged) {
+            workers = new WorkerPool(workerCount, handler);
+            listener.setWorkerPool(workers);
+        }
+        Thread server = new Thread("SelectServer") {
+            public void run() {
+                MessageListener.Event e;
+                while ((e = listener.blockForNextEvent()) != null) {
+                    if (e.message != null) {
+                        e.connection.write(handler.handle(e.message));
+                    }
+                }
+                listener.close();
+            }
+        };
+        server.start();
+
+        InetAddress address = InetAddress.getByName(null);
+        AtomicBoolean quit = new AtomicBoolean(false);
+        Client[] clients = new Client[clientCount];
+        for (int i = 0; i < clients.length; ++i) {
+            clients[i] = new Client(address, listener.getLocalPort(), quit);
+        }
+        long start = System.nanoTime();
+        for (Client client : clients) {
+            client.start();
+        }
+        Thread.sleep(seconds * 1000L);
+        quit.set(true);
+        int responses = 0;
+        for (Client client : clients) {
+            client.join();
+            responses += client.latencies.size();
+        }
+        long end = System.nanoTime();
+        server.interrupt();
+        server.join();
+        if (workers != null) workers.shutdown();
+
+        double[] micros = new double[responses];
+        int index = 0;
+        for (Client client : clients) {
+            for (Integer nanos : client.latencies) {
+                micros[index] = nanos / 1000.0;
+                index += 1;
+            }
+        }
+        Statistics.Summary latency = Statistics.stats(micros);
+        System.out.printf("%s cost %d us workers %d clients %d: %.0f msgs/s latency %.1f us " +
+                "p99 %.1f us%n", staged ? "staged" : "inline", costMicros,
+                staged ? workerCount : 0, clientCount, responses / ((end - start) / 1e9),
+                latency.average, latency.percentile(0.99));
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 1 || args.length > 5 ||
+                !(args[0].equals("inline") || args[0].equals("staged"))) {
+            System.err.println("HandlerCostTest (inline|staged) [cost us = 0,10,100] " +
+                    "[workers = 4] [clients = 16] [seconds = 5]");
+            System.exit(1);
+        }
+        boolean staged = args[0].equals("staged");
+        String costs = args.length > 1 ? args[1] : "0,10,100";
+        int workers = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+        int clients = args.length > 3 ? Integer.parseInt(args[3]) : 16;
+        int seconds = args.length > 4 ? Integer.parseInt(args[4]) : 5;
+        for (String cost : costs.split(",")) {
+            run(staged, Integer.parseInt(cost.trim()), workers, clients, seconds);
+        }
+    }
+}
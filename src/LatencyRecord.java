@@ -0,0 +1,78 @@
+import java.util.Iterator;
+import java.util.LinkedList;
+
+/** Provides efficient writing of integers. Ideally, there are no allocations
+while running the test, but even if there are it should be fast (O(1)). */
+class LatencyRecord implements Iterable<Integer> {
+    public LatencyRecord() {
+        newBlock();
+    }
+
+    public void add(int value) {
+        if (nextIndex == block.length) {
+            newBlock();
+        }
+        block[nextIndex] = value;
+        nextIndex += 1;
+    }
+
+    private void newBlock() {
+        block = new int[BLOCK_SIZE];
+        blocks.add(block);
+        nextIndex = 0;
+    }
+
+    public int size() {
+        // Sum the length of all the blocks
+        int s = 0;
+        for (int[] b : blocks) {
+            s += b.length;
+        }
+
+        // Remove the current block and add back just the filled slots
+        s -= block.length;
+        s += nextIndex;
+        return s;
+    }
+
+    public Iterator<Integer> iterator() {
+        return new Iterator<Integer>() {
+            public boolean hasNext() {
+                if (blockIterator.hasNext()) {
+                    // not end block
+                    return index < block.length;
+                } else {
+                    // last block
+                    return index < nextIndex;
+                }
+            }
+
+            public Integer next() {
+                int value = block[index];
+                index += 1;
+                if (blockIterator.hasNext()) {
+                    if (index == block.length) {
+                        block = blockIterator.next();
+                        index = 0;
+                    }
+                }
+
+                return value;
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+
+            private final Iterator<int[]> blockIterator = blocks.iterator();
+            private int[] block = blockIterator.next();
+            private int index = 0;
+        };
+    }
+
+    // 1 M = 4MB = 1k pages; more than enough for 25000 msgs/s for 30 seconds
+    private final static int BLOCK_SIZE = 1 << 20;
+    private final LinkedList<int[]> blocks = new LinkedList<int[]>();
+    private int nextIndex = 0;
+    private int[] block = null;
+}
@@ -0,0 +1,617 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import edu.mit.net.Backpressure;
+import edu.mit.net.MessageListener;
+import edu.mit.net.SystemCallCounter;
+import edu.mit.net.ThreadAffinity;
+import edu.mit.net.Transport;
+import edu.mit.net.WaitStrategy;
+
+/** Measures echo servers from localhost: replaces perftest.py, perftest-latency.py and
+latencytest.py. Starts each server, in this process or as a subprocess, then sweeps the number of
+clients, message size and pipeline depth (messages each client keeps outstanding). Each trial
+runs a warm-up period, then counts responses and records their latencies. For each server it
+writes name.csv with one row per trial and name-summary.csv with the mean and 95% confidence
+interval over the trials, computed as statistics.py does. For servers that count their system
+calls (see SystemCallCounter) it also records system calls per message.
+
+The edu.mit.net.affinity.* system properties pin the in-process servers' threads and the client
+threads (see ThreadAffinity), and edu.mit.net.wait selects the select server's WaitStrategy. All
+edu.mit.net.* properties are passed on to java: servers, so edu.mit.net.transport selects
+java:SelectServer's transport. */
+public class PerfDriver {
+    /** A server under test, listening on localhost. */
+    interface Server {
+        public void start(int port) throws IOException;
+        public void stop() throws IOException, InterruptedException;
+        /** @returns the system calls the server has made, or -1 if it does not count them. */
+        public long systemCalls();
+    }
+
+    /** ThreadServer in this process: one thread per connection. */
+    private static final class ThreadPerConnectionServer implements Server, Runnable {
+        public void start(int port) throws IOException {
+            serverSocket = new ServerSocket(port);
+            acceptThread = new Thread(this, "ThreadServer accept");
+            acceptThread.start();
+        }
+
+        public void run() {
+            try {
+                while (true) {
+                    final Socket client = serverSocket.accept();
+                    Thread thread = new Thread("ThreadServer client") {
+                        public void run() {
+                            workers.pinCurrentThread();
+                            ServerBase.serverClientLoop(client);
+                        }
+                    };
+                    thread.start();
+                }
+            } catch (IOException e) {
+                // stop() closed the socket
+            }
+        }
+
+        public void stop() throws IOException, InterruptedException {
+            serverSocket.close();
+            acceptThread.join();
+        }
+
+        public long systemCalls() { return -1; }
+
+        private final ThreadAffinity workers = ThreadAffinity.forRole(ThreadAffinity.SERVER);
+        private ServerSocket serverSocket;
+        private Thread acceptThread;
+    }
+
+    /** SelectServer in this process: one thread with a MessageListener for transport, handling
+    up to batch events per call. */
+    private static final class SelectorServer implements Server, Runnable {
+        public SelectorServer(String transport, int batch) {
+            this.transport = transport;
+            this.batch = batch;
+        }
+
+        public void start(int port) {
+            listener = Transport.bind(transport, port, WaitStrategy.fromProperty(),
+                    Backpressure.fromProperty());
+            thread = new Thread(this, "SelectServer");
+            thread.start();
+        }
+
+        public void run() {
+            ThreadAffinity.forRole(ThreadAffinity.LISTENER).pinCurrentThread();
+            if (batch == 1) {
+                MessageListener.Event e;
+                // An interrupt wakes up the select, which returns null
+                while (!Thread.currentThread().isInterrupted() &&
+                        (e = listener.blockForNextEvent()) != null) {
+                    if (e.message != null) {
+                        e.connection.write(e.message);
+                    }
+                }
+            } else {
+                MessageListener.Event[] events = new MessageListener.Event[batch];
+                int count;
+                // ... and blockForNextEvents() returns 0
+                while (!Thread.currentThread().isInterrupted() &&
+                        (count = listener.blockForNextEvents(events)) != 0) {
+                    for (int i = 0; i < count; ++i) {
+                        if (events[i].message != null) {
+                            events[i].connection.write(events[i].message);
+                        }
+                    }
+                }
+            }
+            listener.close();
+        }
+
+        public void stop() throws InterruptedException {
+            thread.interrupt();
+            thread.join();
+        }
+
+        public long systemCalls() {
+            if (listener instanceof SystemCallCounter) {
+                return ((SystemCallCounter) listener).getSystemCalls();
+            }
+            return -1;
+        }
+
+        private final String transport;
+        private final int batch;
+        private MessageListener listener;
+        private Thread thread;
+    }
+
+    /** A server command run as a subprocess, with the port appended to its arguments. */
+    private static final class ProcessServer implements Server {
+        public ProcessServer(ArrayList<String> command) {
+            this.command = command;
+        }
+
+        public void start(int port) throws IOException {
+            ArrayList<String> arguments = new ArrayList<String>(command);
+            arguments.add(Integer.toString(port));
+            ProcessBuilder builder = new ProcessBuilder(arguments);
+            builder.redirectErrorStream(true);
+            process = builder.start();
+
+            // Copy the output so the server never blocks on a full pipe
+            final InputStream output = process.getInputStream();
+            Thread copier = new Thread("server output") {
+                public void run() {
+                    byte[] buffer = new byte[4096];
+                    try {
+                        int bytes;
+                        while ((bytes = output.read(buffer)) != -1) {
+                            System.err.write(buffer, 0, bytes);
+                        }
+                    } catch (IOException e) {}
+                }
+            };
+            copier.setDaemon(true);
+            copier.start();
+        }
+
+        public boolean isRunning() {
+            try {
+                process.exitValue();
+                return false;
+            } catch (IllegalThreadStateException e) {
+                return true;
+            }
+        }
+
+        public void stop() throws InterruptedException {
+            // SIGTERM, as perftest.py did
+            process.destroy();
+            process.waitFor();
+        }
+
+        public long systemCalls() { return -1; }
+
+        private final ArrayList<String> command;
+        private Process process;
+    }
+
+    // Passed on to java: servers
+    private static final String PROPERTY_PREFIX = "edu.mit.net.";
+
+    private static final String SELECT = "select";
+    private static final String EPOLL = "epoll";
+    private static final String URING = "uring";
+    private static final String THREADS = "threads";
+    private static final String JAVA_PREFIX = "java:";
+    private static final String EXEC_PREFIX = "exec:";
+
+    /** @returns the server described by spec: see usage(). prefix is prepended to subprocess
+    commands, for example "numactl --physcpubind 1". batch is the events per call of the
+    in-process select servers. */
+    private static Server newServer(String spec, ArrayList<String> prefix, int batch) {
+        if (spec.equals(THREADS)) {
+            return new ThreadPerConnectionServer();
+        } else if (spec.equals(SELECT)) {
+            return new SelectorServer(Transport.NIO, batch);
+        } else if (spec.equals(EPOLL) || spec.equals(URING)) {
+            // Transport.bind() would fall back to nio, and label nio's results with spec
+            if (!Transport.isSupported(spec)) {
+                System.err.println("error: transport " + spec + " is not supported: " +
+                        Transport.requirements(spec));
+                usage();
+            }
+            return new SelectorServer(spec, batch);
+        }
+
+        ArrayList<String> command = new ArrayList<String>(prefix);
+        if (spec.startsWith(JAVA_PREFIX)) {
+            command.add(System.getProperty("java.home") + File.separator + "bin" +
+                    File.separator + "java");
+            command.addAll(Arrays.asList(
+                    "-server", "-XX:+UseSerialGC", "-cp", System.getProperty("java.class.path")));
+            for (Map.Entry<Object, Object> property : System.getProperties().entrySet()) {
+                String key = (String) property.getKey();
+                if (key.startsWith(PROPERTY_PREFIX)) {
+                    command.add("-D" + key + "=" + property.getValue());
+                }
+            }
+            command.add(spec.substring(JAVA_PREFIX.length()));
+        } else if (spec.startsWith(EXEC_PREFIX)) {
+            command.addAll(splitWords(spec.substring(EXEC_PREFIX.length())));
+        } else {
+            return null;
+        }
+        return new ProcessServer(command);
+    }
+
+    /** @returns the name before = in "name=spec", or a name derived from spec. */
+    private static String serverName(String spec) {
+        int equals = spec.indexOf('=');
+        int colon = spec.indexOf(':');
+        if (equals > 0 && (colon == -1 || equals < colon)) {
+            return spec.substring(0, equals);
+        }
+        if (spec.startsWith(JAVA_PREFIX)) {
+            return "java-" + spec.substring(JAVA_PREFIX.length());
+        } else if (spec.startsWith(EXEC_PREFIX)) {
+            return new File(splitWords(spec.substring(EXEC_PREFIX.length())).get(0)).getName();
+        }
+        return spec;
+    }
+
+    /** @returns spec without any "name=" prefix. */
+    private static String stripName(String spec) {
+        int equals = spec.indexOf('=');
+        int colon = spec.indexOf(':');
+        if (equals > 0 && (colon == -1 || equals < colon)) {
+            return spec.substring(equals + 1);
+        }
+        return spec;
+    }
+
+    private static ArrayList<String> splitWords(String words) {
+        ArrayList<String> out = new ArrayList<String>();
+        for (String word : words.trim().split("\\s+")) {
+            if (word.length() > 0) out.add(word);
+        }
+        return out;
+    }
+
+    /** Waits until the server accepts connections. */
+    private static void waitForListen(Server server, InetSocketAddress address)
+            throws IOException, InterruptedException {
+        final long TIMEOUT_MS = 10000;
+        long end = System.currentTimeMillis() + TIMEOUT_MS;
+        while (true) {
+            if (server instanceof ProcessServer && !((ProcessServer) server).isRunning()) {
+                throw new IOException("server exited before listening on " + address);
+            }
+            try {
+                new Socket(address.getAddress(), address.getPort()).close();
+                return;
+            } catch (IOException e) {
+                if (System.currentTimeMillis() > end) throw e;
+            }
+            Thread.sleep(50);
+        }
+    }
+
+    /** One client connection: keeps pipeline messages outstanding, sending a new one as each
+    response arrives. The server echoes in order, so sendTimes is a ring of the outstanding
+    messages' send times. */
+    private static final class LoadThread extends Thread {
+        private static final int READ_TIMEOUT_MS = 10000;
+
+        public LoadThread(InetSocketAddress address, int size, int pipeline,
+                AtomicBoolean count, AtomicBoolean quit, ThreadAffinity affinity)
+                throws IOException {
+            socket = new Socket(address.getAddress(), address.getPort());
+            socket.setTcpNoDelay(true);
+            // Fail rather than hang if the server dies
+            socket.setSoTimeout(READ_TIMEOUT_MS);
+            in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            out = new BufferedOutputStream(socket.getOutputStream());
+            request = new byte[4 + size];
+            ServerBase.intToBytes(size, request, 0);
+            response = new byte[request.length];
+            sendTimes = new long[pipeline];
+            this.count = count;
+            this.quit = quit;
+            this.affinity = affinity;
+        }
+
+        public void run() {
+            affinity.pinCurrentThread();
+            try {
+                for (int i = 0; i < sendTimes.length; ++i) {
+                    sendTimes[i] = System.nanoTime();
+                    out.write(request);
+                }
+                out.flush();
+
+                int next = 0;
+                while (!quit.get()) {
+                    readResponse();
+                    long end = System.nanoTime();
+                    if (count.get()) {
+                        // Clamp rather than overflow: a 2 second response is an outlier anyway
+                        latencies.add((int) Math.min(end - sendTimes[next], Integer.MAX_VALUE));
+                        responses += 1;
+                    }
+
+                    sendTimes[next] = end;
+                    out.write(request);
+                    out.flush();
+                    next = (next + 1) % sendTimes.length;
+                }
+
+                // Read the outstanding responses so the server never writes to a closed socket
+                for (int i = 0; i < sendTimes.length; ++i) {
+                    readResponse();
+                }
+                socket.close();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+
+        private void readResponse() throws IOException {
+            in.readFully(response);
+            if (ServerBase.bytesToInt(response, 0) != request.length - 4) {
+                throw new IOException("response length " + ServerBase.bytesToInt(response, 0) +
+                        " != request length " + (request.length - 4));
+            }
+        }
+
+        /** Waits for the thread to exit and re-throws any exception it had. */
+        public void finish() throws IOException, InterruptedException {
+            join();
+            if (failure != null) throw failure;
+        }
+
+        private final Socket socket;
+        private final DataInputStream in;
+        private final OutputStream out;
+        private final byte[] request;
+        private final byte[] response;
+        private final long[] sendTimes;
+        private final AtomicBoolean count;
+        private final AtomicBoolean quit;
+        private final ThreadAffinity affinity;
+        public final LatencyRecord latencies = new LatencyRecord();
+        public int responses = 0;
+        private IOException failure;
+    }
+
+    /** The results of one trial. */
+    private static final class Trial {
+        public double messagesPerSecond;
+        public Statistics.Summary latencyMicros;
+        // NaN if the server does not count them
+        public double systemCallsPerMessage;
+    }
+
+    private static final ThreadAffinity CLIENTS = ThreadAffinity.forRole(ThreadAffinity.CLIENT);
+
+    private static Trial runTrial(Server server, InetSocketAddress address, int clients, int size,
+            int pipeline, int warmUpSeconds, int measureSeconds)
+            throws IOException, InterruptedException {
+        AtomicBoolean count = new AtomicBoolean(false);
+        AtomicBoolean quit = new AtomicBoolean(false);
+        LoadThread[] threads = new LoadThread[clients];
+        for (int i = 0; i < threads.length; ++i) {
+            threads[i] = new LoadThread(address, size, pipeline, count, quit, CLIENTS);
+        }
+        for (LoadThread thread : threads) {
+            thread.start();
+        }
+
+        Thread.sleep(warmUpSeconds * 1000L);
+        long start = System.nanoTime();
+        long startCalls = server.systemCalls();
+        count.set(true);
+        Thread.sleep(measureSeconds * 1000L);
+        count.set(false);
+        long endCalls = server.systemCalls();
+        long end = System.nanoTime();
+        quit.set(true);
+
+        long total = 0;
+        int latencyCount = 0;
+        for (LoadThread thread : threads) {
+            thread.finish();
+            total += thread.responses;
+            latencyCount += thread.latencies.size();
+        }
+        if (total == 0) {
+            throw new IOException("no responses in " + measureSeconds + " seconds");
+        }
+
+        double[] micros = new double[latencyCount];
+        int index = 0;
+        for (LoadThread thread : threads) {
+            for (Integer nanos : thread.latencies) {
+                micros[index] = nanos / 1000.0;
+                index += 1;
+            }
+        }
+
+        Trial trial = new Trial();
+        trial.messagesPerSecond = total / ((end - start) / 1e9);
+        trial.latencyMicros = Statistics.stats(micros);
+        // Responses in flight when counting stops make this approximate, like msgs/s
+        trial.systemCallsPerMessage = startCalls < 0 ? Double.NaN :
+                (endCalls - startCalls) / (double) total;
+        return trial;
+    }
+
+    private static void writeRow(PrintWriter out, Object... values) {
+        for (int i = 0; i < values.length; ++i) {
+            if (i > 0) out.print(',');
+            out.print(values[i]);
+        }
+        out.println();
+    }
+
+    private static int[] parseList(String list) {
+        String[] parts = list.split(",");
+        int[] values = new int[parts.length];
+        for (int i = 0; i < parts.length; ++i) {
+            values[i] = Integer.parseInt(parts[i].trim());
+        }
+        return values;
+    }
+
+    private static void usage() {
+        System.err.println("PerfDriver [options] [[name=]server ...]");
+        System.err.println("  server: " + THREADS + ", " + SELECT + ", " + EPOLL + " or " +
+                URING + " (in this process; " + EPOLL + " and " + URING + " are SelectServer " +
+                "on those transports, and exit if they are not supported), " +
+                JAVA_PREFIX + "ClassName (a JVM with this classpath) or " + EXEC_PREFIX +
+                "'command args' (for example " + EXEC_PREFIX + "./epollserver); the port is " +
+                "appended to subprocess arguments. Default: " + THREADS + " " + SELECT);
+        System.err.println("  name: the output file name; by default derived from server");
+        System.err.println("  --clients list   client connections (default 1,2,4,8,16)");
+        System.err.println("  --sizes list     message bytes (default 4; the C++ servers only echo 4)");
+        System.err.println("  --pipeline list  outstanding messages per client (default 1)");
+        System.err.println("  --trials n       trials per point (default 5)");
+        System.err.println("  --warmup s       seconds before each trial is measured (default 2)");
+        System.err.println("  --measure s      seconds measured per trial (default 5)");
+        System.err.println("  --port n         server port (default 54321)");
+        System.err.println("  --batch n        events per call in the in-process select servers " +
+                "(default " + SelectServer.BATCH + "; 1 calls blockForNextEvent())");
+        System.err.println("  --prefix 'cmd'   prepended to subprocess commands, e.g. 'taskset -c 1'");
+        System.err.println("  --output dir     where to write name.csv and name-summary.csv (default .)");
+        System.exit(1);
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int[] clientCounts = {1, 2, 4, 8, 16};
+        int[] sizes = {4};
+        int[] pipelines = {1};
+        int trials = 5;
+        int warmUpSeconds = 2;
+        int measureSeconds = 5;
+        int port = 54321;
+        int batch = SelectServer.BATCH;
+        ArrayList<String> prefix = new ArrayList<String>();
+        File outputDirectory = new File(".");
+        ArrayList<String> servers = new ArrayList<String>();
+
+        for (int i = 0; i < args.length; ++i) {
+            String arg = args[i];
+            if (!arg.startsWith("--")) {
+                servers.add(arg);
+                continue;
+            }
+            if (i + 1 == args.length) usage();
+            String value = args[i + 1];
+            i += 1;
+            if (arg.equals("--clients")) {
+                clientCounts = parseList(value);
+            } else if (arg.equals("--sizes")) {
+                sizes = parseList(value);
+            } else if (arg.equals("--pipeline")) {
+                pipelines = parseList(value);
+            } else if (arg.equals("--trials")) {
+                trials = Integer.parseInt(value);
+            } else if (arg.equals("--warmup")) {
+                warmUpSeconds = Integer.parseInt(value);
+            } else if (arg.equals("--measure")) {
+                measureSeconds = Integer.parseInt(value);
+            } else if (arg.equals("--port")) {
+                port = Integer.parseInt(value);
+            } else if (arg.equals("--batch")) {
+                batch = Integer.parseInt(value);
+            } else if (arg.equals("--prefix")) {
+                prefix = splitWords(value);
+            } else if (arg.equals("--output")) {
+                outputDirectory = new File(value);
+            } else {
+                usage();
+            }
+        }
+        if (servers.isEmpty()) {
+            servers.add(THREADS);
+            servers.add(SELECT);
+        }
+        if (trials < 1 || batch < 1) usage();
+
+        // Check every server before running any
+        ArrayList<Server> instances = new ArrayList<Server>();
+        for (String spec : servers) {
+            Server server = newServer(stripName(spec), prefix, batch);
+            if (server == null) usage();
+            instances.add(server);
+        }
+
+        InetSocketAddress address = new InetSocketAddress(InetAddress.getByName(null), port);
+        for (int serverIndex = 0; serverIndex < servers.size(); ++serverIndex) {
+            String spec = servers.get(serverIndex);
+            Server server = instances.get(serverIndex);
+            String name = serverName(spec);
+            System.out.println(name);
+
+            PrintWriter raw = new PrintWriter(new File(outputDirectory, name + ".csv"));
+            writeRow(raw, "clients", "message bytes", "pipeline", "trial", "msgs/s",
+                    "latency us", "latency 95% us", "latency stddev us", "median latency us",
+                    "p99 latency us", "syscalls/msg");
+            PrintWriter summary = new PrintWriter(new File(outputDirectory, name + "-summary.csv"));
+            writeRow(summary, "clients", "message bytes", "pipeline", "trials", "msgs/s",
+                    "msgs/s 95%", "latency us", "latency 95% us", "latency stddev us",
+                    "p99 latency us", "syscalls/msg");
+
+            server.start(port);
+            try {
+                waitForListen(server, address);
+                // Warm up the server once with the heaviest load; the first point is not special
+                runTrial(server, address, clientCounts[clientCounts.length - 1], sizes[0], pipelines[0],
+                        warmUpSeconds, warmUpSeconds);
+
+                for (int size : sizes) {
+                    for (int pipeline : pipelines) {
+                        for (int clients : clientCounts) {
+                            System.out.print(clients + " clients " + size + " bytes pipeline " +
+                                    pipeline + ":");
+                            double[] throughputs = new double[trials];
+                            double[] latencies = new double[trials];
+                            double[] stddevs = new double[trials];
+                            double[] p99s = new double[trials];
+                            double[] calls = new double[trials];
+                            for (int t = 0; t < trials; ++t) {
+                                Trial trial = runTrial(server, address, clients, size,
+                                        pipeline, warmUpSeconds, measureSeconds);
+                                throughputs[t] = trial.messagesPerSecond;
+                                latencies[t] = trial.latencyMicros.average;
+                                stddevs[t] = trial.latencyMicros.standardDeviation;
+                                p99s[t] = trial.latencyMicros.percentile(0.99);
+                                calls[t] = trial.systemCallsPerMessage;
+                                writeRow(raw, clients, size, pipeline, t, throughputs[t],
+                                        latencies[t], trial.latencyMicros.confidence, stddevs[t],
+                                        trial.latencyMicros.median, p99s[t], calls[t]);
+                                System.out.printf("\t%.0f (%.1f us", throughputs[t], latencies[t]);
+                                if (!Double.isNaN(calls[t])) {
+                                    System.out.printf(", %.2f syscalls/msg", calls[t]);
+                                }
+                                System.out.print(")");
+                                System.out.flush();
+                            }
+                            System.out.println();
+
+                            Statistics.Summary throughput = Statistics.stats(throughputs);
+                            Statistics.Summary latency = Statistics.stats(latencies);
+                            Statistics.Summary stddev = Statistics.stats(stddevs);
+                            Statistics.Summary p99 = Statistics.stats(p99s);
+                            Statistics.Summary call = Statistics.stats(calls);
+                            writeRow(summary, clients, size, pipeline, trials, throughput.average,
+                                    throughput.confidence, latency.average, latency.confidence,
+                                    stddev.average, p99.average, call.average);
+                            raw.flush();
+                            summary.flush();
+                        }
+                    }
+                }
+            } finally {
+                server.stop();
+                raw.close();
+                summary.close();
+            }
+        }
+    }
+}
@@ -1,19 +1,107 @@
 import java.io.IOException;
+import java.util.concurrent.TimeUnit;
 
+import edu.mit.net.Backpressure;
+import edu.mit.net.MessageListener;
 import edu.mit.net.NIOMessageListener;
+import edu.mit.net.ThreadAffinity;
+import edu.mit.net.Transport;
+import edu.mit.net.WaitStrategy;
+import edu.mit.net.WorkerPool;
 
 public class SelectServer {
+    /** Events handled per call to the listener. */
+    public static final int BATCH = 64;
+
+    /** The system property for the number of event loops, each with its own listening socket on
+    the same port (SO_REUSEPORT). Only the nio transport supports more than 1. */
+    public static final String LOOPS_PROPERTY = "edu.mit.net.loops";
+
     public static void main(String[] args) throws IOException {
-        NIOMessageListener listener = new NIOMessageListener();
-        listener.bind(ServerBase.parsePort("SelectServer", args));
+        int port = ServerBase.parsePort("SelectServer", args);
+        // -Dedu.mit.net.idletimeout=MS closes connections that send nothing for MS
+        int idleTimeoutMs = Integer.getInteger(ServerBase.IDLE_TIMEOUT_PROPERTY, 0);
+        int loops = Integer.getInteger(LOOPS_PROPERTY, 1);
+        // -Dedu.mit.net.workers=N echoes on N worker threads instead of the event loop
+        int workers = Integer.getInteger(WorkerPool.PROPERTY, 0);
+        WorkerPool pool = null;
+        if (workers > 0) {
+            pool = new WorkerPool(workers, new WorkerPool.Handler() {
+                public byte[] handle(byte[] request) {
+                    return request;
+                }
+            });
+        }
+
+        if (loops > 1) {
+            if (!NIOMessageListener.isReusePortSupported()) {
+                System.err.println("SelectServer: " + LOOPS_PROPERTY + " needs SO_REUSEPORT " +
+                        "(JDK 9+ on Linux or BSD)");
+                System.exit(1);
+            }
+            // The kernel spreads connections across the listening sockets
+            for (int i = 1; i < loops; ++i) {
+                final MessageListener listener = bindShard(port, pool, idleTimeoutMs);
+                new Thread("SelectServer " + i) {
+                    public void run() {
+                        runEventLoop(listener);
+                    }
+                }.start();
+            }
+            runEventLoop(bindShard(port, pool, idleTimeoutMs));
+            return;
+        }
 
-        NIOMessageListener.Event e;
-        while ((e = listener.blockForNextEvent()) != null) {
-            if (e.message == null) {
-                // New connection or connection closed: ignore
+        // -Dedu.mit.net.transport=epoll uses epoll directly instead of a Selector
+        MessageListener listener = Transport.bind(Transport.fromProperty(), port,
+                WaitStrategy.fromProperty(), Backpressure.fromProperty());
+        if (pool != null) {
+            if (listener instanceof NIOMessageListener) {
+                ((NIOMessageListener) listener).setWorkerPool(pool);
             } else {
-                // Echo back the message
-                e.connection.write(e.message);
+                System.err.println("warning: only transport " + Transport.NIO +
+                        " supports workers, ignoring " + WorkerPool.PROPERTY);
+            }
+        }
+        if (idleTimeoutMs > 0) {
+            if (listener instanceof NIOMessageListener) {
+                ((NIOMessageListener) listener).setIdleTimeout(idleTimeoutMs,
+                        TimeUnit.MILLISECONDS);
+            } else {
+                System.err.println("warning: only transport " + Transport.NIO +
+                        " supports idle timeouts, ignoring " + ServerBase.IDLE_TIMEOUT_PROPERTY);
+            }
+        }
+        runEventLoop(listener);
+    }
+
+    /** @returns an nio listener on port, which other listeners can share. */
+    private static MessageListener bindShard(int port, WorkerPool pool, int idleTimeoutMs) {
+        NIOMessageListener listener = new NIOMessageListener();
+        listener.bind(port, true);
+        listener.setWaitStrategy(WaitStrategy.fromProperty());
+        listener.setBackpressure(Backpressure.fromProperty());
+        if (pool != null) listener.setWorkerPool(pool);
+        listener.setIdleTimeout(idleTimeoutMs, TimeUnit.MILLISECONDS);
+        return listener;
+    }
+
+    private static void runEventLoop(MessageListener listener) {
+        // This thread runs the event loop
+        ThreadAffinity.forRole(ThreadAffinity.LISTENER).pinCurrentThread();
+
+        // Replies to a batch of events are flushed together, one write per connection
+        MessageListener.Event[] events = new MessageListener.Event[BATCH];
+        int count;
+        while ((count = listener.blockForNextEvents(events)) != 0) {
+            for (int i = 0; i < count; ++i) {
+                MessageListener.Event e = events[i];
+                if (e.message == null) {
+                    // New connection or connection closed: ignore
+                } else {
+                    // Echo back the message
+                    e.connection.write(e.message);
+                }
             }
         }
     }
@@ -1,10 +1,15 @@
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.IOException;
 
 public class ServerBase {
+    /** The system property for the milliseconds a server waits for a request before closing the
+    connection. Unset or 0 waits forever. */
+    public static final String IDLE_TIMEOUT_PROPERTY = "edu.mit.net.idletimeout";
+
     public static int bytesToInt(byte[] array, int offset) {
         int length = ((int) array[offset + 3] & 0xff) << 24;
         length |= ((int) array[offset + 2] & 0xff) << 16;
@@ -53,11 +58,11 @@ public class ServerBase {
             }
         }
 
-        /** @return true if the request was read correctly, false if the connection closed. */
+        /** @return true if the request was read correctly, false if the connection closed or
+        timed out: see Socket.setSoTimeout(). A timed out connection is closed. */
         public boolean readMessage() {
             try {
-                int bytes = read.read(lengthBytes, 0, lengthBytes.length);
-                if (bytes != lengthBytes.length) return false;
+                if (!readFully(lengthBytes)) return false;
 
                 // Allocate a message if needed
                 int length = bytesToInt(lengthBytes, 0);
@@ -65,13 +70,31 @@ public class ServerBase {
                     message = new byte[length];
                 }
 
-                bytes = read.read(message, 0, message.length);
-                return bytes == message.length;
+                return readFully(message);
+            } catch (SocketTimeoutException e) {
+                try {
+                    socket.close();
+                } catch (IOException closeException) {
+                    throw new RuntimeException(closeException);
+                }
+                return false;
             } catch (IOException e) {
                 throw new RuntimeException(e);
             }
         }
 
+        /** A read can return part of a message larger than the buffered input: keep reading.
+        @return false if the connection closed first. */
+        private boolean readFully(byte[] destination) throws IOException {
+            int offset = 0;
+            while (offset < destination.length) {
+                int bytes = read.read(destination, offset, destination.length - offset);
+                if (bytes == -1) return false;
+                offset += bytes;
+            }
+            return true;
+        }
+
         public void writeMessage() {
             try {
                 write.write(lengthBytes, 0, lengthBytes.length);
@@ -0,0 +1,182 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import edu.mit.net.Backpressure;
+import edu.mit.net.MessageListener;
+import edu.mit.net.NIOMessageListener;
+import edu.mit.net.Transport;
+import edu.mit.net.WaitStrategy;
+
+/** Runs the select echo server with clients that send requests faster than they read the
+responses, next to normal clients that send one request at a time. Without Backpressure the
+server buffers the slow clients' responses until it runs out of memory; with it, their requests
+wait in the kernel. Prints the normal clients' throughput and latency, and the most unsent bytes
+and heap seen while sampling every 100 ms. */
+public class SlowClientTest {
+    private static final int NORMAL_BYTES = 64;
+    private static final int SLOW_REQUEST_BYTES = 16384;
+    // The slow clients send a request every millisecond: 16 MB/s
+    private static final long SLOW_SEND_INTERVAL_NS = 1000000;
+    // ... and read 16 kB every 10 ms: 1.6 MB/s
+    private static final int SLOW_READ_BYTES = 16384;
+    private static final long SLOW_READ_INTERVAL_MS = 10;
+
+    private static final class NormalClient extends Thread {
+        public NormalClient(InetAddress address, int port, AtomicBoolean quit)
+                throws IOException {
+            client = new ServerBase.Client(new Socket(address, port));
+            client.setMessage(new byte[NORMAL_BYTES]);
+            this.quit = quit;
+        }
+
+        public void run() {
+            while (!quit.get()) {
+                long start = System.nanoTime();
+                client.writeMessage();
+                client.readMessage();
+                latencies.add((int) Math.min(System.nanoTime() - start, Integer.MAX_VALUE));
+            }
+        }
+
+        private final ServerBase.Client client;
+        private final AtomicBoolean quit;
+        public final LatencyRecord latencies = new LatencyRecord();
+    }
+
+    /** Sends requests from one thread and reads responses slowly from another. */
+    private static final class SlowClient {
+        public SlowClient(InetAddress address, int port, final AtomicBoolean quit)
+                throws IOException {
+            socket = new Socket(address, port);
+            final byte[] request = new byte[4 + SLOW_REQUEST_BYTES];
+            ServerBase.intToBytes(SLOW_REQUEST_BYTES, request, 0);
+            writer = new Thread("slow writer") {
+                public void run() {
+                    try {
+                        OutputStream out = socket.getOutputStream();
+                        long next = System.nanoTime();
+                        while (!quit.get()) {
+                            out.write(request);
+                            next += SLOW_SEND_INTERVAL_NS;
+                            long sleep = next - System.nanoTime();
+                            if (sleep > 0) Thread.sleep(sleep / 1000000, (int) (sleep % 1000000));
+                        }
+                    } catch (Exception e) {
+                        // close() closed the socket while a write was blocked
+                    }
+                }
+            };
+            reader = new Thread("slow reader") {
+                public void run() {
+                    try {
+                        InputStream in = socket.getInputStream();
+                        byte[] buffer = new byte[SLOW_READ_BYTES];
+                        while (!quit.get() && in.read(buffer) > 0) {
+                            Thread.sleep(SLOW_READ_INTERVAL_MS);
+                        }
+                    } catch (Exception e) {
+                        // Closed
+                    }
+                }
+            };
+            writer.start();
+            reader.start();
+        }
+
+        public void close() throws IOException, InterruptedException {
+            socket.close();
+            writer.join();
+            reader.join();
+        }
+
+        private final Socket socket;
+        private final Thread writer;
+        private final Thread reader;
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 1 || args.length > 4) {
+            System.err.println("SlowClientTest (none|HIGH_KB,LOW_KB,GLOBAL_KB) " +
+                    "[normal clients = 4] [slow clients = 2] [seconds = 10]");
+            System.exit(1);
+        }
+        Backpressure backpressure = Backpressure.parse(args[0]);
+        int normalClients = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        int slowClients = args.length > 2 ? Integer.parseInt(args[2]) : 2;
+        int seconds = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+
+        final NIOMessageListener listener = (NIOMessageListener) Transport.bind(Transport.NIO, 0,
+                WaitStrategy.BLOCKING, backpressure);
+        Thread server = new Thread("SelectServer") {
+            public void run() {
+                MessageListener.Event e;
+                while (!Thread.currentThread().isInterrupted() &&
+                        (e = listener.blockForNextEvent()) != null) {
+                    if (e.message != null) {
+                        e.connection.write(e.message);
+                    }
+                }
+                listener.close();
+            }
+        };
+        server.start();
+
+        InetAddress address = InetAddress.getByName(null);
+        AtomicBoolean quit = new AtomicBoolean(false);
+        NormalClient[] normal = new NormalClient[normalClients];
+        for (int i = 0; i < normal.length; ++i) {
+            normal[i] = new NormalClient(address, listener.getLocalPort(), quit);
+            normal[i].start();
+        }
+        SlowClient[] slow = new SlowClient[slowClients];
+        for (int i = 0; i < slow.length; ++i) {
+            slow[i] = new SlowClient(address, listener.getLocalPort(), quit);
+        }
+
+        Runtime runtime = Runtime.getRuntime();
+        long maxUnsent = 0;
+        long maxHeap = 0;
+        int maxPaused = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < seconds * 10; ++i) {
+            Thread.sleep(100);
+            // Read without synchronization: the server thread may be updating them, but they
+            // are only samples
+            maxUnsent = Math.max(maxUnsent, listener.getUnsentBytes());
+            maxPaused = Math.max(maxPaused, listener.getPausedConnections());
+            maxHeap = Math.max(maxHeap, runtime.totalMemory() - runtime.freeMemory());
+        }
+        long end = System.nanoTime();
+        quit.set(true);
+
+        int responses = 0;
+        for (NormalClient client : normal) {
+            client.join();
+            responses += client.latencies.size();
+        }
+        // Stop the server first: it closes the slow clients' connections with responses unsent
+        server.interrupt();
+        server.join();
+        for (SlowClient client : slow) {
+            client.close();
+        }
+
+        double[] micros = new double[responses];
+        int index = 0;
+        for (NormalClient client : normal) {
+            for (Integer nanos : client.latencies) {
+                micros[index] = nanos / 1000.0;
+                index += 1;
+            }
+        }
+        Statistics.Summary latency = Statistics.stats(micros);
+        System.out.printf("backpressure %s: %.0f msgs/s latency %.1f us p99 %.1f us; " +
+                "max unsent %.1f MB, max heap %.1f MB, max paused %d%n", backpressure,
+                responses / ((end - start) / 1e9), latency.average, latency.percentile(0.99),
+                maxUnsent / 1048576.0, maxHeap / 1048576.0, maxPaused);
+    }
+}
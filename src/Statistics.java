@@ -0,0 +1,327 @@
+import java.util.Arrays;
+import java.util.HashMap;
+
+/** Summary statistics with Student's t confidence intervals. A port of statistics.py, including
+its port of the JSci incomplete beta function, so both compute the same intervals.
+
+JSci information:
+http://jsci.sourceforge.net/
+Original Author: Mark Hale
+Original Licence: LGPL */
+public final class Statistics {
+    private Statistics() {}
+
+    /** The statistics.stats() tuple. */
+    public static final class Summary {
+        public final int count;
+        public final double average;
+        public final double median;
+        public final double standardDeviation;
+        public final double minimum;
+        public final double maximum;
+        /** Half the width of the confidence interval: the mean is average +/- confidence. NaN if
+        there is only one value. */
+        public final double confidence;
+        private final double[] sorted;
+
+        private Summary(double[] sorted, double average, double standardDeviation,
+                double confidence) {
+            count = sorted.length;
+            this.sorted = sorted;
+            this.average = average;
+            median = sorted[sorted.length / 2];
+            this.standardDeviation = standardDeviation;
+            minimum = sorted[0];
+            maximum = sorted[sorted.length - 1];
+            this.confidence = confidence;
+        }
+
+        /** @returns the smallest value that is at least fraction (0 < fraction <= 1) of the values. */
+        public double percentile(double fraction) {
+            int index = (int) Math.ceil(fraction * sorted.length) - 1;
+            return sorted[Math.max(0, index)];
+        }
+    }
+
+    /** Returns statistics about values with the 95% confidence interval. */
+    public static Summary stats(double[] values) {
+        return stats(values, 0.05);
+    }
+
+    /** Returns statistics about values. confidenceInterval is 1 - confidence (0.05 = 95%). */
+    public static Summary stats(double[] values, double confidenceInterval) {
+        if (values.length == 0) {
+            throw new IllegalArgumentException("values must not be empty");
+        }
+        double total = 0;
+        for (double value : values) {
+            total += value;
+        }
+        double average = total / values.length;
+        double sumDeviationSquared = 0;
+        for (double value : values) {
+            sumDeviationSquared += (value - average) * (value - average);
+        }
+        double standardDeviation =
+                Math.sqrt(sumDeviationSquared / Math.max(1, values.length - 1));
+
+        double[] sorted = values.clone();
+        Arrays.sort(sorted);
+
+        // We must estimate both mean and standard deviation using the t distribution:
+        // http://davidmlane.com/hyperstat/B7483.html
+        // confidence = +/- tinv(p, n - 1) * s / sqrt(n)
+        double confidence = Double.NaN;
+        if (values.length > 1) {
+            double standardError = standardDeviation / Math.sqrt(values.length);
+            confidence = cachedTinv(confidenceInterval, values.length - 1) * standardError;
+        }
+        return new Summary(sorted, average, standardDeviation, confidence);
+    }
+
+    // Relative machine precision.
+    private static final double EPS = 2.22e-16;
+    // The smallest positive floating-point number such that 1/XMININ is machine representable.
+    private static final double XMININ = 2.23e-308;
+    private static final double LOGSQRT2PI = Math.log(Math.sqrt(2 * Math.PI));
+    // Rough estimate of the fourth root of logGamma_xBig
+    private static final double LG_FRTBIG = 2.25e76;
+    private static final double PNT68 = 0.6796875;
+    // lower value = higher precision
+    private static final double PRECISION = 4.0 * EPS;
+    private static final double ACCURACY = 1e-7;
+    private static final int MAX_ITERATIONS = 10000;
+
+    /** Evaluates the continued fraction part of the incomplete beta function. Based on an idea
+    from Numerical Recipes (W.H. Press et al, 1992). */
+    private static double betaFraction(double x, double p, double q) {
+        double sumPQ = p + q;
+        double pPlus = p + 1.0;
+        double pMinus = p - 1.0;
+        double h = 1.0 - sumPQ * x / pPlus;
+        if (Math.abs(h) < XMININ) h = XMININ;
+        h = 1.0 / h;
+        double frac = h;
+        double delta = 0.0;
+        double c = 1.0;
+
+        for (int m = 1; m <= MAX_ITERATIONS && Math.abs(delta - 1.0) > PRECISION; ++m) {
+            int m2 = 2 * m;
+
+            // even index for d
+            double d = m * (q - m) * x / ((pMinus + m2) * (p + m2));
+            h = 1.0 + d * h;
+            if (Math.abs(h) < XMININ) h = XMININ;
+            h = 1.0 / h;
+            c = 1.0 + d / c;
+            if (Math.abs(c) < XMININ) c = XMININ;
+            frac *= h * c;
+
+            // odd index for d
+            d = -(p + m) * (sumPQ + m) * x / ((p + m2) * (pPlus + m2));
+            h = 1.0 + d * h;
+            if (Math.abs(h) < XMININ) h = XMININ;
+            h = 1.0 / h;
+            c = 1.0 + d / c;
+            if (Math.abs(c) < XMININ) c = XMININ;
+            delta = h * c;
+            frac *= delta;
+        }
+        return frac;
+    }
+
+    // The largest argument for which logGamma(x) is representable in the machine.
+    private static final double LOG_GAMMA_X_MAX_VALUE = 2.55e305;
+    private static final double LG_D1 = -0.5772156649015328605195174;
+    private static final double LG_D2 = 0.4227843350984671393993777;
+    private static final double LG_D4 = 1.791759469228055000094023;
+    private static final double[] LG_P1 = { 4.945235359296727046734888,
+        201.8112620856775083915565, 2290.838373831346393026739,
+        11319.67205903380828685045, 28557.24635671635335736389,
+        38484.96228443793359990269, 26377.48787624195437963534,
+        7225.813979700288197698961 };
+    private static final double[] LG_Q1 = { 67.48212550303777196073036,
+        1113.332393857199323513008, 7738.757056935398733233834,
+        27639.87074403340708898585, 54993.10206226157329794414,
+        61611.22180066002127833352, 36351.27591501940507276287,
+        8785.536302431013170870835 };
+    private static final double[] LG_P2 = { 4.974607845568932035012064,
+        542.4138599891070494101986, 15506.93864978364947665077,
+        184793.2904445632425417223, 1088204.76946882876749847,
+        3338152.967987029735917223, 5106661.678927352456275255,
+        3074109.054850539556250927 };
+    private static final double[] LG_Q2 = { 183.0328399370592604055942,
+        7765.049321445005871323047, 133190.3827966074194402448,
+        1136705.821321969608938755, 5267964.117437946917577538,
+        13467014.54311101692290052, 17827365.30353274213975932,
+        9533095.591844353613395747 };
+    private static final double[] LG_P4 = { 14745.02166059939948905062,
+        2426813.369486704502836312, 121475557.4045093227939592,
+        2663432449.630976949898078, 29403789566.34553899906876,
+        170266573776.5398868392998, 492612579337.743088758812,
+        560625185622.3951465078242 };
+    private static final double[] LG_Q4 = { 2690.530175870899333379843,
+        639388.5654300092398984238, 41355999.30241388052042842,
+        1120872109.61614794137657, 14886137286.78813811542398,
+        101680358627.2438228077304, 341747634550.7377132798597,
+        446315818741.9713286462081 };
+    private static final double[] LG_C = { -0.001910444077728, 8.4171387781295e-4,
+        -5.952379913043012e-4, 7.93650793500350248e-4,
+        -0.002777777777777681622553, 0.08333333333333333331554247,
+        0.0057083835261 };
+
+    /** The natural logarithm of the gamma function. Based on public domain NETLIB (Fortran) code
+    by W. J. Cody and L. Stoltz, Argonne National Laboratory. See statistics.py for the
+    references. Returns infinity for x < 0 or when overflow would occur. */
+    private static double logGamma(double y) {
+        if (y < 0.0 || y > LOG_GAMMA_X_MAX_VALUE) {
+            return Double.POSITIVE_INFINITY;
+        }
+        if (y <= EPS) {
+            return -Math.log(y);
+        }
+
+        if (y <= 1.5) {
+            double corr;
+            double xm1;
+            if (y < PNT68) {
+                corr = -Math.log(y);
+                xm1 = y;
+            } else {
+                corr = 0.0;
+                xm1 = y - 1.0;
+            }
+
+            if (y <= 0.5 || y >= PNT68) {
+                double xden = 1.0;
+                double xnum = 0.0;
+                for (int i = 0; i < 8; ++i) {
+                    xnum = xnum * xm1 + LG_P1[i];
+                    xden = xden * xm1 + LG_Q1[i];
+                }
+                return corr + xm1 * (LG_D1 + xm1 * (xnum / xden));
+            } else {
+                double xm2 = y - 1.0;
+                double xden = 1.0;
+                double xnum = 0.0;
+                for (int i = 0; i < 8; ++i) {
+                    xnum = xnum * xm2 + LG_P2[i];
+                    xden = xden * xm2 + LG_Q2[i];
+                }
+                return corr + xm2 * (LG_D2 + xm2 * (xnum / xden));
+            }
+        }
+
+        if (y <= 4.0) {
+            double xm2 = y - 2.0;
+            double xden = 1.0;
+            double xnum = 0.0;
+            for (int i = 0; i < 8; ++i) {
+                xnum = xnum * xm2 + LG_P2[i];
+                xden = xden * xm2 + LG_Q2[i];
+            }
+            return xm2 * (LG_D2 + xm2 * (xnum / xden));
+        }
+
+        if (y <= 12.0) {
+            double xm4 = y - 4.0;
+            double xden = -1.0;
+            double xnum = 0.0;
+            for (int i = 0; i < 8; ++i) {
+                xnum = xnum * xm4 + LG_P4[i];
+                xden = xden * xm4 + LG_Q4[i];
+            }
+            return LG_D4 + xm4 * (xnum / xden);
+        }
+
+        assert y <= LG_FRTBIG;
+        double res = LG_C[6];
+        double ysq = y * y;
+        for (int i = 0; i < 6; ++i) {
+            res = res / ysq + LG_C[i];
+        }
+        res /= y;
+        double corr = Math.log(y);
+        res = res + LOGSQRT2PI - 0.5 * corr;
+        res += y * (corr - 1.0);
+        return res;
+    }
+
+    private static double logBeta(double p, double q) {
+        assert p > 0 && q > 0;
+        if (p + q > LOG_GAMMA_X_MAX_VALUE) {
+            return 0;
+        }
+        return logGamma(p) + logGamma(q) - logGamma(p + q);
+    }
+
+    /** Incomplete beta function. Based on Numerical Recipes, Chapter 6.4 (W.H. Press et al,
+    1992). */
+    private static double incompleteBeta(double x, double p, double q) {
+        assert 0 <= x && x <= 1;
+        assert p > 0 && q > 0;
+
+        if (x <= 0.0) return 0.0;
+        if (x >= 1.0) return 1.0;
+        if (p + q > LOG_GAMMA_X_MAX_VALUE) return 0.0;
+
+        double betaGam = Math.exp(-logBeta(p, q) + p * Math.log(x) + q * Math.log(1.0 - x));
+        if (x < (p + 1.0) / (p + q + 2.0)) {
+            return betaGam * betaFraction(x, p, q) / p;
+        } else {
+            return 1.0 - (betaGam * betaFraction(1.0 - x, q, p) / q);
+        }
+    }
+
+    /** Student's t distribution CDF: the probability that a value x < X. */
+    private static double studentTCdf(int degreesOfFreedom, double x) {
+        double a = 0.5 * incompleteBeta(
+                degreesOfFreedom / (degreesOfFreedom + x * x), 0.5 * degreesOfFreedom, 0.5);
+        if (x > 0) return 1 - a;
+        return a;
+    }
+
+    /** Inverse of Student's t distribution CDF: the value x such that CDF(x) = probability. Uses
+    the bisection method, like statistics.findRoot. */
+    private static double inverseStudentT(int degreesOfFreedom, double probability) {
+        assert 0 <= probability && probability <= 1;
+        if (probability == 1) return Double.POSITIVE_INFINITY;
+        if (probability == 0) return Double.NEGATIVE_INFINITY;
+        if (probability == 0.5) return 0.0;
+
+        double low = -1e4;
+        double high = 1e4;
+        double guess = (high + low) / 2.0;
+        double difference = studentTCdf(degreesOfFreedom, guess) - probability;
+        for (int i = 0; Math.abs(difference) > ACCURACY && i < MAX_ITERATIONS; ++i) {
+            if (difference > 0) {
+                high = guess;
+            } else {
+                low = guess;
+            }
+            guess = (high + low) / 2.0;
+            difference = studentTCdf(degreesOfFreedom, guess) - probability;
+        }
+        return guess;
+    }
+
+    /** Similar to the TINV function in Excel. p is 1 - confidence (0.05 = 95% confidence). */
+    public static double tinv(double p, int degreesOfFreedom) {
+        assert 0 <= p && p <= 1;
+        double confidence = 1 - p;
+        return inverseStudentT(degreesOfFreedom, (1 + confidence) / 2.0);
+    }
+
+    // Cache tinv results, since we typically call it with the same args over and over
+    private static final HashMap<String, Double> tinvCache = new HashMap<String, Double>();
+
+    private static synchronized double cachedTinv(double p, int degreesOfFreedom) {
+        String key = p + " " + degreesOfFreedom;
+        Double result = tinvCache.get(key);
+        if (result == null) {
+            result = tinv(p, degreesOfFreedom);
+            tinvCache.put(key, result);
+        }
+        return result;
+    }
+}
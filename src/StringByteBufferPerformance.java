@@ -6,6 +6,8 @@ import java.io.UnsupportedEncodingException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 
+import edu.mit.net.BufferSizing;
+import edu.mit.net.EncodedStringCache;
 import edu.mit.net.StringByteBufferEncoder;
 import edu.mit.net.StringEncoder;
 import edu.mit.net.StringReflectByteBufferEncoder;
@@ -29,6 +31,10 @@ public class StringByteBufferPerformance {
     private static final class GenericEncoder implements Encoder {
         private final StringEncoder encoder = new StringEncoder();
 
+        public GenericEncoder(BufferSizing sizing) {
+            encoder.setSizing(sizing);
+        }
+
         public ByteBuffer encodeToNewBuffer(String source) {
             return encoder.toNewByteBuffer(source);
         }
@@ -37,6 +43,10 @@ public class StringByteBufferPerformance {
     private static final class ByteBufferEncoder implements Encoder {
         private final StringByteBufferEncoder encoder = new StringByteBufferEncoder();
 
+        public ByteBufferEncoder(BufferSizing sizing) {
+            encoder.setSizing(sizing);
+        }
+
         public ByteBuffer encodeToNewBuffer(String source) {
             return encoder.toNewByteBuffer(source);
         }
@@ -50,26 +60,52 @@ public class StringByteBufferPerformance {
         }
     }
 
+    private static final class CachedEncoder implements Encoder {
+        private final EncodedStringCache cache = new EncodedStringCache(
+                Long.getLong("cache.bytes", 64 * 1024));
+
+        public ByteBuffer encodeToNewBuffer(String source) {
+            return cache.get(source);
+        }
+    }
+
     private static void error() {
-        System.err.println("(jdk|generic|bytebuffer|reflect) (input strings)");
+        System.err.println("(jdk|generic|bytebuffer|reflect|cached) (input strings) [zipf]");
+        System.err.println("  generic and bytebuffer accept a sizing suffix: -guess -exact -adaptive");
+        System.err.println("  cached options: -Dcache.bytes=65536");
         System.exit(1);
     }
 
     public static void main(String[] args) throws IOException {
-        if (args.length != 2) {
+        if (!(args.length == 2 || (args.length == 3 && args[2].equals("zipf")))) {
             error();
             return;
         }
 
+        String name = args[0];
+        BufferSizing sizing = BufferSizing.ADAPTIVE;
+        int dash = name.indexOf('-');
+        if (dash >= 0) {
+            try {
+                sizing = BufferSizing.valueOf(name.substring(dash+1).toUpperCase());
+            } catch (IllegalArgumentException e) {
+                error();
+                return;
+            }
+            name = name.substring(0, dash);
+        }
+
         Encoder encoder;
-        if (args[0].equals("jdk")) {
+        if (name.equals("jdk")) {
             encoder = new JDKEncoder();
-        } else if (args[0].equals("generic")) {
-            encoder = new GenericEncoder();
-        } else if (args[0].equals("bytebuffer")) {
-            encoder = new ByteBufferEncoder();
-        } else if (args[0].equals("reflect")) {
+        } else if (name.equals("generic")) {
+            encoder = new GenericEncoder(sizing);
+        } else if (name.equals("bytebuffer")) {
+            encoder = new ByteBufferEncoder(sizing);
+        } else if (name.equals("reflect")) {
             encoder = new ReflectEncoder();
+        } else if (name.equals("cached")) {
+            encoder = new CachedEncoder();
         } else {
             error();
             return;
@@ -78,11 +114,16 @@ public class StringByteBufferPerformance {
         ArrayList<String> strings = new ArrayList<String>();
         BufferedReader reader =
                 new BufferedReader(new InputStreamReader(new FileInputStream(args[1]), "UTF-8"));
-        long totalCharacters = 0;
         String line;
         while ((line = reader.readLine()) != null) {
             strings.add(line);
-            totalCharacters += line.length();
+        }
+        if (args.length == 3) {
+            strings = ZipfWorkload.sample(strings);
+        }
+        long totalCharacters = 0;
+        for (String value : strings) {
+            totalCharacters += value.length();
         }
 
         // Calibrate the loop to run in ~5 seconds
@@ -103,6 +144,20 @@ public class StringByteBufferPerformance {
             double charsPerUS = (totalCharacters * iterations) / (double) ns * 1000.;
             System.out.println(charsPerUS + " UTF-16 characters encoded per microsecond");
         }
+
+        if (encoder instanceof CachedEncoder) {
+            // stderr so scripts parsing the timing lines are not confused
+            EncodedStringCache cache = ((CachedEncoder) encoder).cache;
+            long totalBytes = 0;
+            for (String value : strings) {
+                totalBytes += value.getBytes("UTF-8").length;
+            }
+            long requestedBytes = totalBytes * (cache.getHits() + cache.getMisses()) / strings.size();
+            System.err.printf("cache hit ratio: %.3f; %.1f%% of bytes not encoded; "
+                    + "%d strings = %d bytes cached\n",
+                    cache.getHitRatio(), cache.getHitBytes() * 100. / requestedBytes,
+                    cache.size(), cache.getCachedBytes());
+        }
     }
 
     private static long runBenchmark(final int iterations, Encoder encoder, ArrayList<String> strings) {
@@ -110,14 +165,21 @@ public class StringByteBufferPerformance {
         for (int i = 0; i < iterations; i++) {
             for (String value : strings) {
                 ByteBuffer out = encoder.encodeToNewBuffer(value);
-                try {
-                    assert new String(out.array(), 0, out.remaining(), "UTF-8").equals(value);
-                } catch (UnsupportedEncodingException e) {
-                    throw new RuntimeException(e);
-                }
+                assert matches(out, value);
             }
         }
         long end = System.nanoTime();
         return end - start;
     }
+
+    private static boolean matches(ByteBuffer out, String value) {
+        // Cached buffers are direct and read-only: they have no accessible array
+        byte[] bytes = new byte[out.remaining()];
+        out.duplicate().get(bytes);
+        try {
+            return new String(bytes, "UTF-8").equals(value);
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
 }
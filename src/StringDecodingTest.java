@@ -9,13 +9,36 @@ import java.nio.charset.CharsetDecoder;
 import java.nio.charset.CoderResult;
 import java.util.ArrayList;
 
+import edu.mit.net.CacheEviction;
+import edu.mit.net.DecodedStringCache;
+
 public class StringDecodingTest {
     private interface UTF8Decoder {
         String decode(byte[] source, int offset, int length);
 
+        /** Decodes all the length prefixed strings in source. */
+        String[] decodeBatch(ByteBuffer source);
+
         UTF8Decoder newInstance();
     }
 
+    /** The batch decoding you get without a batch API: one decode() per string. */
+    private static String[] decodeBatchEach(UTF8Decoder decoder, ByteBuffer source) {
+        int count = 0;
+        for (int offset = source.position(); offset < source.limit();
+                offset += 4 + source.getInt(offset)) {
+            count += 1;
+        }
+
+        String[] out = new String[count];
+        for (int i = 0; i < count; ++i) {
+            int length = source.getInt();
+            out[i] = decoder.decode(source.array(), source.position(), length);
+            source.position(source.position() + length);
+        }
+        return out;
+    }
+
     private static final Charset UTF8 = Charset.forName("UTF-8");
 
     private static final class UTF8CharsetDecoder implements UTF8Decoder {
@@ -51,6 +74,10 @@ public class StringDecodingTest {
             return new String(outBuffer.array(), 0, outBuffer.position());
         }
 
+        public String[] decodeBatch(ByteBuffer source) {
+            return decodeBatchEach(this, source);
+        }
+
         public UTF8CharsetDecoder newInstance() {
             return new UTF8CharsetDecoder();
         }
@@ -61,6 +88,10 @@ public class StringDecodingTest {
             return new String(source, offset, length, UTF8);
         }
 
+        public String[] decodeBatch(ByteBuffer source) {
+            return decodeBatchEach(this, source);
+        }
+
         public StringDecoder newInstance() {
             return new StringDecoder();
         }
@@ -73,19 +104,49 @@ public class StringDecodingTest {
             return decoder.finish(source, offset, length);
         }
 
+        public String[] decodeBatch(ByteBuffer source) {
+            return decoder.decodeBatch(source);
+        }
+
         public CustomDecoder newInstance() {
             return new CustomDecoder();
         }
     }
 
+    private static final class CachedDecoder implements UTF8Decoder {
+        private final edu.mit.net.StringDecoder decoder = new edu.mit.net.StringDecoder();
+        private final DecodedStringCache cache;
+
+        public CachedDecoder(DecodedStringCache cache) {
+            this.cache = cache;
+            decoder.setCache(cache);
+        }
+
+        public String decode(byte[] source, int offset, int length) {
+            return decoder.finish(source, offset, length);
+        }
+
+        public String[] decodeBatch(ByteBuffer source) {
+            return decoder.decodeBatch(source);
+        }
+
+        /** New instances share the cache, as all connections on one thread would. */
+        public CachedDecoder newInstance() {
+            return new CachedDecoder(cache);
+        }
+    }
+
 
     private static void error() {
-        System.err.println("(chardecoder|string|custom) (once|reuse) (input strings)");
+        System.err.println("(chardecoder|string|custom|cached) (once|reuse) (single|batch) "
+                + "(input strings) [zipf]");
+        System.err.println("  cached options: -Dcache.entries=512 -Dcache.ways=4 "
+                + "-Dcache.maxbytes=64 -Dcache.eviction=(lru|fifo)");
         System.exit(1);
     }
 
     public static void main(String[] args) throws IOException {
-        if (args.length != 3) {
+        if (!(args.length == 4 || (args.length == 5 && args[4].equals("zipf")))) {
             error();
             return;
         }
@@ -97,6 +158,14 @@ public class StringDecodingTest {
             decoder = new StringDecoder();
         } else if (args[0].equals("custom")) {
             decoder = new CustomDecoder();
+        } else if (args[0].equals("cached")) {
+            CacheEviction eviction = CacheEviction.valueOf(
+                    System.getProperty("cache.eviction", "lru").toUpperCase());
+            decoder = new CachedDecoder(new DecodedStringCache(
+                    Integer.getInteger("cache.entries", 512),
+                    Integer.getInteger("cache.ways", 4),
+                    Integer.getInteger("cache.maxbytes", 64),
+                    eviction));
         } else {
             error();
             return;
@@ -110,33 +179,94 @@ public class StringDecodingTest {
             return;
         }
 
-        ArrayList<byte[]> lines = new ArrayList<byte[]>();
+        boolean batch = false;
+        if (args[2].equals("batch")) {
+            batch = true;
+        } else if (!args[2].equals("single")) {
+            error();
+            return;
+        }
+
+        ArrayList<String> strings = new ArrayList<String>();
         BufferedReader reader =
-                new BufferedReader(new InputStreamReader(new FileInputStream(args[2]), "UTF-8"));
+                new BufferedReader(new InputStreamReader(new FileInputStream(args[3]), "UTF-8"));
         String line;
         while ((line = reader.readLine()) != null) {
-            lines.add(line.getBytes("UTF-8"));
+            strings.add(line);
+        }
+        if (args.length == 5) {
+            strings = ZipfWorkload.sample(strings);
         }
 
+        ArrayList<byte[]> lines = new ArrayList<byte[]>();
+        long totalCharacters = 0;
+        for (String value : strings) {
+            lines.add(value.getBytes("UTF-8"));
+            totalCharacters += value.length();
+        }
+
+        // For batch mode, the entire input is one buffer of length prefixed strings
+        int batchBytes = 0;
+        for (byte[] bytes : lines) {
+            batchBytes += 4 + bytes.length;
+        }
+        ByteBuffer batchInput = ByteBuffer.allocate(batchBytes);
+        int encoded = new edu.mit.net.StringEncoder().encodeBatch(strings, 0, batchInput);
+        assert encoded == strings.size();
+        batchInput.flip();
+
         //~ final int ITERATIONS = 5000000;
         //~ final int ITERATIONS = 1000000;
         //~ final int ITERATIONS = 10000;
         final int ITERATIONS = 400;
         for (int j = 0; j < 10; ++j) {
             long start = System.nanoTime();
-            for (int i = 0; i < ITERATIONS; ++i) {
-                for (byte[] bytes : lines) {
-                    UTF8Decoder temp = decoder;
-                    if (!reuseDecoder) {
-                        temp = decoder.newInstance();
-                    }
-
-                    String out = temp.decode(bytes, 0, bytes.length);
-                    assert out.equals(new String(bytes, "UTF-8"));
-                }
+            if (batch) {
+                batchLoop(decoder, reuseDecoder, batchInput, strings, ITERATIONS);
+            } else {
+                singleLoop(decoder, reuseDecoder, lines, ITERATIONS);
             }
             long end = System.nanoTime();
-            System.out.println(((double) end-start)/1000000000. + " seconds");
+            double charsPerUS = (totalCharacters * ITERATIONS) / (double) (end - start) * 1000.;
+            System.out.println(((double) end-start)/1000000000. + " seconds "
+                    + charsPerUS + " chars/us");
+        }
+
+        if (decoder instanceof CachedDecoder) {
+            // stderr so scripts parsing the timing lines are not confused
+            DecodedStringCache cache = ((CachedDecoder) decoder).cache;
+            System.err.printf("cache hit ratio: %.3f (%d hits, %d misses)\n",
+                    cache.getHitRatio(), cache.getHits(), cache.getMisses());
+        }
+    }
+
+    private static void singleLoop(UTF8Decoder decoder, boolean reuseDecoder,
+            ArrayList<byte[]> lines, final int ITERATIONS) throws IOException {
+        for (int i = 0; i < ITERATIONS; ++i) {
+            for (byte[] bytes : lines) {
+                UTF8Decoder temp = decoder;
+                if (!reuseDecoder) {
+                    temp = decoder.newInstance();
+                }
+
+                String out = temp.decode(bytes, 0, bytes.length);
+                assert out.equals(new String(bytes, "UTF-8"));
+            }
+        }
+    }
+
+    private static void batchLoop(UTF8Decoder decoder, boolean reuseDecoder,
+            ByteBuffer batchInput, ArrayList<String> strings, final int ITERATIONS) {
+        for (int i = 0; i < ITERATIONS; ++i) {
+            UTF8Decoder temp = decoder;
+            if (!reuseDecoder) {
+                temp = decoder.newInstance();
+            }
+
+            batchInput.position(0);
+            String[] out = temp.decodeBatch(batchInput);
+            assert out.length == strings.size();
+            assert out[out.length-1].equals(strings.get(out.length-1));
         }
     }
 }
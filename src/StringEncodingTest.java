@@ -19,9 +19,29 @@ public class StringEncodingTest {
 
 	ByteBuffer encodeToNewBuffer(String source);
 
+	/** Encodes sources[first:] into out, each prefixed by its length.
+	 * Returns the index of the first string that did not fit. */
+	int encodeBatch(String[] sources, int first, ByteBuffer out);
+
 	UTF8Encoder newInstance();
     }
 
+    /** The batch encoding you get without a batch API: one encodeToArray()
+     * and copy per string. */
+    private static int encodeBatchByArray(UTF8Encoder encoder,
+	    String[] sources, int first, ByteBuffer out) {
+	int i = first;
+	for (; i < sources.length; ++i) {
+	    byte[] bytes = encoder.encodeToArray(sources[i]);
+	    if (out.remaining() < 4 + bytes.length) {
+		break;
+	    }
+	    out.putInt(bytes.length);
+	    out.put(bytes);
+	}
+	return i;
+    }
+
     private static final Charset UTF8 = Charset.forName("UTF-8");
 
     private static abstract class UTF8CharsetEncoder implements UTF8Encoder {
@@ -46,6 +66,10 @@ public class StringEncodingTest {
 	public ByteBuffer encodeToNewBuffer(String source) {
 	    return ByteBuffer.wrap(encodeToArray(source));
 	}
+
+	public int encodeBatch(String[] sources, int first, ByteBuffer out) {
+	    return encodeBatchByArray(this, sources, first, out);
+	}
     }
 
     private static final class DirectEncoder extends UTF8CharsetEncoder {
@@ -140,6 +164,10 @@ public class StringEncodingTest {
 	    return ByteBuffer.wrap(encodeToArray(source));
 	}
 
+	public int encodeBatch(String[] sources, int first, ByteBuffer out) {
+	    return encodeBatchByArray(this, sources, first, out);
+	}
+
 	public StringEncoder newInstance() {
 	    return new StringEncoder(destination);
 	}
@@ -166,6 +194,10 @@ public class StringEncodingTest {
 	    return ByteBuffer.wrap(encodeToArray(source));
 	}
 
+	public int encodeBatch(String[] sources, int first, ByteBuffer out) {
+	    return encodeBatchByArray(this, sources, first, out);
+	}
+
 	public StringEncoder2 newInstance() {
 	    return new StringEncoder2(destination);
 	}
@@ -194,6 +226,10 @@ public class StringEncodingTest {
 	    return encoder.toNewByteBuffer(source);
 	}
 
+	public int encodeBatch(String[] sources, int first, ByteBuffer out) {
+	    return encoder.encodeBatch(sources, first, out);
+	}
+
 	public CustomEncoder newInstance() {
 	    return new CustomEncoder(destination.array());
 	}
@@ -201,12 +237,12 @@ public class StringEncodingTest {
 
     private static void error() {
 	System.err
-		.println("(bytebuffer|string|chars|custom) (once|reuse) (buffer|array|bytebuffer) (input strings)");
+		.println("(bytebuffer|string|chars|custom) (once|reuse) (buffer|array|bytebuffer|batch) (input strings)");
 	System.exit(1);
     }
 
     private static enum OutputMode {
-	ARRAY, REUSE_BUFFER, NEW_BYTEBUFFER,
+	ARRAY, REUSE_BUFFER, NEW_BYTEBUFFER, BATCH,
     }
 
     public static void main(String[] args) throws IOException {
@@ -216,6 +252,8 @@ public class StringEncodingTest {
 	}
 
 	byte[] destination = new byte[4096];
+	// Separate from destination: the JDK encoders use destination as scratch
+	ByteBuffer batchDestination = ByteBuffer.allocate(destination.length);
 
 	UTF8Encoder encoder;
 	if (args[0].equals("bytebuffer")) {
@@ -248,6 +286,8 @@ public class StringEncodingTest {
 	    outputMode = OutputMode.REUSE_BUFFER;
 	} else if (args[2].equals("bytebuffer")) {
 	    outputMode = OutputMode.NEW_BYTEBUFFER;
+	} else if (args[2].equals("batch")) {
+	    outputMode = OutputMode.BATCH;
 	} else {
 	    error();
 	    return;
@@ -256,9 +296,11 @@ public class StringEncodingTest {
 	ArrayList<String> strings = new ArrayList<String>();
 	BufferedReader reader = new BufferedReader(new InputStreamReader(
 		new FileInputStream(args[3]), "UTF-8"));
+	long totalCharacters = 0;
 	String line;
 	while ((line = reader.readLine()) != null) {
 	    strings.add(line);
+	    totalCharacters += line.length();
 	}
 
 	// ~ final int ITERATIONS = 5000000;
@@ -267,18 +309,29 @@ public class StringEncodingTest {
 	final int ITERATIONS = 1000;
 	for (int j = 0; j < 50; ++j) {
 	    long start = System.nanoTime();
-	    testLoop(destination, encoder, reuseEncoder, outputMode, strings,
-		    ITERATIONS);
+	    testLoop(destination, batchDestination, encoder, reuseEncoder,
+		    outputMode, strings, ITERATIONS);
 	    long end = System.nanoTime();
-	    System.out.println(((double) end - start) / 1000000. + " millis");
+	    double charsPerUS = (totalCharacters * ITERATIONS) / (double) (end - start) * 1000.;
+	    System.out.println(((double) end - start) / 1000000. + " millis "
+		    + charsPerUS + " chars/us");
 	    System.gc();
 	}
     }
 
-    private static void testLoop(byte[] destination, UTF8Encoder encoder,
+    private static void testLoop(byte[] destination,
+	    ByteBuffer batchDestination, UTF8Encoder encoder,
 	    boolean reuseEncoder, OutputMode outputMode,
 	    ArrayList<String> strings, final int ITERATIONS)
 	    throws UnsupportedEncodingException {
+	if (outputMode == OutputMode.BATCH) {
+	    String[] array = strings.toArray(new String[strings.size()]);
+	    for (int i = 0; i < ITERATIONS; ++i) {
+		batchAction(batchDestination, encoder, reuseEncoder, array);
+	    }
+	    return;
+	}
+
 	for (int i = 0; i < ITERATIONS; ++i) {
 	    encodeLoop(destination, encoder, reuseEncoder, outputMode, strings);
 	}
@@ -287,12 +340,49 @@ public class StringEncodingTest {
     private static void encodeLoop(byte[] destination, UTF8Encoder encoder,
 	    boolean reuseEncoder, OutputMode outputMode,
 	    ArrayList<String> strings) throws UnsupportedEncodingException {
+
 	for (String value : strings) {
 	    encodeAction(destination, encoder, reuseEncoder, outputMode, value);
 
 	}
     }
 
+    /** Encodes all of strings with one encoder, draining the destination
+     * buffer each time it fills, as if it were written to a socket. */
+    private static void batchAction(ByteBuffer out, UTF8Encoder encoder,
+	    boolean reuseEncoder, String[] strings)
+	    throws UnsupportedEncodingException {
+	UTF8Encoder temp = encoder;
+	if (!reuseEncoder) {
+	    temp = encoder.newInstance();
+	}
+
+	int next = 0;
+	while (next < strings.length) {
+	    out.clear();
+	    int last = next;
+	    next = temp.encodeBatch(strings, next, out);
+	    // every string in the input fits in the destination
+	    assert next > last;
+	    assert batchMatches(out, strings, last, next);
+	}
+    }
+
+    private static boolean batchMatches(ByteBuffer out, String[] strings,
+	    int first, int end) throws UnsupportedEncodingException {
+	int offset = 0;
+	for (int i = first; i < end; ++i) {
+	    int length = out.getInt(offset);
+	    offset += 4;
+	    String value = new String(out.array(), offset, length, "UTF-8");
+	    if (!value.equals(strings[i])) {
+		return false;
+	    }
+	    offset += length;
+	}
+	return offset == out.position();
+    }
+
     private static void encodeAction(byte[] destination, UTF8Encoder encoder,
 	    boolean reuseEncoder, OutputMode outputMode, String value)
 	    throws UnsupportedEncodingException {
@@ -2,17 +2,28 @@ import java.io.IOException;
 import java.net.ServerSocket;
 import java.net.Socket;
 
+import edu.mit.net.ThreadAffinity;
+
 public class ThreadServer {
     private static class ClientThread extends Thread {
         public ClientThread(Socket socket) { this.socket = socket; }
 
         public void run() {
+            WORKERS.pinCurrentThread();
+            try {
+                // Each blocked read gives up after the idle timeout
+                socket.setSoTimeout(IDLE_TIMEOUT_MS);
+            } catch (IOException e) { throw new RuntimeException(e); }
             ServerBase.serverClientLoop(socket);
         }
 
         private final Socket socket;
     }
 
+    private static final ThreadAffinity WORKERS = ThreadAffinity.forRole(ThreadAffinity.SERVER);
+    private static final int IDLE_TIMEOUT_MS =
+            Integer.getInteger(ServerBase.IDLE_TIMEOUT_PROPERTY, 0);
+
     public static void main(String[] args) throws IOException {
         ServerSocket serverSocket = ServerBase.parseArgs("ThreadServer", args);
 
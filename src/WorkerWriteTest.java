@@ -0,0 +1,154 @@
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import edu.mit.net.MessageListener;
+import edu.mit.net.NIOMessageListener;
+import edu.mit.net.Transport;
+import edu.mit.net.WaitStrategy;
+
+/** Runs the select echo server with the responses made by worker threads, which send them with
+NIOMessageListener.write(): the event loop hands each request to a shared queue, a worker copies
+it, and the copy goes back through the listener's submission queue. inline makes the responses on
+the event loop, like SelectServer. Each client keeps pipeline requests outstanding. Prints the
+throughput and how many times the workers woke up the event loop per response. */
+public class WorkerWriteTest {
+    private static final int MESSAGE_BYTES = 64;
+
+    private static final class Client extends Thread {
+        public Client(InetAddress address, int port, int pipeline, AtomicBoolean quit)
+                throws IOException {
+            client = new ServerBase.Client(new Socket(address, port));
+            client.setMessage(new byte[MESSAGE_BYTES]);
+            this.pipeline = pipeline;
+            this.quit = quit;
+        }
+
+        public void run() {
+            for (int i = 0; i < pipeline; ++i) {
+                client.writeMessage();
+            }
+            while (!quit.get()) {
+                // The server closes the connection when it stops
+                if (!client.readMessage()) break;
+                responses += 1;
+                client.writeMessage();
+            }
+        }
+
+        private final ServerBase.Client client;
+        private final int pipeline;
+        private final AtomicBoolean quit;
+        // Read by main() while running
+        public volatile long responses;
+    }
+
+    private static final class Worker extends Thread {
+        public Worker(NIOMessageListener listener,
+                LinkedBlockingQueue<MessageListener.Event> requests) {
+            super("worker");
+            this.listener = listener;
+            this.requests = requests;
+            setDaemon(true);
+        }
+
+        public void run() {
+            try {
+                while (true) {
+                    MessageListener.Event e = requests.take();
+                    listener.write(e.connection, e.message.clone());
+                }
+            } catch (InterruptedException e) {
+                // Done
+            }
+        }
+
+        private final NIOMessageListener listener;
+        private final LinkedBlockingQueue<MessageListener.Event> requests;
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 1 || args.length > 5 ||
+                !(args[0].equals("inline") || args[0].equals("workers"))) {
+            System.err.println("WorkerWriteTest (inline|workers) [workers = 4] [clients = 16] " +
+                    "[pipeline = 8] [seconds = 5]");
+            System.exit(1);
+        }
+        final boolean inline = args[0].equals("inline");
+        int workerCount = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        int clientCount = args.length > 2 ? Integer.parseInt(args[2]) : 16;
+        int pipeline = args.length > 3 ? Integer.parseInt(args[3]) : 8;
+        int seconds = args.length > 4 ? Integer.parseInt(args[4]) : 5;
+
+        final NIOMessageListener listener = (NIOMessageListener) Transport.bind(Transport.NIO, 0,
+                WaitStrategy.fromProperty());
+        final LinkedBlockingQueue<MessageListener.Event> requests =
+                new LinkedBlockingQueue<MessageListener.Event>();
+        Worker[] workers = new Worker[inline ? 0 : workerCount];
+        for (int i = 0; i < workers.length; ++i) {
+            workers[i] = new Worker(listener, requests);
+            workers[i].start();
+        }
+        Thread server = new Thread("SelectServer") {
+            public void run() {
+                MessageListener.Event e;
+                while ((e = listener.blockForNextEvent()) != null) {
+                    if (e.message == null) continue;
+                    if (inline) {
+                        e.connection.write(e.message.clone());
+                    } else {
+                        requests.add(e);
+                    }
+                }
+                listener.close();
+            }
+        };
+        server.start();
+
+        InetAddress address = InetAddress.getByName(null);
+        AtomicBoolean quit = new AtomicBoolean(false);
+        Client[] clients = new Client[clientCount];
+        for (int i = 0; i < clients.length; ++i) {
+            clients[i] = new Client(address, listener.getLocalPort(), pipeline, quit);
+        }
+
+        // Skip the first second: warm up
+        for (Client client : clients) {
+            client.start();
+        }
+        Thread.sleep(1000);
+        long startSubmitted = listener.getSubmitted();
+        long startWakeups = listener.getSubmissionWakeups();
+        long startResponses = 0;
+        for (Client client : clients) {
+            startResponses += client.responses;
+        }
+        long start = System.nanoTime();
+        Thread.sleep(seconds * 1000L);
+        long end = System.nanoTime();
+        long responses = -startResponses;
+        for (Client client : clients) {
+            responses += client.responses;
+        }
+        long submitted = listener.getSubmitted() - startSubmitted;
+        long wakeups = listener.getSubmissionWakeups() - startWakeups;
+
+        // The clients may be blocked reading: stopping the server closes their connections
+        quit.set(true);
+        server.interrupt();
+        server.join();
+        for (Client client : clients) {
+            client.join();
+        }
+        for (Worker worker : workers) {
+            worker.interrupt();
+        }
+
+        System.out.printf("%s workers %d clients %d pipeline %d: %.0f msgs/s; " +
+                "%d submitted, %.3f wakeups/msg%n", args[0], workers.length, clientCount,
+                pipeline, responses / ((end - start) / 1e9), submitted,
+                submitted == 0 ? 0.0 : wakeups / (double) submitted);
+    }
+}
@@ -0,0 +1,34 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+
+/** Skewed workloads for the string benchmarks: most requests use a few strings. */
+public class ZipfWorkload {
+    // The exponent of the Zipf distribution: 1.0 is typical for word frequencies
+    private static final double EXPONENT = 1.0;
+    private static final long SEED = 42;
+
+    /** Returns a workload the same length as strings, drawn from strings with a Zipf
+    distribution. The ranks are shuffled so the most frequent strings are not the first lines. */
+    public static ArrayList<String> sample(ArrayList<String> strings) {
+        Random random = new Random(SEED);
+        ArrayList<String> ranked = new ArrayList<String>(strings);
+        Collections.shuffle(ranked, random);
+
+        double[] cumulative = new double[ranked.size()];
+        double sum = 0;
+        for (int i = 0; i < cumulative.length; ++i) {
+            sum += 1.0 / Math.pow(i + 1, EXPONENT);
+            cumulative[i] = sum;
+        }
+
+        ArrayList<String> workload = new ArrayList<String>(strings.size());
+        for (int i = 0; i < strings.size(); ++i) {
+            int index = Arrays.binarySearch(cumulative, random.nextDouble() * sum);
+            if (index < 0) index = -index - 1;
+            workload.add(ranked.get(index));
+        }
+        return workload;
+    }
+}
@@ -0,0 +1,63 @@
+package edu.mit.net;
+
+/** Limits on the responses a NIOMessageListener buffers for clients that do not read them. When a
+connection has more than highWaterBytes of unsent writes, the listener stops reading its
+requests, and starts again once the backlog is down to lowWaterBytes. Reading from every
+connection that adds to the backlog also stops while the total across all connections is above
+globalLimitBytes, until it drops back to globalLimitBytes. Without this, a client that sends
+requests but does not read the responses makes the server buffer them until it runs out of
+memory. Unsent bytes include file regions queued by write(FileChannel, ...). */
+public final class Backpressure {
+    /** No limits: the default. */
+    public static final Backpressure NONE =
+            new Backpressure(Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE);
+
+    /** The system property fromProperty() reads. */
+    public static final String PROPERTY = "edu.mit.net.backpressure";
+
+    public Backpressure(long highWaterBytes, long lowWaterBytes, long globalLimitBytes) {
+        if (lowWaterBytes < 0 || lowWaterBytes > highWaterBytes ||
+                highWaterBytes > globalLimitBytes) {
+            throw new IllegalArgumentException("expected 0 <= low <= high <= global: " +
+                    lowWaterBytes + " " + highWaterBytes + " " + globalLimitBytes);
+        }
+        this.highWaterBytes = highWaterBytes;
+        this.lowWaterBytes = lowWaterBytes;
+        this.globalLimitBytes = globalLimitBytes;
+    }
+
+    /** Parses "none" or "HIGH_KB,LOW_KB,GLOBAL_KB" (kilobytes). */
+    public static Backpressure parse(String description) {
+        if (description.equals("none")) {
+            return NONE;
+        }
+        String[] parts = description.split(",");
+        if (parts.length == 3) {
+            try {
+                return new Backpressure(Long.parseLong(parts[0].trim()) * 1024,
+                        Long.parseLong(parts[1].trim()) * 1024,
+                        Long.parseLong(parts[2].trim()) * 1024);
+            } catch (NumberFormatException e) {}
+        }
+        throw new IllegalArgumentException("expected none or HIGH_KB,LOW_KB,GLOBAL_KB: " +
+                description);
+    }
+
+    /** @returns the limits in the edu.mit.net.backpressure system property, or NONE. */
+    public static Backpressure fromProperty() {
+        return parse(System.getProperty(PROPERTY, "none"));
+    }
+
+    public long getHighWaterBytes() { return highWaterBytes; }
+    public long getLowWaterBytes() { return lowWaterBytes; }
+    public long getGlobalLimitBytes() { return globalLimitBytes; }
+
+    public String toString() {
+        if (this == NONE) return "none";
+        return highWaterBytes / 1024 + "," + lowWaterBytes / 1024 + "," + globalLimitBytes / 1024;
+    }
+
+    private final long highWaterBytes;
+    private final long lowWaterBytes;
+    private final long globalLimitBytes;
+}
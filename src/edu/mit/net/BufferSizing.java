@@ -0,0 +1,13 @@
+package edu.mit.net;
+
+/** Selects how the encoders size the new ByteBuffer for a string. */
+public enum BufferSizing {
+    /** Guess one byte per char plus some slop. If that overflows, estimate the remaining size from
+    the bytes per char so far, allocate a larger buffer and copy. Best for ASCII. */
+    GUESS,
+    /** Compute the exact UTF-8 length in a pass over the chars, then allocate once. Best for text
+    with many multi-byte characters, such as CJK. */
+    EXACT,
+    /** Sample a few chars to choose between GUESS and EXACT for each string. */
+    ADAPTIVE,
+}
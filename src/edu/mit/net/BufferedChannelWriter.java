@@ -0,0 +1,326 @@
+package edu.mit.net;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.GatheringByteChannel;
+
+/** Builds outbound data in a chain of direct buffers from a DirectBufferPool, and writes the
+chain with one gathering write, instead of one write per buffer. Values are put into a byte
+array, which is copied into a pooled buffer when it fills: as ByteStreamTest shows, that is
+faster than putting them into a direct buffer one at a time. A value that does not fit in the
+rest of the array starts the next buffer, so the put methods never split a value; the buffer is
+simply written short.
+
+Frames whose length is only known at the end reserve an int for it with reserveInt(), and fill
+it in with patchInt(). Full buffers are written when maxGather of them are waiting, but not while
+a reservation is open: the chain grows until every reservation has been patched.
+
+On a non-blocking channel, flush() returns false if the channel did not take everything: call it
+again when the channel is writable. Not thread-safe. */
+public final class BufferedChannelWriter {
+    // Room for the largest value the put methods keep in one buffer
+    private static final int MIN_BUFFER_SIZE = 8;
+    static final int DEFAULT_MAX_GATHER = 16;
+
+    public BufferedChannelWriter(GatheringByteChannel channel, DirectBufferPool pool) {
+        this(channel, pool, DEFAULT_MAX_GATHER);
+    }
+
+    /** Full buffers are written when maxGather of them are waiting. */
+    public BufferedChannelWriter(GatheringByteChannel channel, DirectBufferPool pool,
+            int maxGather) {
+        if (pool.bufferSize() < MIN_BUFFER_SIZE) {
+            throw new IllegalArgumentException("pool buffers must be at least "
+                    + MIN_BUFFER_SIZE + " bytes: " + pool.bufferSize());
+        }
+        if (maxGather <= 0) {
+            throw new IllegalArgumentException("maxGather must be positive: " + maxGather);
+        }
+        this.channel = channel;
+        this.pool = pool;
+        this.maxGather = maxGather;
+        chain = new ByteBuffer[maxGather];
+        bytes = new byte[pool.bufferSize()];
+    }
+
+    /** Sets the byte order for the values put after this call. The default is little-endian,
+    like NIOReadStream.getInt(). @returns this. */
+    public BufferedChannelWriter order(ByteOrder order) {
+        this.order = order;
+        bigEndian = order == ByteOrder.BIG_ENDIAN;
+        return this;
+    }
+
+    public ByteOrder order() {
+        return order;
+    }
+
+    /** @returns the number of bytes put since this writer was created. */
+    public long position() {
+        return sealedBytes + index;
+    }
+
+    /** @returns the number of bytes put but not yet written to the channel. */
+    public long bufferedBytes() {
+        return position() - writtenBytes;
+    }
+
+    public void put(byte value) {
+        if (index == bytes.length) nextBuffer();
+        bytes[index++] = value;
+    }
+
+    public void putShort(short value) {
+        if (bytes.length - index < 2) nextBuffer();
+        if (bigEndian) {
+            bytes[index] = (byte) (value >> 8);
+            bytes[index+1] = (byte) value;
+        } else {
+            bytes[index] = (byte) value;
+            bytes[index+1] = (byte) (value >> 8);
+        }
+        index += 2;
+    }
+
+    public void putInt(int value) {
+        if (bytes.length - index < 4) nextBuffer();
+        putIntBytes(value, index);
+        index += 4;
+    }
+
+    private void putIntBytes(int value, int offset) {
+        if (bigEndian) {
+            bytes[offset] = (byte) (value >> 24);
+            bytes[offset+1] = (byte) (value >> 16);
+            bytes[offset+2] = (byte) (value >> 8);
+            bytes[offset+3] = (byte) value;
+        } else {
+            bytes[offset] = (byte) value;
+            bytes[offset+1] = (byte) (value >> 8);
+            bytes[offset+2] = (byte) (value >> 16);
+            bytes[offset+3] = (byte) (value >> 24);
+        }
+    }
+
+    public void putLong(long value) {
+        if (bytes.length - index < 8) nextBuffer();
+        if (bigEndian) {
+            putIntBytes((int) (value >>> 32), index);
+            putIntBytes((int) value, index + 4);
+        } else {
+            putIntBytes((int) value, index);
+            putIntBytes((int) (value >>> 32), index + 4);
+        }
+        index += 8;
+    }
+
+    public void putBytes(byte[] source) {
+        putBytes(source, 0, source.length);
+    }
+
+    public void putBytes(byte[] source, int offset, int length) {
+        while (length > 0) {
+            if (index == bytes.length) nextBuffer();
+            int count = Math.min(length, bytes.length - index);
+            System.arraycopy(source, offset, bytes, index, count);
+            index += count;
+            offset += count;
+            length -= count;
+        }
+    }
+
+    /** Puts the bytes between source's position and limit, and moves its position to the
+    limit. */
+    public void putBytes(ByteBuffer source) {
+        while (source.hasRemaining()) {
+            if (index == bytes.length) nextBuffer();
+            int count = Math.min(source.remaining(), bytes.length - index);
+            source.get(bytes, index, count);
+            index += count;
+        }
+    }
+
+    /** Puts value encoded as UTF-8, with unpaired surrogates replaced by '?', as
+    String.getBytes() does. A character's bytes may be split between buffers.
+    @returns the number of bytes put. */
+    public int putUtf8(CharSequence value) {
+        long start = position();
+        int length = value.length();
+        int i = 0;
+        while (i < length) {
+            // Copy runs of ASCII without checking the space for each byte
+            int end = i + Math.min(length - i, bytes.length - index);
+            char c = 0;
+            while (i < end && (c = value.charAt(i)) < 0x80) {
+                bytes[index++] = (byte) c;
+                i += 1;
+            }
+            if (i == length) break;
+            if (i == end) {
+                nextBuffer();
+                continue;
+            }
+
+            if (c < 0x800) {
+                put((byte) (0xc0 | (c >> 6)));
+                put((byte) (0x80 | (c & 0x3f)));
+            } else if (c < Character.MIN_SURROGATE || c > Character.MAX_SURROGATE) {
+                put((byte) (0xe0 | (c >> 12)));
+                put((byte) (0x80 | ((c >> 6) & 0x3f)));
+                put((byte) (0x80 | (c & 0x3f)));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(i + 1));
+                i += 1;
+                put((byte) (0xf0 | (codePoint >> 18)));
+                put((byte) (0x80 | ((codePoint >> 12) & 0x3f)));
+                put((byte) (0x80 | ((codePoint >> 6) & 0x3f)));
+                put((byte) (0x80 | (codePoint & 0x3f)));
+            } else {
+                put((byte) '?');
+            }
+            i += 1;
+        }
+        return (int) (position() - start);
+    }
+
+    /** Puts a placeholder int, to be filled in with patchInt(). Nothing after it is written to
+    the channel until every reservation has been patched.
+    @returns the mark to pass to patchInt(). */
+    public long reserveInt() {
+        if (bytes.length - index < 4) nextBuffer();
+        long mark = ((firstSequence + chainLength) << 32) | index;
+        putIntBytes(0, index);
+        index += 4;
+        if (openReservations == openMarks.length) {
+            long[] larger = new long[openMarks.length * 2];
+            System.arraycopy(openMarks, 0, larger, 0, openReservations);
+            openMarks = larger;
+        }
+        openMarks[openReservations] = mark;
+        openReservations += 1;
+        return mark;
+    }
+
+    /** Replaces the int reserved at mark with value, in this writer's byte order. Each mark can
+    be patched once. */
+    public void patchInt(long mark, int value) {
+        // Few reservations are open at once: frames nest a few deep at most
+        int open = openReservations - 1;
+        while (open >= 0 && openMarks[open] != mark) {
+            open -= 1;
+        }
+        if (open < 0) {
+            throw new IllegalStateException("mark " + Long.toHexString(mark)
+                    + " is not reserved, or has already been patched");
+        }
+        long chainIndex = (mark >>> 32) - firstSequence;
+        int offset = (int) mark;
+        if (chainIndex < 0 || chainIndex > chainLength) {
+            throw new IllegalStateException("mark " + Long.toHexString(mark)
+                    + " is not in the buffered data");
+        }
+        if (chainIndex == chainLength) {
+            putIntBytes(value, offset);
+        } else {
+            ByteBuffer buffer = chain[(int) chainIndex];
+            // Only the first buffer can be partly written
+            if (buffer.position() > offset) {
+                throw new IllegalStateException("mark " + Long.toHexString(mark)
+                        + " has already been written");
+            }
+            buffer.order(order).putInt(offset, value);
+        }
+        openReservations -= 1;
+        openMarks[open] = openMarks[openReservations];
+    }
+
+    /** Writes everything that has been put to the channel.
+    @returns true if it was all written, false if a non-blocking channel is full. */
+    public boolean flush() {
+        if (openReservations > 0) {
+            throw new IllegalStateException(
+                    "cannot flush with " + openReservations + " reservations to patch");
+        }
+        if (index > 0) seal();
+        writeChain();
+        return chainLength == 0;
+    }
+
+    /** Returns all the buffers to the pool, discarding anything that was not written. The
+    writer must not be used afterwards. */
+    public void release() {
+        for (int i = 0; i < chainLength; ++i) {
+            pool.release(chain[i]);
+            chain[i] = null;
+        }
+        chainLength = 0;
+    }
+
+    /** Copies the array into a buffer at the end of the chain, ready to write. */
+    private void seal() {
+        ByteBuffer buffer = pool.acquire();
+        buffer.put(bytes, 0, index);
+        buffer.flip();
+        sealedBytes += index;
+        index = 0;
+        if (chainLength == chain.length) {
+            ByteBuffer[] larger = new ByteBuffer[chain.length * 2];
+            System.arraycopy(chain, 0, larger, 0, chainLength);
+            chain = larger;
+        }
+        chain[chainLength] = buffer;
+        chainLength += 1;
+    }
+
+    private void nextBuffer() {
+        seal();
+        if (openReservations == 0 && chainLength >= maxGather) {
+            writeChain();
+        }
+    }
+
+    /** Writes as much of the chain as the channel takes, and returns the written buffers to the
+    pool. */
+    private void writeChain() {
+        try {
+            while (chainLength > 0) {
+                long written = channel.write(chain, 0, chainLength);
+                if (written <= 0) break;
+                writtenBytes += written;
+
+                int done = 0;
+                while (done < chainLength && !chain[done].hasRemaining()) {
+                    pool.release(chain[done]);
+                    done += 1;
+                }
+                System.arraycopy(chain, done, chain, 0, chainLength - done);
+                for (int i = chainLength - done; i < chainLength; ++i) {
+                    chain[i] = null;
+                }
+                chainLength -= done;
+                firstSequence += done;
+            }
+        } catch (IOException e) { throw new RuntimeException(e); }
+    }
+
+    private final GatheringByteChannel channel;
+    private final DirectBufferPool pool;
+    private final int maxGather;
+    private ByteOrder order = ByteOrder.LITTLE_ENDIAN;
+    private boolean bigEndian = false;
+    // Buffers ready to write, oldest first: the data is between position and limit
+    private ByteBuffer[] chain;
+    private int chainLength;
+    // The next buffer's data, up to index
+    private final byte[] bytes;
+    private int index;
+    // Buffers are numbered in the order they are filled; marks hold the number. This is chain[0]'s
+    private long firstSequence;
+    private long sealedBytes;
+    private long writtenBytes;
+    // The marks from reserveInt() that have not been patched: openMarks[0, openReservations)
+    private long[] openMarks = new long[4];
+    private int openReservations;
+}
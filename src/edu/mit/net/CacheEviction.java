@@ -0,0 +1,9 @@
+package edu.mit.net;
+
+/** Selects which entry a bounded cache replaces when it is full. */
+public enum CacheEviction {
+    /** Replace the entry that was used least recently. */
+    LRU,
+    /** Replace the entry that was inserted first. Hits do not write to the cache. */
+    FIFO,
+}
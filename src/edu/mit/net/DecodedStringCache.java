@@ -0,0 +1,157 @@
+package edu.mit.net;
+
+/** A bounded cache from UTF-8 bytes to the decoded String, so frequently repeated strings (keys,
+enum-like values) are returned as one canonical instance without decoding or allocating. Lookups
+hash the bytes, then compare them byte by byte against the cached copy, so a lookup never
+allocates. Only inserts copy the key bytes.
+
+The cache is set associative: a hash selects a set of ways entries, and a new entry replaces an
+empty slot or the slot in the set chosen by the eviction policy. This is not thread safe: share an
+instance only between decoders used by the same thread. */
+public final class DecodedStringCache {
+    static final int DEFAULT_WAYS = 4;
+    // Longer strings are unlikely to repeat, and cost more to hash and compare
+    static final int DEFAULT_MAX_BYTES = 64;
+
+    public DecodedStringCache(int entries) {
+        this(entries, DEFAULT_WAYS, DEFAULT_MAX_BYTES, CacheEviction.LRU);
+    }
+
+    /** @param entries total number of cached strings; must be a power of two.
+    @param ways number of entries per set; must be a power of two <= entries.
+    @param maxBytes strings with more UTF-8 bytes than this are never cached. */
+    public DecodedStringCache(int entries, int ways, int maxBytes, CacheEviction eviction) {
+        if (entries <= 0 || Integer.bitCount(entries) != 1) {
+            throw new IllegalArgumentException(
+                    "entries must be a positive power of two (= " + entries + ")");
+        }
+        if (ways <= 0 || Integer.bitCount(ways) != 1 || ways > entries) {
+            throw new IllegalArgumentException(
+                    "ways must be a power of two <= entries (= " + ways + ")");
+        }
+        if (maxBytes < 0) {
+            throw new IllegalArgumentException("maxBytes cannot be negative (= " + maxBytes + ")");
+        }
+        if (eviction == null) {
+            throw new NullPointerException("eviction");
+        }
+
+        this.ways = ways;
+        this.setMask = entries / ways - 1;
+        this.maxBytes = maxBytes;
+        this.eviction = eviction;
+        keys = new byte[entries][];
+        values = new String[entries];
+        hashes = new int[entries];
+        stamps = new long[entries];
+    }
+
+    /** @returns true if a string of length UTF-8 bytes can be cached. */
+    public boolean isCacheable(int length) {
+        return length <= maxBytes;
+    }
+
+    /** @returns the cached string for the UTF-8 bytes, or null if it is not cached. */
+    public String get(byte[] source, int offset, int length) {
+        if (!isCacheable(length)) return null;
+        return lookup(hash(source, offset, length), source, offset, length);
+    }
+
+    /** Caches value as the string for the UTF-8 bytes, possibly evicting another entry. */
+    public void put(byte[] source, int offset, int length, String value) {
+        if (!isCacheable(length)) return;
+        insert(hash(source, offset, length), source, offset, length, value);
+    }
+
+    static int hash(byte[] source, int offset, int length) {
+        int h = 0;
+        final int end = offset + length;
+        for (int i = offset; i < end; ++i) {
+            h = 31 * h + source[i];
+        }
+        // Spread the high bits into the low bits used to pick a set
+        return h ^ (h >>> 16);
+    }
+
+    String lookup(int hash, byte[] source, int offset, int length) {
+        assert isCacheable(length);
+        final int first = (hash & setMask) * ways;
+        for (int i = first; i < first + ways; ++i) {
+            if (hashes[i] == hash && keys[i] != null && equalBytes(keys[i], source, offset, length)) {
+                hits += 1;
+                if (eviction == CacheEviction.LRU) {
+                    clock += 1;
+                    stamps[i] = clock;
+                }
+                return values[i];
+            }
+        }
+        misses += 1;
+        return null;
+    }
+
+    void insert(int hash, byte[] source, int offset, int length, String value) {
+        assert isCacheable(length);
+        final int first = (hash & setMask) * ways;
+        int victim = first;
+        for (int i = first; i < first + ways; ++i) {
+            if (keys[i] == null) {
+                victim = i;
+                break;
+            }
+            if (stamps[i] < stamps[victim]) {
+                victim = i;
+            }
+        }
+
+        byte[] key = new byte[length];
+        System.arraycopy(source, offset, key, 0, length);
+        keys[victim] = key;
+        values[victim] = value;
+        hashes[victim] = hash;
+        clock += 1;
+        stamps[victim] = clock;
+    }
+
+    private static boolean equalBytes(byte[] key, byte[] source, int offset, int length) {
+        if (key.length != length) return false;
+        for (int i = 0; i < length; ++i) {
+            if (key[i] != source[offset + i]) return false;
+        }
+        return true;
+    }
+
+    public long getHits() { return hits; }
+    public long getMisses() { return misses; }
+
+    /** @returns the fraction of lookups that were hits, or 0 if there have been no lookups. */
+    public double getHitRatio() {
+        long total = hits + misses;
+        if (total == 0) return 0;
+        return hits / (double) total;
+    }
+
+    public void clear() {
+        for (int i = 0; i < keys.length; ++i) {
+            keys[i] = null;
+            values[i] = null;
+            hashes[i] = 0;
+            stamps[i] = 0;
+        }
+        hits = 0;
+        misses = 0;
+    }
+
+    private final int ways;
+    private final int setMask;
+    private final int maxBytes;
+    private final CacheEviction eviction;
+    private final byte[][] keys;
+    private final String[] values;
+    private final int[] hashes;
+    // For LRU, the last use of each entry; for FIFO, when it was inserted
+    private final long[] stamps;
+    private long clock = 0;
+    private long hits = 0;
+    private long misses = 0;
+}
@@ -0,0 +1,61 @@
+package edu.mit.net;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/** Direct buffers of one size, kept for reuse instead of being allocated for each use:
+allocateDirect() is slow, and the memory is only freed when the buffer is garbage collected.
+Not thread-safe: share a pool between the connections of one event loop. */
+public final class DirectBufferPool {
+    public DirectBufferPool(int bufferSize, int maxPooled) {
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("bufferSize must be positive: " + bufferSize);
+        }
+        if (maxPooled < 0) {
+            throw new IllegalArgumentException("maxPooled must not be negative: " + maxPooled);
+        }
+        this.bufferSize = bufferSize;
+        this.maxPooled = maxPooled;
+    }
+
+    /** @returns a cleared buffer of bufferSize() bytes, allocating one if the pool is empty.
+    Its byte order is whatever the last user set. */
+    public ByteBuffer acquire() {
+        ByteBuffer buffer = free.pollLast();
+        if (buffer == null) {
+            buffer = ByteBuffer.allocateDirect(bufferSize);
+            allocated += 1;
+        }
+        return buffer;
+    }
+
+    /** Returns buffer to the pool. It must have come from acquire(), and must not be used
+    afterwards. Buffers beyond maxPooled are dropped for the garbage collector. */
+    public void release(ByteBuffer buffer) {
+        assert buffer.capacity() == bufferSize && buffer.isDirect();
+        if (free.size() < maxPooled) {
+            buffer.clear();
+            // The most recently used buffer is the most likely to still be in the cache
+            free.addLast(buffer);
+        }
+    }
+
+    public int bufferSize() {
+        return bufferSize;
+    }
+
+    /** @returns the number of buffers waiting in the pool. */
+    public int pooled() {
+        return free.size();
+    }
+
+    /** @returns the number of buffers this pool has allocated. */
+    public long allocated() {
+        return allocated;
+    }
+
+    private final int bufferSize;
+    private final int maxPooled;
+    private final ArrayDeque<ByteBuffer> free = new ArrayDeque<ByteBuffer>();
+    private long allocated;
+}
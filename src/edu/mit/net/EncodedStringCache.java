@@ -0,0 +1,113 @@
+package edu.mit.net;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/** A cache from Strings to their UTF-8 encoding, for servers that send the same strings over and
+over. Encoded strings are stored in read-only direct ByteBuffers, so they can be written to a
+channel without copying them into a temporary direct buffer first. The cache is bounded by the
+total number of encoded bytes; when it is full, entries are evicted according to the eviction
+policy. Strings are compared by content; String caches its hash code, so a hit costs one hash
+lookup and an equals().
+
+This is not thread safe: with LRU eviction, even get() modifies the cache. */
+public final class EncodedStringCache {
+    // Larger strings are unlikely to repeat, and would evict many smaller entries
+    static final int DEFAULT_MAX_ENTRY_BYTES = 1024;
+
+    public EncodedStringCache(long maxBytes) {
+        this(maxBytes, DEFAULT_MAX_ENTRY_BYTES, CacheEviction.LRU);
+    }
+
+    /** @param maxBytes the maximum total size of the encoded strings in the cache.
+    @param maxEntryBytes strings that encode to more bytes than this are never cached. */
+    public EncodedStringCache(long maxBytes, int maxEntryBytes, CacheEviction eviction) {
+        if (maxBytes < 0) {
+            throw new IllegalArgumentException("maxBytes cannot be negative (= " + maxBytes + ")");
+        }
+        if (maxEntryBytes < 0) {
+            throw new IllegalArgumentException(
+                    "maxEntryBytes cannot be negative (= " + maxEntryBytes + ")");
+        }
+        if (eviction == null) {
+            throw new NullPointerException("eviction");
+        }
+
+        this.maxBytes = maxBytes;
+        this.maxEntryBytes = maxEntryBytes;
+        entries = new LinkedHashMap<String, ByteBuffer>(16, 0.75f, eviction == CacheEviction.LRU);
+    }
+
+    /** Returns a read-only ByteBuffer containing the UTF-8 version of value. The position will be
+    0 and the limit is the length of the encoded string. Each call returns a new view of the shared
+    bytes, so the caller may consume it (e.g. by writing it to a channel). */
+    public ByteBuffer get(String value) {
+        ByteBuffer cached = entries.get(value);
+        if (cached != null) {
+            hits += 1;
+            hitBytes += cached.capacity();
+            return cached.duplicate();
+        }
+
+        misses += 1;
+        byte[] bytes = encoder.toNewArray(value);
+        if (bytes.length > maxEntryBytes || bytes.length > maxBytes) {
+            return ByteBuffer.wrap(bytes).asReadOnlyBuffer();
+        }
+
+        ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length);
+        direct.put(bytes);
+        direct.flip();
+        cached = direct.asReadOnlyBuffer();
+        entries.put(value, cached);
+        totalBytes += bytes.length;
+        evict();
+        return cached.duplicate();
+    }
+
+    private void evict() {
+        // Iteration order is LRU or FIFO order, depending on the constructor
+        Iterator<ByteBuffer> it = entries.values().iterator();
+        while (totalBytes > maxBytes) {
+            ByteBuffer oldest = it.next();
+            totalBytes -= oldest.capacity();
+            it.remove();
+        }
+    }
+
+    public long getHits() { return hits; }
+    public long getMisses() { return misses; }
+
+    /** @returns the number of encoded bytes returned from the cache, without encoding. */
+    public long getHitBytes() { return hitBytes; }
+
+    /** @returns the fraction of lookups that were hits, or 0 if there have been no lookups. */
+    public double getHitRatio() {
+        long total = hits + misses;
+        if (total == 0) return 0;
+        return hits / (double) total;
+    }
+
+    /** @returns the total size of the encoded strings currently in the cache. */
+    public long getCachedBytes() { return totalBytes; }
+
+    public int size() { return entries.size(); }
+
+    public void clear() {
+        entries.clear();
+        totalBytes = 0;
+        hits = 0;
+        misses = 0;
+        hitBytes = 0;
+    }
+
+    private final long maxBytes;
+    private final int maxEntryBytes;
+    private final LinkedHashMap<String, ByteBuffer> entries;
+    private final StringEncoder encoder = new StringEncoder();
+    private long totalBytes = 0;
+    private long hits = 0;
+    private long misses = 0;
+    private long hitBytes = 0;
+}
@@ -24,8 +24,8 @@ THE SOFTWARE.
 
 package edu.mit.net;
 
-import java.nio.channels.SelectionKey;
-import java.nio.channels.Selector;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
 /** Sends and receives blocks of bytes with a non-blocking interface. This interface does not use
 checked exceptions. It re-throws any exceptions wrapped in a RuntimeException. */
@@ -34,12 +34,23 @@ public interface MessageConnection {
     public byte[] tryRead();
 
     /** Writes message to the channel. If the underlying channel would block, this will require
-    future calls to handleWrite() when it becomes available again. See register(). */
+    future calls to handleWrite() when it becomes available again. */
     public void write(byte[] message);
 
-    /** Registers the channel's read and write events with selector. On a read, call tryRead(). On
-    a write, call handleWrite(). */
-    public SelectionKey register(Selector selector);
+    /** Writes the remaining bytes of message to the channel, as one message. message's position
+    is moved to its limit, so pass a duplicate() to keep it. If the write would block, an
+    implementation may queue the bytes without copying them: they must not be modified until
+    handleWrite() returns true. A duplicate() shares them, so it does not help; the buffers from
+    EncodedStringCache never change. */
+    public void write(ByteBuffer message);
+
+    /** Writes count bytes of file, starting at position, as one message without copying them
+    through the Java heap. file must stay open and unchanged until the write completes. */
+    public void write(FileChannel file, long position, long count);
+
+    /** Continues writes that would have blocked. Call this when the channel is writable.
+    @returns true if all writes have completed. */
+    public boolean handleWrite();
 
     /** Closes the underlying channel. */
     public void close();
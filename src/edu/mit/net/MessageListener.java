@@ -37,11 +37,22 @@ public interface MessageListener {
         public final byte[] message;
     }
 
+    /** @returns the port the listener accepts connections on. */
+    public int getLocalPort();
+
     /** @returns the next event from the client connections. */
     public Event getNextEvent();
 
     /** @returns the next event from the client connections. */
     public Event blockForNextEvent();
 
+    /** Fills events with the events available now, without waiting, so a caller can handle a
+    batch with one call. @returns the number of events. */
+    public int getNextEvents(Event[] events);
+
+    /** Waits for an event like blockForNextEvent(), then fills events like getNextEvents().
+    @returns the number of events, or 0 if the thread was interrupted. */
+    public int blockForNextEvents(Event[] events);
+
     public void close();
 }
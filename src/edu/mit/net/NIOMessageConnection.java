@@ -27,14 +27,31 @@ package edu.mit.net;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
 
-/** Sends and receives blocks of bytes. */
+/** Sends and receives blocks of bytes. Writes that would block are queued and finished by
+handleWrite(): register() asks for write events while any are queued. Connections accepted by
+an NIOMessageListener report their queued bytes to it, which stops asking for read events while
+they have too many: see Backpressure. */
 public class NIOMessageConnection implements MessageConnection {
     public NIOMessageConnection(SocketChannel channel) {
+        this(channel, null);
+    }
+
+    /** backlog, if not null, counts this connection's unsent bytes and pauses its reads. */
+    NIOMessageConnection(SocketChannel channel, WriteBacklog backlog) {
+        this(channel, backlog, null);
+    }
+
+    /** batch, if not null, defers small writes while it is open. */
+    NIOMessageConnection(SocketChannel channel, WriteBacklog backlog, WriteBatch batch) {
         this.channel = channel;
+        this.backlog = backlog;
+        this.batch = batch;
         try {
             channel.socket().setTcpNoDelay(true);
             channel.configureBlocking(false);
@@ -72,11 +89,27 @@ public class NIOMessageConnection implements MessageConnection {
         return result;
     }
 
-    /** Writes message to the channel. */
+    /** Writes message to the channel. If the write would block, message is queued without
+    copying it, so it must not be modified until handleWrite() returns true. While the listener's
+    caller handles a batch of events (NIOMessageListener.blockForNextEvents()), messages that fit
+    in the 4 kB write buffer are copied there and sent together when the batch ends. */
     public void write(byte[] message) {
         if (message.length == 0) {
             throw new IllegalArgumentException("message.length == 0: messages must contain data");
         }
+        if (batch != null && batch.isOpen() && 4 + message.length <= writeBuffer.capacity()) {
+            // Appended to the writes deferred since the batch began
+            if (deferred && 4 + message.length > writeBuffer.remaining()) flushDeferred();
+            if (!deferred) {
+                writeBuffer.clear();
+                deferred = true;
+                batch.deferred(this);
+            }
+            writeBuffer.putInt(message.length);
+            writeBuffer.put(message);
+            return;
+        }
+        flushDeferred();
 
         // Copy the size
         writeBuffer.clear();
@@ -100,17 +133,150 @@ public class NIOMessageConnection implements MessageConnection {
         }
     }
 
+    /** Writes the remaining bytes of message to the channel. Messages that fit in the 4 kB write
+    buffer are copied; if the write would block, a larger one is queued without copying it, so
+    its contents must not be modified until handleWrite() returns true. */
+    public void write(ByteBuffer message) {
+        final int length = message.remaining();
+        if (length == 0) {
+            throw new IllegalArgumentException("message.remaining() == 0: messages must contain data");
+        }
+        flushDeferred();
+
+        writeBuffer.clear();
+        writeBuffer.putInt(length);
+
+        if (length > writeBuffer.remaining()) {
+            // Large message: writev the buffer directly. If it is a direct buffer, the JDK writes
+            // it without copying it.
+            writeBuffer.flip();
+            ByteBuffer[] buffers = new ByteBuffer[2];
+            buffers[0] = writeBuffer;
+            buffers[1] = message.slice();
+            writeAll(buffers);
+            message.position(message.limit());
+        } else {
+            writeBuffer.put(message);
+            writeBuffer.flip();
+            writeAll(writeBuffer);
+        }
+    }
+
+    /** Writes count bytes of file, starting at position, as one message. The body goes from the
+    file to the socket with FileChannel.transferTo, which uses sendfile where the platform has it,
+    so it is never copied into the Java heap. A non-blocking socket accepts only what fits in its
+    send buffer, so large bodies are usually finished by handleWrite(). file must stay open and
+    unchanged until then. */
+    public void write(FileChannel file, long position, long count) {
+        if (count <= 0 || count > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("count must be in (0, Integer.MAX_VALUE]: " + count);
+        }
+        try {
+            // transferTo returns 0 past the end of the file, which would look like a full socket
+            if (position < 0 || position + count > file.size()) {
+                throw new IllegalArgumentException("region [" + position + ", " +
+                        (position + count) + ") is outside the file (size " + file.size() + ")");
+            }
+        } catch (IOException e) { throw new RuntimeException(e); }
+        flushDeferred();
+
+        writeBuffer.clear();
+        writeBuffer.putInt((int) count);
+        writeBuffer.flip();
+        writeAll(writeBuffer);
+
+        FileTransfer transfer = new FileTransfer(file, position, count);
+        if (pending.isEmpty()) {
+            try {
+                if (transfer.writeTo(channel)) return;
+            } catch (IOException e) { throw new RuntimeException(e); }
+        }
+        addPending(transfer);
+    }
+
+    /** Writes queued data that would have blocked. Call this when the channel is writable.
+    @returns true if everything has been written. */
+    public boolean handleWrite() {
+        try {
+            while (!pending.isEmpty()) {
+                PendingWrite write = pending.peek();
+                long before = write.remaining();
+                boolean done = write.writeTo(channel);
+                wrote(before - write.remaining());
+                if (!done) return false;
+                pending.poll();
+            }
+        } catch (IOException e) { throw new RuntimeException(e); }
+
+        updateInterest();
+        return true;
+    }
+
+    /** @returns the bytes written to this connection that the channel has not taken yet. */
+    public long getPendingBytes() {
+        return pendingBytes;
+    }
+
+    /** @returns false once close() has been called. */
+    boolean isOpen() {
+        return channel.isOpen();
+    }
+
+    boolean isReadPaused() {
+        return readPaused;
+    }
+
+    /** @returns true if bytes read from the channel are waiting to be returned by tryRead(). */
+    boolean hasBufferedInput() {
+        return stream.dataAvailable() > 0;
+    }
+
+    /** Stops or restarts asking for read events. */
+    void setReadPaused(boolean readPaused) {
+        this.readPaused = readPaused;
+        updateInterest();
+    }
+
+    private int interestOps() {
+        int operations = readPaused ? 0 : SelectionKey.OP_READ;
+        if (!pending.isEmpty()) {
+            operations |= SelectionKey.OP_WRITE;
+        }
+        return operations;
+    }
+
+    private void updateInterest() {
+        if (key != null && key.isValid()) {
+            key.interestOps(interestOps());
+        }
+    }
+
     /** Registers the channel's read and write events with selector. On a read, call tryRead(). On
     a write, call handleWrite(). */
     public SelectionKey register(Selector selector) {
         try {
-            return channel.register(selector, SelectionKey.OP_READ);
+            key = channel.register(selector, interestOps());
+            return key;
         } catch (java.nio.channels.ClosedChannelException e) {
             throw new RuntimeException(e);
         }
     }
 
+    /** Writes the messages deferred by the open WriteBatch. */
+    void flushDeferred() {
+        if (!deferred) return;
+        deferred = false;
+        writeBuffer.flip();
+        writeAll(writeBuffer);
+    }
+
     public void close() {
+        // Deferred writes are dropped like pending ones
+        deferred = false;
+        if (idleTimer != null) idleTimer.cancel();
+        if (backlog != null) backlog.closed(this);
+        pending.clear();
+        pendingBytes = 0;
         try {
             channel.close();
         } catch (IOException e) {
@@ -118,16 +284,100 @@ public class NIOMessageConnection implements MessageConnection {
         }
     }
 
+    /** Data waiting for the channel to become writable. */
+    private interface PendingWrite {
+        /** Writes as much as the channel accepts. @returns true if everything was written. */
+        boolean writeTo(SocketChannel channel) throws IOException;
+        /** @returns the bytes left to write. */
+        long remaining();
+    }
+
+    private static final class PendingBuffers implements PendingWrite {
+        public PendingBuffers(ByteBuffer[] buffers) {
+            this.buffers = buffers;
+        }
+
+        public boolean writeTo(SocketChannel channel) throws IOException {
+            channel.write(buffers);
+            return !buffers[buffers.length - 1].hasRemaining();
+        }
+
+        public long remaining() {
+            long remaining = 0;
+            for (ByteBuffer buffer : buffers) {
+                remaining += buffer.remaining();
+            }
+            return remaining;
+        }
+
+        private final ByteBuffer[] buffers;
+    }
+
+    private static final class FileTransfer implements PendingWrite {
+        public FileTransfer(FileChannel file, long position, long count) {
+            this.file = file;
+            this.position = position;
+            remaining = count;
+        }
+
+        public boolean writeTo(SocketChannel channel) throws IOException {
+            // transferTo may send less than asked even when the socket has room (the JDK sends
+            // large regions in chunks when it cannot use sendfile): loop until it returns 0
+            while (remaining > 0) {
+                long count = file.transferTo(position, remaining, channel);
+                if (count == 0) {
+                    return false;
+                }
+                position += count;
+                remaining -= count;
+            }
+            return true;
+        }
+
+        public long remaining() {
+            return remaining;
+        }
+
+        private final FileChannel file;
+        private long position;
+        private long remaining;
+    }
+
+    private void addPending(PendingWrite write) {
+        pending.add(write);
+        if (pending.size() == 1) updateInterest();
+        long bytes = write.remaining();
+        pendingBytes += bytes;
+        if (backlog != null) backlog.queued(this, bytes);
+    }
+
+    /** Counts bytes of pending writes that the channel took. */
+    private void wrote(long bytes) {
+        if (bytes == 0) return;
+        pendingBytes -= bytes;
+        if (backlog != null) backlog.written(this, bytes);
+    }
+
+    /** writeBuffer is reused by the next write, so any part of it that must be queued is copied. */
+    private ByteBuffer copyIfWriteBuffer(ByteBuffer buffer) {
+        if (buffer != writeBuffer) return buffer;
+        ByteBuffer copy = ByteBuffer.allocate(buffer.remaining());
+        copy.put(buffer);
+        copy.flip();
+        return copy;
+    }
+
     private void writeAll(ByteBuffer buffer) {
         assert buffer.remaining() > 0;
         assert buffer.position() == 0;
 
-        try {
-            channel.write(buffer);
-            if (buffer.remaining() != 0) {
-                throw new RuntimeException("write() needed to block! UNSUPPORTED (but should be)");
-            }
-        } catch (IOException e) { throw new RuntimeException(e); }
+        if (pending.isEmpty()) {
+            try {
+                channel.write(buffer);
+            } catch (IOException e) { throw new RuntimeException(e); }
+            if (buffer.remaining() == 0) return;
+        }
+        addPending(new PendingBuffers(new ByteBuffer[]{copyIfWriteBuffer(buffer)}));
     }
 
     private void writeAll(ByteBuffer[] buffers) {
@@ -138,16 +388,43 @@ public class NIOMessageConnection implements MessageConnection {
             total += buffer.remaining();
         }
 
-        try {
-            long count = channel.write(buffers);
-            if (count != total) {
-                throw new RuntimeException("write() needed to block! TODO(evanj): fix");
-            }
-        } catch (IOException e) { throw new RuntimeException(e); }
+        if (pending.isEmpty()) {
+            try {
+                long count = channel.write(buffers);
+                if (count == total) return;
+            } catch (IOException e) { throw new RuntimeException(e); }
+        }
+
+        // Queue what is left, skipping buffers that were written completely
+        int first = 0;
+        while (!buffers[first].hasRemaining()) {
+            first += 1;
+        }
+        ByteBuffer[] rest = new ByteBuffer[buffers.length - first];
+        for (int i = 0; i < rest.length; ++i) {
+            rest[i] = copyIfWriteBuffer(buffers[first + i]);
+        }
+        addPending(new PendingBuffers(rest));
     }
 
     private final SocketChannel channel;
     private final NIOReadStream stream;
     private final ByteBuffer writeBuffer;
+    private final ArrayDeque<PendingWrite> pending = new ArrayDeque<PendingWrite>();
+    private long pendingBytes;
+    private final WriteBacklog backlog;
+    private final WriteBatch batch;
+    // True while writeBuffer holds messages written during an open batch
+    private boolean deferred;
+    // Set by the backlog while this connection has too many unsent bytes
+    private boolean readPaused;
+    // Set by register(): used to ask for write events while writes are pending
+    private SelectionKey key;
     private int nextLength = 0;
+    // True while the backlog has this connection on its list of unread input
+    boolean unreadQueued;
+    // Set by NIOMessageListener if it has an idle timeout
+    TimerWheel.Timer idleTimer;
+    // The WorkerPool worker handling this connection's messages, or -1 before the first one
+    int worker = -1;
 }
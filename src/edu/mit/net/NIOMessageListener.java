@@ -32,21 +32,46 @@ import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
 import java.util.ArrayDeque;
 import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
 
-/** Listens for client connections. */
+/** Listens for client connections. The thread calling getNextEvent() or blockForNextEvent() runs
+the event loop: ThreadAffinity.forRole(ThreadAffinity.LISTENER) can pin it to a CPU. Only that
+thread may use the connections; other threads hand it work with execute() and write(). The loop
+also runs a TimerWheel, getTimers(), for idle timeouts and deadlines such as per request ones. */
 public class NIOMessageListener implements MessageListener {
+    /** The default for setAcceptsPerWakeup(). */
+    public static final int DEFAULT_ACCEPTS_PER_WAKEUP = 64;
+    // ServerSocket's default of 50 overflows in a connection storm; Linux caps it at somaxconn
+    private static final int ACCEPT_BACKLOG = 1024;
+
     public NIOMessageListener() {
+        this(true);
+    }
+
+    /** @param arraySelectedKeys if true, replaces the selector's HashSet of selected keys with a
+    SelectedKeySet, when the JDK allows it, so dispatching events does not allocate. */
+    public NIOMessageListener(boolean arraySelectedKeys) {
         try {
             // Create a socket for listening to client requests, register it with a selector
             server = ServerSocketChannel.open();
             server.configureBlocking(false);
             selector = Selector.open();
+            selectedKeys = arraySelectedKeys ? SelectedKeySet.install(selector) : null;
+            submissions = new SubmissionQueue(selector);
         } catch (IOException e) { throw new RuntimeException(e); }
     }
 
     public void bind(int port) {
+        bind(port, false);
+    }
+
+    /** Binds like bind(port). With reusePort, other listeners can bind the same port, each with
+    its own event loop, and the kernel spreads new connections across them. Throws
+    UnsupportedOperationException if isReusePortSupported() is false. */
+    public void bind(int port, boolean reusePort) {
         try {
-            server.socket().bind(new InetSocketAddress(port));
+            if (reusePort) ReusePort.enable(server);
+            server.socket().bind(new InetSocketAddress(port), ACCEPT_BACKLOG);
             SelectionKey serverKey = server.register(selector, SelectionKey.OP_ACCEPT);
             serverKey.attach(server);
         } catch (IOException e) { throw new RuntimeException(e); }
@@ -54,37 +79,157 @@ public class NIOMessageListener implements MessageListener {
 
     public int getLocalPort() { return server.socket().getLocalPort(); }
 
+    /** @returns true if bind(port, true) works: JDK 9+ on Linux or BSD. */
+    public static boolean isReusePortSupported() { return ReusePort.isSupported(); }
+
+    /** Sets the most connections accepted each time the listening socket is ready. The rest wait
+    for the next select, so a connection storm does not starve reads. The default is
+    DEFAULT_ACCEPTS_PER_WAKEUP; 1 accepts one connection per select. */
+    public void setAcceptsPerWakeup(int acceptsPerWakeup) {
+        if (acceptsPerWakeup <= 0) {
+            throw new IllegalArgumentException("acceptsPerWakeup must be > 0: " + acceptsPerWakeup);
+        }
+        this.acceptsPerWakeup = acceptsPerWakeup;
+    }
+
+    /** Closes connections that send nothing for timeout, reporting it like a close by the client.
+    Applies to connections as they are accepted; 0, the default, turns it off. Each read
+    reschedules the connection's timer, which relinks it at most once per tick of the wheel. */
+    public void setIdleTimeout(long timeout, TimeUnit unit) {
+        if (timeout < 0) throw new IllegalArgumentException("timeout must be >= 0: " + timeout);
+        idleTimeoutNanos = unit.toNanos(timeout);
+    }
+
+    /** @returns the number of connections closed by the idle timeout. */
+    public long getIdleClosed() { return idleClosed; }
+
+    /** @returns the event loop's timers, which expire while it waits for events. Only the event
+    loop thread may use them; other threads can schedule through execute(). */
+    public TimerWheel getTimers() { return timers; }
+
+    /** @returns the number of connections accepted. */
+    public long getAccepted() { return accepted; }
+
+    /** @returns true if the selector uses a SelectedKeySet. On JDK 9+ this needs
+    --add-opens java.base/sun.nio.ch=ALL-UNNAMED. */
+    public boolean usesArraySelectedKeys() { return selectedKeys != null; }
+
+    /** Selects how blockForNextEvent() waits. The default is WaitStrategy.BLOCKING. */
+    public void setWaitStrategy(WaitStrategy waitStrategy) {
+        this.waitStrategy = waitStrategy;
+    }
+
+    /** Sets when to stop reading from connections whose responses are not being sent. The
+    default is Backpressure.NONE. */
+    public void setBackpressure(Backpressure backpressure) {
+        backlog.setLimits(backpressure);
+    }
+
+    /** @returns the bytes written to all connections that have not been sent yet. */
+    public long getUnsentBytes() { return backlog.getTotalBytes(); }
+
+    /** @returns the number of connections that are not being read because of Backpressure. */
+    public int getPausedConnections() { return backlog.getPausedConnections(); }
+
+    /** Runs task on the thread running the event loop, before it next waits for events. Any
+    thread can call this; blockForNextEvent() wakes up to run it. */
+    public void execute(Runnable task) {
+        submissions.execute(task);
+    }
+
+    /** Writes message to connection from the event loop. Any thread can call this, unlike
+    connection.write(). Dropped if the connection has closed by then. message must not be modified
+    after this. */
+    public void write(MessageConnection connection, byte[] message) {
+        submissions.write(connection, message);
+    }
+
+    /** Handles messages on workers instead of returning them as events, which then only report
+    new and closed connections. Each connection's responses are written in the order of its
+    requests. null, the default, returns messages as events. */
+    public void setWorkerPool(WorkerPool workers) {
+        this.workers = workers;
+    }
+
+    /** @returns the number of execute() and write() calls. */
+    public long getSubmitted() { return submissions.getSubmitted(); }
+
+    /** @returns the number of times execute() or write() woke up a blocked event loop. */
+    public long getSubmissionWakeups() { return submissions.getWakeups(); }
+
     /** @returns the next event from the client connections. */
     public Event getNextEvent() {
+        batch.flush();
         try {
             Event e = eventQueue.poll();
             if (e == null) {
-                if (selector.selectNow() != 0) {
-                    handleSelectedKeys();
-                    e = eventQueue.poll();
-                }
+                submissions.run();
+                int count = selector.selectNow();
+                timers.expire(System.nanoTime());
+                if (count != 0) handleSelectedKeys();
+                readUnreadInput();
+                e = eventQueue.poll();
             }
             return e;
         } catch (IOException e) { throw new RuntimeException(e); }
     }
 
-    /** @returns the next event from the client connections. */
+    /** @returns the next event from the client connections, or null if the thread is
+    interrupted. Runs submitted tasks and writes while it waits. */
     public Event blockForNextEvent() {
+        batch.flush();
         try {
             Event e;
             while ((e = eventQueue.poll()) == null) {
-                // select could return 0 if we are woken or interrupted. In that case, return null
-                if (selector.select() == 0) {
+                int count;
+                boolean moreSubmissions = submissions.run();
+                if (moreSubmissions || backlog.getUnreadCount() != 0) {
+                    // More submissions or buffered requests are waiting: only check the sockets
+                    count = selector.selectNow();
+                } else {
+                    count = waitStrategy.select(selector, submissions,
+                            timers.nanosToNextTick(System.nanoTime()));
+                }
+                // Before the keys: timers scheduled for them count from the current tick
+                timers.expire(System.nanoTime());
+                if (count != 0) {
+                    // this might not create an event if it is a partial message read
+                    handleSelectedKeys();
+                } else if (Thread.currentThread().isInterrupted()) {
+                    // Otherwise woken by a submission or a tick
                     return null;
                 }
-
-                // this might not create an event if it is a partial message read
-                handleSelectedKeys();
+                readUnreadInput();
             }
             return e;
         } catch (IOException e) { throw new RuntimeException(e); }
     }
 
+    /** Fills events with the available events, without waiting. Until the next call for events
+    or flush(), small writes to the connections are deferred, so the responses to the batch go
+    out in one write per connection. @returns the number of events. */
+    public int getNextEvents(Event[] events) {
+        if (events.length == 0) throw new IllegalArgumentException("events.length == 0");
+        Event e = getNextEvent();
+        if (e == null) return 0;
+        return fillBatch(e, events);
+    }
+
+    /** Waits for an event, then fills events like getNextEvents(). @returns the number of
+    events, or 0 if the thread is interrupted. */
+    public int blockForNextEvents(Event[] events) {
+        if (events.length == 0) throw new IllegalArgumentException("events.length == 0");
+        Event e = blockForNextEvent();
+        if (e == null) return 0;
+        return fillBatch(e, events);
+    }
+
+    /** Sends the writes deferred since the last batch of events. The next call for events does
+    this, so call it only when handling a batch ends without asking for more. */
+    public void flush() {
+        batch.flush();
+    }
+
     public void close() {
         try {
             for (SelectionKey key : selector.keys()) {
@@ -99,38 +244,140 @@ public class NIOMessageListener implements MessageListener {
         } catch (IOException e) { throw new RuntimeException(e); }
     }
 
+    private int fillBatch(Event first, Event[] events) {
+        events[0] = first;
+        int count = 1;
+        Event e;
+        while (count < events.length && (e = eventQueue.poll()) != null) {
+            events[count] = e;
+            count += 1;
+        }
+        batch.open();
+        return count;
+    }
+
     private void handleSelectedKeys() throws IOException {
+        if (selectedKeys != null) {
+            try {
+                for (int i = 0; i < selectedKeys.size(); ++i) {
+                    handleKey(selectedKeys.get(i));
+                }
+            } finally {
+                selectedKeys.reset();
+            }
+            return;
+        }
+
         for (Iterator<SelectionKey> it = selector.selectedKeys().iterator(); it.hasNext(); ) {
             SelectionKey key = it.next();
             it.remove();
+            handleKey(key);
+        }
+    }
+
+    private void handleKey(SelectionKey key) throws IOException {
+        // Handling an earlier key can close this one's connection
+        if (!key.isValid()) return;
 
-            if (key.attachment() == server) {
-                assert key.isAcceptable();
+        if (key.attachment() == server) {
+            assert key.isAcceptable();
+            // Drain the pending connections: one select per connection is slow in a storm
+            for (int i = 0; i < acceptsPerWakeup; ++i) {
                 SocketChannel client = server.accept();
-                assert client != null;
-                MessageConnection connection = new NIOMessageConnection(client);
+                if (client == null) break;
+                NIOMessageConnection connection =
+                        new NIOMessageConnection(client, backlog, batch);
                 SelectionKey clientKey = connection.register(selector);
                 clientKey.attach(connection);
+                if (idleTimeoutNanos > 0) {
+                    connection.idleTimer = new IdleTimer(connection);
+                    timers.schedule(connection.idleTimer, idleTimeoutNanos, TimeUnit.NANOSECONDS);
+                }
                 eventQueue.add(new Event(connection, null));
+                accepted += 1;
+            }
+            return;
+        }
+
+        NIOMessageConnection connection = (NIOMessageConnection) key.attachment();
+        if (key.isWritable()) {
+            // Only selected while the connection has queued writes
+            connection.handleWrite();
+        }
+        if (!key.isValid() || !key.isReadable()) return;
+
+        if (connection.idleTimer != null && connection.idleTimer.isScheduled()) {
+            timers.schedule(connection.idleTimer, idleTimeoutNanos, TimeUnit.NANOSECONDS);
+        }
+        readMessages(connection);
+    }
+
+    /** Reads the connections that have requests buffered but may get no read event for them. */
+    private void readUnreadInput() {
+        // Only the ones already waiting: reading can add a connection again
+        for (int i = backlog.getUnreadCount(); i > 0; --i) {
+            NIOMessageConnection connection = backlog.pollUnread();
+            // A paused connection is added again when it resumes
+            if (connection.isOpen() && !connection.isReadPaused()) readMessages(connection);
+        }
+    }
+
+    private void readMessages(NIOMessageConnection connection) {
+        // Each request can become a response: with backpressure, read at most a high water mark
+        // of requests before the responses are counted. The rest stays readable in the kernel,
+        // or buffered in the connection, which is read again on the next pass.
+        long budget = backlog.getLimits().getHighWaterBytes();
+        byte[] data;
+        while (budget > 0 && (data = connection.tryRead()) != null) {
+            if (data.length == 0) {
+                // Connection closed
+                connection.close();
+                eventQueue.add(new Event(connection, null));
+                return;
             } else {
-                assert key.isReadable();
-                MessageConnection connection = (MessageConnection) key.attachment();
-                byte[] data;
-                while ((data = connection.tryRead()) != null) {
-                    if (data.length == 0) {
-                        // Connection closed
-                        connection.close();
-                        eventQueue.add(new Event(connection, null));
-                        break;
-                    } else {
-                        eventQueue.add(new Event(connection, data));
-                    }
+                if (workers != null) {
+                    workers.dispatch(this, connection, data);
+                } else {
+                    eventQueue.add(new Event(connection, data));
                 }
+                budget -= data.length;
             }
         }
+        if (budget <= 0) backlog.unreadInput(connection);
+    }
+
+    /** Closes its connection when it expires. NIOMessageConnection.close() cancels it. */
+    private final class IdleTimer extends TimerWheel.Timer {
+        IdleTimer(NIOMessageConnection connection) {
+            this.connection = connection;
+        }
+
+        protected void expired() {
+            idleClosed += 1;
+            connection.close();
+            eventQueue.add(new Event(connection, null));
+        }
+
+        private final NIOMessageConnection connection;
     }
 
     private final ServerSocketChannel server;
     private final Selector selector;
+    /** The selector's selected keys, or null if it still uses its own HashSet. */
+    private final SelectedKeySet selectedKeys;
     private final ArrayDeque<Event> eventQueue =  new ArrayDeque<Event>();
+    private WaitStrategy waitStrategy = WaitStrategy.BLOCKING;
+    private final WriteBacklog backlog = new WriteBacklog(Backpressure.NONE);
+    private final WriteBatch batch = new WriteBatch();
+    private final SubmissionQueue submissions;
+    private WorkerPool workers;
+    private int acceptsPerWakeup = DEFAULT_ACCEPTS_PER_WAKEUP;
+    private final TimerWheel timers = new TimerWheel(
+            TimeUnit.MILLISECONDS.toNanos(TimerWheel.DEFAULT_TICK_MILLIS),
+            TimerWheel.DEFAULT_SLOTS);
+    // 0 if connections never time out
+    private long idleTimeoutNanos;
+    // Volatile: benchmarks read them from other threads
+    private volatile long accepted;
+    private volatile long idleClosed;
 }
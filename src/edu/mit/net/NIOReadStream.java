@@ -33,10 +33,10 @@ import java.util.ArrayList;
 
 /**
 Provides a non-blocking stream-like interface on top of the Java NIO ReadableByteChannel. It calls
-the underlying read() method only when needed.
+the underlying read() method only when needed. See RingReadStream for a single contiguous buffer.
 */
-public class NIOReadStream {
-    NIOReadStream(ReadableByteChannel channel) {
+public class NIOReadStream implements ReadStream {
+    public NIOReadStream(ReadableByteChannel channel) {
         this.channel = channel;
     }
 
@@ -58,13 +58,31 @@ public class NIOReadStream {
     }
 
     public void getBytes(byte[] output) {
-        if (totalAvailable < output.length) {
-            throw new IllegalStateException("Requested " + output.length + " bytes; only have "
+        consume(output, output.length);
+    }
+
+    /** Discards the next length bytes, which must be available. */
+    public void skip(int length) {
+        consume(null, length);
+    }
+
+    /** @returns a cursor at the first available byte, for parsing in place. The stream has one
+    cursor, which this resets. */
+    public ReadCursor cursor() {
+        if (cursor == null) cursor = new ReadCursor(this);
+        cursor.reset(readBuffers, writeBuffer, totalAvailable);
+        return cursor;
+    }
+
+    /** Copies length bytes into output, or discards them if output is null. */
+    private void consume(byte[] output, int length) {
+        if (totalAvailable < length) {
+            throw new IllegalStateException("Requested " + length + " bytes; only have "
                     + totalAvailable + " bytes; call tryRead() first");
         }
 
         int bytesCopied = 0;
-        while (bytesCopied < output.length) {
+        while (bytesCopied < length) {
             ByteBuffer first = readBuffers.peekFirst();
             if (first == null) {
                 // Steal the write buffer
@@ -77,9 +95,13 @@ public class NIOReadStream {
 
             // Copy bytes from first into output
             int bytesRemaining = first.remaining();
-            int bytesToCopy = output.length - bytesCopied;
+            int bytesToCopy = length - bytesCopied;
             if (bytesToCopy > bytesRemaining) bytesToCopy = bytesRemaining;
-            first.get(output, bytesCopied, bytesToCopy);
+            if (output != null) {
+                first.get(output, bytesCopied, bytesToCopy);
+            } else {
+                first.position(first.position() + bytesToCopy);
+            }
             bytesCopied += bytesToCopy;
             totalAvailable -= bytesToCopy;
 
@@ -151,5 +173,6 @@ public class NIOReadStream {
     private final ArrayDeque<ByteBuffer> readBuffers = new ArrayDeque<ByteBuffer>();
     private ByteBuffer writeBuffer = null;
     private final ArrayList<ByteBuffer> emptyBuffers = new ArrayList<ByteBuffer>();
+    private ReadCursor cursor;
     int totalAvailable = 0;
 }
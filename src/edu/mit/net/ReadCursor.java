@@ -0,0 +1,247 @@
+package edu.mit.net;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+/** Reads the bytes buffered by an NIOReadStream in place, so messages can be parsed without
+copying them out with getBytes() first. Values that are split between the stream's blocks are
+put together a byte at a time; everything else is read directly from the block. Reading does not
+consume anything: commit() consumes what has been read so far.
+
+Get one from NIOReadStream.cursor(). It is invalid once the stream changes in any other way
+(tryRead(), getInt(), getBytes(), skip()): call cursor() again. */
+public final class ReadCursor {
+    // The longest varint that fits in a long
+    private static final int MAX_VARINT_BYTES = 10;
+
+    ReadCursor(NIOReadStream stream) {
+        this.stream = stream;
+    }
+
+    /** Starts at the first of available bytes: the blocks in readBuffers, then the bytes
+    before partial's position, if it is not null. */
+    void reset(ArrayDeque<ByteBuffer> readBuffers, ByteBuffer partial, int available) {
+        this.readBuffers = readBuffers;
+        this.partial = partial;
+        this.available = available;
+        blocks = null;
+        position = 0;
+        ByteBuffer first = readBuffers.peekFirst();
+        if (first != null) {
+            setBlock(first, first.position(), first.limit());
+            partialUsed = false;
+        } else if (partial != null) {
+            setBlock(partial, 0, partial.position());
+            partialUsed = true;
+        } else {
+            current = null;
+            index = 0;
+            end = 0;
+        }
+    }
+
+    private void setBlock(ByteBuffer block, int start, int limit) {
+        current = block;
+        index = start;
+        end = limit;
+        swap = block.order() != order;
+    }
+
+    /** Sets the byte order for multi-byte values and slices. The default is little-endian,
+    like NIOReadStream.getInt(). @returns this. */
+    public ReadCursor order(ByteOrder order) {
+        this.order = order;
+        if (current != null) swap = current.order() != order;
+        return this;
+    }
+
+    public ByteOrder order() {
+        return order;
+    }
+
+    /** @returns the bytes read since the last commit(). */
+    public int position() {
+        return position;
+    }
+
+    /** @returns the bytes that can still be read. */
+    public int remaining() {
+        return available - position;
+    }
+
+    private void require(int length) {
+        if (remaining() < length) {
+            throw new IllegalStateException("Requested " + length + " bytes; only have "
+                    + remaining() + " bytes; call tryRead() first");
+        }
+    }
+
+    /** Moves to the next block that has data. Requires remaining() > 0. */
+    private void ensureBlock() {
+        while (index == end) {
+            if (blocks == null) {
+                // Only walk the deque when a read leaves the first block
+                blocks = readBuffers.iterator();
+                blocks.next();
+            }
+            if (blocks.hasNext()) {
+                ByteBuffer next = blocks.next();
+                setBlock(next, next.position(), next.limit());
+            } else {
+                assert !partialUsed && partial != null;
+                partialUsed = true;
+                setBlock(partial, 0, partial.position());
+            }
+        }
+    }
+
+    // Each get first checks that the value is in the current block, whose bytes are all
+    // available; only values at the end of a block take the slow path
+
+    public byte getByte() {
+        if (index == end) {
+            require(1);
+            ensureBlock();
+        }
+        position += 1;
+        return current.get(index++);
+    }
+
+    public short getShort() {
+        if (end - index < 2) return (short) getSplit(2);
+        short value = current.getShort(index);
+        index += 2;
+        position += 2;
+        return swap ? Short.reverseBytes(value) : value;
+    }
+
+    public int getInt() {
+        if (end - index < 4) return (int) getSplit(4);
+        int value = current.getInt(index);
+        index += 4;
+        position += 4;
+        return swap ? Integer.reverseBytes(value) : value;
+    }
+
+    public long getLong() {
+        if (end - index < 8) return getSplit(8);
+        long value = current.getLong(index);
+        index += 8;
+        position += 8;
+        return swap ? Long.reverseBytes(value) : value;
+    }
+
+    /** Reads a value that is not all in the current block, a byte at a time. */
+    private long getSplit(int length) {
+        require(length);
+        long value = 0;
+        if (order == ByteOrder.LITTLE_ENDIAN) {
+            for (int i = 0; i < length; ++i) {
+                value |= (getByte() & 0xffL) << (8 * i);
+            }
+        } else {
+            for (int i = 0; i < length; ++i) {
+                value = (value << 8) | (getByte() & 0xffL);
+            }
+        }
+        return value;
+    }
+
+    /** Reads an unsigned varint: 7 bits per byte, least significant first, with the high bit
+    set on every byte but the last, as Protocol Buffers encodes them. */
+    public long getVarint() {
+        if (end - index >= 8) {
+            // Decode from one load: most varints are a few bytes
+            long word = current.getLong(index);
+            if (current.order() != ByteOrder.LITTLE_ENDIAN) word = Long.reverseBytes(word);
+            long value = 0;
+            for (int i = 0; i < 8; ++i) {
+                long b = word >>> (8 * i);
+                value |= (b & 0x7f) << (7 * i);
+                if ((b & 0x80) == 0) {
+                    index += i + 1;
+                    position += i + 1;
+                    return value;
+                }
+            }
+        }
+
+        // Near the end of a block, or longer than 8 bytes
+        long value = 0;
+        for (int i = 0; i < MAX_VARINT_BYTES; ++i) {
+            byte b = getByte();
+            value |= (b & 0x7fL) << (7 * i);
+            if (b >= 0) return value;
+        }
+        throw new IllegalStateException("varint is longer than " + MAX_VARINT_BYTES + " bytes");
+    }
+
+    /** Returns the next length bytes, between the position and limit of a buffer in this
+    cursor's byte order. If they are in one block the buffer shares it, and is only valid until
+    the stream changes; otherwise they are copied. */
+    public ByteBuffer slice(int length) {
+        require(length);
+        if (length == 0) return ByteBuffer.allocate(0).order(order);
+        ensureBlock();
+        ByteBuffer slice;
+        if (end - index >= length) {
+            slice = current.duplicate();
+            slice.limit(index + length);
+            slice.position(index);
+            index += length;
+            position += length;
+        } else {
+            slice = ByteBuffer.allocate(length);
+            while (slice.hasRemaining()) {
+                ensureBlock();
+                ByteBuffer piece = current.duplicate();
+                int count = Math.min(end - index, slice.remaining());
+                piece.limit(index + count);
+                piece.position(index);
+                slice.put(piece);
+                index += count;
+                position += count;
+            }
+            slice.flip();
+        }
+        slice.order(order);
+        return slice;
+    }
+
+    /** Moves past length bytes without reading them. */
+    public void skip(int length) {
+        require(length);
+        int skipped = 0;
+        while (skipped < length) {
+            ensureBlock();
+            int count = Math.min(end - index, length - skipped);
+            index += count;
+            skipped += count;
+        }
+        position += length;
+    }
+
+    /** Consumes the bytes read so far from the stream, and starts again after them. */
+    public void commit() {
+        stream.skip(position);
+        stream.cursor();
+    }
+
+    private final NIOReadStream stream;
+    private ByteOrder order = ByteOrder.LITTLE_ENDIAN;
+    private ArrayDeque<ByteBuffer> readBuffers;
+    // The block being filled by the stream: its data is before its position
+    private ByteBuffer partial;
+    private boolean partialUsed;
+    // Created when the cursor leaves the first block
+    private Iterator<ByteBuffer> blocks;
+    private ByteBuffer current;
+    private int index;
+    private int end;
+    private int position;
+    private int available;
+    // True if current's byte order is not order
+    private boolean swap;
+}
@@ -0,0 +1,23 @@
+package edu.mit.net;
+
+/** A non-blocking stream of bytes read from a channel into a buffer. Like MessageConnection it
+re-throws any IOException wrapped in a RuntimeException. */
+public interface ReadStream {
+    /** @returns the number of bytes available to be read. */
+    public int dataAvailable();
+
+    /** Reads a little-endian int. Requires 4 bytes to be available. */
+    public int getInt();
+
+    /** Fills output with the next output.length bytes, which must be available. */
+    public void getBytes(byte[] output);
+
+    /** Reads until we have at least desiredAvailable bytes buffered, there is no more data, or
+    the channel is closed.
+    @returns number of bytes available for reading, or -1 if less than desiredAvailable bytes
+    are available, and the channel is closed. */
+    public int tryRead(int desiredAvailable);
+
+    /** Closes the channel and releases the buffers. */
+    public void close();
+}
@@ -0,0 +1,64 @@
+package edu.mit.net;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.channels.ServerSocketChannel;
+import java.util.Set;
+
+/** Sets SO_REUSEPORT on listening sockets, so several of them, each with its own event loop, can
+bind the same port and the kernel spreads incoming connections across them. The option is
+StandardSocketOptions.SO_REUSEPORT in JDK 9+, on Linux and the BSDs; this package still builds
+for Java 6, so it is found by reflection. */
+final class ReusePort {
+    private static final Object OPTION;
+    private static final Method SET_OPTION;
+    static {
+        Object option = null;
+        Method setOption = null;
+        try {
+            option = Class.forName("java.net.StandardSocketOptions").getField("SO_REUSEPORT")
+                    .get(null);
+            setOption = ServerSocketChannel.class.getMethod("setOption",
+                    Class.forName("java.net.SocketOption"), Object.class);
+            // Windows has the field but not the option
+            ServerSocketChannel probe = ServerSocketChannel.open();
+            try {
+                Set<?> supported = (Set<?>) ServerSocketChannel.class.getMethod("supportedOptions")
+                        .invoke(probe);
+                if (!supported.contains(option)) option = null;
+            } finally {
+                probe.close();
+            }
+        } catch (ClassNotFoundException e) {
+            // Java 6
+        } catch (NoSuchFieldException e) {
+            // JDK 7 or 8
+        } catch (Exception e) {
+            // Anything else: reflection or the probe socket failed
+            option = null;
+        }
+        if (option == null) setOption = null;
+        OPTION = option;
+        SET_OPTION = setOption;
+    }
+
+    static boolean isSupported() {
+        return OPTION != null;
+    }
+
+    /** Sets SO_REUSEPORT on server, which must not be bound yet. */
+    static void enable(ServerSocketChannel server) throws IOException {
+        if (OPTION == null) {
+            throw new UnsupportedOperationException("SO_REUSEPORT needs JDK 9+ on Linux or BSD");
+        }
+        try {
+            SET_OPTION.invoke(server, OPTION, Boolean.TRUE);
+        } catch (IllegalAccessException e) {
+            throw new RuntimeException(e);
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+            throw new RuntimeException(e.getCause());
+        }
+    }
+}
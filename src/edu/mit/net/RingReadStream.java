@@ -0,0 +1,215 @@
+package edu.mit.net;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.ScatteringByteChannel;
+
+/** A ReadStream backed by one direct buffer used as a ring, instead of NIOReadStream's list of
+4 KB blocks. When the free space wraps around the end of the ring, tryRead() fills both pieces
+with one scattering read, so each read() call takes as much as the ring can hold. The ring
+doubles when it is full and more data was asked for.
+
+The buffer is twice the ring's capacity. The second half mirrors the start of the ring: when
+getSlice() is asked for bytes that wrap, it copies the wrapped part there, so any message up to
+the capacity is one contiguous slice. Operating systems can map the same pages twice to get this
+for free, but Java cannot, so the copy is only made for the messages that wrap. */
+public final class RingReadStream implements ReadStream {
+    static final int INITIAL_CAPACITY = 4096;
+    // The buffer is twice the capacity and must fit in an int
+    private static final int MAX_CAPACITY = 1 << 29;
+
+    public RingReadStream(ReadableByteChannel channel) {
+        this(channel, INITIAL_CAPACITY);
+    }
+
+    /** initialCapacity must be a power of two. */
+    public RingReadStream(ReadableByteChannel channel, int initialCapacity) {
+        if (initialCapacity <= 0 || initialCapacity > MAX_CAPACITY ||
+                (initialCapacity & (initialCapacity - 1)) != 0) {
+            throw new IllegalArgumentException(
+                    "initialCapacity must be a power of two up to 2^29: " + initialCapacity);
+        }
+        this.channel = channel;
+        if (channel instanceof ScatteringByteChannel) {
+            scatteringChannel = (ScatteringByteChannel) channel;
+        } else {
+            scatteringChannel = null;
+        }
+        allocate(initialCapacity);
+    }
+
+    private void allocate(int capacity) {
+        buffer = ByteBuffer.allocateDirect(2 * capacity);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        mask = capacity - 1;
+        // Reused views, so reading and copying allocate nothing
+        reader = buffer.duplicate();
+        mirror = buffer.duplicate();
+        freeSpans = new ByteBuffer[]{buffer.duplicate(), buffer.duplicate()};
+    }
+
+    /** @returns the size of the ring: the largest message getSlice() can return. */
+    public int capacity() {
+        return mask + 1;
+    }
+
+    public int dataAvailable() {
+        return writePosition - readPosition;
+    }
+
+    private void require(int length) {
+        if (dataAvailable() < length) {
+            throw new IllegalStateException("Requested " + length + " bytes; only have "
+                    + dataAvailable() + " bytes; call tryRead() first");
+        }
+    }
+
+    private void consumed(int length) {
+        readPosition += length;
+        if (readPosition == writePosition) {
+            // Empty: start again at the beginning, where the free space is one span
+            readPosition = 0;
+            writePosition = 0;
+        }
+    }
+
+    public int getInt() {
+        require(4);
+        int start = readPosition & mask;
+        int value;
+        if (start + 4 <= capacity()) {
+            value = buffer.getInt(start);
+        } else {
+            value = 0;
+            for (int i = 0; i < 4; ++i) {
+                value |= (buffer.get((start + i) & mask) & 0xff) << (8 * i);
+            }
+        }
+        consumed(4);
+        return value;
+    }
+
+    public void getBytes(byte[] output) {
+        require(output.length);
+        int start = readPosition & mask;
+        int first = Math.min(output.length, capacity() - start);
+        reader.clear();
+        reader.position(start);
+        reader.get(output, 0, first);
+        if (first < output.length) {
+            reader.position(0);
+            reader.get(output, first, output.length - first);
+        }
+        consumed(output.length);
+    }
+
+    /** Returns the next length bytes as one little-endian buffer, without copying them unless
+    they wrap around the end of the ring. The slice shares the ring: it is only valid until the
+    next call to tryRead(). */
+    public ByteBuffer getSlice(int length) {
+        require(length);
+        int start = readPosition & mask;
+        int end = start + length;
+        if (end > capacity()) {
+            // Copy the wrapped part to the mirror, just past the end of the ring
+            reader.clear();
+            reader.limit(end - capacity());
+            mirror.clear();
+            mirror.position(capacity());
+            mirror.put(reader);
+        }
+        ByteBuffer slice = buffer.duplicate();
+        slice.limit(end);
+        slice.position(start);
+        slice = slice.slice();
+        slice.order(ByteOrder.LITTLE_ENDIAN);
+        consumed(length);
+        return slice;
+    }
+
+    public void close() {
+        try {
+            channel.close();
+        } catch (IOException e) { throw new RuntimeException(e); }
+        readPosition = 0;
+        writePosition = 0;
+    }
+
+    public int tryRead(int desiredAvailable) {
+        // Read until we have enough, or read returns 0 or -1
+        long lastRead = 1;
+        while (lastRead > 0 && dataAvailable() < desiredAvailable) {
+            if (dataAvailable() == capacity()) grow();
+            lastRead = fill();
+        }
+
+        if (dataAvailable() < desiredAvailable && lastRead == -1) {
+            return -1;
+        }
+        return dataAvailable();
+    }
+
+    /** Reads into all the free space. @returns the result of read(). */
+    private long fill() {
+        int free = capacity() - dataAvailable();
+        int start = writePosition & mask;
+        int firstEnd = Math.min(capacity(), start + free);
+        int wrapped = free - (firstEnd - start);
+
+        ByteBuffer first = freeSpans[0];
+        first.clear();
+        first.position(start);
+        first.limit(firstEnd);
+        long count;
+        try {
+            if (wrapped > 0 && scatteringChannel != null) {
+                ByteBuffer second = freeSpans[1];
+                second.clear();
+                second.limit(wrapped);
+                count = scatteringChannel.read(freeSpans);
+            } else {
+                // The loop in tryRead() reads the wrapped span next
+                count = channel.read(first);
+            }
+        } catch (IOException e) { throw new RuntimeException(e); }
+        if (count > 0) writePosition += (int) count;
+        return count;
+    }
+
+    /** Doubles the ring, moving the data to the start. */
+    private void grow() {
+        if (capacity() >= MAX_CAPACITY) {
+            throw new IllegalStateException("cannot buffer more than " + MAX_CAPACITY + " bytes");
+        }
+        int available = dataAvailable();
+        int start = readPosition & mask;
+        int first = Math.min(available, capacity() - start);
+        ByteBuffer old = buffer.duplicate();
+        allocate(capacity() * 2);
+
+        old.limit(start + first);
+        old.position(start);
+        buffer.put(old);
+        old.clear();
+        old.limit(available - first);
+        buffer.put(old);
+        buffer.clear();
+        readPosition = 0;
+        writePosition = available;
+    }
+
+    private final ReadableByteChannel channel;
+    // null if the channel cannot read into two buffers at once
+    private final ScatteringByteChannel scatteringChannel;
+    private ByteBuffer buffer;
+    private int mask;
+    private ByteBuffer reader;
+    private ByteBuffer mirror;
+    private ByteBuffer[] freeSpans;
+    // Bytes between readPosition and writePosition are available. Both only increase, except
+    // when the ring empties; the index in the ring is position & mask, even after overflow
+    private int readPosition = 0;
+    private int writePosition = 0;
+}
@@ -0,0 +1,101 @@
+package edu.mit.net;
+
+import java.lang.reflect.Field;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/** An array of selected keys that replaces the HashSet inside a JDK Selector. The selector only
+adds keys while selecting, so the owner can walk the array by index and reset() it: no iterator,
+no HashMap entries and no hashing per wakeup. Selector.select(Consumer) in JDK 11 does the same,
+but this package still builds for Java 6.
+
+contains() and remove() always return false: the JDK calls them to merge ready operations into
+keys that are already selected, which cannot happen if the owner resets after every select. */
+final class SelectedKeySet extends AbstractSet<SelectionKey> {
+    private static final Field SELECTED_KEYS;
+    private static final Field PUBLIC_SELECTED_KEYS;
+    static {
+        Field selectedKeys = null;
+        Field publicSelectedKeys = null;
+        try {
+            Class<?> c = Class.forName("sun.nio.ch.SelectorImpl");
+            selectedKeys = c.getDeclaredField("selectedKeys");
+            publicSelectedKeys = c.getDeclaredField("publicSelectedKeys");
+            selectedKeys.setAccessible(true);
+            publicSelectedKeys.setAccessible(true);
+        } catch (ClassNotFoundException e) {
+            // Not the OpenJDK selector
+        } catch (NoSuchFieldException e) {
+            // A JDK with different internals
+        } catch (RuntimeException e) {
+            // JDK 9+ without --add-opens java.base/sun.nio.ch=ALL-UNNAMED, or a SecurityManager
+            selectedKeys = null;
+        }
+        if (selectedKeys == null) publicSelectedKeys = null;
+        SELECTED_KEYS = selectedKeys;
+        PUBLIC_SELECTED_KEYS = publicSelectedKeys;
+    }
+
+    /** Replaces selector's selected key set. Call it before the first select.
+    @returns the new set, or null if this JDK does not allow it. */
+    static SelectedKeySet install(Selector selector) {
+        if (SELECTED_KEYS == null || !SELECTED_KEYS.getDeclaringClass().isInstance(selector)) {
+            return null;
+        }
+        SelectedKeySet keys = new SelectedKeySet();
+        try {
+            SELECTED_KEYS.set(selector, keys);
+            PUBLIC_SELECTED_KEYS.set(selector, keys);
+        } catch (IllegalAccessException e) {
+            return null;
+        }
+        return keys;
+    }
+
+    public boolean add(SelectionKey key) {
+        if (key == null) return false;
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+        }
+        keys[size++] = key;
+        return true;
+    }
+
+    public boolean contains(Object o) { return false; }
+    public boolean remove(Object o) { return false; }
+    public int size() { return size; }
+
+    /** @returns the key at index, which is < size(). */
+    SelectionKey get(int index) { return keys[index]; }
+
+    /** Empties the set, dropping the references to the keys. */
+    void reset() {
+        Arrays.fill(keys, 0, size, null);
+        size = 0;
+    }
+
+    public void clear() { reset(); }
+
+    /** Allocates: only for code that treats this as an ordinary Set. */
+    public Iterator<SelectionKey> iterator() {
+        return new Iterator<SelectionKey>() {
+            public boolean hasNext() { return index < size; }
+
+            public SelectionKey next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                return keys[index++];
+            }
+
+            public void remove() { throw new UnsupportedOperationException(); }
+
+            private int index;
+        };
+    }
+
+    private SelectionKey[] keys = new SelectionKey[256];
+    private int size;
+}
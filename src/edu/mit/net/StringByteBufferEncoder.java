@@ -26,6 +26,7 @@ public final class StringByteBufferEncoder {
     private static final Charset UTF8 = Charset.forName("UTF-8");
     private final CharBuffer inBuffer = CharBuffer.allocate(CHAR_BUFFER_SIZE);
     private final CharsetEncoder encoder = UTF8.newEncoder();
+    private BufferSizing sizing = BufferSizing.ADAPTIVE;
 
     public StringByteBufferEncoder() {
         // set the buffer to "filled" so it gets filled by encode()
@@ -82,9 +83,21 @@ public final class StringByteBufferEncoder {
         return next;
     }
 
+    /** Selects how toNewByteBuffer() sizes its buffer. The default is BufferSizing.ADAPTIVE. */
+    public void setSizing(BufferSizing sizing) {
+        if (sizing == null) throw new NullPointerException("sizing");
+        this.sizing = sizing;
+    }
+
     /** Encodes source into a new ByteBuffer. */
     public ByteBuffer toNewByteBuffer(String source) {
-        ByteBuffer output = ByteBuffer.allocate(source.length() + BUFFER_EXTRA_BYTES);
+        ByteBuffer output;
+        if (StringEncoder.useExactLength(sizing, source, BUFFER_EXTRA_BYTES)) {
+            // makeBiggerBuffer() is never needed
+            output = ByteBuffer.allocate(StringEncoder.encodedLength(source));
+        } else {
+            output = ByteBuffer.allocate(source.length() + BUFFER_EXTRA_BYTES);
+        }
 
         int readOffset = readInputChunk(source, 0);
         while (true) {
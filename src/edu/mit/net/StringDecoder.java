@@ -13,8 +13,10 @@ public class StringDecoder {
     private static final int SIZE_ALIGNMENT_BITS = 10;  // = 1024
     private static final int SIZE_ALIGNMENT = 1 << SIZE_ALIGNMENT_BITS;
     private static final int SIZE_ALIGNMENT_MASK = (1 << SIZE_ALIGNMENT_BITS)-1;
+    private static final int LENGTH_PREFIX_BYTES = StringEncoder.LENGTH_PREFIX_BYTES;
 
     private CharBuffer outBuffer = CharBuffer.allocate(INITIAL_BUFFER_SIZE);
+    private DecodedStringCache cache = null;
 
     private final CharsetDecoder decoder = UTF8.newDecoder();
 
@@ -24,6 +26,14 @@ public class StringDecoder {
         decoder.onMalformedInput(CodingErrorAction.REPLACE);
     }
 
+    /** Returns canonical instances from cache for strings decoded by a single call to finish() or
+    decodeBatch(), instead of decoding them again. null disables caching (the default). */
+    public void setCache(DecodedStringCache cache) {
+        this.cache = cache;
+    }
+
+    public DecodedStringCache getCache() { return cache; }
+
     /** Reserve space for the next string that will be <= expectedLength characters long. Must only
     be called when the buffer is empty. */
     public void reserve(int expectedLength) {
@@ -56,9 +66,11 @@ public class StringDecoder {
     }
 
     private void decode(byte[] source, int offset, int length, boolean endOfInput) {
-        // TODO: we could cache the input ByteBuffer if source doesn't change
-        final ByteBuffer input = ByteBuffer.wrap(source, offset, length);
+        // Wrapping each call is cheap next to decoding, and keeps no reference to source
+        decode(ByteBuffer.wrap(source, offset, length), endOfInput);
+    }
 
+    private void decode(final ByteBuffer input, boolean endOfInput) {
         // Call decode at least once to pass the endOfInput signal through
         do {
             CoderResult result = decoder.decode(input, outBuffer, endOfInput);
@@ -83,8 +95,23 @@ public class StringDecoder {
     }
 
     public String finish(byte[] source, int offset, int length) {
+        // Only look up strings that are entirely in source
+        if (cache != null && outBuffer.position() == 0 && cache.isCacheable(length)) {
+            int hash = DecodedStringCache.hash(source, offset, length);
+            String out = cache.lookup(hash, source, offset, length);
+            if (out == null) {
+                decode(source, offset, length, true);
+                out = finishString();
+                cache.insert(hash, source, offset, length, out);
+            }
+            return out;
+        }
+
         decode(source, offset, length, true);
+        return finishString();
+    }
 
+    private String finishString() {
         CoderResult result = decoder.flush(outBuffer);
         if (result == CoderResult.OVERFLOW) {
             throw new RuntimeException("TODO: Handle overflow?");
@@ -102,4 +129,92 @@ public class StringDecoder {
 
         return out;
     }
+
+    /** Decodes all complete strings in source, between its position and limit. Each string must
+    be prefixed by its length in bytes as an int in source's byte order, as written by
+    StringEncoder.encodeBatch(). On return, the position of source is the start of the first
+    incomplete string, or the limit if there is none. Must only be called when the buffer is empty.
+
+    @return the decoded strings, in order. */
+    public String[] decodeBatch(ByteBuffer source) {
+        if (outBuffer.position() != 0) {
+            throw new IllegalStateException("cannot be called except after finish()");
+        }
+
+        // First pass: count the complete strings so we allocate the result once
+        int count = 0;
+        int end = source.position();
+        while (source.limit() - end >= LENGTH_PREFIX_BYTES) {
+            int length = source.getInt(end);
+            if (length < 0) {
+                throw new IllegalArgumentException("negative string length (= " + length + ")");
+            }
+            if (source.limit() - end - LENGTH_PREFIX_BYTES < length) break;
+            end += LENGTH_PREFIX_BYTES + length;
+            count += 1;
+        }
+
+        // One view of source is reused as the input for all strings
+        final ByteBuffer input = source.duplicate();
+        final String[] out = new String[count];
+        int offset = source.position();
+        for (int i = 0; i < count; ++i) {
+            int length = source.getInt(offset);
+            offset += LENGTH_PREFIX_BYTES;
+            input.limit(offset + length);
+            input.position(offset);
+            out[i] = decodeOne(input, length);
+            offset += length;
+        }
+        assert offset == end;
+        source.position(end);
+        return out;
+    }
+
+    private String decodeOne(ByteBuffer input, int length) {
+        if (cache != null && input.hasArray() && cache.isCacheable(length)) {
+            final byte[] bytes = input.array();
+            final int offset = input.arrayOffset() + input.position();
+            int hash = DecodedStringCache.hash(bytes, offset, length);
+            String out = cache.lookup(hash, bytes, offset, length);
+            if (out == null) {
+                out = decodeUncached(input, length);
+                cache.insert(hash, bytes, offset, length, out);
+            }
+            return out;
+        }
+        return decodeUncached(input, length);
+    }
+
+    private String decodeUncached(ByteBuffer input, int length) {
+        // UTF-8 never has more chars than bytes, so this reserve avoids any overflow
+        reserve(length);
+
+        // ASCII fast path: widen bytes directly into the output buffer
+        final char[] chars = outBuffer.array();
+        final int start = input.position();
+        int i = 0;
+        if (input.hasArray()) {
+            final byte[] bytes = input.array();
+            final int base = input.arrayOffset() + start;
+            for (; i < length; ++i) {
+                byte b = bytes[base + i];
+                if (b < 0) break;
+                chars[i] = (char) b;
+            }
+        } else {
+            for (; i < length; ++i) {
+                byte b = input.get(start + i);
+                if (b < 0) break;
+                chars[i] = (char) b;
+            }
+        }
+        if (i == length) {
+            return new String(chars, 0, length);
+        }
+
+        // Not ASCII: decode this string from the beginning
+        decode(input, true);
+        return finishString();
+    }
 }
@@ -5,6 +5,8 @@ import java.nio.CharBuffer;
 import java.nio.charset.CharsetEncoder;
 import java.nio.charset.CoderResult;
 import java.nio.charset.CodingErrorAction;
+import java.util.Arrays;
+import java.util.List;
 
 /* Optimizations I tried:
 
@@ -31,11 +33,18 @@ public final class StringEncoder {
     // is 3 bytes per char, and there is a unit test to verify this.
     static final int UTF8_MAX_BYTES_PER_CHAR = 3;
 
+    // Each string written by encodeBatch() is preceded by its length in bytes as an int.
+    static final int LENGTH_PREFIX_BYTES = Integer.SIZE / 8;
+
+    // Number of chars BufferSizing.ADAPTIVE looks at to decide if a string is mostly ASCII
+    private static final int SIZING_SAMPLE_CHARS = 16;
+
     private final CharBuffer inBuffer = CharBuffer.allocate(CHAR_BUFFER_SIZE);
     private final ByteBuffer byteTemp = ByteBuffer.allocate(BYTE_BUFFER_SIZE);
     private final CharsetEncoder encoder = StringDecoder.UTF8.newEncoder();
 
     private int readOffset = 0;
+    private BufferSizing sizing = BufferSizing.ADAPTIVE;
 
     public StringEncoder() {
         // set the buffer to "filled" so it gets filled by encode()
@@ -126,6 +135,68 @@ public final class StringEncoder {
         return true;
     }
 
+    /** Returns the exact number of bytes in the UTF-8 version of source. Unpaired surrogates count
+    as one byte, since encode() replaces them with '?', as String.getBytes() does. */
+    public static int encodedLength(String source) {
+        final int length = source.length();
+
+        // Fast path for the ASCII prefix: one compare per char
+        int i = 0;
+        while (i < length && source.charAt(i) < 0x80) {
+            i += 1;
+        }
+
+        int bytes = i;
+        for (; i < length; ++i) {
+            char c = source.charAt(i);
+            if (c < 0x80) {
+                bytes += 1;
+            } else if (c < 0x800) {
+                bytes += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < length &&
+                    Character.isLowSurrogate(source.charAt(i + 1))) {
+                // One 4 byte sequence for the pair
+                bytes += 4;
+                i += 1;
+            } else if (Character.isSurrogate(c)) {
+                // Unpaired: replaced by '?'
+                bytes += 1;
+            } else {
+                bytes += 3;
+            }
+        }
+        return bytes;
+    }
+
+    /** Returns true if a buffer for source should be sized with encodedLength(). */
+    static boolean useExactLength(BufferSizing sizing, String source, int extraBytes) {
+        if (sizing == BufferSizing.GUESS) return false;
+        if (sizing == BufferSizing.EXACT) return true;
+        assert sizing == BufferSizing.ADAPTIVE;
+
+        // The guess always fits short strings, even at the maximum bytes per char
+        final int length = source.length();
+        if (length * (UTF8_MAX_BYTES_PER_CHAR - 1) <= extraBytes) return false;
+
+        // Sample chars spread through the string. Assume each non-ASCII char in the sample stands
+        // for step chars of 3 bytes: if that would overflow the slop, the guess will need a copy.
+        final int step = (length + SIZING_SAMPLE_CHARS - 1) / SIZING_SAMPLE_CHARS;
+        int extraEstimate = 0;
+        for (int i = 0; i < length; i += step) {
+            if (source.charAt(i) >= 0x80) {
+                extraEstimate += step * (UTF8_MAX_BYTES_PER_CHAR - 1);
+                if (extraEstimate > extraBytes) return true;
+            }
+        }
+        return false;
+    }
+
+    /** Selects how toNewByteBuffer() sizes its buffer. The default is BufferSizing.ADAPTIVE. */
+    public void setSizing(BufferSizing sizing) {
+        if (sizing == null) throw new NullPointerException("sizing");
+        this.sizing = sizing;
+    }
+
     private int getCharsConverted() {
         int charsConverted = readOffset - inBuffer.remaining();
         assert 0 <= charsConverted && charsConverted <= readOffset;
@@ -136,6 +207,14 @@ public final class StringEncoder {
     ByteBuffer will be 0, the limit is the length of the string. The capacity of the ByteBuffer
     may be larger than the string. */
     public ByteBuffer toNewByteBuffer(String source) {
+        if (useExactLength(sizing, source, BUFFER_EXTRA_BYTES)) {
+            ByteBuffer buffer = ByteBuffer.allocate(encodedLength(source));
+            boolean done = encode(source, buffer);
+            assert done;
+            buffer.flip();
+            return buffer;
+        }
+
         // Optimized for 1 byte per character strings (ASCII)
         ByteBuffer buffer = ByteBuffer.allocate(source.length() + BUFFER_EXTRA_BYTES);
 
@@ -203,6 +282,63 @@ public final class StringEncoder {
         return out;
     }
 
+    /** Encodes a batch of strings into destination. See encodeBatch(List, int, ByteBuffer). */
+    public int encodeBatch(String[] sources, int first, ByteBuffer destination) {
+        return encodeBatch(Arrays.asList(sources), first, destination);
+    }
+
+    /** Encodes sources, starting at index first, into destination. Each string is written as a 4
+    byte length in destination's byte order, followed by its UTF-8 bytes. Strings are only written
+    whole: if a string does not fit, destination is rewound to the start of its length, so the
+    caller can drain destination and call this again with the returned index.
+
+    @return the index of the first string that was not written, or sources.size() if all strings
+    were written. If this returns first, destination does not have space for that string and must
+    be called again with larger destination buffer space. */
+    public int encodeBatch(List<String> sources, int first, ByteBuffer destination) {
+        assert readOffset == 0 && !inBuffer.hasRemaining();
+        final char[] inChars = inBuffer.array();
+        final int count = sources.size();
+
+        int i = first;
+        for (; i < count; ++i) {
+            final String source = sources.get(i);
+            final int start = destination.position();
+            if (destination.remaining() < LENGTH_PREFIX_BYTES) break;
+            destination.position(start + LENGTH_PREFIX_BYTES);
+
+            final int length = source.length();
+            if (length <= inChars.length) {
+                // Short string: one copy and one encode() call. The encoder stays in the "end of
+                // input" state between strings, so we skip the flush() and reset() that encode()
+                // pays per string; the UTF-8 encoder never has output left to flush.
+                source.getChars(0, length, inChars, 0);
+                inBuffer.position(0);
+                inBuffer.limit(length);
+                CoderResult result = encoder.encode(inBuffer, destination, true);
+                if (result == CoderResult.OVERFLOW) {
+                    destination.position(start);
+                    break;
+                }
+                assert result == CoderResult.UNDERFLOW;
+                assert !inBuffer.hasRemaining();
+            } else {
+                // Long string: needs multiple chunks
+                encoder.reset();
+                if (!encode(source, destination)) {
+                    destination.position(start);
+                    break;
+                }
+            }
+
+            destination.putInt(start, destination.position() - start - LENGTH_PREFIX_BYTES);
+        }
+
+        // Leave the encoder ready for the next call to either encode() or encodeBatch()
+        reset();
+        return i;
+    }
+
     public void reset() {
         readOffset = 0;
         // reset inBuffer in case we are in the middle of an operation
@@ -0,0 +1,127 @@
+package edu.mit.net;
+
+import java.nio.channels.Selector;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/** Tasks and writes that other threads submit to a listener's event loop. Any thread can add; only
+the event loop runs them. It is a linked list that producers append to by swapping the tail, so
+adding takes no lock and one allocation, and running takes no atomic operations (Vyukov's MPSC
+queue). Producers only wake the selector while the event loop is blocked in select(), and only
+the first producer after it blocked does, so a burst of submissions costs one wakeup. */
+final class SubmissionQueue {
+    /** Runs at most this many submissions at a time, so a burst does not starve the sockets. */
+    static final int MAX_BATCH = 1024;
+
+    SubmissionQueue(Selector selector) {
+        this.selector = selector;
+        head = new Node(null, null, null);
+        tail = new AtomicReference<Node>(head);
+    }
+
+    /** Runs task on the event loop. Any thread can call this. */
+    void execute(Runnable task) {
+        if (task == null) throw new NullPointerException("task");
+        add(new Node(task, null, null));
+    }
+
+    /** Writes message to connection on the event loop. Any thread can call this. */
+    void write(MessageConnection connection, byte[] message) {
+        if (connection == null || message == null) {
+            throw new NullPointerException("connection and message must not be null");
+        }
+        add(new Node(null, connection, message));
+    }
+
+    private void add(Node node) {
+        Node previous = tail.getAndSet(node);
+        // Until this link, the consumer sees the queue end at previous: it catches up on its next
+        // run(), which the wakeup below or its check after sleep() guarantees
+        previous.next = node;
+        submitted.incrementAndGet();
+        // The link and sleeping are both volatile, so the link is ordered before this read: either
+        // the event loop sees the node in sleep(), or this sees it sleeping. Only the producer that
+        // clears the flag calls wakeup().
+        if (sleeping == 1 && SLEEPING.compareAndSet(this, 1, 0)) {
+            wakeups.incrementAndGet();
+            selector.wakeup();
+        }
+    }
+
+    /** Event loop only. @returns false if a submission is waiting. */
+    boolean isEmpty() {
+        return head.next == null;
+    }
+
+    /** Event loop only: runs up to MAX_BATCH submissions. A task that throws leaves the ones after
+    it queued. @returns true if more are waiting. */
+    boolean run() {
+        for (int i = 0; i < MAX_BATCH; ++i) {
+            Node next = head.next;
+            if (next == null) return false;
+            // next becomes the dummy head: forget its contents so they can be collected
+            Runnable task = next.task;
+            MessageConnection connection = next.connection;
+            byte[] message = next.message;
+            next.task = null;
+            next.connection = null;
+            next.message = null;
+            head = next;
+
+            if (task != null) {
+                task.run();
+            } else if (!(connection instanceof NIOMessageConnection) ||
+                    ((NIOMessageConnection) connection).isOpen()) {
+                // The client may have closed the connection while the response was made
+                connection.write(message);
+            }
+        }
+        return head.next != null;
+    }
+
+    /** Event loop only, before blocking in select(). Producers wake the selector from now on.
+    @returns false if a submission is waiting: do not block. */
+    boolean sleep() {
+        sleeping = 1;
+        if (isEmpty()) return true;
+        awake();
+        return false;
+    }
+
+    /** Event loop only, after select() returns. A producer may have cleared the flag and is about
+    to call wakeup(); then the next select() returns at once, and the loop goes around again. */
+    void awake() {
+        sleeping = 0;
+    }
+
+    /** @returns the number of submissions added. */
+    long getSubmitted() { return submitted.get(); }
+
+    /** @returns the number of times a submission woke up the selector. */
+    long getWakeups() { return wakeups.get(); }
+
+    private static final class Node {
+        Node(Runnable task, MessageConnection connection, byte[] message) {
+            this.task = task;
+            this.connection = connection;
+            this.message = message;
+        }
+
+        Runnable task;
+        MessageConnection connection;
+        byte[] message;
+        volatile Node next;
+    }
+
+    private static final AtomicIntegerFieldUpdater<SubmissionQueue> SLEEPING =
+            AtomicIntegerFieldUpdater.newUpdater(SubmissionQueue.class, "sleeping");
+
+    private final Selector selector;
+    // Only the event loop touches head; producers swap tail
+    private Node head;
+    private final AtomicReference<Node> tail;
+    private volatile int sleeping;
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong wakeups = new AtomicLong();
+}
@@ -0,0 +1,9 @@
+package edu.mit.net;
+
+/** Implemented by listeners that make their own system calls, so benchmarks can report system
+calls per message. NIOMessageListener cannot: the JDK makes its calls. */
+public interface SystemCallCounter {
+    /** @returns the system calls made so far by the listener and its connections. Another
+    thread may see a slightly stale count. */
+    public long getSystemCalls();
+}
@@ -0,0 +1,136 @@
+package edu.mit.net;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** Pins threads to CPUs, like taskset. Each role reads its CPUs from the system property
+edu.mit.net.affinity.ROLE, a list like "1" or "0-3,8", and its threads take them in turn, one
+CPU per thread. Pinning calls sched_setaffinity through the FFM API, which needs Linux and the
+src-jdk22 classes: anywhere else, and for roles without the property, it does nothing. */
+public final class ThreadAffinity {
+    public static final String PROPERTY_PREFIX = "edu.mit.net.affinity.";
+    /** The thread running an NIOMessageListener's event loop. */
+    public static final String LISTENER = "listener";
+    /** Threads that handle one connection each, as in ThreadServer. */
+    public static final String SERVER = "server";
+    /** Load generator threads. */
+    public static final String CLIENT = "client";
+
+    private static final Method SET_AFFINITY;
+    private static final Method CURRENT_CPU;
+    static {
+        Method setAffinity = null;
+        Method currentCpu = null;
+        try {
+            Class<?> c = Class.forName("edu.mit.net.NativeAffinity");
+            if ((Boolean) c.getDeclaredMethod("isAvailable").invoke(null)) {
+                setAffinity = c.getDeclaredMethod("setAffinity", int[].class);
+                currentCpu = c.getDeclaredMethod("currentCpu");
+            }
+        } catch (ClassNotFoundException e) {
+            // Not built with JDK 22+
+        } catch (LinkageError e) {
+            // Built with JDK 22+, running on an older JDK
+        } catch (Exception e) {
+            // No libc sched_setaffinity
+        }
+        SET_AFFINITY = setAffinity;
+        CURRENT_CPU = currentCpu;
+    }
+
+    /** @returns true if this platform can pin threads. */
+    public static boolean isSupported() {
+        return SET_AFFINITY != null;
+    }
+
+    /** @returns the affinity configured for role; it does nothing if the property is not set. */
+    public static ThreadAffinity forRole(String role) {
+        String property = PROPERTY_PREFIX + role;
+        int[] cpus = parseCpuList(System.getProperty(property, ""));
+        if (cpus.length > 0 && !isSupported()) {
+            System.err.println("warning: " + property + " is ignored: pinning threads needs " +
+                    "Linux and the src-jdk22 classes (JDK 22+)");
+        }
+        return new ThreadAffinity(cpus);
+    }
+
+    public ThreadAffinity(int[] cpus) {
+        this.cpus = cpus.clone();
+    }
+
+    /** @returns true if pinCurrentThread() will pin threads. */
+    public boolean isEnabled() {
+        return cpus.length > 0 && isSupported();
+    }
+
+    /** Pins the calling thread to the role's next CPU.
+    @returns the CPU, or -1 if the thread was not pinned. */
+    public int pinCurrentThread() {
+        if (!isEnabled()) return -1;
+        int cpu = cpus[(next.getAndIncrement() & Integer.MAX_VALUE) % cpus.length];
+        if (!pinCurrentThread(new int[]{cpu})) return -1;
+        return cpu;
+    }
+
+    /** Restricts the calling thread to cpus. @returns false if it is not supported or failed. */
+    public static boolean pinCurrentThread(int[] cpus) {
+        if (!isSupported()) return false;
+        return (Boolean) invoke(SET_AFFINITY, cpus);
+    }
+
+    /** @returns the CPU the calling thread is running on, or -1 if this is not supported. */
+    public static int currentCpu() {
+        if (CURRENT_CPU == null) return -1;
+        return (Integer) invoke(CURRENT_CPU);
+    }
+
+    private static Object invoke(Method method, Object... args) {
+        try {
+            return method.invoke(null, args);
+        } catch (InvocationTargetException e) {
+            throw new RuntimeException(e.getCause());
+        } catch (IllegalAccessException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /** Parses a CPU list in the taskset -c format: "0", "0-3" or "0-3,8,10-11". */
+    static int[] parseCpuList(String list) {
+        ArrayList<Integer> cpus = new ArrayList<Integer>();
+        for (String part : list.split(",")) {
+            part = part.trim();
+            if (part.length() == 0) continue;
+
+            int dash = part.indexOf('-');
+            int first;
+            int last;
+            try {
+                if (dash == -1) {
+                    first = last = Integer.parseInt(part);
+                } else {
+                    first = Integer.parseInt(part.substring(0, dash).trim());
+                    last = Integer.parseInt(part.substring(dash + 1).trim());
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("bad CPU list: " + list, e);
+            }
+            if (first < 0 || last < first) {
+                throw new IllegalArgumentException("bad CPU range " + part + " in: " + list);
+            }
+            for (int cpu = first; cpu <= last; ++cpu) {
+                cpus.add(cpu);
+            }
+        }
+
+        int[] out = new int[cpus.size()];
+        for (int i = 0; i < out.length; ++i) {
+            out[i] = cpus.get(i);
+        }
+        return out;
+    }
+
+    private final int[] cpus;
+    private final AtomicInteger next = new AtomicInteger();
+}
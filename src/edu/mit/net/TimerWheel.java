@@ -0,0 +1,168 @@
+package edu.mit.net;
+
+import java.util.concurrent.TimeUnit;
+
+/** A hashed timing wheel: timers hash by deadline tick into a ring of slots, each a doubly linked
+list, so schedule() and cancel() take constant time and allocate nothing. Callers keep and reuse
+their Timer objects, such as one per connection. expire() walks the slots of the ticks that have
+passed; timers a whole turn or more away stay in their slot until their tick comes round. Timers
+fire up to one tick late, but never early as long as expire() runs each tick. Not thread safe:
+NIOMessageListener runs it on the event loop. */
+public final class TimerWheel {
+    /** Extend this to run code when the timer expires. A timer is in at most one wheel. */
+    public static abstract class Timer {
+        /** Called by TimerWheel.expire(), which has already unscheduled this timer. */
+        protected abstract void expired();
+
+        public boolean isScheduled() { return wheel != null; }
+
+        /** Unschedules this timer, if it is scheduled. @returns true if it was. */
+        public boolean cancel() {
+            if (wheel == null) return false;
+            wheel.size -= 1;
+            unlink();
+            return true;
+        }
+
+        private void unlink() {
+            prev.next = next;
+            next.prev = prev;
+            prev = null;
+            next = null;
+            wheel = null;
+        }
+
+        private void linkBefore(Timer head) {
+            prev = head.prev;
+            next = head;
+            head.prev.next = this;
+            head.prev = this;
+        }
+
+        private TimerWheel wheel;
+        private Timer prev;
+        private Timer next;
+        private long deadlineTick;
+    }
+
+    /** The dummy first element of each circular list. */
+    private static final class Head extends Timer {
+        Head() {
+            super.prev = this;
+            super.next = this;
+        }
+
+        protected void expired() {
+            throw new AssertionError("list head expired");
+        }
+    }
+
+    /** The default for the wheel NIOMessageListener uses. */
+    public static final long DEFAULT_TICK_MILLIS = 100;
+    /** 512 ticks of 100 ms: timeouts up to 51 s take one turn of the wheel. */
+    public static final int DEFAULT_SLOTS = 512;
+
+    /** Creates a wheel with ticks of tick nanoseconds and slots slots, which must be a power of
+    two. It starts at System.nanoTime(). */
+    public TimerWheel(long tickNanos, int slots) {
+        this(tickNanos, slots, System.nanoTime());
+    }
+
+    /** Creates a wheel starting at nowNanos: for tests. */
+    TimerWheel(long tickNanos, int slots, long nowNanos) {
+        if (tickNanos <= 0) {
+            throw new IllegalArgumentException("tickNanos must be > 0: " + tickNanos);
+        }
+        if (slots <= 0 || (slots & (slots - 1)) != 0) {
+            throw new IllegalArgumentException("slots must be a power of 2: " + slots);
+        }
+        this.tickNanos = tickNanos;
+        this.startNanos = nowNanos;
+        heads = new Timer[slots];
+        for (int i = 0; i < heads.length; ++i) {
+            heads[i] = new Head();
+        }
+        mask = slots - 1;
+    }
+
+    /** Schedules timer to expire after delay, moving it if it is already scheduled. The delay
+    counts from the tick of the last expire(), so call that first if the wheel has been idle.
+    Leaves the timer alone if that is the tick it already has, so rescheduling an idle timeout on
+    every message relinks it at most once a tick. */
+    public void schedule(Timer timer, long delay, TimeUnit unit) {
+        if (delay < 0) throw new IllegalArgumentException("delay must be >= 0: " + delay);
+        // Round up, plus one: part of the current tick has already gone
+        long ticks = (unit.toNanos(delay) + tickNanos - 1) / tickNanos;
+        long deadlineTick = currentTick + 1 + ticks;
+        if (timer.wheel == this) {
+            if (timer.deadlineTick == deadlineTick) return;
+            timer.unlink();
+        } else if (timer.wheel != null) {
+            throw new IllegalArgumentException("timer is scheduled in another wheel");
+        } else {
+            size += 1;
+        }
+        timer.wheel = this;
+        timer.deadlineTick = deadlineTick;
+        timer.linkBefore(heads[(int) (deadlineTick & mask)]);
+    }
+
+    /** Advances the wheel to nowNanos and calls expired() on the timers that are due. Timers they
+    schedule count from nowNanos, so they do not expire in the same call. @returns the number of
+    timers that expired. */
+    public int expire(long nowNanos) {
+        long tick = (nowNanos - startNanos) / tickNanos;
+        if (tick <= currentTick) return 0;
+        long first = currentTick + 1;
+        currentTick = tick;
+        if (size == 0) return 0;
+
+        // Move the due timers to a list of their own first: expired() can cancel any timer
+        long slotCount = Math.min(tick - first + 1, heads.length);
+        for (long i = 0; i < slotCount; ++i) {
+            Timer head = heads[(int) ((first + i) & mask)];
+            Timer timer = head.next;
+            while (timer != head) {
+                Timer next = timer.next;
+                if (timer.deadlineTick <= tick) {
+                    timer.unlink();
+                    timer.wheel = this;
+                    timer.linkBefore(due);
+                }
+                timer = next;
+            }
+        }
+
+        int expired = 0;
+        while (due.next != due) {
+            Timer timer = due.next;
+            size -= 1;
+            timer.unlink();
+            expired += 1;
+            timer.expired();
+        }
+        return expired;
+    }
+
+    /** @returns the nanoseconds from nowNanos to the end of the current tick, when expire() next
+    has something to do, or -1 if no timers are scheduled. */
+    public long nanosToNextTick(long nowNanos) {
+        if (size == 0) return -1;
+        long next = startNanos + (currentTick + 1) * tickNanos;
+        return Math.max(0, next - nowNanos);
+    }
+
+    /** @returns the number of scheduled timers. */
+    public int size() { return size; }
+
+    public long getTickNanos() { return tickNanos; }
+
+    private final long tickNanos;
+    private final long startNanos;
+    private final Timer[] heads;
+    private final int mask;
+    // Timers found due by expire(): the ones that still need expired() called
+    private final Timer due = new Head();
+    private long currentTick;
+    private int size;
+}
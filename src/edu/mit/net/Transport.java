@@ -0,0 +1,113 @@
+package edu.mit.net;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+
+/** Creates MessageListeners. The transport is "nio", the JDK Selector; "epoll", which calls epoll
+directly through the FFM API; or "uring", which uses io_uring through the FFM API. epoll and
+uring need Linux and the src-jdk22 classes, and uring needs Linux 6.0 or later with io_uring
+enabled. Anywhere else they fall back to nio with a warning, so servers can always ask for them. */
+public final class Transport {
+    private Transport() {}
+
+    /** The system property fromProperty() reads. */
+    public static final String PROPERTY = "edu.mit.net.transport";
+    public static final String NIO = "nio";
+    public static final String EPOLL = "epoll";
+    public static final String URING = "uring";
+
+    private static final Constructor<?> EPOLL_LISTENER =
+            nativeListener("edu.mit.net.EpollMessageListener");
+    private static final Constructor<?> URING_LISTENER =
+            nativeListener("edu.mit.net.IoUringMessageListener");
+
+    /** @returns the (int port, WaitStrategy) constructor of className, or null if it cannot
+    be loaded here. */
+    private static Constructor<?> nativeListener(String className) {
+        if (!System.getProperty("os.name").equals("Linux")) return null;
+        try {
+            // Initializing the class looks up its native functions
+            Class<?> c = Class.forName(className);
+            return c.getDeclaredConstructor(int.class, WaitStrategy.class);
+        } catch (ClassNotFoundException e) {
+            // Not built with JDK 22+
+        } catch (LinkageError e) {
+            // Built with JDK 22+, running on an older JDK, or missing native functions
+        } catch (UnsupportedOperationException e) {
+            // The kernel does not support it
+        } catch (NoSuchMethodException e) {
+            throw new RuntimeException(e);
+        }
+        return null;
+    }
+
+    /** @returns true if transport can be used here, without falling back to nio. */
+    public static boolean isSupported(String transport) {
+        if (transport.equals(NIO)) return true;
+        if (transport.equals(EPOLL)) return EPOLL_LISTENER != null;
+        if (transport.equals(URING)) return URING_LISTENER != null;
+        throw new IllegalArgumentException("unknown transport: " + transport);
+    }
+
+    /** @returns what transport needs beyond the JDK, for messages when it is not supported. */
+    public static String requirements(String transport) {
+        isSupported(transport);
+        if (transport.equals(NIO)) return "nothing";
+        return "it needs Linux and the src-jdk22 classes (JDK 22+)" +
+                (transport.equals(URING) ? ", and io_uring (Linux 6.0+)" : "");
+    }
+
+    /** @returns the transport in the edu.mit.net.transport system property, or nio. */
+    public static String fromProperty() {
+        String transport = System.getProperty(PROPERTY, NIO);
+        // Fails for unknown names
+        isSupported(transport);
+        return transport;
+    }
+
+    /** @returns a listener for transport, bound to port, waiting for events with waitStrategy.
+    Port 0 picks a free port: see MessageListener.getLocalPort(). */
+    public static MessageListener bind(String transport, int port, WaitStrategy waitStrategy) {
+        return bind(transport, port, waitStrategy, Backpressure.NONE);
+    }
+
+    /** Like bind(transport, port, waitStrategy), limiting unsent responses with backpressure.
+    Only nio implements it: the others ignore it with a warning. */
+    public static MessageListener bind(String transport, int port, WaitStrategy waitStrategy,
+            Backpressure backpressure) {
+        if (!isSupported(transport)) {
+            System.err.println("warning: transport " + transport + " is not supported, using " +
+                    NIO + ": " + requirements(transport));
+            transport = NIO;
+        }
+
+        if (!transport.equals(NIO) && backpressure != Backpressure.NONE) {
+            System.err.println("warning: transport " + transport +
+                    " does not implement backpressure, ignoring " + backpressure);
+        }
+        if (transport.equals(EPOLL)) {
+            return newListener(EPOLL_LISTENER, port, waitStrategy);
+        } else if (transport.equals(URING)) {
+            return newListener(URING_LISTENER, port, waitStrategy);
+        }
+        NIOMessageListener listener = new NIOMessageListener();
+        listener.bind(port);
+        listener.setWaitStrategy(waitStrategy);
+        listener.setBackpressure(backpressure);
+        return listener;
+    }
+
+    private static MessageListener newListener(Constructor<?> constructor, int port,
+            WaitStrategy waitStrategy) {
+        try {
+            return (MessageListener) constructor.newInstance(port, waitStrategy);
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            throw new RuntimeException(e.getCause());
+        } catch (InstantiationException e) {
+            throw new RuntimeException(e);
+        } catch (IllegalAccessException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package edu.mit.net;
+
+import java.io.IOException;
+import java.nio.channels.Selector;
+
+/** Selects how NIOMessageListener.blockForNextEvent() waits for events. It polls with selectNow()
+for spinNanos, then polls and calls Thread.yield() for yieldNanos, then blocks in select().
+Blocking costs a wakeup through epoll and the scheduler on each event; spinning avoids it but
+keeps a core busy, even when idle. */
+public final class WaitStrategy {
+    /** Always block in select(): the default. */
+    public static final WaitStrategy BLOCKING = new WaitStrategy(0, 0);
+    /** Never block: call selectNow() until there is an event. */
+    public static final WaitStrategy BUSY_SPIN = new WaitStrategy(Long.MAX_VALUE, 0);
+
+    /** The system property fromProperty() reads. */
+    public static final String PROPERTY = "edu.mit.net.wait";
+
+    public WaitStrategy(long spinNanos, long yieldNanos) {
+        if (spinNanos < 0 || yieldNanos < 0) {
+            throw new IllegalArgumentException("negative wait: " + spinNanos + " " + yieldNanos);
+        }
+        this.spinNanos = spinNanos;
+        this.yieldNanos = yieldNanos;
+    }
+
+    /** Parses "block", "spin" or "hybrid:SPIN_US,YIELD_US" (microseconds). */
+    public static WaitStrategy parse(String description) {
+        if (description.equals("block")) {
+            return BLOCKING;
+        } else if (description.equals("spin")) {
+            return BUSY_SPIN;
+        } else if (description.startsWith("hybrid:")) {
+            String[] parts = description.substring("hybrid:".length()).split(",");
+            if (parts.length == 2) {
+                try {
+                    return new WaitStrategy(Long.parseLong(parts[0].trim()) * 1000,
+                            Long.parseLong(parts[1].trim()) * 1000);
+                } catch (NumberFormatException e) {}
+            }
+        }
+        throw new IllegalArgumentException("expected block, spin or hybrid:SPIN_US,YIELD_US: " +
+                description);
+    }
+
+    /** @returns the strategy in the edu.mit.net.wait system property, or BLOCKING. */
+    public static WaitStrategy fromProperty() {
+        return parse(System.getProperty(PROPERTY, "block"));
+    }
+
+    /** Waits for selected keys, like Selector.select(). @returns the number of keys selected; 0
+    if the thread was interrupted or, while blocked, the selector was woken up. selectNow() clears
+    a wakeup, so interrupt the thread to stop a spinning wait. */
+    int select(Selector selector) throws IOException {
+        return select(selector, null);
+    }
+
+    /** Waits like select(Selector), but also returns 0 once submissions is not empty. Producers
+    only wake up the selector while it blocks, so spinning costs them nothing. */
+    int select(Selector selector, SubmissionQueue submissions) throws IOException {
+        return select(selector, submissions, -1);
+    }
+
+    /** Waits like select(Selector, SubmissionQueue), but returns 0 after timeoutNanos, if it is
+    not negative: the time to the next tick of a TimerWheel. */
+    int select(Selector selector, SubmissionQueue submissions, long timeoutNanos)
+            throws IOException {
+        if (spinNanos == 0 && yieldNanos == 0) {
+            return block(selector, submissions, timeoutNanos);
+        }
+
+        long start = System.nanoTime();
+        long elapsed = 0;
+        while (elapsed < spinNanos) {
+            int count = selector.selectNow();
+            if (count != 0) return count;
+            // selectNow() does not check for interrupts like select()
+            if (Thread.currentThread().isInterrupted()) return 0;
+            if (submissions != null && !submissions.isEmpty()) return 0;
+            elapsed = System.nanoTime() - start;
+            if (timeoutNanos >= 0 && elapsed >= timeoutNanos) return 0;
+        }
+
+        // Subtraction avoids overflow for BUSY_SPIN
+        while (elapsed - spinNanos < yieldNanos) {
+            Thread.yield();
+            int count = selector.selectNow();
+            if (count != 0) return count;
+            if (Thread.currentThread().isInterrupted()) return 0;
+            if (submissions != null && !submissions.isEmpty()) return 0;
+            elapsed = System.nanoTime() - start;
+            if (timeoutNanos >= 0 && elapsed >= timeoutNanos) return 0;
+        }
+
+        return block(selector, submissions, timeoutNanos < 0 ? -1 : timeoutNanos - elapsed);
+    }
+
+    private static int block(Selector selector, SubmissionQueue submissions, long timeoutNanos)
+            throws IOException {
+        if (submissions != null && !submissions.sleep()) return 0;
+        try {
+            if (timeoutNanos < 0) return selector.select();
+            // select(0) waits forever: round up, and only poll once the time is up
+            long millis = (timeoutNanos + 999999) / 1000000;
+            if (millis == 0) return selector.selectNow();
+            return selector.select(millis);
+        } finally {
+            if (submissions != null) submissions.awake();
+        }
+    }
+
+    public long getSpinNanos() { return spinNanos; }
+    public long getYieldNanos() { return yieldNanos; }
+
+    public String toString() {
+        if (this == BLOCKING) return "block";
+        if (this == BUSY_SPIN) return "spin";
+        return "hybrid:" + spinNanos / 1000 + "," + yieldNanos / 1000;
+    }
+
+    private final long spinNanos;
+    private final long yieldNanos;
+}
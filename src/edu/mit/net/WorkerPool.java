@@ -0,0 +1,142 @@
+package edu.mit.net;
+
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/** Threads that handle messages for NIOMessageListeners, so slow requests do not stall the event
+loop: see NIOMessageListener.setWorkerPool(). Each connection is assigned to one worker when its
+first message arrives, so its requests are handled one at a time, in order, and the responses go
+back through the listener's write() in the same order. The cost is that a slow request delays the
+other connections on its worker. One pool can serve several listeners. */
+public final class WorkerPool {
+    /** The system property SelectServer reads for the number of workers; 0 handles messages on
+    the event loop. */
+    public static final String PROPERTY = "edu.mit.net.workers";
+
+    /** Makes responses. Called on the worker threads, so it must be thread-safe. It must not
+    throw: an exception kills the worker, and the requests assigned to it are never answered. */
+    public interface Handler {
+        /** @returns the response to request, or null to send none. */
+        byte[] handle(byte[] request);
+    }
+
+    public WorkerPool(int threads, Handler handler) {
+        if (threads <= 0) throw new IllegalArgumentException("threads must be > 0: " + threads);
+        this.handler = handler;
+        workers = new Worker[threads];
+        for (int i = 0; i < workers.length; ++i) {
+            workers[i] = new Worker(i);
+            workers[i].start();
+        }
+    }
+
+    /** Stops the workers, dropping requests they have not handled, and waits for them to exit. */
+    public void shutdown() throws InterruptedException {
+        stopped = true;
+        for (Worker worker : workers) {
+            LockSupport.unpark(worker);
+        }
+        for (Worker worker : workers) {
+            worker.join();
+        }
+    }
+
+    public int getThreads() { return workers.length; }
+
+    /** @returns the number of requests handled. */
+    public long getHandled() {
+        long handled = 0;
+        for (Worker worker : workers) {
+            handled += worker.handled;
+        }
+        return handled;
+    }
+
+    /** Called by listener's event loop: hands message to connection's worker. */
+    void dispatch(NIOMessageListener listener, NIOMessageConnection connection, byte[] message) {
+        if (connection.worker < 0) {
+            // Round robin balances better than hashing when there are few connections
+            connection.worker = nextWorker;
+            nextWorker = (nextWorker + 1) % workers.length;
+        }
+        workers[connection.worker].add(new Request(listener, connection, message));
+    }
+
+    private static final class Request {
+        Request(NIOMessageListener listener, MessageConnection connection, byte[] message) {
+            this.listener = listener;
+            this.connection = connection;
+            this.message = message;
+        }
+
+        // Cleared once handled: the dummy head would otherwise keep them reachable
+        NIOMessageListener listener;
+        MessageConnection connection;
+        byte[] message;
+        volatile Request next;
+    }
+
+    /** A thread with a queue like SubmissionQueue: the event loops append to it without locks,
+    and only unpark it while it is parked. */
+    private final class Worker extends Thread {
+        Worker(int index) {
+            super("worker " + index);
+            setDaemon(true);
+            head = new Request(null, null, null);
+            tail = new AtomicReference<Request>(head);
+        }
+
+        void add(Request request) {
+            Request previous = tail.getAndSet(request);
+            previous.next = request;
+            if (parked == 1 && PARKED.compareAndSet(this, 1, 0)) {
+                LockSupport.unpark(this);
+            }
+        }
+
+        public void run() {
+            while (!stopped) {
+                Request next = head.next;
+                if (next == null) {
+                    parked = 1;
+                    // Check again: a request added before parked was set did not unpark us
+                    if (head.next == null && !stopped) LockSupport.park(this);
+                    parked = 0;
+                    continue;
+                }
+                // next becomes the dummy head: forget its contents so they can be collected
+                NIOMessageListener listener = next.listener;
+                MessageConnection connection = next.connection;
+                byte[] message = next.message;
+                next.listener = null;
+                next.connection = null;
+                next.message = null;
+                head = next;
+
+                byte[] response = handler.handle(message);
+                if (response != null) {
+                    listener.write(connection, response);
+                }
+                // Only this thread writes it
+                handled += 1;
+            }
+        }
+
+        // Only this thread touches head; the event loops swap tail
+        private Request head;
+        private final AtomicReference<Request> tail;
+        // Not private: the updater cannot reach a private field of a nested class before JDK 11
+        volatile int parked;
+        volatile long handled;
+    }
+
+    private static final AtomicIntegerFieldUpdater<Worker> PARKED =
+            AtomicIntegerFieldUpdater.newUpdater(Worker.class, "parked");
+
+    private final Handler handler;
+    private final Worker[] workers;
+    private volatile boolean stopped;
+    // Only the event loop assigns workers; with several listeners, races only skew the balance
+    private int nextWorker;
+}
@@ -0,0 +1,110 @@
+package edu.mit.net;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+
+/** Counts the unsent bytes of one listener's connections, and pauses and resumes reading from
+them within the limits of a Backpressure. Connections report their queued and written bytes;
+everything runs on the listener's thread. */
+final class WriteBacklog {
+    WriteBacklog(Backpressure limits) {
+        this.limits = limits;
+    }
+
+    /** Applies to connections as their backlogs change. */
+    void setLimits(Backpressure limits) {
+        this.limits = limits;
+    }
+
+    Backpressure getLimits() {
+        return limits;
+    }
+
+    /** @returns the unsent bytes of all connections. */
+    long getTotalBytes() {
+        return totalBytes;
+    }
+
+    /** @returns the number of connections that are not being read. */
+    int getPausedConnections() {
+        return paused.size();
+    }
+
+    /** connection queued bytes, which are already counted in its getPendingBytes(). */
+    void queued(NIOMessageConnection connection, long bytes) {
+        totalBytes += bytes;
+        if (!connection.isReadPaused() &&
+                (connection.getPendingBytes() > limits.getHighWaterBytes() ||
+                totalBytes > limits.getGlobalLimitBytes())) {
+            connection.setReadPaused(true);
+            paused.add(connection);
+        }
+    }
+
+    /** connection wrote bytes that it had queued. */
+    void written(NIOMessageConnection connection, long bytes) {
+        boolean overLimit = totalBytes > limits.getGlobalLimitBytes();
+        totalBytes -= bytes;
+        if (connection.isReadPaused() && canResume(connection)) {
+            resume(connection, paused.indexOf(connection));
+        }
+        if (overLimit) resumeBelowLimit();
+    }
+
+    /** connection closed with its pending bytes unsent. */
+    void closed(NIOMessageConnection connection) {
+        int index = paused.indexOf(connection);
+        if (index >= 0) paused.remove(index);
+        boolean overLimit = totalBytes > limits.getGlobalLimitBytes();
+        totalBytes -= connection.getPendingBytes();
+        if (overLimit) resumeBelowLimit();
+    }
+
+    /** connection may have complete requests in its read buffer that no read event will report:
+    its read stopped at the high water mark, or it resumed with them. The listener reads it next
+    with pollUnread(). */
+    void unreadInput(NIOMessageConnection connection) {
+        if (connection.unreadQueued || !connection.hasBufferedInput()) return;
+        connection.unreadQueued = true;
+        unread.add(connection);
+    }
+
+    /** @returns the number of connections added by unreadInput() and not polled yet. */
+    int getUnreadCount() {
+        return unread.size();
+    }
+
+    /** @returns the next connection added by unreadInput(), or null. */
+    NIOMessageConnection pollUnread() {
+        NIOMessageConnection connection = unread.poll();
+        if (connection != null) connection.unreadQueued = false;
+        return connection;
+    }
+
+    /** Connections paused by the global limit may have nothing left to write, so nothing else
+    would resume them. */
+    private void resumeBelowLimit() {
+        if (totalBytes > limits.getGlobalLimitBytes()) return;
+        for (int i = paused.size() - 1; i >= 0; --i) {
+            if (canResume(paused.get(i))) resume(paused.get(i), i);
+        }
+    }
+
+    private boolean canResume(NIOMessageConnection connection) {
+        return connection.getPendingBytes() <= limits.getLowWaterBytes() &&
+                totalBytes <= limits.getGlobalLimitBytes();
+    }
+
+    private void resume(NIOMessageConnection connection, int index) {
+        paused.remove(index);
+        connection.setReadPaused(false);
+        // The kernel may have nothing more for it, so no read event would come for these
+        unreadInput(connection);
+    }
+
+    private Backpressure limits;
+    private long totalBytes;
+    // Few connections are paused at a time, so a list is fine
+    private final ArrayList<NIOMessageConnection> paused = new ArrayList<NIOMessageConnection>();
+    private final ArrayDeque<NIOMessageConnection> unread = new ArrayDeque<NIOMessageConnection>();
+}
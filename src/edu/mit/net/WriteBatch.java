@@ -0,0 +1,37 @@
+package edu.mit.net;
+
+import java.util.ArrayList;
+
+/** The connections of one NIOMessageListener that deferred writes while its caller handled a
+batch of events from getNextEvents() or blockForNextEvents(). The listener flushes them when the
+caller asks for events again, so the responses to a batch go out in one write per connection
+instead of one per message. Everything runs on the listener's thread. */
+final class WriteBatch {
+    /** @returns true while the caller handles a batch: small writes are deferred. */
+    boolean isOpen() {
+        return open;
+    }
+
+    /** Defers writes until flush(). */
+    void open() {
+        open = true;
+    }
+
+    /** connection put the first write of this batch in its write buffer. */
+    void deferred(NIOMessageConnection connection) {
+        connections.add(connection);
+    }
+
+    /** Writes what the connections deferred, and stops deferring. */
+    void flush() {
+        open = false;
+        for (int i = 0; i < connections.size(); ++i) {
+            connections.get(i).flushDeferred();
+        }
+        connections.clear();
+    }
+
+    private boolean open;
+    private final ArrayList<NIOMessageConnection> connections =
+            new ArrayList<NIOMessageConnection>();
+}
@@ -96,7 +96,8 @@ if __name__ == "__main__":
             temp_files.append((charset_name, string_length, temp))
 
     output = [("encoder", "charset", "string length", "chars per us")]
-    for encoder_type in ("jdk", "generic", "bytebuffer", "reflect"):
+    for encoder_type in ("jdk", "generic-guess", "generic-exact", "generic-adaptive",
+            "bytebuffer-guess", "bytebuffer-exact", "bytebuffer-adaptive", "reflect"):
         for charset_name, string_length, temp in temp_files:
             results = runTest(encoder_type, temp.name)
             print encoder_type, charset_name, string_length, bytebuffer.average(results)
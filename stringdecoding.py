@@ -5,8 +5,8 @@ import bytebuffer
 TEST = "StringDecodingTest"
 INPUT = "utf8.txt"
 
-def runTest(conversion_type, reuse):
-    process = bytebuffer.runJava(TEST, (conversion_type, reuse, INPUT))
+def runTest(conversion_type, reuse, mode):
+    process = bytebuffer.runJava(TEST, (conversion_type, reuse, mode, INPUT))
     
     results = []
     for line in process.stdout:
@@ -20,10 +20,11 @@ if __name__ == "__main__":
     output = []
     for conversion_type in ("chardecoder", "string", "custom"):
         for reuse in ("once", "reuse"):
-            results = runTest(conversion_type, reuse)
-            print conversion_type, reuse, bytebuffer.average(results)
+            for mode in ("single", "batch"):
+                results = runTest(conversion_type, reuse, mode)
+                print conversion_type, reuse, mode, bytebuffer.average(results)
 
-            for value in results:
-                output.append((conversion_type, reuse, value))
+                for value in results:
+                    output.append((conversion_type, reuse, mode, value))
 
     bytebuffer.saveCSVResults("stringdecoding.csv", output)
@@ -0,0 +1,85 @@
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/** Compares Statistics with statistics.py. The expected values are what statistics.stats()
+returns for the same values, printed with repr(). */
+public class StatisticsTest {
+    // Both stop the bisection once the CDF is within 1e-7, so allow a little more than rounding
+    private static final double DELTA = 1e-12;
+
+    private static void assertStats(double[] values, double confidenceInterval, double average,
+            double median, double standardDeviation, double minimum, double maximum,
+            double confidence) {
+        Statistics.Summary summary = Statistics.stats(values, confidenceInterval);
+        assertEquals(values.length, summary.count);
+        assertEquals(average, summary.average, DELTA);
+        assertEquals(median, summary.median, DELTA);
+        assertEquals(standardDeviation, summary.standardDeviation, DELTA);
+        assertEquals(minimum, summary.minimum, 0);
+        assertEquals(maximum, summary.maximum, 0);
+        assertEquals(confidence, summary.confidence, DELTA);
+    }
+
+    @Test
+    public void testTwoValues() {
+        // One degree of freedom: tinv(0.05, 1) = 12.706
+        double[] values = { 12.0, 10.0 };
+        assertStats(values, 0.05, 11.0, 12.0, 1.4142135623730951, 10.0, 12.0,
+                12.706220149993896);
+        assertStats(values, 0.01, 11.0, 12.0, 1.4142135623730951, 10.0, 12.0,
+                63.65776062011719);
+    }
+
+    @Test
+    public void testFiveValues() {
+        double[] values = { 4.0, 2.0, 5.0, 1.0, 3.0 };
+        assertStats(values, 0.05, 3.0, 3.0, 1.5811388300841898, 1.0, 5.0, 1.9632430090304631);
+        assertStats(values, 0.01, 3.0, 3.0, 1.5811388300841898, 1.0, 5.0, 3.255580629663371);
+    }
+
+    @Test
+    public void testLatencies() {
+        double[] values = { 105.2, 98.7, 101.3, 110.9, 99.4, 102.8, 97.1, 104.6, 100.0, 103.5 };
+        assertStats(values, 0.05, 102.35, 102.8, 4.000347207153123, 97.1, 110.9,
+                2.861678642127212);
+        assertStats(values, 0.01, 102.35, 102.8, 4.000347207153123, 97.1, 110.9,
+                4.11110463801812);
+        // stats(values) is the 95% interval
+        assertEquals(2.861678642127212, Statistics.stats(values).confidence, DELTA);
+    }
+
+    @Test
+    public void testThirtyValues() {
+        // [float((i * 37) % 101) / 7.0 for i in range(30)]
+        double[] values = new double[30];
+        for (int i = 0; i < values.length; ++i) {
+            values[i] = ((i * 37) % 101) / 7.0;
+        }
+        assertStats(values, 0.05, 6.904761904761906, 7.142857142857143, 4.227741453185148, 0.0,
+                13.857142857142858, 1.5786656050270462);
+        assertStats(values, 0.01, 6.904761904761906, 7.142857142857143, 4.227741453185148, 0.0,
+                13.857142857142858, 2.1275844681415483);
+    }
+
+    @Test
+    public void testTinv() {
+        assertEquals(12.706220149993896, Statistics.tinv(0.05, 1), DELTA);
+        assertEquals(2.262159250676632, Statistics.tinv(0.05, 9), DELTA);
+        assertEquals(2.756379544734955, Statistics.tinv(0.01, 29), DELTA);
+    }
+
+    @Test
+    public void testOneValue() {
+        // statistics.py divides by zero here (tinv with 0 degrees of freedom)
+        Statistics.Summary summary = Statistics.stats(new double[] { 7.0 });
+        assertEquals(7.0, summary.average, 0);
+        assertEquals(0.0, summary.standardDeviation, 0);
+        assertTrue(Double.isNaN(summary.confidence));
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testEmpty() {
+        Statistics.stats(new double[0]);
+    }
+}
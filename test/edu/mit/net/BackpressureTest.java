@@ -0,0 +1,258 @@
+package edu.mit.net;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.channels.SocketChannel;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BackpressureTest {
+    private static final int MB = 1 << 20;
+
+    ServerSocket server;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new ServerSocket(0);
+        // Inherited by accepted sockets: keeps the kernel from absorbing much of a write
+        server.setReceiveBufferSize(65536);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.close();
+    }
+
+    @Test
+    public void testParse() {
+        assertSame(Backpressure.NONE, Backpressure.parse("none"));
+        Backpressure limits = Backpressure.parse("64, 16,1024");
+        assertEquals(64 << 10, limits.getHighWaterBytes());
+        assertEquals(16 << 10, limits.getLowWaterBytes());
+        assertEquals(1 << 20, limits.getGlobalLimitBytes());
+        assertEquals("64,16,1024", limits.toString());
+        assertEquals("none", Backpressure.NONE.toString());
+
+        String[] bad = {"", "64,16", "a,b,c", "16,64,1024", "64,16,32"};
+        for (String description : bad) {
+            try {
+                Backpressure.parse(description);
+                fail("expected IllegalArgumentException: " + description);
+            } catch (IllegalArgumentException e) {}
+        }
+    }
+
+    /** A connection whose peer does not read until drain(). */
+    private final class Peer {
+        Peer(WriteBacklog backlog) throws IOException {
+            SocketChannel channel = SocketChannel.open();
+            channel.socket().setSendBufferSize(65536);
+            channel.connect(new InetSocketAddress(InetAddress.getByName(null),
+                    server.getLocalPort()));
+            socket = server.accept();
+            connection = new NIOMessageConnection(channel, backlog);
+        }
+
+        /** Reads everything the connection has written until its writes are done. */
+        void drain() throws InterruptedException {
+            Thread reader = new Thread() {
+                public void run() {
+                    try {
+                        InputStream in = socket.getInputStream();
+                        byte[] buffer = new byte[65536];
+                        while (in.read(buffer) > 0) {}
+                    } catch (IOException e) {
+                        // Closed below
+                    }
+                }
+            };
+            reader.start();
+            while (!connection.handleWrite()) {
+                Thread.yield();
+            }
+            assertEquals(0, connection.getPendingBytes());
+        }
+
+        void close() throws IOException {
+            connection.close();
+            socket.close();
+        }
+
+        final Socket socket;
+        final NIOMessageConnection connection;
+    }
+
+    @Test
+    public void testLimits() throws IOException, InterruptedException {
+        WriteBacklog backlog = new WriteBacklog(new Backpressure(32 * MB, MB, 40 * MB));
+        Peer a = new Peer(backlog);
+        Peer b = new Peer(backlog);
+        byte[] message = new byte[12 * MB];
+
+        a.connection.write(message);
+        a.connection.write(message);
+        assertFalse(a.connection.isReadPaused());
+        // Above the connection's high water mark
+        a.connection.write(message);
+        assertTrue(a.connection.isReadPaused());
+        a.connection.write(message);
+        assertEquals(a.connection.getPendingBytes(), backlog.getTotalBytes());
+
+        // Below its own limit, but above the global limit
+        b.connection.write(message);
+        assertTrue(b.connection.getPendingBytes() < 32 * MB);
+        assertTrue(b.connection.isReadPaused());
+        assertEquals(2, backlog.getPausedConnections());
+
+        // Sent everything, but the total is still above the limit
+        b.drain();
+        assertTrue(b.connection.isReadPaused());
+
+        // Only the total going down can resume b now
+        a.drain();
+        assertFalse(a.connection.isReadPaused());
+        assertFalse(b.connection.isReadPaused());
+        assertEquals(0, backlog.getPausedConnections());
+        assertEquals(0, backlog.getTotalBytes());
+
+        // Closing a connection forgets its unsent bytes
+        a.connection.write(message);
+        a.connection.write(message);
+        a.connection.write(message);
+        assertTrue(a.connection.isReadPaused());
+        a.close();
+        assertEquals(0, backlog.getPausedConnections());
+        assertEquals(0, backlog.getTotalBytes());
+        b.close();
+    }
+
+    @Test
+    public void testPipelinedBurst() throws IOException {
+        NIOMessageListener listener = new NIOMessageListener();
+        listener.bind(0);
+        // Stops reading each pass after about 10 of the requests below
+        listener.setBackpressure(new Backpressure(1024, 0, MB));
+        Socket client = new Socket(InetAddress.getByName(null), listener.getLocalPort());
+        assertNull(listener.blockForNextEvent().message);
+
+        // Arrives in one read: the rest of the burst waits in the connection's buffer, not the
+        // kernel, so no read event will report it
+        final int messages = 100;
+        byte[] burst = new byte[messages * (4 + 100)];
+        for (int i = 0; i < messages; ++i) {
+            burst[i * (4 + 100)] = 100;
+        }
+        client.getOutputStream().write(burst);
+
+        int received = 0;
+        long deadline = System.currentTimeMillis() + 5000;
+        while (received < messages && System.currentTimeMillis() < deadline) {
+            MessageListener.Event e = listener.getNextEvent();
+            if (e != null) {
+                assertEquals(100, e.message.length);
+                received += 1;
+            }
+        }
+        assertEquals(messages, received);
+
+        // blockForNextEvent() does not wait in select() while requests are buffered
+        client.getOutputStream().write(burst);
+        for (int i = 0; i < messages; ++i) {
+            assertEquals(100, listener.blockForNextEvent().message.length);
+        }
+        client.close();
+        listener.close();
+    }
+
+    @Test
+    public void testListenerStopsReading() throws IOException, InterruptedException {
+        NIOMessageListener listener = new NIOMessageListener();
+        listener.bind(0);
+        listener.setBackpressure(new Backpressure(256 << 10, 64 << 10, 1 << 20));
+        // Small buffers, so the kernel cannot absorb many requests or responses
+        final Socket client = new Socket();
+        client.setReceiveBufferSize(65536);
+        client.setSendBufferSize(65536);
+        client.connect(new InetSocketAddress(InetAddress.getByName(null),
+                listener.getLocalPort()));
+        assertNull(listener.getNextEvent().message);
+
+        // Sends requests without reading the responses, until the server stops reading
+        final int messages = 32768;
+        final byte[] request = new byte[4 + 1024];
+        request[0] = 0;
+        request[1] = 4;
+        Thread writer = new Thread() {
+            public void run() {
+                try {
+                    OutputStream out = client.getOutputStream();
+                    for (int i = 0; i < messages; ++i) {
+                        out.write(request);
+                    }
+                } catch (IOException e) { throw new RuntimeException(e); }
+            }
+        };
+        writer.start();
+
+        int echoed = 0;
+        while (listener.getPausedConnections() == 0) {
+            MessageListener.Event e = listener.getNextEvent();
+            if (e != null) {
+                e.connection.write(e.message);
+                echoed += 1;
+            }
+        }
+        // Echo what was read before the pause; then nothing more is read
+        MessageListener.Event e;
+        while ((e = listener.getNextEvent()) != null) {
+            e.connection.write(e.message);
+            echoed += 1;
+        }
+        long unsent = listener.getUnsentBytes();
+        assertTrue(unsent > 256 << 10);
+        Thread.sleep(50);
+        assertNull(listener.getNextEvent());
+        assertTrue(echoed < messages);
+
+        // Reading the responses resumes the requests
+        final int[] read = new int[1];
+        Thread reader = new Thread() {
+            public void run() {
+                try {
+                    InputStream in = client.getInputStream();
+                    byte[] buffer = new byte[65536];
+                    while (read[0] < messages * request.length) {
+                        read[0] += in.read(buffer);
+                    }
+                } catch (IOException e) { throw new RuntimeException(e); }
+            }
+        };
+        reader.start();
+        while (echoed < messages) {
+            e = listener.getNextEvent();
+            if (e != null) {
+                e.connection.write(e.message);
+                echoed += 1;
+            }
+        }
+        while (reader.isAlive()) {
+            assertNull(listener.getNextEvent());
+            reader.join(1);
+        }
+        writer.join();
+        assertEquals(messages * request.length, read[0]);
+        assertEquals(0, listener.getUnsentBytes());
+        assertEquals(0, listener.getPausedConnections());
+        client.close();
+        listener.close();
+    }
+}
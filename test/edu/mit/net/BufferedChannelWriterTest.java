@@ -0,0 +1,271 @@
+package edu.mit.net;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.GatheringByteChannel;
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class BufferedChannelWriterTest {
+    /** Collects what is written, taking at most room more bytes, like a socket that fills. */
+    static final class MockGatheringChannel implements GatheringByteChannel {
+        public int write(ByteBuffer source) {
+            return (int) write(new ByteBuffer[]{source}, 0, 1);
+        }
+
+        public long write(ByteBuffer[] sources) {
+            return write(sources, 0, sources.length);
+        }
+
+        public long write(ByteBuffer[] sources, int offset, int length) {
+            writes += 1;
+            buffersWritten += length;
+            long written = 0;
+            for (int i = offset; i < offset + length && room > 0; ++i) {
+                while (sources[i].hasRemaining() && room > 0) {
+                    output.write(sources[i].get());
+                    written += 1;
+                    room -= 1;
+                }
+            }
+            return written;
+        }
+
+        public boolean isOpen() { return true; }
+        public void close() {}
+
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        long room = Long.MAX_VALUE;
+        int writes;
+        int buffersWritten;
+    }
+
+    static final int BUFFER_SIZE = 16;
+
+    MockGatheringChannel channel;
+    DirectBufferPool pool;
+    BufferedChannelWriter writer;
+
+    @Before
+    public void setUp() {
+        channel = new MockGatheringChannel();
+        pool = new DirectBufferPool(BUFFER_SIZE, 64);
+        writer = new BufferedChannelWriter(channel, pool, 4);
+    }
+
+    private ByteBuffer written() {
+        return ByteBuffer.wrap(channel.output.toByteArray()).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    @Test
+    public void testValues() {
+        writer.put((byte) 1);
+        writer.putShort((short) 0x0302);
+        writer.putInt(0x07060504);
+        writer.putLong(0x0f0e0d0c0b0a0908L);
+        writer.order(ByteOrder.BIG_ENDIAN).putInt(0x01020304);
+        assertEquals(19, writer.position());
+        assertEquals(0, channel.writes);
+        assertTrue(writer.flush());
+        assertEquals(0, writer.bufferedBytes());
+
+        // The big-endian int did not fit in the first buffer
+        assertEquals(2, channel.buffersWritten);
+        ByteBuffer out = written();
+        assertEquals(19, out.remaining());
+        assertEquals(1, out.get());
+        assertEquals(0x0302, out.getShort());
+        assertEquals(0x07060504, out.getInt());
+        assertEquals(0x0f0e0d0c0b0a0908L, out.getLong());
+        assertEquals(0x04030201, out.getInt());
+    }
+
+    @Test
+    public void testPutBytes() {
+        byte[] bytes = new byte[50];
+        for (int i = 0; i < bytes.length; ++i) {
+            bytes[i] = (byte) i;
+        }
+        writer.put((byte) -1);
+        writer.putBytes(bytes);
+        ByteBuffer source = ByteBuffer.wrap(bytes);
+        source.position(10);
+        writer.putBytes(source);
+        assertFalse(source.hasRemaining());
+        writer.flush();
+
+        byte[] out = channel.output.toByteArray();
+        assertEquals(1 + 50 + 40, out.length);
+        assertArrayEquals(bytes, Arrays.copyOfRange(out, 1, 51));
+        assertArrayEquals(Arrays.copyOfRange(bytes, 10, 50), Arrays.copyOfRange(out, 51, 91));
+    }
+
+    @Test
+    public void testUtf8() throws Exception {
+        String[] strings = {"", "hello", "a somewhat longer ASCII string that spans buffers",
+                "caf\u00e9 \u20ac \ud83d\ude00 \u00e9\u00e9\u00e9\u00e9\u00e9\u00e9\u00e9\u00e9",
+                "unpaired \ud83d and \ude00"};
+        for (String string : strings) {
+            setUp();
+            writer.put((byte) 0);
+            int length = writer.putUtf8(string);
+            writer.flush();
+            byte[] expected = string.getBytes("UTF-8");
+            assertEquals(expected.length, length);
+            byte[] out = channel.output.toByteArray();
+            assertArrayEquals(expected, Arrays.copyOfRange(out, 1, out.length));
+        }
+    }
+
+    @Test
+    public void testPatch() {
+        // A frame whose length prefix is patched after its body spans several buffers
+        writer.putInt(-1);
+        writer.putLong(0);
+        long mark = writer.reserveInt();
+        long start = writer.position();
+        int length = writer.putUtf8("a body longer than the four buffers before a flush: "
+                + "the writer must keep them until the length is patched");
+        assertEquals(length, writer.position() - start);
+        assertEquals(0, channel.writes);
+        writer.patchInt(mark, length);
+        writer.putInt(7);
+        assertTrue(writer.flush());
+
+        ByteBuffer out = written();
+        out.position(12);
+        assertEquals(length, out.getInt());
+        out.position(out.position() + length);
+        assertEquals(7, out.getInt());
+
+        // Patching twice is an error
+        try {
+            writer.patchInt(mark, 0);
+            fail("expected IllegalStateException");
+        } catch (IllegalStateException e) {}
+    }
+
+    @Test
+    public void testFlushWithOpenReservation() {
+        writer.reserveInt();
+        try {
+            writer.flush();
+            fail("expected IllegalStateException");
+        } catch (IllegalStateException e) {}
+    }
+
+    @Test
+    public void testGatheringWrites() {
+        // Full buffers are written together when 4 are waiting
+        for (int i = 0; i < 4 * BUFFER_SIZE; ++i) {
+            writer.put((byte) i);
+        }
+        assertEquals(0, channel.writes);
+        writer.put((byte) 0);
+        assertEquals(1, channel.writes);
+        assertEquals(4, channel.buffersWritten);
+        assertEquals(1, writer.bufferedBytes());
+        // Written buffers go back to the pool for the next ones
+        assertEquals(4, pool.pooled());
+        assertEquals(4, pool.allocated());
+    }
+
+    @Test
+    public void testPartialWrites() {
+        channel.room = 10;
+        long first = writer.reserveInt();
+        writer.patchInt(first, 1);
+        writer.putBytes(new byte[40]);
+        writer.putInt(0x04030201);
+
+        // Written out over several calls, as a non-blocking socket would be
+        assertFalse(writer.flush());
+        assertEquals(38, writer.bufferedBytes());
+        long second = writer.reserveInt();
+        try {
+            // In the buffer that has been partly written
+            writer.patchInt(first, 0);
+            fail("expected IllegalStateException");
+        } catch (IllegalStateException e) {}
+        writer.patchInt(second, 2);
+        assertFalse(writer.flush());
+        assertEquals(42, writer.bufferedBytes());
+        channel.room = Long.MAX_VALUE;
+        assertTrue(writer.flush());
+
+        ByteBuffer out = written();
+        assertEquals(52, out.remaining());
+        assertEquals(1, out.getInt(0));
+        assertEquals(0x04030201, out.getInt(44));
+        assertEquals(2, out.getInt(48));
+    }
+
+    @Test
+    public void testMarkAlreadyWritten() {
+        long mark = writer.reserveInt();
+        writer.patchInt(mark, 5);
+        writer.flush();
+        writer.reserveInt();
+        try {
+            writer.patchInt(mark, 6);
+            fail("expected IllegalStateException");
+        } catch (IllegalStateException e) {}
+    }
+
+    @Test
+    public void testPatchTwice() {
+        long first = writer.reserveInt();
+        long second = writer.reserveInt();
+        writer.patchInt(first, 1);
+        try {
+            writer.patchInt(first, 1);
+            fail("expected IllegalStateException");
+        } catch (IllegalStateException e) {}
+        // second is still open, so its placeholder is not written
+        try {
+            writer.flush();
+            fail("expected IllegalStateException");
+        } catch (IllegalStateException e) {}
+        writer.patchInt(second, 2);
+        assertTrue(writer.flush());
+
+        ByteBuffer out = written();
+        assertEquals(1, out.getInt(0));
+        assertEquals(2, out.getInt(4));
+    }
+
+    @Test
+    public void testManyOpenReservations() {
+        long[] marks = new long[10];
+        for (int i = 0; i < marks.length; ++i) {
+            marks[i] = writer.reserveInt();
+        }
+        // Patched in a different order from the reservations
+        for (int i = 0; i < marks.length; i += 2) {
+            writer.patchInt(marks[i], i);
+        }
+        for (int i = 1; i < marks.length; i += 2) {
+            writer.patchInt(marks[i], i);
+        }
+        assertTrue(writer.flush());
+
+        ByteBuffer out = written();
+        for (int i = 0; i < marks.length; ++i) {
+            assertEquals(i, out.getInt(4 * i));
+        }
+    }
+
+    @Test
+    public void testRelease() {
+        writer.putBytes(new byte[3 * BUFFER_SIZE]);
+        writer.release();
+        // The last buffer's bytes are still in the writer's array
+        assertEquals(2, pool.pooled());
+        assertEquals(0, channel.output.size());
+    }
+}
@@ -0,0 +1,107 @@
+/*
+Copyright (c) 2008
+Evan Jones
+Massachusetts Institute of Technology
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+package edu.mit.net;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class DecodedStringCacheTest {
+    private static final byte[] HELLO = {'x', 'h', 'e', 'l', 'l', 'o'};
+    private static final byte[] WORLD = {'w', 'o', 'r', 'l', 'd'};
+
+    @Test
+    public void testBadArguments() {
+        int[][] bad = {{0, 1, 1}, {3, 1, 1}, {4, 3, 1}, {4, 8, 1}, {4, 1, -1}};
+        for (int[] args : bad) {
+            try {
+                new DecodedStringCache(args[0], args[1], args[2],
+                        CacheEviction.LRU);
+                fail("expected IllegalArgumentException");
+            } catch (IllegalArgumentException e) {}
+        }
+    }
+
+    @Test
+    public void testGetPut() {
+        DecodedStringCache cache = new DecodedStringCache(16);
+        assertNull(cache.get(HELLO, 1, 5));
+        String hello = "hello";
+        cache.put(HELLO, 1, 5, hello);
+        assertSame(hello, cache.get(HELLO, 1, 5));
+        assertSame(hello, cache.get(new byte[]{'h', 'e', 'l', 'l', 'o'}, 0, 5));
+        assertNull(cache.get(HELLO, 1, 4));
+        assertNull(cache.get(HELLO, 0, 5));
+        assertNull(cache.get(WORLD, 0, 5));
+
+        assertEquals(2, cache.getHits());
+        assertEquals(4, cache.getMisses());
+        assertEquals(2 / 6., cache.getHitRatio(), 0);
+
+        cache.clear();
+        assertNull(cache.get(HELLO, 1, 5));
+        assertEquals(0, cache.getHits());
+    }
+
+    @Test
+    public void testMaxBytes() {
+        DecodedStringCache cache = new DecodedStringCache(4, 1, 4, CacheEviction.LRU);
+        cache.put(WORLD, 0, 5, "world");
+        assertNull(cache.get(WORLD, 0, 5));
+        // Uncacheable lookups are not counted
+        assertEquals(0, cache.getMisses());
+        cache.put(WORLD, 0, 4, "worl");
+        assertEquals("worl", cache.get(WORLD, 0, 4));
+    }
+
+    private static byte[] key(int i) {
+        return new byte[]{(byte) i};
+    }
+
+    /** Fills a one set cache with keys 0 and 1, uses 0, then inserts 2. */
+    private static DecodedStringCache fillOneSet(CacheEviction eviction) {
+        DecodedStringCache cache = new DecodedStringCache(2, 2, 1, eviction);
+        cache.put(key(0), 0, 1, "0");
+        cache.put(key(1), 0, 1, "1");
+        assertEquals("0", cache.get(key(0), 0, 1));
+        cache.put(key(2), 0, 1, "2");
+        assertEquals("2", cache.get(key(2), 0, 1));
+        return cache;
+    }
+
+    @Test
+    public void testLRU() {
+        DecodedStringCache cache = fillOneSet(CacheEviction.LRU);
+        assertEquals("0", cache.get(key(0), 0, 1));
+        assertNull(cache.get(key(1), 0, 1));
+    }
+
+    @Test
+    public void testFIFO() {
+        DecodedStringCache cache = fillOneSet(CacheEviction.FIFO);
+        assertNull(cache.get(key(0), 0, 1));
+        assertEquals("1", cache.get(key(1), 0, 1));
+    }
+}
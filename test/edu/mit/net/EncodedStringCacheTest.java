@@ -0,0 +1,125 @@
+/*
+Copyright (c) 2008
+Evan Jones
+Massachusetts Institute of Technology
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+package edu.mit.net;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.nio.ReadOnlyBufferException;
+
+import org.junit.Test;
+
+public class EncodedStringCacheTest {
+    // "hello " followed by a 3 byte UTF-8 character: 9 bytes
+    private static final String HELLO = "hello \u2262";
+
+    private static void assertEncoded(String expected, ByteBuffer buffer) {
+        assertTrue(buffer.isReadOnly());
+        assertEquals(0, buffer.position());
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        assertEquals(expected, new String(bytes, StringDecoder.UTF8));
+    }
+
+    @Test
+    public void testBadArguments() {
+        try {
+            new EncodedStringCache(-1);
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {}
+        try {
+            new EncodedStringCache(1, -1, CacheEviction.LRU);
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {}
+    }
+
+    @Test
+    public void testGet() {
+        EncodedStringCache cache = new EncodedStringCache(1024);
+        ByteBuffer first = cache.get(HELLO);
+        assertTrue(first.isDirect());
+        assertEncoded(HELLO, first);
+        assertEquals(0, cache.getHits());
+        assertEquals(9, cache.getCachedBytes());
+
+        // Consuming the first buffer does not affect the second
+        ByteBuffer second = cache.get(new String(HELLO));
+        assertEncoded(HELLO, second);
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        assertEquals(9, cache.getHitBytes());
+        assertEquals(0.5, cache.getHitRatio(), 0);
+
+        try {
+            second.put(0, (byte) 0);
+            fail("expected ReadOnlyBufferException");
+        } catch (ReadOnlyBufferException e) {}
+
+        assertEncoded("", cache.get(""));
+        assertEquals(2, cache.size());
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getCachedBytes());
+    }
+
+    @Test
+    public void testMaxEntryBytes() {
+        EncodedStringCache cache = new EncodedStringCache(1024, 4, CacheEviction.LRU);
+        assertEncoded("hello", cache.get("hello"));
+        assertEncoded("hello", cache.get("hello"));
+        assertEquals(0, cache.getHits());
+        assertEquals(0, cache.size());
+    }
+
+    /** Inserts a, b, uses a, then inserts c, which evicts one entry. */
+    private static EncodedStringCache fillCache(CacheEviction eviction) {
+        EncodedStringCache cache = new EncodedStringCache(2, 1024, eviction);
+        cache.get("a");
+        cache.get("b");
+        cache.get("a");
+        cache.get("c");
+        assertEquals(2, cache.size());
+        assertEquals(2, cache.getCachedBytes());
+        return cache;
+    }
+
+    @Test
+    public void testLRU() {
+        EncodedStringCache cache = fillCache(CacheEviction.LRU);
+        long hits = cache.getHits();
+        cache.get("a");
+        cache.get("c");
+        assertEquals(hits + 2, cache.getHits());
+    }
+
+    @Test
+    public void testFIFO() {
+        EncodedStringCache cache = fillCache(CacheEviction.FIFO);
+        long hits = cache.getHits();
+        cache.get("b");
+        cache.get("c");
+        assertEquals(hits + 2, cache.getHits());
+    }
+}
@@ -24,8 +24,9 @@ THE SOFTWARE.
 
 package edu.mit.net;
 
-import java.nio.channels.SelectionKey;
-import java.nio.channels.Selector;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
 public class MockMessageConnection implements MessageConnection {
     public byte[] tryRead() {
@@ -41,7 +42,25 @@ public class MockMessageConnection implements MessageConnection {
         lastWrite = message;
     }
 
-    public SelectionKey register(Selector selector) { assert false; return null; }
+    public void write(ByteBuffer message) {
+        byte[] copy = new byte[message.remaining()];
+        message.get(copy);
+        write(copy);
+    }
+
+    public void write(FileChannel file, long position, long count) {
+        ByteBuffer copy = ByteBuffer.allocate((int) count);
+        try {
+            while (copy.hasRemaining()) {
+                int bytes = file.read(copy, position + copy.position());
+                assert bytes > 0;
+            }
+        } catch (IOException e) { throw new RuntimeException(e); }
+        copy.flip();
+        write(copy);
+    }
+
+    public boolean handleWrite() { return true; }
 
     public boolean isOpen() { return !closed; }
 
@@ -26,13 +26,18 @@ package edu.mit.net;
 
 import static org.junit.Assert.*;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketAddress;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.spi.SelectorProvider;
@@ -123,6 +128,38 @@ public class NIOMessageConnectionTest {
         }
     }
 
+    @Test
+    public void testWriteByteBuffer() throws IOException {
+        ByteBuffer message = ByteBuffer.allocateDirect(5);
+        message.put(new byte[]{9, 1, 2, 3, 9});
+        message.position(1);
+        message.limit(4);
+
+        connection.write(message);
+        assertFalse(message.hasRemaining());
+        byte[] buffer = new byte[4096];
+        int length = serverSide.getInputStream().read(buffer);
+        assertEquals(4 + 3, length);
+        assertEquals(3, buffer[0]);
+        assertEquals(1, buffer[4]);
+        assertEquals(3, buffer[6]);
+    }
+
+    @Test
+    public void testWriteLargeByteBuffer() throws IOException {
+        ByteBuffer message = ByteBuffer.allocateDirect(1024*16);
+        message.put(message.capacity() - 1, (byte) 42);
+        connection.write(message);
+        assertFalse(message.hasRemaining());
+
+        byte[] buffer = new byte[message.capacity() + 4];
+        int length = 0;
+        while (length < buffer.length) {
+            length += serverSide.getInputStream().read(buffer, length, buffer.length - length);
+        }
+        assertEquals(42, buffer[buffer.length - 1]);
+    }
+
     @Test
     public void testWritesOnce() throws IOException {
         // Counts the number of writes
@@ -180,6 +217,148 @@ public class NIOMessageConnectionTest {
         assertEquals(buffer.length, length);
     }
 
+    private static byte[] pattern(int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < data.length; ++i) {
+            data[i] = (byte) (i * 31 + (i >> 8));
+        }
+        return data;
+    }
+
+    private static FileChannel tempFile(byte[] data) throws IOException {
+        File file = File.createTempFile("NIOMessageConnectionTest", ".dat");
+        file.deleteOnExit();
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.write(data);
+        return raf.getChannel();
+    }
+
+    /** Reads length bytes from serverSide in another thread, so writes that would block can
+    complete. */
+    private final class ServerReader extends Thread {
+        public ServerReader(int length) {
+            data = new byte[length];
+            start();
+        }
+
+        public void run() {
+            try {
+                InputStream in = serverSide.getInputStream();
+                int offset = 0;
+                while (offset < data.length) {
+                    int bytes = in.read(data, offset, data.length - offset);
+                    assert bytes > 0;
+                    offset += bytes;
+                }
+            } catch (IOException e) { throw new RuntimeException(e); }
+        }
+
+        public byte[] finish() throws InterruptedException {
+            join();
+            return data;
+        }
+
+        private final byte[] data;
+    }
+
+    /** Calls handleWrite() each time the connection is writable until it is done. */
+    private void finishWrites(Selector selector, SelectionKey key) throws IOException {
+        assertTrue((key.interestOps() & SelectionKey.OP_WRITE) != 0);
+        while (!connection.handleWrite()) {
+            selector.select();
+            selector.selectedKeys().clear();
+        }
+        assertEquals(SelectionKey.OP_READ, key.interestOps());
+    }
+
+    private static void assertRange(byte[] expected, int expectedOffset, byte[] actual,
+            int actualOffset, int length) {
+        for (int i = 0; i < length; ++i) {
+            if (expected[expectedOffset + i] != actual[actualOffset + i]) {
+                fail("byte " + i + " expected " + expected[expectedOffset + i] + " was " +
+                        actual[actualOffset + i]);
+            }
+        }
+    }
+
+    @Test
+    public void testWriteFile() throws IOException {
+        FileChannel file = tempFile(new byte[]{0, 1, 2, 3, 4, 5, 6, 7, 8, 9});
+        connection.write(file, 2, 5);
+        assertTrue(connection.handleWrite());
+
+        byte[] buffer = new byte[4 + 5];
+        int length = 0;
+        while (length < buffer.length) {
+            length += serverSide.getInputStream().read(buffer, length, buffer.length - length);
+        }
+        assertEquals(5, buffer[0]);
+        assertEquals(2, buffer[4]);
+        assertEquals(6, buffer[8]);
+        file.close();
+    }
+
+    @Test
+    public void testWriteFileBadRegion() throws IOException {
+        FileChannel file = tempFile(new byte[10]);
+        try {
+            connection.write(file, 0, 0);
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {}
+        try {
+            connection.write(file, 6, 5);
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {}
+        file.close();
+    }
+
+    // Larger than loopback socket buffers, so the writes must be queued
+    private static final int BLOCKING_LENGTH = 32 << 20;
+
+    @Test
+    public void testWriteWouldBlock() throws IOException, InterruptedException {
+        Selector selector = Selector.open();
+        SelectionKey key = connection.register(selector);
+
+        byte[] message = pattern(BLOCKING_LENGTH);
+        connection.write(message);
+        // Queued behind the first message
+        connection.write(new byte[]{42});
+
+        ServerReader reader = new ServerReader(4 + message.length + 4 + 1);
+        finishWrites(selector, key);
+        byte[] data = reader.finish();
+        assertEquals(message.length,
+                ByteBuffer.wrap(data, 0, 4).order(ByteOrder.nativeOrder()).getInt());
+        assertRange(message, 0, data, 4, message.length);
+        assertEquals(1, data[4 + message.length]);
+        assertEquals(42, data[data.length - 1]);
+        selector.close();
+    }
+
+    @Test
+    public void testWriteFileWouldBlock() throws IOException, InterruptedException {
+        Selector selector = Selector.open();
+        SelectionKey key = connection.register(selector);
+
+        byte[] contents = pattern(BLOCKING_LENGTH + 1);
+        FileChannel file = tempFile(contents);
+        connection.write(file, 1, BLOCKING_LENGTH);
+        ByteBuffer small = ByteBuffer.wrap(new byte[]{7, 8});
+        connection.write(small);
+        assertFalse(small.hasRemaining());
+
+        ServerReader reader = new ServerReader(4 + BLOCKING_LENGTH + 4 + 2);
+        finishWrites(selector, key);
+        byte[] data = reader.finish();
+        assertRange(contents, 1, data, 4, BLOCKING_LENGTH);
+        assertEquals(2, data[4 + BLOCKING_LENGTH]);
+        assertEquals(7, data[data.length - 2]);
+        assertEquals(8, data[data.length - 1]);
+        file.close();
+        selector.close();
+    }
+
     @Test
     public void testRegister() throws IOException {
         Selector selector = Selector.open();
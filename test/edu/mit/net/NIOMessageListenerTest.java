@@ -25,12 +25,18 @@ THE SOFTWARE.
 package edu.mit.net;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
 
+import java.io.DataInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.InetAddress;
 import java.net.Socket;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -129,6 +135,34 @@ public class NIOMessageListenerTest {
         assertEquals(-1, bytes);
     }
 
+    @Test
+    public void testWriteWouldBlock() throws IOException, InterruptedException {
+        final Socket client = connectClient();
+        e = listener.getNextEvent();
+        // Larger than loopback socket buffers: the listener must finish the write
+        final int length = 4 + (32 << 20);
+        e.connection.write(new byte[length - 4]);
+
+        final int[] read = new int[1];
+        Thread reader = new Thread() {
+            public void run() {
+                try {
+                    InputStream in = client.getInputStream();
+                    byte[] buffer = new byte[65536];
+                    while (read[0] < length) {
+                        read[0] += in.read(buffer);
+                    }
+                } catch (IOException e) { throw new RuntimeException(e); }
+            }
+        };
+        reader.start();
+        while (reader.isAlive()) {
+            assertNull(listener.getNextEvent());
+            reader.join(1);
+        }
+        assertEquals(length, read[0]);
+    }
+
     @Test
     public void testBlockForNextPartMessage() throws IOException {
         final Socket client = connectClient();
@@ -150,4 +184,194 @@ public class NIOMessageListenerTest {
         e = listener.blockForNextEvent();
         assertEquals(4, e.message.length);
     }
+
+    @Test
+    public void testBatchDefersWrites() throws IOException, InterruptedException {
+        Socket client = connectClient();
+        NIOMessageListener.Event[] events = new NIOMessageListener.Event[4];
+        assertEquals(1, listener.blockForNextEvents(events));
+        assertNull(events[0].message);
+        assertEquals(0, listener.getNextEvents(events));
+
+        // Six messages in one go: the array takes four
+        byte[] six = new byte[6 * 5];
+        for (int i = 0; i < 6; ++i) {
+            six[i * 5] = 1;
+            six[i * 5 + 4] = (byte) i;
+        }
+        write(client, six);
+        int count = listener.blockForNextEvents(events);
+        assertEquals(4, count);
+        for (int i = 0; i < count; ++i) {
+            assertEquals(i, events[i].message[0]);
+            events[i].connection.write(events[i].message);
+        }
+        // The responses wait for the end of the batch
+        Thread.sleep(20);
+        InputStream in = client.getInputStream();
+        assertEquals(0, in.available());
+
+        // Asking for the next batch sends them
+        count = listener.getNextEvents(events);
+        assertEquals(2, count);
+        byte[] responses = new byte[4 * 5];
+        new DataInputStream(in).readFully(responses);
+        for (int i = 0; i < 4; ++i) {
+            assertEquals(i, responses[i * 5 + 4]);
+        }
+
+        // Large writes flush the deferred ones first, keeping the order
+        events[0].connection.write(events[0].message);
+        events[1].connection.write(new byte[8192]);
+        listener.flush();
+        new DataInputStream(in).readFully(new byte[5 + 4 + 8192]);
+        assertEquals(0, listener.getNextEvents(events));
+        client.close();
+    }
+
+    /** Several clients ready in one select, with and without SelectedKeySet. */
+    private void checkManyReady(NIOMessageListener listener) throws IOException {
+        listener.bind(0);
+        Socket[] clients = new Socket[10];
+        for (int i = 0; i < clients.length; ++i) {
+            clients[i] = new Socket(InetAddress.getByName(null), listener.getLocalPort());
+        }
+        int connected = 0;
+        while (connected < clients.length) {
+            e = listener.blockForNextEvent();
+            assertNull(e.message);
+            connected += 1;
+        }
+
+        for (Socket client : clients) {
+            write(client, new byte[]{1, 0, 0, 0, 42});
+        }
+        for (int i = 0; i < clients.length; ++i) {
+            e = listener.blockForNextEvent();
+            assertEquals(42, e.message[0]);
+        }
+        assertNull(listener.getNextEvent());
+
+        for (Socket client : clients) {
+            client.close();
+        }
+        listener.close();
+    }
+
+    @Test
+    public void testSelectedKeys() throws IOException {
+        checkManyReady(new NIOMessageListener(true));
+
+        NIOMessageListener hashSet = new NIOMessageListener(false);
+        assertFalse(hashSet.usesArraySelectedKeys());
+        checkManyReady(hashSet);
+    }
+
+    @Test
+    public void testAcceptsPerWakeup() throws IOException {
+        // Connected before the first select: all 5 wait in the accept queue
+        Socket[] clients = new Socket[5];
+        for (int i = 0; i < clients.length; ++i) {
+            clients[i] = connectClient();
+        }
+        listener.setAcceptsPerWakeup(2);
+        NIOMessageListener.Event[] events = new NIOMessageListener.Event[16];
+        assertEquals(2, listener.getNextEvents(events));
+        assertEquals(2, listener.getAccepted());
+        assertEquals(2, listener.getNextEvents(events));
+        assertEquals(1, listener.getNextEvents(events));
+        assertEquals(5, listener.getAccepted());
+        assertNull(events[0].message);
+
+        for (Socket client : clients) {
+            client.close();
+        }
+    }
+
+    @Test
+    public void testAcceptsAllPending() throws IOException {
+        Socket[] clients = new Socket[5];
+        for (int i = 0; i < clients.length; ++i) {
+            clients[i] = connectClient();
+        }
+        NIOMessageListener.Event[] events = new NIOMessageListener.Event[16];
+        assertEquals(5, listener.getNextEvents(events));
+        assertEquals(5, listener.getAccepted());
+
+        for (Socket client : clients) {
+            client.close();
+        }
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testAcceptsPerWakeupZero() {
+        listener.setAcceptsPerWakeup(0);
+    }
+
+    @Test
+    public void testReusePort() throws IOException {
+        assumeTrue(NIOMessageListener.isReusePortSupported());
+        NIOMessageListener first = new NIOMessageListener();
+        first.bind(0, true);
+        NIOMessageListener second = new NIOMessageListener();
+        second.bind(first.getLocalPort(), true);
+        assertEquals(first.getLocalPort(), second.getLocalPort());
+
+        // The kernel hashes each connection to one of the sockets
+        Socket[] clients = new Socket[32];
+        for (int i = 0; i < clients.length; ++i) {
+            clients[i] = new Socket(InetAddress.getByName(null), first.getLocalPort());
+        }
+        NIOMessageListener.Event[] events = new NIOMessageListener.Event[64];
+        long deadline = System.currentTimeMillis() + 10000;
+        while (first.getAccepted() + second.getAccepted() < clients.length &&
+                System.currentTimeMillis() < deadline) {
+            first.getNextEvents(events);
+            second.getNextEvents(events);
+        }
+        assertEquals(clients.length, first.getAccepted() + second.getAccepted());
+        assertTrue(first.getAccepted() > 0);
+        assertTrue(second.getAccepted() > 0);
+
+        for (Socket client : clients) {
+            client.close();
+        }
+        first.close();
+        second.close();
+    }
+
+    @Test
+    public void testIdleTimeout() throws IOException {
+        listener.setIdleTimeout(300, TimeUnit.MILLISECONDS);
+        Socket client = connectClient();
+        MessageConnection connection = listener.blockForNextEvent().connection;
+
+        writeMessage(client);
+        e = listener.blockForNextEvent();
+        assertIsMessage(e.message);
+        long read = System.nanoTime();
+
+        // Closed like a client close, no sooner than 300 ms after the last read
+        e = listener.blockForNextEvent();
+        long elapsed = System.nanoTime() - read;
+        assertEquals(connection, e.connection);
+        assertNull(e.message);
+        assertTrue("closed after " + elapsed + " ns", elapsed >= 300000000);
+        assertEquals(1, listener.getIdleClosed());
+        assertEquals(0, listener.getTimers().size());
+        assertEquals(-1, client.getInputStream().read());
+    }
+
+    @Test
+    public void testCloseCancelsIdleTimeout() throws IOException {
+        listener.setIdleTimeout(1, TimeUnit.SECONDS);
+        Socket client = connectClient();
+        assertNull(listener.blockForNextEvent().message);
+        assertEquals(1, listener.getTimers().size());
+
+        client.close();
+        assertNull(listener.blockForNextEvent().message);
+        assertEquals(0, listener.getTimers().size());
+        assertEquals(0, listener.getIdleClosed());
+    }
 }
@@ -28,15 +28,32 @@ import static org.junit.Assert.*;
 
 import java.nio.channels.ReadableByteChannel;
 import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collection;
 
 import org.junit.Before;
 import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
 
+/** Runs against each ReadStream: RingReadStreamTest has the tests specific to the ring. */
+@RunWith(Parameterized.class)
 public class NIOReadStreamTest {
     MockReadableByteChannel channel;
-    NIOReadStream stream;
+    ReadStream stream;
+    private final boolean ring;
 
-    private static class MockReadableByteChannel implements ReadableByteChannel {
+    @Parameters
+    public static Collection<Object[]> streams() {
+        return Arrays.asList(new Object[][]{{false}, {true}});
+    }
+
+    public NIOReadStreamTest(boolean ring) {
+        this.ring = ring;
+    }
+
+    static class MockReadableByteChannel implements ReadableByteChannel {
         public int read(ByteBuffer buffer) {
             if (nextRead == null) {
                 if (end) return -1;
@@ -75,7 +92,11 @@ public class NIOReadStreamTest {
     @Before
     public void setUp() {
         channel = new MockReadableByteChannel();
-        stream = new NIOReadStream(channel);
+        if (ring) {
+            stream = new RingReadStream(channel);
+        } else {
+            stream = new NIOReadStream(channel);
+        }
     }
 
     @Test
@@ -0,0 +1,143 @@
+package edu.mit.net;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class ReadCursorTest {
+    NIOReadStreamTest.MockReadableByteChannel channel;
+    NIOReadStream stream;
+
+    @Before
+    public void setUp() {
+        channel = new NIOReadStreamTest.MockReadableByteChannel();
+        stream = new NIOReadStream(channel);
+    }
+
+    /** Buffers bytes, starting offset bytes before the end of the first block. */
+    private void readAcrossBlocks(int offset, byte[] bytes) {
+        byte[] data = new byte[NIOReadStream.BUFFER_SIZE - offset + bytes.length];
+        System.arraycopy(bytes, 0, data, data.length - bytes.length, bytes.length);
+        channel.nextRead = data;
+        assertEquals(data.length, stream.tryRead(data.length));
+        stream.skip(data.length - bytes.length);
+    }
+
+    private static byte[] sequence(int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; ++i) {
+            bytes[i] = (byte) (i + 1);
+        }
+        return bytes;
+    }
+
+    @Test
+    public void testValuesInOneBlock() {
+        channel.nextRead = sequence(15);
+        assertEquals(15, stream.tryRead(15));
+        ReadCursor cursor = stream.cursor();
+        assertEquals(1, cursor.getByte());
+        assertEquals(0x0302, cursor.getShort());
+        assertEquals(0x07060504, cursor.getInt());
+        assertEquals(0x0f0e0d0c0b0a0908L, cursor.getLong());
+        assertEquals(15, cursor.position());
+        assertEquals(0, cursor.remaining());
+        // Nothing is consumed until commit()
+        assertEquals(15, stream.dataAvailable());
+    }
+
+    @Test
+    public void testValuesSplitAcrossBlocks() {
+        for (int offset = 1; offset < 8; ++offset) {
+            setUp();
+            readAcrossBlocks(offset, sequence(14));
+            ReadCursor cursor = stream.cursor();
+            assertEquals(0x0201, cursor.getShort());
+            assertEquals(0x06050403, cursor.getInt());
+            assertEquals(0x0e0d0c0b0a090807L, cursor.getLong());
+
+            cursor = stream.cursor().order(ByteOrder.BIG_ENDIAN);
+            assertEquals(0x0102, cursor.getShort());
+            assertEquals(0x03040506, cursor.getInt());
+            assertEquals(0x0708090a0b0c0d0eL, cursor.getLong());
+        }
+    }
+
+    @Test
+    public void testVarint() {
+        // 1, 300 and 2^63 - 1
+        byte[] varints = {1, (byte) 0xac, 0x02, -1, -1, -1, -1, -1, -1, -1, -1, 0x7f};
+        readAcrossBlocks(2, varints);
+        ReadCursor cursor = stream.cursor();
+        assertEquals(1, cursor.getVarint());
+        assertEquals(300, cursor.getVarint());
+        assertEquals(Long.MAX_VALUE, cursor.getVarint());
+        cursor.commit();
+
+        // Split across blocks
+        readAcrossBlocks(1, new byte[]{(byte) 0xac, 0x02});
+        cursor = stream.cursor();
+        assertEquals(300, cursor.getVarint());
+        cursor.commit();
+
+        channel.nextRead = new byte[]{-1, -1, -1, -1, -1, -1, -1, -1, -1, -1, 0};
+        stream.tryRead(11);
+        cursor = stream.cursor();
+        try {
+            cursor.getVarint();
+            fail("expected IllegalStateException");
+        } catch (IllegalStateException e) {}
+    }
+
+    @Test
+    public void testSlice() {
+        readAcrossBlocks(4, sequence(8));
+        ReadCursor cursor = stream.cursor();
+        // In one block: shares it
+        ByteBuffer shared = cursor.slice(3);
+        assertTrue(shared.isDirect());
+        assertEquals(3, shared.remaining());
+        assertEquals(3, shared.get(shared.position() + 2));
+        assertEquals(ByteOrder.LITTLE_ENDIAN, shared.order());
+
+        // Split: copied
+        ByteBuffer split = cursor.order(ByteOrder.BIG_ENDIAN).slice(4);
+        assertEquals(0x04050607, split.getInt());
+        assertEquals(ByteOrder.BIG_ENDIAN, split.order());
+        assertEquals(0, cursor.slice(0).remaining());
+    }
+
+    @Test
+    public void testCommit() {
+        channel.nextRead = sequence(10);
+        stream.tryRead(10);
+        ReadCursor cursor = stream.cursor();
+        cursor.getShort();
+        cursor.skip(3);
+        cursor.commit();
+        assertEquals(5, stream.dataAvailable());
+        assertEquals(0, cursor.position());
+        assertEquals(6, cursor.getByte());
+
+        byte[] rest = new byte[5];
+        stream.getBytes(rest);
+        assertEquals(10, rest[4]);
+    }
+
+    @Test
+    public void testNotAvailable() {
+        channel.nextRead = sequence(3);
+        stream.tryRead(3);
+        ReadCursor cursor = stream.cursor();
+        try {
+            cursor.getInt();
+            fail("expected IllegalStateException");
+        } catch (IllegalStateException e) {}
+        assertEquals(0, cursor.position());
+        assertEquals(0x0201, cursor.getShort());
+    }
+}
@@ -0,0 +1,135 @@
+package edu.mit.net;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Pipe;
+import java.nio.channels.ScatteringByteChannel;
+
+import org.junit.Test;
+
+/** The ReadStream tests in NIOReadStreamTest also run against RingReadStream. */
+public class RingReadStreamTest {
+    private static byte[] sequence(int first, int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; ++i) {
+            bytes[i] = (byte) (first + i);
+        }
+        return bytes;
+    }
+
+    /** Leaves 2 bytes at the end of a 16 byte ring, then 10 more that wrap around. */
+    private static RingReadStream wrappedStream(
+            NIOReadStreamTest.MockReadableByteChannel channel) {
+        RingReadStream stream = new RingReadStream(channel, 16);
+        channel.nextRead = sequence(0, 12);
+        assertEquals(12, stream.tryRead(12));
+        stream.getBytes(new byte[10]);
+        channel.nextRead = sequence(12, 10);
+        assertEquals(12, stream.tryRead(12));
+        return stream;
+    }
+
+    @Test
+    public void testSliceWraps() {
+        NIOReadStreamTest.MockReadableByteChannel channel =
+                new NIOReadStreamTest.MockReadableByteChannel();
+        RingReadStream stream = wrappedStream(channel);
+        ByteBuffer slice = stream.getSlice(12);
+        assertEquals(12, slice.remaining());
+        for (int i = 0; i < 12; ++i) {
+            assertEquals(10 + i, slice.get(i));
+        }
+        // Little-endian, like getInt()
+        assertEquals(0x0d0c0b0a, slice.getInt(0));
+        assertEquals(0, stream.dataAvailable());
+    }
+
+    @Test
+    public void testIntWraps() {
+        NIOReadStreamTest.MockReadableByteChannel channel =
+                new NIOReadStreamTest.MockReadableByteChannel();
+        RingReadStream stream = wrappedStream(channel);
+        stream.getBytes(new byte[4]);
+        // Bytes 14 to 17 are at ring offsets 14, 15, 0 and 1
+        assertEquals(0x11100f0e, stream.getInt());
+        byte[] rest = new byte[4];
+        stream.getBytes(rest);
+        assertArrayEquals(sequence(18, 4), rest);
+    }
+
+    @Test
+    public void testGrowKeepsOrder() {
+        NIOReadStreamTest.MockReadableByteChannel channel =
+                new NIOReadStreamTest.MockReadableByteChannel();
+        RingReadStream stream = wrappedStream(channel);
+        channel.nextRead = sequence(22, 30);
+        assertEquals(42, stream.tryRead(42));
+        assertEquals(64, stream.capacity());
+        ByteBuffer slice = stream.getSlice(42);
+        for (int i = 0; i < 42; ++i) {
+            assertEquals(10 + i, slice.get(i));
+        }
+    }
+
+    /** Counts calls to read(). */
+    private static final class CountingChannel implements ScatteringByteChannel {
+        CountingChannel(ScatteringByteChannel channel) {
+            this.channel = channel;
+        }
+
+        public int read(ByteBuffer buffer) throws IOException {
+            reads += 1;
+            return channel.read(buffer);
+        }
+
+        public long read(ByteBuffer[] buffers) throws IOException {
+            reads += 1;
+            return channel.read(buffers);
+        }
+
+        public long read(ByteBuffer[] buffers, int offset, int length) throws IOException {
+            reads += 1;
+            return channel.read(buffers, offset, length);
+        }
+
+        public boolean isOpen() { return channel.isOpen(); }
+        public void close() throws IOException { channel.close(); }
+
+        private final ScatteringByteChannel channel;
+        int reads = 0;
+    }
+
+    @Test
+    public void testScatteringReadFillsWrappedSpace() throws IOException {
+        Pipe pipe = Pipe.open();
+        pipe.source().configureBlocking(false);
+        CountingChannel channel = new CountingChannel(pipe.source());
+        RingReadStream stream = new RingReadStream(channel, 16);
+
+        pipe.sink().write(ByteBuffer.wrap(sequence(0, 12)));
+        assertEquals(12, stream.tryRead(12));
+        stream.getBytes(new byte[10]);
+
+        // The free space is 4 bytes at the end and 10 at the start: one read fills both
+        pipe.sink().write(ByteBuffer.wrap(sequence(12, 14)));
+        channel.reads = 0;
+        assertEquals(16, stream.tryRead(16));
+        assertEquals(1, channel.reads);
+        ByteBuffer slice = stream.getSlice(16);
+        for (int i = 0; i < 16; ++i) {
+            assertEquals(10 + i, slice.get(i));
+        }
+        stream.close();
+        pipe.sink().close();
+    }
+
+    @Test
+    public void testCapacityMustBePowerOfTwo() {
+        try {
+            new RingReadStream(new NIOReadStreamTest.MockReadableByteChannel(), 100);
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {}
+    }
+}
@@ -102,6 +102,21 @@ public class StringByteBufferEncoderTest {
         assertMatch(ALL_CHARS_STRING, out);
     }
 
+    @Test
+    public void testSizing() {
+        String[] strings = {"", "a", "\u2262\u2262\u2262", ALL_CHARS_STRING};
+        for (BufferSizing sizing : BufferSizing.values()) {
+            encoder.setSizing(sizing);
+            for (String s : strings) {
+                destination = encoder.toNewByteBuffer(s);
+                if (sizing == BufferSizing.EXACT) {
+                    assertEquals(StringEncoder.encodedLength(s), destination.capacity());
+                }
+                assertMatch(s, destination);
+            }
+        }
+    }
+
     /** Try to encode all Unicode code points; compare with String.getBytes("UTF-8") */
     @Test
     public void testAllCodePoints() throws UnsupportedEncodingException {
@@ -24,7 +24,11 @@ THE SOFTWARE.
 
 package edu.mit.net;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.fail;
 
 import java.io.IOException;
@@ -124,6 +128,112 @@ public class StringDecoderTest {
         assertEquals(expected, decoder.finish(data, 0, data.length));
     }
 
+    @Test
+    public void testSameArrayDifferentOffsets() {
+        byte[] data = {'a', 'b', 'c', 'd'};
+        assertEquals("bc", decoder.finish(data, 1, 2));
+        assertEquals("a", decoder.finish(data, 0, 1));
+        decoder.decode(data, 2, 2);
+        assertEquals("cdabcd", decoder.finish(data, 0, 4));
+    }
+
+    private static final String[] BATCH = {
+            "hello", "", "\u2262.", "world", "\ud800\udc00"};
+
+    private static ByteBuffer encodeBatch(ByteBuffer out) {
+        assertEquals(BATCH.length, new StringEncoder().encodeBatch(BATCH, 0, out));
+        out.flip();
+        return out;
+    }
+
+    @Test
+    public void testBatch() {
+        ByteBuffer in = encodeBatch(ByteBuffer.allocate(1024));
+        assertArrayEquals(BATCH, decoder.decodeBatch(in));
+        assertFalse(in.hasRemaining());
+        assertEquals(0, decoder.decodeBatch(in).length);
+
+        // The single string interface still works afterwards
+        assertEquals("a", decoder.finish(new byte[]{'a'}, 0, 1));
+    }
+
+    @Test
+    public void testBatchDirect() {
+        ByteBuffer in = encodeBatch(ByteBuffer.allocateDirect(1024));
+        assertArrayEquals(BATCH, decoder.decodeBatch(in));
+        assertFalse(in.hasRemaining());
+    }
+
+    @Test
+    public void testBatchIncomplete() {
+        ByteBuffer in = encodeBatch(ByteBuffer.allocate(1024));
+        int end = in.limit();
+
+        // Cut in the middle of the third string: only two are returned
+        in.limit(4 + 5 + 4 + 4 + 2);
+        String[] out = decoder.decodeBatch(in);
+        assertEquals(2, out.length);
+        assertEquals(BATCH[0], out[0]);
+        assertEquals(BATCH[1], out[1]);
+        assertEquals(4 + 5 + 4, in.position());
+
+        // Cut in the middle of the length
+        in.limit(in.position() + 3);
+        assertEquals(0, decoder.decodeBatch(in).length);
+        assertEquals(4 + 5 + 4, in.position());
+
+        in.limit(end);
+        out = decoder.decodeBatch(in);
+        assertEquals(BATCH.length - 2, out.length);
+        assertEquals(BATCH[BATCH.length-1], out[out.length-1]);
+    }
+
+    @Test
+    public void testBatchLongString() {
+        byte[] buffer = new byte[(StringDecoder.INITIAL_BUFFER_SIZE+1)*3];
+        for (int i = 0; i < buffer.length; ++i) {
+            buffer[i] = (byte) (i % 3 == 0 ? 0xe2 : i % 3 == 1 ? 0x89 : 0xa2);
+        }
+        buffer[buffer.length-1] = 'a';
+        ByteBuffer in = ByteBuffer.allocate(4 + buffer.length);
+        in.putInt(buffer.length);
+        in.put(buffer);
+        in.flip();
+
+        String[] out = decoder.decodeBatch(in);
+        assertEquals(1, out.length);
+        assertEquals(new String(buffer, StringDecoder.UTF8), out[0]);
+    }
+
+    @Test
+    public void testCache() {
+        DecodedStringCache cache = new DecodedStringCache(16);
+        decoder.setCache(cache);
+        byte[] data = {'a', 'b', 'c'};
+        String first = decoder.finish(data, 0, 3);
+        assertEquals("abc", first);
+        assertSame(first, decoder.finish(new byte[]{'a', 'b', 'c'}, 0, 3));
+        assertEquals(1, cache.getHits());
+
+        // Strings decoded in parts bypass the cache
+        decoder.decode(data, 0, 1);
+        String parts = decoder.finish(data, 1, 2);
+        assertEquals("abc", parts);
+        assertNotSame(first, parts);
+        assertEquals(1, cache.getHits());
+
+        // Batches share the cache
+        ByteBuffer in = encodeBatch(ByteBuffer.allocate(1024));
+        String[] out = decoder.decodeBatch(in);
+        in.position(0);
+        String[] again = decoder.decodeBatch(in);
+        for (int i = 0; i < BATCH.length; ++i) {
+            assertEquals(BATCH[i], out[i]);
+            assertSame(out[i], again[i]);
+        }
+        assertEquals(1 + BATCH.length, cache.getHits());
+    }
+
     /** Try all 4 byte values. Warning: the full thing takes 20 minutes to
      * run. The checked in version is small. */
     @Test
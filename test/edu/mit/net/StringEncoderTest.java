@@ -29,6 +29,7 @@ import static org.junit.Assert.*;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.ArrayList;
 import java.util.Arrays;
 
@@ -154,6 +155,78 @@ public class StringEncoderTest {
         assertEquals('a', buffer[0]);
     }
 
+    private static void assertBatchString(String expected, ByteBuffer in)
+            throws UnsupportedEncodingException {
+        int length = in.getInt();
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        assertEquals(expected, new String(bytes, "UTF-8"));
+    }
+
+    @Test
+    public void testBatch() throws UnsupportedEncodingException {
+        String[] strings = {"hello", "", NOT_EQUIVALENT_TO + ".", "world"};
+        assertEquals(strings.length, encoder.encodeBatch(strings, 0, destination));
+        destination.flip();
+        for (String s : strings) {
+            assertBatchString(s, destination);
+        }
+        assertFalse(destination.hasRemaining());
+
+        // The single string interface still works afterwards
+        destination.clear();
+        assertTrue(encoder.encode("a", destination));
+        assertEquals(1, destination.position());
+    }
+
+    @Test
+    public void testBatchOverflow() throws UnsupportedEncodingException {
+        String[] strings = {"hello", NOT_EQUIVALENT_TO + ".", "world"};
+
+        // Room for the first string and part of the second: the second is rewound
+        destination.limit(4 + 5 + 4 + 2);
+        assertEquals(1, encoder.encodeBatch(strings, 0, destination));
+        assertEquals(4 + 5, destination.position());
+        destination.flip();
+        assertBatchString("hello", destination);
+
+        // Not enough room for even the length: no progress
+        destination.clear();
+        destination.limit(3);
+        assertEquals(1, encoder.encodeBatch(strings, 1, destination));
+        assertEquals(0, destination.position());
+
+        // Resume with space for the rest
+        destination.clear();
+        assertEquals(3, encoder.encodeBatch(Arrays.asList(strings), 1, destination));
+        destination.flip();
+        assertBatchString(strings[1], destination);
+        assertBatchString(strings[2], destination);
+        assertFalse(destination.hasRemaining());
+    }
+
+    @Test
+    public void testBatchLongString() throws UnsupportedEncodingException {
+        String[] strings = {"a", ALL_CHARS_STRING, "b"};
+        ByteBuffer out = ByteBuffer.allocate(ALL_CHARS_STRING_BYTES.length + 64);
+        out.order(ByteOrder.LITTLE_ENDIAN);
+
+        // Too small: the long string is rolled back
+        out.limit(4096);
+        assertEquals(1, encoder.encodeBatch(strings, 0, out));
+        assertEquals(4 + 1, out.position());
+
+        out.limit(out.capacity());
+        assertEquals(strings.length, encoder.encodeBatch(strings, 1, out));
+        out.flip();
+        assertBatchString("a", out);
+        assertEquals(ALL_CHARS_STRING_BYTES.length, out.getInt());
+        byte[] b = new byte[ALL_CHARS_STRING_BYTES.length];
+        out.get(b);
+        assertArrayEquals(ALL_CHARS_STRING_BYTES, b);
+        assertBatchString("b", out);
+    }
+
     private static final String ALL_CHARS_STRING;
     private static final byte[] ALL_CHARS_STRING_BYTES;
     static {
@@ -204,6 +277,50 @@ public class StringEncoderTest {
         assertArrayEquals(ALL_CHARS_STRING_BYTES, b);
     }
 
+    @Test
+    public void testEncodedLength() {
+        assertEquals(0, StringEncoder.encodedLength(""));
+        assertEquals(5, StringEncoder.encodedLength("hello"));
+        assertEquals(1 + 2 + 3, StringEncoder.encodedLength("a\u00e9" + NOT_EQUIVALENT_TO));
+        // a pair is one 4 byte code point; unpaired surrogates are replaced by '?'
+        assertEquals(4, StringEncoder.encodedLength("\ud800\udc00"));
+        assertEquals(1, StringEncoder.encodedLength("\ud800"));
+        assertEquals(2, StringEncoder.encodedLength("\udc00\ud800"));
+        assertEquals(2, StringEncoder.encodedLength("\ud800a"));
+        assertEquals(ALL_CHARS_STRING_BYTES.length, StringEncoder.encodedLength(ALL_CHARS_STRING));
+    }
+
+    @Test
+    public void testSizing() {
+        String[] strings = {"", "a", ALL_CHARS_STRING, ALL_CHARS_STRING.substring(0, 100)};
+        for (BufferSizing sizing : BufferSizing.values()) {
+            encoder.setSizing(sizing);
+            for (String s : strings) {
+                ByteBuffer out = encoder.toNewByteBuffer(s);
+                if (sizing == BufferSizing.EXACT) {
+                    assertEquals(out.limit(), out.capacity());
+                }
+                assertArrayEquals(s.getBytes(StringDecoder.UTF8), Arrays.copyOf(out.array(), out.limit()));
+            }
+        }
+    }
+
+    @Test
+    public void testAdaptiveSizing() {
+        // Short strings always fit the guess
+        assertFalse(StringEncoder.useExactLength(BufferSizing.ADAPTIVE, "\u2262", 64));
+        StringBuilder ascii = new StringBuilder();
+        StringBuilder threeByte = new StringBuilder();
+        for (int i = 0; i < 1000; ++i) {
+            ascii.append('a');
+            threeByte.append(NOT_EQUIVALENT_TO);
+        }
+        assertFalse(StringEncoder.useExactLength(BufferSizing.ADAPTIVE, ascii.toString(), 64));
+        assertTrue(StringEncoder.useExactLength(BufferSizing.ADAPTIVE, threeByte.toString(), 64));
+        assertTrue(StringEncoder.useExactLength(BufferSizing.EXACT, "a", 64));
+        assertFalse(StringEncoder.useExactLength(BufferSizing.GUESS, threeByte.toString(), 64));
+    }
+
     @Test
     public void testLongStringByteArray() {
         byte[] out = encoder.toNewArray(ALL_CHARS_STRING);
@@ -264,6 +381,7 @@ public class StringEncoderTest {
 
             String s = new String(array);
             byte[] utf8 = s.getBytes("UTF-8");
+            assertEquals(utf8.length, StringEncoder.encodedLength(s));
             boolean complete = encoder.encode(s, out);
             assertTrue(complete);
             assertEquals(utf8.length, out.position());
@@ -0,0 +1,149 @@
+package edu.mit.net;
+
+import static org.junit.Assert.*;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SubmissionQueueTest {
+    NIOMessageListener listener;
+
+    @Before
+    public void setUp() {
+        listener = new NIOMessageListener();
+        listener.bind(0);
+    }
+
+    @After
+    public void tearDown() {
+        listener.close();
+    }
+
+    /** Calls execute() from another thread after delayMs. */
+    private Thread executeLater(final Runnable task, final long delayMs) {
+        Thread thread = new Thread() {
+            public void run() {
+                try {
+                    Thread.sleep(delayMs);
+                } catch (InterruptedException e) { throw new RuntimeException(e); }
+                listener.execute(task);
+            }
+        };
+        thread.start();
+        return thread;
+    }
+
+    @Test
+    public void testExecuteWakesEventLoop() throws InterruptedException {
+        WaitStrategy[] strategies = {WaitStrategy.BLOCKING, WaitStrategy.BUSY_SPIN,
+                new WaitStrategy(1000, 1000)};
+        for (WaitStrategy strategy : strategies) {
+            listener.setWaitStrategy(strategy);
+            long wakeups = listener.getSubmissionWakeups();
+            final Thread loop = Thread.currentThread();
+            final boolean[] ran = new boolean[1];
+            // Runs on the event loop: the interrupt makes it return null
+            Thread producer = executeLater(new Runnable() {
+                public void run() {
+                    ran[0] = Thread.currentThread() == loop;
+                    loop.interrupt();
+                }
+            }, 20);
+            try {
+                assertNull(listener.blockForNextEvent());
+            } finally {
+                Thread.interrupted();
+            }
+            producer.join();
+            assertTrue(strategy.toString(), ran[0]);
+            // Spinning sees the task without a wakeup
+            long expected = strategy == WaitStrategy.BUSY_SPIN ? 0 : 1;
+            assertEquals(strategy.toString(), expected, listener.getSubmissionWakeups() - wakeups);
+        }
+        assertEquals(3, listener.getSubmitted());
+    }
+
+    @Test
+    public void testGetNextEventRunsTasks() {
+        final int[] ran = new int[1];
+        for (int i = 0; i < SubmissionQueue.MAX_BATCH + 1; ++i) {
+            listener.execute(new Runnable() {
+                public void run() {
+                    ran[0] += 1;
+                }
+            });
+        }
+        // Nothing is waiting in select(), so nothing needs waking
+        assertEquals(0, listener.getSubmissionWakeups());
+        assertNull(listener.getNextEvent());
+        assertEquals(SubmissionQueue.MAX_BATCH, ran[0]);
+        assertNull(listener.getNextEvent());
+        assertEquals(SubmissionQueue.MAX_BATCH + 1, ran[0]);
+    }
+
+    @Test
+    public void testWriteFromWorkers() throws IOException, InterruptedException {
+        Socket client = new Socket(InetAddress.getByName(null), listener.getLocalPort());
+        final MessageConnection connection = listener.blockForNextEvent().connection;
+
+        final Thread loop = new Thread() {
+            public void run() {
+                while (listener.blockForNextEvent() != null) {}
+            }
+        };
+        loop.start();
+
+        final int workers = 4;
+        final int messages = 5000;
+        Thread[] threads = new Thread[workers];
+        for (int i = 0; i < workers; ++i) {
+            final byte worker = (byte) i;
+            threads[i] = new Thread() {
+                public void run() {
+                    for (int j = 0; j < messages; ++j) {
+                        listener.write(connection, new byte[]{worker, (byte) (j >> 8), (byte) j});
+                    }
+                }
+            };
+            threads[i].start();
+        }
+
+        // Each worker's messages arrive in the order it wrote them
+        DataInputStream in = new DataInputStream(client.getInputStream());
+        int[] next = new int[workers];
+        byte[] frame = new byte[7];
+        for (int i = 0; i < workers * messages; ++i) {
+            in.readFully(frame);
+            assertEquals(3, frame[0]);
+            int worker = frame[4];
+            assertEquals(next[worker] & 0xffff, ((frame[5] & 0xff) << 8) | (frame[6] & 0xff));
+            next[worker] += 1;
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        loop.interrupt();
+        loop.join();
+
+        assertEquals(workers * messages, listener.getSubmitted());
+        assertTrue(listener.getSubmissionWakeups() <= listener.getSubmitted());
+        client.close();
+    }
+
+    @Test
+    public void testWriteAfterClose() throws IOException {
+        Socket client = new Socket(InetAddress.getByName(null), listener.getLocalPort());
+        MessageConnection connection = listener.blockForNextEvent().connection;
+        connection.close();
+        // The response arrives after the client left: dropped
+        listener.write(connection, new byte[]{1});
+        assertNull(listener.getNextEvent());
+        client.close();
+    }
+}
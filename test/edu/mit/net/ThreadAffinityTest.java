@@ -0,0 +1,60 @@
+package edu.mit.net;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class ThreadAffinityTest {
+    @Test
+    public void testParseCpuList() {
+        assertTrue(Arrays.equals(new int[0], ThreadAffinity.parseCpuList("")));
+        assertTrue(Arrays.equals(new int[]{1}, ThreadAffinity.parseCpuList("1")));
+        assertTrue(Arrays.equals(new int[]{0, 1, 2, 3, 8},
+                ThreadAffinity.parseCpuList("0-3,8")));
+        assertTrue(Arrays.equals(new int[]{2, 5, 6},
+                ThreadAffinity.parseCpuList(" 2 , 5 - 6 ")));
+
+        for (String bad : new String[]{"x", "1-", "3-1", "-1", "1,,a"}) {
+            try {
+                ThreadAffinity.parseCpuList(bad);
+                fail("expected IllegalArgumentException: " + bad);
+            } catch (IllegalArgumentException e) {}
+        }
+    }
+
+    @Test
+    public void testNotConfigured() {
+        ThreadAffinity affinity = ThreadAffinity.forRole("ThreadAffinityTest.unset");
+        assertFalse(affinity.isEnabled());
+        assertEquals(-1, affinity.pinCurrentThread());
+    }
+
+    @Test
+    public void testPin() throws InterruptedException {
+        if (!ThreadAffinity.isSupported()) {
+            // Without the native classes everything is a no-op
+            assertEquals(-1, ThreadAffinity.currentCpu());
+            assertFalse(ThreadAffinity.pinCurrentThread(new int[]{0}));
+            assertEquals(-1, new ThreadAffinity(new int[]{0}).pinCurrentThread());
+            return;
+        }
+
+        // Pin a new thread so the test runner's thread keeps its affinity
+        final int[] result = new int[3];
+        Thread thread = new Thread() {
+            public void run() {
+                ThreadAffinity affinity = new ThreadAffinity(new int[]{0});
+                result[0] = affinity.pinCurrentThread();
+                result[1] = ThreadAffinity.currentCpu();
+                result[2] = ThreadAffinity.pinCurrentThread(new int[]{1 << 20}) ? 1 : 0;
+            }
+        };
+        thread.start();
+        thread.join();
+        assertEquals(0, result[0]);
+        assertEquals(0, result[1]);
+        assertEquals(0, result[2]);
+    }
+}
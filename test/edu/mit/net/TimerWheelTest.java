@@ -0,0 +1,161 @@
+package edu.mit.net;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class TimerWheelTest {
+    private static final long TICK = 1000000;
+
+    // Ticks of 1 ms starting at time 0, with 8 slots so timers go round the wheel
+    TimerWheel wheel;
+    ArrayList<String> expired;
+
+    @Before
+    public void setUp() {
+        wheel = new TimerWheel(TICK, 8, 0);
+        expired = new ArrayList<String>();
+    }
+
+    private class NamedTimer extends TimerWheel.Timer {
+        NamedTimer(String name) { this.name = name; }
+
+        protected void expired() { TimerWheelTest.this.expired.add(name); }
+
+        final String name;
+    }
+
+    @Test
+    public void testExpire() {
+        NamedTimer timer = new NamedTimer("a");
+        wheel.schedule(timer, 5, TimeUnit.MILLISECONDS);
+        assertTrue(timer.isScheduled());
+        assertEquals(1, wheel.size());
+
+        // Due in tick 6: 5 ms after the end of the current tick
+        assertEquals(0, wheel.expire(5 * TICK));
+        assertEquals(0, wheel.expire(6 * TICK - 1));
+        assertEquals(1, wheel.expire(6 * TICK));
+        assertEquals("[a]", expired.toString());
+        assertFalse(timer.isScheduled());
+        assertEquals(0, wheel.size());
+        assertEquals(0, wheel.expire(100 * TICK));
+    }
+
+    @Test
+    public void testNeverEarly() {
+        // Scheduled near the end of tick 0: 1 ms must not expire in tick 1
+        wheel.expire(TICK - 1);
+        wheel.schedule(new NamedTimer("a"), 1, TimeUnit.MILLISECONDS);
+        assertEquals(0, wheel.expire(2 * TICK - 1));
+        assertEquals(1, wheel.expire(2 * TICK));
+
+        // 0 expires in the next tick
+        wheel.schedule(new NamedTimer("b"), 0, TimeUnit.MILLISECONDS);
+        assertEquals(1, wheel.expire(3 * TICK));
+        assertEquals("[a, b]", expired.toString());
+    }
+
+    @Test
+    public void testCancel() {
+        NamedTimer timer = new NamedTimer("a");
+        assertFalse(timer.cancel());
+        wheel.schedule(timer, 2, TimeUnit.MILLISECONDS);
+        wheel.schedule(new NamedTimer("b"), 2, TimeUnit.MILLISECONDS);
+        assertTrue(timer.cancel());
+        assertFalse(timer.cancel());
+        assertEquals(1, wheel.size());
+        assertEquals(1, wheel.expire(10 * TICK));
+        assertEquals("[b]", expired.toString());
+    }
+
+    @Test
+    public void testReschedule() {
+        NamedTimer timer = new NamedTimer("a");
+        wheel.schedule(timer, 2, TimeUnit.MILLISECONDS);
+        wheel.schedule(timer, 5, TimeUnit.MILLISECONDS);
+        assertEquals(1, wheel.size());
+        assertEquals(0, wheel.expire(5 * TICK));
+        assertEquals(1, wheel.expire(6 * TICK));
+
+        // A timer can be reused once expired
+        wheel.schedule(timer, 1, TimeUnit.MILLISECONDS);
+        assertEquals(1, wheel.expire(8 * TICK));
+        assertEquals("[a, a]", expired.toString());
+    }
+
+    @Test
+    public void testRounds() {
+        // 20 ticks away on a wheel of 8 slots: its slot comes round twice first
+        wheel.schedule(new NamedTimer("a"), 20, TimeUnit.MILLISECONDS);
+        for (long tick = 1; tick < 21; ++tick) {
+            assertEquals(0, wheel.expire(tick * TICK));
+        }
+        assertEquals(1, wheel.expire(21 * TICK));
+    }
+
+    @Test
+    public void testLongJump() {
+        // More than a turn of the wheel in one expire
+        wheel.schedule(new NamedTimer("a"), 3, TimeUnit.MILLISECONDS);
+        wheel.schedule(new NamedTimer("b"), 30, TimeUnit.MILLISECONDS);
+        wheel.schedule(new NamedTimer("c"), 300, TimeUnit.MILLISECONDS);
+        assertEquals(2, wheel.expire(100 * TICK));
+        assertEquals("[a, b]", expired.toString());
+        assertEquals(1, wheel.size());
+    }
+
+    @Test
+    public void testExpiredChangesTimers() {
+        final NamedTimer other = new NamedTimer("other");
+        final NamedTimer later = new NamedTimer("later");
+        wheel.schedule(new NamedTimer("a") {
+            protected void expired() {
+                super.expired();
+                // Both due in the same tick as this one
+                assertTrue(other.cancel());
+                wheel.schedule(later, 0, TimeUnit.MILLISECONDS);
+            }
+        }, 1, TimeUnit.MILLISECONDS);
+        wheel.schedule(other, 1, TimeUnit.MILLISECONDS);
+        wheel.schedule(later, 1, TimeUnit.MILLISECONDS);
+
+        // later moved to the tick after this expire
+        assertEquals(1, wheel.expire(2 * TICK));
+        assertEquals("[a]", expired.toString());
+        assertEquals(1, wheel.size());
+        assertEquals(1, wheel.expire(3 * TICK));
+        assertEquals("[a, later]", expired.toString());
+    }
+
+    @Test
+    public void testNanosToNextTick() {
+        assertEquals(-1, wheel.nanosToNextTick(0));
+        wheel.schedule(new NamedTimer("a"), 5, TimeUnit.MILLISECONDS);
+        assertEquals(TICK, wheel.nanosToNextTick(0));
+        assertEquals(TICK / 4, wheel.nanosToNextTick(TICK * 3 / 4));
+        wheel.expire(TICK);
+        assertEquals(TICK, wheel.nanosToNextTick(TICK));
+        // expire() is late
+        assertEquals(0, wheel.nanosToNextTick(3 * TICK));
+    }
+
+    @Test
+    public void testTwoWheels() {
+        NamedTimer timer = new NamedTimer("a");
+        wheel.schedule(timer, 1, TimeUnit.MILLISECONDS);
+        try {
+            new TimerWheel(TICK, 8, 0).schedule(timer, 1, TimeUnit.MILLISECONDS);
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {}
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testSlotsPowerOfTwo() {
+        new TimerWheel(TICK, 6, 0);
+    }
+}
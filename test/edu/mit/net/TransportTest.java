@@ -0,0 +1,258 @@
+package edu.mit.net;
+
+import static org.junit.Assert.*;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+/** Runs the same echo checks against each transport this platform supports. */
+public class TransportTest {
+    private static ArrayList<String> supportedTransports() {
+        ArrayList<String> transports = new ArrayList<String>();
+        for (String transport : new String[]{Transport.NIO, Transport.EPOLL,
+                Transport.URING}) {
+            if (Transport.isSupported(transport)) transports.add(transport);
+        }
+        return transports;
+    }
+
+    private static byte[] frame(int length, int firstByte) {
+        byte[] frame = new byte[4 + length];
+        frame[0] = (byte) length;
+        frame[1] = (byte) (length >> 8);
+        frame[2] = (byte) (length >> 16);
+        frame[3] = (byte) (length >> 24);
+        for (int i = 0; i < length; ++i) {
+            frame[4 + i] = (byte) (firstByte + i);
+        }
+        return frame;
+    }
+
+    /** Blocks until the listener returns a message. */
+    private static MessageListener.Event nextMessage(MessageListener listener) {
+        MessageListener.Event e = listener.blockForNextEvent();
+        assertNotNull(e);
+        assertNotNull("connection closed", e.message);
+        return e;
+    }
+
+    /** Writes bytes from another thread, so the listener can read while it blocks. */
+    private static Thread writeLater(final OutputStream out, final byte[] bytes) {
+        Thread writer = new Thread() {
+            public void run() {
+                try {
+                    out.write(bytes);
+                } catch (IOException e) { throw new RuntimeException(e); }
+            }
+        };
+        writer.start();
+        return writer;
+    }
+
+    private static void checkEcho(String transport) throws IOException, InterruptedException {
+        MessageListener listener = Transport.bind(transport, 0, WaitStrategy.BLOCKING);
+        Socket client = new Socket(InetAddress.getByName(null), listener.getLocalPort());
+        OutputStream out = client.getOutputStream();
+        DataInputStream in = new DataInputStream(client.getInputStream());
+
+        MessageListener.Event e = listener.blockForNextEvent();
+        MessageConnection connection = e.connection;
+        assertNull(e.message);
+
+        // Two messages in one write
+        byte[] first = frame(1, 42);
+        byte[] second = frame(2, 1);
+        byte[] both = new byte[first.length + second.length];
+        System.arraycopy(first, 0, both, 0, first.length);
+        System.arraycopy(second, 0, both, first.length, second.length);
+        out.write(both);
+        e = nextMessage(listener);
+        assertSame(connection, e.connection);
+        assertEquals(1, e.message.length);
+        assertEquals(42, e.message[0]);
+        e = nextMessage(listener);
+        assertEquals(2, e.message.length);
+        assertEquals(2, e.message[1]);
+
+        // A message split across writes
+        byte[] split = frame(4, 0);
+        out.write(split, 0, 6);
+        assertNull(listener.getNextEvent());
+        out.write(split, 6, split.length - 6);
+        e = nextMessage(listener);
+        assertEquals(4, e.message.length);
+
+        // Larger than the read buffers and the socket buffers: the echo must be queued and
+        // finished by the listener while the client reads
+        final int length = 4 << 20;
+        byte[] big = frame(length, 7);
+        Thread writer = writeLater(out, big);
+        e = nextMessage(listener);
+        writer.join();
+        assertEquals(length, e.message.length);
+        assertEquals((byte) (7 + length - 1), e.message[length - 1]);
+        e.connection.write(e.message);
+
+        final byte[] echo = new byte[big.length];
+        final DataInputStream input = in;
+        Thread reader = new Thread() {
+            public void run() {
+                try {
+                    input.readFully(echo);
+                } catch (IOException e) { throw new RuntimeException(e); }
+            }
+        };
+        reader.start();
+        while (reader.isAlive()) {
+            assertNull(listener.getNextEvent());
+            reader.join(1);
+        }
+        assertArrayEquals(big, echo);
+
+        // Closing the client is an event without a message
+        client.close();
+        e = listener.blockForNextEvent();
+        assertSame(connection, e.connection);
+        assertNull(e.message);
+        listener.close();
+    }
+
+    @Test
+    public void testEcho() throws IOException, InterruptedException {
+        for (String transport : supportedTransports()) {
+            checkEcho(transport);
+        }
+    }
+
+    @Test
+    public void testManyConnections() throws IOException {
+        for (String transport : supportedTransports()) {
+            MessageListener listener = Transport.bind(transport, 0, WaitStrategy.BLOCKING);
+            Socket[] clients = new Socket[20];
+            for (int i = 0; i < clients.length; ++i) {
+                clients[i] = new Socket(InetAddress.getByName(null), listener.getLocalPort());
+                clients[i].getOutputStream().write(frame(1, i));
+            }
+
+            int connected = 0;
+            int messages = 0;
+            while (messages < clients.length) {
+                MessageListener.Event e = listener.blockForNextEvent();
+                if (e.message == null) {
+                    connected += 1;
+                } else {
+                    messages += 1;
+                    e.connection.write(e.message);
+                }
+            }
+            assertEquals(transport, clients.length, connected);
+
+            for (int i = 0; i < clients.length; ++i) {
+                DataInputStream in = new DataInputStream(clients[i].getInputStream());
+                byte[] echo = new byte[5];
+                in.readFully(echo);
+                assertEquals(i, echo[4]);
+                clients[i].close();
+            }
+            listener.close();
+        }
+    }
+
+    @Test
+    public void testSystemCalls() throws IOException {
+        for (String transport : supportedTransports()) {
+            MessageListener listener = Transport.bind(transport, 0, WaitStrategy.BLOCKING);
+            if (!(listener instanceof SystemCallCounter)) {
+                listener.close();
+                continue;
+            }
+            SystemCallCounter counter = (SystemCallCounter) listener;
+            Socket client = new Socket(InetAddress.getByName(null), listener.getLocalPort());
+            assertNull(listener.blockForNextEvent().message);
+
+            long before = counter.getSystemCalls();
+            client.getOutputStream().write(frame(1, 5));
+            MessageListener.Event e = nextMessage(listener);
+            e.connection.write(e.message);
+            new DataInputStream(client.getInputStream()).readFully(new byte[5]);
+            assertTrue(transport, counter.getSystemCalls() > before);
+
+            client.close();
+            listener.close();
+        }
+    }
+
+    @Test
+    public void testFallback() {
+        assertTrue(Transport.isSupported(Transport.NIO));
+        // Unsupported transports fall back to nio
+        for (String transport : new String[]{Transport.EPOLL, Transport.URING}) {
+            MessageListener listener = Transport.bind(transport, 0, WaitStrategy.BLOCKING);
+            assertEquals(transport, !Transport.isSupported(transport),
+                    listener instanceof NIOMessageListener);
+            listener.close();
+        }
+
+        try {
+            Transport.isSupported("carrier pigeon");
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {}
+    }
+
+    @Test
+    public void testBatches() throws IOException, InterruptedException {
+        for (String transport : supportedTransports()) {
+            MessageListener listener = Transport.bind(transport, 0, WaitStrategy.BLOCKING);
+            Socket client = new Socket(InetAddress.getByName(null), listener.getLocalPort());
+            MessageListener.Event[] events = new MessageListener.Event[8];
+            assertEquals(1, listener.blockForNextEvents(events));
+            assertNull(events[0].message);
+
+            // Messages arrive in batches; their echoes go out when the next batch is requested
+            Thread writer = writeLater(client.getOutputStream(), frame(1, 0));
+            int messages = 0;
+            while (messages == 0) {
+                int count = listener.blockForNextEvents(events);
+                for (int i = 0; i < count; ++i) {
+                    assertNotNull(events[i].message);
+                    events[i].connection.write(events[i].message);
+                    messages += 1;
+                }
+            }
+            writer.join();
+            assertEquals(0, listener.getNextEvents(events));
+            byte[] echo = new byte[5];
+            new DataInputStream(client.getInputStream()).readFully(echo);
+            assertEquals(0, echo[4]);
+
+            Thread.currentThread().interrupt();
+            try {
+                assertEquals(transport, 0, listener.blockForNextEvents(events));
+            } finally {
+                Thread.interrupted();
+            }
+            client.close();
+            listener.close();
+        }
+    }
+
+    @Test
+    public void testInterrupt() {
+        for (String transport : supportedTransports()) {
+            MessageListener listener = Transport.bind(transport, 0, WaitStrategy.BLOCKING);
+            Thread.currentThread().interrupt();
+            try {
+                assertNull(listener.blockForNextEvent());
+            } finally {
+                Thread.interrupted();
+            }
+            listener.close();
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package edu.mit.net;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.Pipe;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class WaitStrategyTest {
+    Pipe pipe;
+    Selector selector;
+
+    @Before
+    public void setUp() throws IOException {
+        pipe = Pipe.open();
+        pipe.source().configureBlocking(false);
+        selector = Selector.open();
+        pipe.source().register(selector, SelectionKey.OP_READ);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        selector.close();
+        pipe.source().close();
+        pipe.sink().close();
+    }
+
+    /** Writes a byte to the pipe from another thread after delayMs. */
+    private Thread writeLater(final long delayMs) {
+        Thread writer = new Thread() {
+            public void run() {
+                try {
+                    Thread.sleep(delayMs);
+                    pipe.sink().write(ByteBuffer.wrap(new byte[]{1}));
+                } catch (Exception e) { throw new RuntimeException(e); }
+            }
+        };
+        writer.start();
+        return writer;
+    }
+
+    @Test
+    public void testParse() {
+        assertSame(WaitStrategy.BLOCKING, WaitStrategy.parse("block"));
+        assertSame(WaitStrategy.BUSY_SPIN, WaitStrategy.parse("spin"));
+        WaitStrategy hybrid = WaitStrategy.parse("hybrid:50,200");
+        assertEquals(50000, hybrid.getSpinNanos());
+        assertEquals(200000, hybrid.getYieldNanos());
+        assertEquals("hybrid:50,200", hybrid.toString());
+
+        for (String bad : new String[]{"", "hybrid:", "hybrid:1", "hybrid:a,b", "hybrid:-1,0"}) {
+            try {
+                WaitStrategy.parse(bad);
+                fail("expected IllegalArgumentException: " + bad);
+            } catch (IllegalArgumentException e) {}
+        }
+    }
+
+    @Test
+    public void testStrategiesSeeEvents() throws IOException, InterruptedException {
+        WaitStrategy[] strategies = {WaitStrategy.BLOCKING, WaitStrategy.BUSY_SPIN,
+                new WaitStrategy(1000, 1000), new WaitStrategy(0, 100000000)};
+        for (WaitStrategy strategy : strategies) {
+            // The hybrid strategies give up spinning before the write, then block
+            Thread writer = writeLater(20);
+            assertEquals(strategy.toString(), 1, strategy.select(selector));
+            writer.join();
+
+            selector.selectedKeys().clear();
+            pipe.source().read(ByteBuffer.allocate(1));
+        }
+    }
+
+    @Test
+    public void testTimeout() throws IOException {
+        WaitStrategy[] strategies = {WaitStrategy.BLOCKING, WaitStrategy.BUSY_SPIN,
+                new WaitStrategy(1000, 1000), new WaitStrategy(0, Long.MAX_VALUE)};
+        for (WaitStrategy strategy : strategies) {
+            long start = System.nanoTime();
+            assertEquals(strategy.toString(), 0, strategy.select(selector, null, 20000000));
+            long elapsed = System.nanoTime() - start;
+            assertTrue(strategy + " returned after " + elapsed + " ns", elapsed >= 20000000);
+        }
+        assertEquals(0, WaitStrategy.BLOCKING.select(selector, null, 0));
+    }
+
+    @Test
+    public void testSpinInterrupted() throws IOException {
+        Thread.currentThread().interrupt();
+        try {
+            assertEquals(0, WaitStrategy.BUSY_SPIN.select(selector));
+            assertEquals(0, new WaitStrategy(0, Long.MAX_VALUE).select(selector));
+        } finally {
+            Thread.interrupted();
+        }
+    }
+
+    @Test
+    public void testListener() throws IOException, InterruptedException {
+        NIOMessageListener listener = new NIOMessageListener();
+        listener.bind(0);
+        listener.setWaitStrategy(WaitStrategy.BUSY_SPIN);
+        Socket client = new Socket(InetAddress.getByName(null), listener.getLocalPort());
+        assertNull(listener.blockForNextEvent().message);
+
+        client.getOutputStream().write(new byte[]{1, 0, 0, 0, 42});
+        assertEquals(42, listener.blockForNextEvent().message[0]);
+        client.close();
+        listener.close();
+    }
+}
@@ -0,0 +1,159 @@
+package edu.mit.net;
+
+import static org.junit.Assert.*;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class WorkerPoolTest {
+    NIOMessageListener listener;
+    Thread loop;
+    // Messages returned as events instead of going to the workers
+    volatile int messageEvents;
+
+    @Before
+    public void setUp() {
+        listener = new NIOMessageListener();
+        listener.bind(0);
+        loop = new Thread() {
+            public void run() {
+                MessageListener.Event e;
+                while ((e = listener.blockForNextEvent()) != null) {
+                    if (e.message != null) messageEvents += 1;
+                }
+            }
+        };
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        loop.interrupt();
+        loop.join();
+        listener.close();
+    }
+
+    /** @returns a message containing value, big endian, after the listener's native order
+    length. */
+    private static byte[] frame(int value) {
+        byte[] frame = new byte[8];
+        frame[0] = 4;
+        frame[4] = (byte) (value >> 24);
+        frame[5] = (byte) (value >> 16);
+        frame[6] = (byte) (value >> 8);
+        frame[7] = (byte) value;
+        return frame;
+    }
+
+    private static int value(byte[] bytes, int offset) {
+        return ((bytes[offset] & 0xff) << 24) | ((bytes[offset+1] & 0xff) << 16) |
+                ((bytes[offset+2] & 0xff) << 8) | (bytes[offset+3] & 0xff);
+    }
+
+    /** Odd values take longer, so the workers finish requests out of order. Values ending in 9
+    get no response. */
+    private static final class SlowOddHandler implements WorkerPool.Handler {
+        public byte[] handle(byte[] request) {
+            int value = value(request, 0);
+            if ((value & 1) != 0) {
+                try {
+                    Thread.sleep(1);
+                } catch (InterruptedException e) { throw new RuntimeException(e); }
+            }
+            if (value % 10 == 9) return null;
+            return request;
+        }
+    }
+
+    @Test
+    public void testResponsesInRequestOrder() throws IOException, InterruptedException {
+        WorkerPool workers = new WorkerPool(3, new SlowOddHandler());
+        assertEquals(3, workers.getThreads());
+        listener.setWorkerPool(workers);
+        loop.start();
+
+        final int connections = 5;
+        final int requests = 100;
+        Socket[] clients = new Socket[connections];
+        for (int i = 0; i < connections; ++i) {
+            clients[i] = new Socket(InetAddress.getByName(null), listener.getLocalPort());
+        }
+        // Pipelined: all requests are outstanding at once
+        for (int j = 0; j < requests; ++j) {
+            for (int i = 0; i < connections; ++i) {
+                clients[i].getOutputStream().write(frame(i * requests + j));
+            }
+        }
+
+        byte[] response = new byte[8];
+        for (int i = 0; i < connections; ++i) {
+            DataInputStream in = new DataInputStream(clients[i].getInputStream());
+            for (int j = 0; j < requests; ++j) {
+                if (j % 10 == 9) continue;
+                in.readFully(response);
+                assertEquals(4, response[0]);
+                assertEquals(i * requests + j, value(response, 4));
+            }
+        }
+        for (Socket client : clients) {
+            client.close();
+        }
+        // The last requests get no response: wait for them to be handled
+        long deadline = System.currentTimeMillis() + 5000;
+        while (workers.getHandled() < connections * requests &&
+                System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        workers.shutdown();
+        assertEquals(connections * requests, workers.getHandled());
+        assertEquals(0, messageEvents);
+    }
+
+    @Test
+    public void testSharedByListeners() throws IOException, InterruptedException {
+        final NIOMessageListener other = new NIOMessageListener();
+        other.bind(0);
+        Thread otherLoop = new Thread() {
+            public void run() {
+                while (other.blockForNextEvent() != null) {}
+            }
+        };
+        WorkerPool workers = new WorkerPool(2, new SlowOddHandler());
+        listener.setWorkerPool(workers);
+        other.setWorkerPool(workers);
+        loop.start();
+        otherLoop.start();
+
+        // Each response goes back through the listener that read the request
+        Socket a = new Socket(InetAddress.getByName(null), listener.getLocalPort());
+        Socket b = new Socket(InetAddress.getByName(null), other.getLocalPort());
+        a.getOutputStream().write(frame(1));
+        b.getOutputStream().write(frame(2));
+        byte[] response = new byte[8];
+        new DataInputStream(a.getInputStream()).readFully(response);
+        assertEquals(1, value(response, 4));
+        new DataInputStream(b.getInputStream()).readFully(response);
+        assertEquals(2, value(response, 4));
+
+        a.close();
+        b.close();
+        otherLoop.interrupt();
+        otherLoop.join();
+        other.close();
+        workers.shutdown();
+        assertEquals(2, workers.getHandled());
+    }
+
+    @Test
+    public void testBadThreads() {
+        try {
+            new WorkerPool(0, new SlowOddHandler());
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {}
+    }
+}